@@ -5,7 +5,7 @@ import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
 import android.annotation.SuppressLint;
 import android.content.pm.PackageManager;
-import android.net.Uri;
+import android.graphics.Bitmap;
 import android.os.Environment;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -29,6 +29,7 @@ import java.util.concurrent.TimeUnit;
 
 public class MainFragment extends SimpleCameraFragment {
   private static final int REQUEST_WRITE_EXTERNAL_PERMISSION = 3;
+  private static final int THUMBNAIL_FALLBACK_SIZE = 512;
   private ImageView imageView;
   private View capturePhotoView;
   private ImageView toggleFlashTypeView;
@@ -164,9 +165,18 @@ public class MainFragment extends SimpleCameraFragment {
     return overlay;
   }
 
+  @Nullable
   @Override
-  protected void onPhotoCaptured(@NonNull File photo) {
-    imageView.setImageURI(Uri.fromFile(photo));
+  protected Size getThumbnailSize() {
+    if(imageView.getWidth() <= 0 || imageView.getHeight() <= 0) {
+      return new Size(THUMBNAIL_FALLBACK_SIZE, THUMBNAIL_FALLBACK_SIZE);
+    }
+    return new Size(imageView.getWidth(), imageView.getHeight());
+  }
+
+  @Override
+  protected void onThumbnailReady(@NonNull Bitmap thumbnail) {
+    imageView.setImageBitmap(thumbnail);
     imageView.animate()
         .alpha(1)
         .translationX(0)
@@ -196,6 +206,11 @@ public class MainFragment extends SimpleCameraFragment {
         .start();
   }
 
+  @Override
+  protected void onPhotoCaptured(@NonNull File photo) {
+    // the thumbnail is already showing, so there's no need to decode the photo again
+  }
+
   @Override
   protected void onPhotoCaptureError(@NonNull Throwable t) {
     Snackbar.make(capturePhotoView, "Error taking photo", Snackbar.LENGTH_LONG).show();
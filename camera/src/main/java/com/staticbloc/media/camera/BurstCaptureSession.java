@@ -0,0 +1,376 @@
+package com.staticbloc.media.camera;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The photos of a burst (see {@link SimpleCamera#takeBurst(int, long, RequestFactory)}). Each frame is reported
+ * to the {@link OnBurstFrameListener} as soon as it is processed, and {@link #get()} returns every frame once the burst
+ * is over, with {@code null} for the frames that failed or were cancelled.
+ *
+ * The frames are captured as pipelined photos: the next frame is taken as soon as the camera is done with the previous
+ * one, while the previous one is still being processed.
+ */
+public final class BurstCaptureSession<T> extends CaptureSession<List<T>> {
+  private static final int PENDING = 0;
+  private static final int CAPTURED = 1;
+  private static final int FAILED = 2;
+  private static final int CANCELLED = 3;
+
+  private final int frameCount;
+  private final long intervalMillis;
+  private final RequestFactory<T> requestFactory;
+
+  private final Object[] photos;
+  private final Throwable[] errors;
+  private final int[] frameStates;
+  private final long[] requestTimes;
+  private final long[] latencies;
+  private final List<PhotoCaptureSession<T>> frameSessions = new ArrayList<>();
+
+  private OnBurstFrameListener<T> frameListener;
+  // bumped by every setOnFrameListener, so that only the latest listener gets installed
+  private int frameListenerVersion;
+  private Handler callbackHandler;
+
+  private int framesResolved;
+  private int framesCaptured;
+  private int framesFailed;
+  private long firstFrameTime = SimpleCamera.NOT_SET;
+  private long lastFrameTime = SimpleCamera.NOT_SET;
+
+  /*package*/ BurstCaptureSession(int frameCount, long intervalMillis, @NonNull RequestFactory<T> requestFactory) {
+    if(frameCount <= 0) {
+      throw new IllegalArgumentException("A burst needs at least one frame");
+    }
+    if(intervalMillis < 0) {
+      throw new IllegalArgumentException("intervalMillis can't be negative");
+    }
+
+    this.frameCount = frameCount;
+    this.intervalMillis = intervalMillis;
+    this.requestFactory = requestFactory;
+
+    photos = new Object[frameCount];
+    errors = new Throwable[frameCount];
+    frameStates = new int[frameCount];
+    requestTimes = new long[frameCount];
+    latencies = new long[frameCount];
+    Arrays.fill(requestTimes, SimpleCamera.NOT_SET);
+    Arrays.fill(latencies, SimpleCamera.NOT_SET);
+  }
+
+  /**
+   * Frames that were already processed when the listener is set are reported to it first, in order, on the callback handler
+   * (before this returns if it is called on that handler's thread). Frames that are processed after that follow, and
+   * {@link OnBurstFrameListener#onBurstFinished(BurstCaptureSession)} always comes last. The previous listener isn't
+   * notified of anything once this is called.
+   */
+  public void setOnFrameListener(@Nullable final OnBurstFrameListener<T> frameListener) {
+    Handler handler;
+    final int version;
+    synchronized(this) {
+      handler = callbackHandler;
+      version = ++frameListenerVersion;
+      // frames that are processed until the new listener is installed are replayed to it instead
+      this.frameListener = null;
+    }
+
+    if(handler == null || Looper.myLooper() == handler.getLooper()) {
+      installFrameListener(frameListener, version);
+    }
+    else {
+      handler.post(new Runnable() {
+        @Override
+        public void run() {
+          installFrameListener(frameListener, version);
+        }
+      });
+    }
+  }
+
+  /**
+   * Stops taking frames, and cancels the frames that are being processed.
+   */
+  @Override
+  public boolean cancel() {
+    boolean notCancelledYet = super.cancel();
+
+    List<PhotoCaptureSession<T>> sessions;
+    synchronized(this) {
+      sessions = new ArrayList<>(frameSessions);
+    }
+    for(PhotoCaptureSession<T> session : sessions) {
+      session.cancel();
+    }
+
+    return notCancelledYet;
+  }
+
+  public int getFrameCount() {
+    return frameCount;
+  }
+
+  public long getIntervalMillis() {
+    return intervalMillis;
+  }
+
+  public synchronized int getFramesCaptured() {
+    return framesCaptured;
+  }
+
+  /**
+   * @return the number of frames that failed or were cancelled
+   */
+  public synchronized int getFramesFailed() {
+    return framesFailed;
+  }
+
+  /**
+   * @return the rate at which frames came out of processing, from the first one to the last one so far,
+   * or -1 if fewer than two were captured
+   */
+  public synchronized float getFramesPerSecond() {
+    if(framesCaptured < 2 || lastFrameTime <= firstFrameTime) {
+      return -1;
+    }
+    return (framesCaptured - 1) * 1000f / (lastFrameTime - firstFrameTime);
+  }
+
+  /**
+   * @return the time from when frame {@code index} was requested until it was processed, or -1 if it wasn't captured (yet)
+   */
+  public synchronized long getFrameLatencyMillis(int index) {
+    if(index < 0 || index >= frameCount) {
+      throw new IndexOutOfBoundsException("There is no frame " + index + " in a burst of " + frameCount);
+    }
+    return latencies[index];
+  }
+
+  /**
+   * @return the average {@link #getFrameLatencyMillis(int)} of the frames that were captured, or -1 if none were yet
+   */
+  public synchronized long getAverageFrameLatencyMillis() {
+    if(framesCaptured == 0) {
+      return -1;
+    }
+
+    long total = 0;
+    for(long latency : latencies) {
+      if(latency != SimpleCamera.NOT_SET) {
+        total += latency;
+      }
+    }
+    return total / framesCaptured;
+  }
+
+  /**
+   * @return the longest {@link #getFrameLatencyMillis(int)} of the frames that were captured, or -1 if none were yet
+   */
+  public synchronized long getMaxFrameLatencyMillis() {
+    long max = -1;
+    for(long latency : latencies) {
+      max = Math.max(max, latency);
+    }
+    return max;
+  }
+
+  /*package*/ synchronized void init(@NonNull Handler callbackHandler) {
+    this.callbackHandler = callbackHandler;
+  }
+
+  /**
+   * Creates the request for frame {@code index}, which reports back to this burst.
+   *
+   * @return null if the burst was cancelled, in which case the frame is too
+   */
+  @Nullable
+  /*package*/ PhotoCaptureRequest<T> createFrameRequest(final int index) {
+    if(isCancelled()) {
+      postFrameCancelled(index);
+      return null;
+    }
+
+    PhotoCaptureRequest<T> request = requestFactory.createRequest(index);
+    final PhotoCaptureRequest.PhotoCapturedListener<T> photoCapturedListener = request.getPhotoCapturedListener();
+    // every frame has to restart the preview, or the next one can't be taken
+    request.restartPreview(true)
+        .pipelined(true)
+        .photoReadyListener(new PhotoCaptureRequest.PhotoCapturedListener<T>() {
+          @Override
+          public void onPhotoCaptured(@Nullable Throwable t, @Nullable T photo) {
+            if(photoCapturedListener != null) photoCapturedListener.onPhotoCaptured(t, photo);
+            onFrame(index, t == null ? CAPTURED : FAILED, t, photo);
+          }
+
+          @Override
+          public void onCancelled() {
+            if(photoCapturedListener != null) photoCapturedListener.onCancelled();
+            onFrame(index, CANCELLED, null, null);
+          }
+        });
+
+    synchronized(this) {
+      requestTimes[index] = SystemClock.elapsedRealtime();
+      frameSessions.add(request.getPhotoCaptureSession());
+    }
+
+    // cancel() could have missed the session
+    if(isCancelled()) {
+      request.getPhotoCaptureSession().cancel();
+    }
+    return request;
+  }
+
+  private void postFrameCancelled(final int index) {
+    Handler handler;
+    synchronized(this) {
+      handler = callbackHandler;
+    }
+
+    Runnable cancelFrame = new Runnable() {
+      @Override
+      public void run() {
+        onFrame(index, CANCELLED, null, null);
+      }
+    };
+    if(handler != null) {
+      handler.post(cancelFrame);
+    }
+    else {
+      cancelFrame.run();
+    }
+  }
+
+  // called on the callback handler
+  private void onFrame(int index, int state, @Nullable Throwable t, @Nullable T photo) {
+    OnBurstFrameListener<T> listener;
+    boolean finished;
+    synchronized(this) {
+      // an error can be reported more than once for the same frame
+      if(frameStates[index] != PENDING) {
+        return;
+      }
+      frameStates[index] = state;
+      framesResolved++;
+
+      if(state == CAPTURED) {
+        long now = SystemClock.elapsedRealtime();
+        photos[index] = photo;
+        latencies[index] = now - requestTimes[index];
+        if(firstFrameTime == SimpleCamera.NOT_SET) {
+          firstFrameTime = now;
+        }
+        lastFrameTime = now;
+        framesCaptured++;
+      }
+      else {
+        errors[index] = t;
+        framesFailed++;
+      }
+
+      finished = framesResolved == frameCount;
+      listener = frameListener;
+    }
+
+    if(listener != null) {
+      if(state == CANCELLED) {
+        listener.onFrameCancelled(index);
+      }
+      else {
+        listener.onFrame(index, t, photo);
+      }
+    }
+
+    if(finished) {
+      set(getPhotos());
+      if(listener != null) listener.onBurstFinished(this);
+    }
+  }
+
+  // called on the callback handler (or before the burst has one), so no frame can be processed between the replay and
+  // the frames that are reported live
+  private void installFrameListener(@Nullable OnBurstFrameListener<T> listener, int version) {
+    int[] states;
+    Throwable[] errors;
+    List<T> photos;
+    boolean finished;
+    synchronized(this) {
+      if(version != frameListenerVersion) {
+        return;
+      }
+
+      frameListener = listener;
+      if(listener == null) {
+        return;
+      }
+      states = frameStates.clone();
+      errors = this.errors.clone();
+      photos = getPhotos();
+      finished = framesResolved == frameCount;
+    }
+
+    replayFrames(listener, states, errors, photos, finished);
+  }
+
+  private void replayFrames(@NonNull OnBurstFrameListener<T> listener, @NonNull int[] states, @NonNull Throwable[] errors, @NonNull List<T> photos, boolean finished) {
+    for(int i = 0; i < states.length; i++) {
+      if(states[i] == CAPTURED) {
+        listener.onFrame(i, null, photos.get(i));
+      }
+      else if(states[i] == CANCELLED) {
+        listener.onFrameCancelled(i);
+      }
+      else if(states[i] == FAILED) {
+        listener.onFrame(i, errors[i], null);
+      }
+    }
+    if(finished) {
+      listener.onBurstFinished(this);
+    }
+  }
+
+  @NonNull
+  @SuppressWarnings("unchecked")
+  private synchronized List<T> getPhotos() {
+    List<T> list = new ArrayList<>(frameCount);
+    for(Object photo : photos) {
+      list.add((T) photo);
+    }
+    return list;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "BurstCaptureSession{" +
+        "frameCount=" + frameCount +
+        ", intervalMillis=" + intervalMillis +
+        ", framesCaptured=" + framesCaptured +
+        ", framesFailed=" + framesFailed +
+        ", framesPerSecond=" + getFramesPerSecond() +
+        ", averageFrameLatencyMillis=" + getAverageFrameLatencyMillis() +
+        '}';
+  }
+
+  public interface RequestFactory<T> {
+    /**
+     * @return a new request for frame {@code index} of the burst. Its preview restart setting is overridden, since the
+     * preview has to be restarted for the next frame to be taken.
+     */
+    @NonNull
+    PhotoCaptureRequest<T> createRequest(int index);
+  }
+
+  public interface OnBurstFrameListener<T> {
+    void onFrame(int index, @Nullable Throwable t, @Nullable T photo);
+    void onFrameCancelled(int index);
+    void onBurstFinished(@NonNull BurstCaptureSession<T> burst);
+  }
+}
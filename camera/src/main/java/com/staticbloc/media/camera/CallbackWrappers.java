@@ -128,6 +128,20 @@ import android.support.annotation.NonNull;
       }
     }
 
+    @Override
+    public void onPreviewConfigurationChanged(@NonNull final PreviewConfiguration configuration) {
+      if(Looper.myLooper() == Looper.getMainLooper()) {
+        callbacks.onPreviewConfigurationChanged(configuration);
+      }
+      else {
+        handler.post(new Runnable() {
+          @Override public void run() {
+            callbacks.onPreviewConfigurationChanged(configuration);
+          }
+        });
+      }
+    }
+
     @Override
     public void onCameraClosed() {
       if(Looper.myLooper() == Looper.getMainLooper()) {
@@ -3,7 +3,9 @@ package com.staticbloc.media.camera;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import com.staticbloc.media.utils.Size;
 import com.staticbloc.media.utils.SizeUnit;
 
@@ -118,6 +120,14 @@ public final class CameraThreadDecorator extends SimpleCamera {
     });
   }
 
+  @Nullable
+  @Override
+  public PreviewConfiguration getPreviewConfiguration() {
+    throwIfNotInitted();
+
+    return camera.getPreviewConfiguration();
+  }
+
   @NonNull
   public Size getPhotoSize() {
     throwIfNotInitted();
@@ -361,6 +371,8 @@ public final class CameraThreadDecorator extends SimpleCamera {
   public <T> PhotoCaptureSession<T> takePhoto(@NonNull final PhotoCaptureRequest<T> captureRequest) {
     throwIfNotInitted();
 
+    captureRequest.onShutterPressed(SystemClock.elapsedRealtime());
+
     handler.post(new Runnable() {
       @Override
       public void run() {
@@ -371,6 +383,76 @@ public final class CameraThreadDecorator extends SimpleCamera {
     return captureRequest.getPhotoCaptureSession();
   }
 
+  @NonNull
+  @Override
+  public PhotoCaptureStats getPhotoCaptureStats() {
+    throwIfNotInitted();
+
+    return camera.getPhotoCaptureStats();
+  }
+
+  @NonNull
+  @Override
+  public PreviewFrameStats getPreviewFrameStats() {
+    throwIfNotInitted();
+
+    return camera.getPreviewFrameStats();
+  }
+
+  @Override
+  public void onPreviewFrameRendered(long timestampNanos) {
+    throwIfNotInitted();
+
+    // the timing is lock free, and posting every frame would allocate
+    camera.onPreviewFrameRendered(timestampNanos);
+  }
+
+  @NonNull
+  @Override
+  public <T> BurstCaptureSession<T> takeBurst(int count, long intervalMillis, @NonNull BurstCaptureSession.RequestFactory<T> requestFactory) {
+    throwIfNotInitted();
+
+    BurstCaptureSession<T> burst = new BurstCaptureSession<>(count, intervalMillis, requestFactory);
+    startBurst(burst);
+    return burst;
+  }
+
+  @Override
+  <T> void startBurst(@NonNull final BurstCaptureSession<T> burst) {
+    throwIfNotInitted();
+
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        camera.startBurst(burst);
+      }
+    });
+  }
+
+  @Override
+  public void addFrameConsumer(@NonNull final FrameConsumer consumer) {
+    throwIfNotInitted();
+
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        camera.addFrameConsumer(consumer);
+      }
+    });
+  }
+
+  @Override
+  public void removeFrameConsumer(@NonNull final FrameConsumer consumer) {
+    throwIfNotInitted();
+
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        camera.removeFrameConsumer(consumer);
+      }
+    });
+  }
+
   @Override
   public void close() {
     throwIfNotInitted();
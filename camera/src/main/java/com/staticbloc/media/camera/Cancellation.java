@@ -0,0 +1,89 @@
+package com.staticbloc.media.camera;
+
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Lets the heavy stages of processing a photo stop early once its {@link PhotoCaptureSession} is cancelled.
+ * Decodes that are in flight are stopped with {@link BitmapFactory.Options#requestCancelDecode()}, and the
+ * stages that loop (strips, bands, outputs) call {@link #throwIfCancelled()} between iterations.
+ *
+ * While a photo is being processed, its {@code Cancellation} is {@link #current()} on the processing thread,
+ * so stages (e.g. a {@link PixelKernel}) can find it without it being passed through every {@link PhotoCaptureRequest.Transformation}.
+ */
+/*package*/ final class Cancellation {
+  private static final ThreadLocal<Cancellation> current = new ThreadLocal<>();
+
+  private boolean cancelled;
+  private final List<BitmapFactory.Options> decodes = new ArrayList<>();
+
+  @Nullable
+  /*package*/ static Cancellation current() {
+    return current.get();
+  }
+
+  /*package*/ static void setCurrent(@Nullable Cancellation cancellation) {
+    if(cancellation == null) {
+      current.remove();
+    }
+    else {
+      current.set(cancellation);
+    }
+  }
+
+  /*package*/ static void throwIfCurrentCancelled() {
+    Cancellation cancellation = current();
+    if(cancellation != null) {
+      cancellation.throwIfCancelled();
+    }
+  }
+
+  /*package*/ synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  /*package*/ void throwIfCancelled() {
+    if(isCancelled()) {
+      throw new CancellationException("The photo capture was cancelled");
+    }
+  }
+
+  /*package*/ void cancel() {
+    List<BitmapFactory.Options> inFlight;
+    synchronized(this) {
+      if(cancelled) {
+        return;
+      }
+      cancelled = true;
+      inFlight = new ArrayList<>(decodes);
+      decodes.clear();
+    }
+
+    for(BitmapFactory.Options options : inFlight) {
+      options.requestCancelDecode();
+    }
+  }
+
+  /**
+   * Cancels the decode that uses {@code options} if this is cancelled while it runs. Call {@link #endDecode(BitmapFactory.Options)}
+   * once the decode returns.
+   *
+   * @throws CancellationException if this is already cancelled
+   */
+  /*package*/ synchronized void beginDecode(@NonNull BitmapFactory.Options options) {
+    throwIfCancelled();
+    decodes.add(options);
+  }
+
+  /**
+   * If this was cancelled during the decode, it returned null or a partial result.
+   */
+  /*package*/ synchronized void endDecode(@NonNull BitmapFactory.Options options) {
+    decodes.remove(options);
+  }
+}
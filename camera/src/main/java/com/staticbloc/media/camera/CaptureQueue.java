@@ -0,0 +1,162 @@
+package com.staticbloc.media.camera;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * The photos that are waiting for the camera, which takes one at a time. The highest {@link PhotoCaptureRequest#priority(int)}
+ * goes first, and photos with the same priority go in the order they were asked for.
+ *
+ * Only changed on the camera thread, but the stats are read from anywhere.
+ */
+/*package*/ final class CaptureQueue {
+  private final int maxDepth;
+  @SimpleCamera.CaptureQueueOverflow private final int overflow;
+
+  // in the order they were offered
+  private final LinkedList<Entry> entries = new LinkedList<>();
+
+  private int maxDepthReached;
+  private long lastWaitMillis = SimpleCamera.NOT_SET;
+  private long totalWaitMillis;
+  private int waitCount;
+  private int droppedCount;
+
+  /**
+   * @param maxDepth how many photos can wait, or {@link SimpleCamera#NOT_SET} for no limit
+   */
+  /*package*/ CaptureQueue(int maxDepth, @SimpleCamera.CaptureQueueOverflow int overflow) {
+    this.maxDepth = maxDepth;
+    this.overflow = overflow;
+  }
+
+  /**
+   * Queues {@code request}, unless the queue is full.
+   *
+   * @return the request that didn't fit (which can be {@code request} itself), and has to be cancelled, or null if everything fits
+   */
+  @Nullable
+  /*package*/ synchronized PhotoCaptureRequest<?> offer(@NonNull PhotoCaptureRequest<?> request, long now) {
+    removeCancelled();
+
+    Entry entry = new Entry(request, now);
+    if(maxDepth == SimpleCamera.NOT_SET || entries.size() < maxDepth) {
+      add(entry);
+      return null;
+    }
+
+    droppedCount++;
+    switch(overflow) {
+      case SimpleCamera.CAPTURE_QUEUE_OVERFLOW_DROP_OLDEST:
+      case SimpleCamera.CAPTURE_QUEUE_OVERFLOW_DROP_NEWEST:
+        // only a photo with the lowest priority is dropped, which can be the new one
+        boolean dropNewest = overflow == SimpleCamera.CAPTURE_QUEUE_OVERFLOW_DROP_NEWEST;
+        Entry lowest = null;
+        for(Entry queued : entries) {
+          // the first one with the lowest priority is the oldest, and the last one is the newest
+          if(lowest == null || queued.priority < lowest.priority || (queued.priority == lowest.priority && dropNewest)) {
+            lowest = queued;
+          }
+        }
+        if(lowest == null || entry.priority < lowest.priority || (entry.priority == lowest.priority && dropNewest)) {
+          return request;
+        }
+        entries.remove(lowest);
+        add(entry);
+        return lowest.request;
+      case SimpleCamera.CAPTURE_QUEUE_OVERFLOW_REJECT:
+      default:
+        return request;
+    }
+  }
+
+  /**
+   * @return the request that goes next, or null if none are waiting
+   */
+  @Nullable
+  /*package*/ synchronized PhotoCaptureRequest<?> poll(long now) {
+    removeCancelled();
+
+    Entry next = null;
+    for(Entry entry : entries) {
+      if(next == null || entry.priority > next.priority) {
+        next = entry;
+      }
+    }
+    if(next == null) {
+      return null;
+    }
+
+    entries.remove(next);
+    lastWaitMillis = now - next.offeredTime;
+    totalWaitMillis += lastWaitMillis;
+    waitCount++;
+    return next.request;
+  }
+
+  /**
+   * Empties the queue.
+   *
+   * @return the requests that were waiting
+   */
+  @NonNull
+  /*package*/ synchronized List<PhotoCaptureRequest<?>> clear() {
+    List<PhotoCaptureRequest<?>> requests = new ArrayList<>(entries.size());
+    for(Entry entry : entries) {
+      requests.add(entry.request);
+    }
+    entries.clear();
+    return requests;
+  }
+
+  /*package*/ synchronized int getDepth() {
+    return entries.size();
+  }
+
+  /*package*/ synchronized int getMaxDepthReached() {
+    return maxDepthReached;
+  }
+
+  /*package*/ synchronized long getLastWaitMillis() {
+    return lastWaitMillis;
+  }
+
+  /*package*/ synchronized long getAverageWaitMillis() {
+    return waitCount == 0 ? SimpleCamera.NOT_SET : totalWaitMillis / waitCount;
+  }
+
+  /*package*/ synchronized int getDroppedCount() {
+    return droppedCount;
+  }
+
+  private void add(@NonNull Entry entry) {
+    entries.addLast(entry);
+    maxDepthReached = Math.max(maxDepthReached, entries.size());
+  }
+
+  private void removeCancelled() {
+    Iterator<Entry> iterator = entries.iterator();
+    while(iterator.hasNext()) {
+      if(iterator.next().request.getPhotoCaptureSession().isCancelled()) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private static final class Entry {
+    private final PhotoCaptureRequest<?> request;
+    private final int priority;
+    private final long offeredTime;
+
+    private Entry(PhotoCaptureRequest<?> request, long offeredTime) {
+      this.request = request;
+      this.priority = request.getPriority();
+      this.offeredTime = offeredTime;
+    }
+  }
+}
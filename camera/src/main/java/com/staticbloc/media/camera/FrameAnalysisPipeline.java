@@ -0,0 +1,399 @@
+package com.staticbloc.media.camera;
+
+import android.os.SystemClock;
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link FrameAnalyzer}s over the preview frames of a {@link SimpleCamera} (see {@link SimpleCamera#addFrameConsumer(SimpleCamera.FrameConsumer)})
+ * on threads of its own, so that slow analyzers never hold up the camera thread.
+ *
+ * Every analyzer shares the same frame (and its preview buffer); each analyzer that takes a frame holds a reference to it until it's analyzed
+ * or dropped. How many frames an analyzer can fall behind by is bounded by its {@link FrameStrategy}, so the memory that's used
+ * doesn't grow when an analyzer can't keep up, and the camera gets its buffers back.
+ */
+public final class FrameAnalysisPipeline implements SimpleCamera.FrameConsumer {
+  @IntDef({FRAME_STRATEGY_KEEP_LATEST, FRAME_STRATEGY_QUEUE, FRAME_STRATEGY_EVERY_NTH_FRAME})
+  @Retention(RetentionPolicy.SOURCE)
+  public @interface FrameStrategy {}
+
+  // the analyzer gets the newest frame once it's done with the previous one, and the frames in between are dropped
+  public static final int FRAME_STRATEGY_KEEP_LATEST = 0;
+  // up to n frames wait for the analyzer, and the oldest one is dropped to make room for a new one
+  public static final int FRAME_STRATEGY_QUEUE = 1;
+  // the analyzer only gets every nth frame, and drops it for a newer one like FRAME_STRATEGY_KEEP_LATEST
+  public static final int FRAME_STRATEGY_EVERY_NTH_FRAME = 2;
+
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  private final ThreadPoolExecutor executor;
+  private final List<Analysis> analyses = new CopyOnWriteArrayList<>();
+  // removed analyses whose task hadn't finished yet; an analyzer that is added again waits for them (guarded by this)
+  private final List<Analysis> removedAnalyses = new ArrayList<>();
+  private volatile boolean shutDown;
+
+  /**
+   * @param threadCount how many frames can be analyzed at the same time (by different analyzers)
+   */
+  public FrameAnalysisPipeline(int threadCount) {
+    if(threadCount < 1) {
+      throw new IllegalArgumentException("A frame analysis pipeline needs at least 1 thread");
+    }
+
+    // at most one task per analyzer is ever waiting, so the queue is bounded by the number of analyzers
+    executor = new ThreadPoolExecutor(threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new AnalyzerThreadFactory());
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Adds {@code analyzer} with {@link #FRAME_STRATEGY_KEEP_LATEST}.
+   */
+  public void addAnalyzer(@NonNull FrameAnalyzer analyzer) {
+    addAnalyzer(analyzer, FRAME_STRATEGY_KEEP_LATEST, 1);
+  }
+
+  /**
+   * Adding an analyzer that was already added does nothing. If it was removed while it was analyzing a frame, it doesn't get
+   * a frame from here until it's done with that one.
+   *
+   * @param n the queue size for {@link #FRAME_STRATEGY_QUEUE}, or how often a frame is taken for {@link #FRAME_STRATEGY_EVERY_NTH_FRAME}
+   */
+  public synchronized void addAnalyzer(@NonNull FrameAnalyzer analyzer, @FrameStrategy int strategy, int n) {
+    if(shutDown) {
+      throw new IllegalStateException("Can't add an analyzer after the pipeline was shut down");
+    }
+    if(n < 1) {
+      throw new IllegalArgumentException("n has to be at least 1");
+    }
+
+    if(findAnalysis(analyzer) == null) {
+      analyses.add(new Analysis(analyzer, strategy, n, findRemovedAnalysis(analyzer)));
+    }
+  }
+
+  /**
+   * Stops giving frames to {@code analyzer}, and drops the frames that are waiting for it. A frame that it is analyzing
+   * when this is called is still analyzed.
+   */
+  public synchronized void removeAnalyzer(@NonNull FrameAnalyzer analyzer) {
+    Analysis analysis = findAnalysis(analyzer);
+    if(analysis != null) {
+      analyses.remove(analysis);
+      analysis.clear();
+      if(analysis.isScheduled()) {
+        removedAnalyses.add(analysis);
+      }
+    }
+  }
+
+  /**
+   * @return null if {@code analyzer} wasn't added
+   */
+  @Nullable
+  public FrameAnalyzerStats getStats(@NonNull FrameAnalyzer analyzer) {
+    Analysis analysis = findAnalysis(analyzer);
+    return analysis == null ? null : analysis.getStats();
+  }
+
+  /**
+   * @return the number of frames that were dropped by all of the analyzers because they couldn't keep up
+   */
+  public long getFramesDropped() {
+    long framesDropped = 0;
+    for(Analysis analysis : analyses) {
+      framesDropped += analysis.getStats().getFramesDropped();
+    }
+    return framesDropped;
+  }
+
+  /**
+   * Stops the pipeline's threads once the frames that are being analyzed are done, and drops the frames that are waiting.
+   * The pipeline should be removed from the camera first.
+   */
+  public synchronized void shutdown() {
+    shutDown = true;
+    for(Analysis analysis : analyses) {
+      analysis.clear();
+    }
+    analyses.clear();
+    removedAnalyses.clear();
+    executor.shutdown();
+  }
+
+  @Override
+  public void onPreviewFrame(@NonNull PreviewFrame frame) {
+    try {
+      if(!shutDown) {
+        for(Analysis analysis : analyses) {
+          analysis.offer(frame);
+        }
+      }
+    }
+    finally {
+      frame.release();
+    }
+  }
+
+  @Nullable
+  private Analysis findAnalysis(@NonNull FrameAnalyzer analyzer) {
+    for(Analysis analysis : analyses) {
+      if(analysis.analyzer == analyzer) {
+        return analysis;
+      }
+    }
+    return null;
+  }
+
+  // the latest removed analysis of analyzer that still has a task, and forgets the ones that are done
+  @Nullable
+  private Analysis findRemovedAnalysis(@NonNull FrameAnalyzer analyzer) {
+    Analysis found = null;
+    for(int i = removedAnalyses.size() - 1; i >= 0; i--) {
+      Analysis analysis = removedAnalyses.get(i);
+      if(!analysis.isScheduled()) {
+        removedAnalyses.remove(i);
+      }
+      else if(found == null && analysis.analyzer == analyzer) {
+        found = analysis;
+      }
+    }
+    return found;
+  }
+
+  private final class Analysis implements Runnable {
+    private final FrameAnalyzer analyzer;
+    private final int capacity;
+    private final int interval;
+
+    // oldest first
+    private final ArrayDeque<PreviewFrame> frames;
+    // a task is waiting for a thread, or running
+    private boolean scheduled;
+    private boolean removed;
+    // a removed analysis of the same analyzer that has to finish its task before this one can run
+    private Analysis previous;
+    // the analysis that is waiting for this one's task to finish
+    private Analysis next;
+
+    private long framesReceived;
+    private long framesSkipped;
+    private long framesDropped;
+    private long framesAnalyzed;
+    private long framesFailed;
+    private int maxQueueDepth;
+    private long lastProcessingNanos = SimpleCamera.NOT_SET;
+    private long totalProcessingNanos;
+    private long maxProcessingNanos = SimpleCamera.NOT_SET;
+    private long lastFrameLatencyMillis = SimpleCamera.NOT_SET;
+
+    private Analysis(@NonNull FrameAnalyzer analyzer, @FrameStrategy int strategy, int n, @Nullable Analysis previous) {
+      this.analyzer = analyzer;
+      this.previous = previous;
+      this.capacity = strategy == FRAME_STRATEGY_QUEUE ? n : 1;
+      this.interval = strategy == FRAME_STRATEGY_EVERY_NTH_FRAME ? n : 1;
+      this.frames = new ArrayDeque<>(capacity);
+    }
+
+    // called on the camera thread
+    private void offer(@NonNull PreviewFrame frame) {
+      PreviewFrame dropped = null;
+      boolean schedule = false;
+      synchronized(this) {
+        if(removed) {
+          return;
+        }
+
+        framesReceived++;
+        if((framesReceived - 1) % interval != 0) {
+          framesSkipped++;
+          return;
+        }
+
+        if(frames.size() == capacity) {
+          dropped = frames.removeFirst();
+          framesDropped++;
+        }
+        frames.addLast(frame.retain());
+        maxQueueDepth = Math.max(maxQueueDepth, frames.size());
+
+        if(!scheduled) {
+          scheduled = true;
+          schedule = true;
+        }
+      }
+
+      if(dropped != null) {
+        dropped.release();
+      }
+      if(schedule) {
+        schedule();
+      }
+    }
+
+    @Override
+    public void run() {
+      Analysis previous;
+      synchronized(this) {
+        previous = this.previous;
+      }
+      if(previous != null) {
+        // the analyzer is still analyzing a frame for it, so this task runs again once that's done
+        if(previous.runNext(this)) {
+          return;
+        }
+        synchronized(this) {
+          this.previous = null;
+        }
+      }
+
+      PreviewFrame frame;
+      Analysis next = null;
+      synchronized(this) {
+        frame = frames.pollFirst();
+        if(frame == null) {
+          scheduled = false;
+          next = takeNext();
+        }
+      }
+      if(frame == null) {
+        if(next != null) {
+          next.schedule();
+        }
+        return;
+      }
+
+      // an Error from the analyzer still gives the frame back and keeps the analyzer going, before it propagates
+      boolean failed = true;
+      long start = System.nanoTime();
+      try {
+        analyzer.analyze(frame);
+        failed = false;
+      }
+      catch(RuntimeException e) {
+        Log.w("FrameAnalysisPipeline", "Exception while analyzing a preview frame", e);
+      }
+      finally {
+        onAnalyzed(frame, failed, System.nanoTime() - start);
+      }
+    }
+
+    private void onAnalyzed(@NonNull PreviewFrame frame, boolean failed, long processingNanos) {
+      long frameLatencyMillis = SystemClock.elapsedRealtime() - frame.getTimestamp();
+      frame.release();
+
+      boolean more;
+      Analysis next = null;
+      synchronized(this) {
+        if(failed) {
+          framesFailed++;
+        }
+        else {
+          framesAnalyzed++;
+        }
+        lastProcessingNanos = processingNanos;
+        totalProcessingNanos += processingNanos;
+        maxProcessingNanos = Math.max(maxProcessingNanos, processingNanos);
+        lastFrameLatencyMillis = frameLatencyMillis;
+
+        more = !frames.isEmpty();
+        if(!more) {
+          scheduled = false;
+          next = takeNext();
+        }
+      }
+
+      // one frame per task, so that analyzers take turns when there are more of them than threads
+      if(more) {
+        schedule();
+      }
+      else if(next != null) {
+        next.schedule();
+      }
+    }
+
+    /**
+     * @return false if this doesn't have a task anymore, so {@code next} can run now
+     */
+    private synchronized boolean runNext(@NonNull Analysis next) {
+      if(!scheduled) {
+        return false;
+      }
+      this.next = next;
+      return true;
+    }
+
+    // called with the lock held, once the task is done
+    @Nullable
+    private Analysis takeNext() {
+      Analysis next = this.next;
+      this.next = null;
+      return next;
+    }
+
+    private synchronized boolean isScheduled() {
+      return scheduled;
+    }
+
+    private void schedule() {
+      try {
+        executor.execute(this);
+      }
+      catch(RejectedExecutionException e) {
+        // the pipeline was shut down
+        clear();
+      }
+    }
+
+    private void clear() {
+      List<PreviewFrame> dropped;
+      synchronized(this) {
+        removed = true;
+        dropped = new ArrayList<>(frames);
+        framesDropped += frames.size();
+        frames.clear();
+      }
+
+      for(PreviewFrame frame : dropped) {
+        frame.release();
+      }
+    }
+
+    @NonNull
+    private synchronized FrameAnalyzerStats getStats() {
+      long processed = framesAnalyzed + framesFailed;
+      return new FrameAnalyzerStats(framesReceived, framesSkipped, framesDropped, framesAnalyzed, framesFailed,
+          frames.size(), maxQueueDepth, toMicros(lastProcessingNanos),
+          processed == 0 ? SimpleCamera.NOT_SET : toMicros(totalProcessingNanos / processed),
+          toMicros(maxProcessingNanos), lastFrameLatencyMillis);
+    }
+
+    private long toMicros(long nanos) {
+      return nanos == SimpleCamera.NOT_SET ? SimpleCamera.NOT_SET : TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+  }
+
+  private static class AnalyzerThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(@NonNull Runnable r) {
+      return new Thread(r, "SimpleCameraFrameAnalyzer-" + count.incrementAndGet());
+    }
+  }
+}
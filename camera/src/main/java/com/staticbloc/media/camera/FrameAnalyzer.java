@@ -0,0 +1,16 @@
+package com.staticbloc.media.camera;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+/**
+ * Analyzes preview frames for a {@link FrameAnalysisPipeline}. An analyzer is only ever called for one frame at a time,
+ * so it doesn't have to be thread safe, but different frames can be analyzed on different threads.
+ */
+public interface FrameAnalyzer {
+  /**
+   * The frame is released once this returns, so an analyzer that hands it to something else has to {@link PreviewFrame#retain()} it.
+   */
+  @WorkerThread
+  void analyze(@NonNull PreviewFrame frame);
+}
@@ -0,0 +1,125 @@
+package com.staticbloc.media.camera;
+
+/**
+ * How a {@link FrameAnalyzer} is keeping up with the preview (see {@link FrameAnalysisPipeline#getStats(FrameAnalyzer)}).
+ */
+public final class FrameAnalyzerStats {
+  private final long framesReceived;
+  private final long framesSkipped;
+  private final long framesDropped;
+  private final long framesAnalyzed;
+  private final long framesFailed;
+  private final int queueDepth;
+  private final int maxQueueDepth;
+  private final long processingMicros;
+  private final long averageProcessingMicros;
+  private final long maxProcessingMicros;
+  private final long frameLatencyMillis;
+
+  /*package*/ FrameAnalyzerStats(long framesReceived, long framesSkipped, long framesDropped, long framesAnalyzed, long framesFailed,
+                               int queueDepth, int maxQueueDepth, long processingMicros, long averageProcessingMicros,
+                               long maxProcessingMicros, long frameLatencyMillis) {
+    this.framesReceived = framesReceived;
+    this.framesSkipped = framesSkipped;
+    this.framesDropped = framesDropped;
+    this.framesAnalyzed = framesAnalyzed;
+    this.framesFailed = framesFailed;
+    this.queueDepth = queueDepth;
+    this.maxQueueDepth = maxQueueDepth;
+    this.processingMicros = processingMicros;
+    this.averageProcessingMicros = averageProcessingMicros;
+    this.maxProcessingMicros = maxProcessingMicros;
+    this.frameLatencyMillis = frameLatencyMillis;
+  }
+
+  /**
+   * @return the number of preview frames that arrived while the analyzer was added
+   */
+  public long getFramesReceived() {
+    return framesReceived;
+  }
+
+  /**
+   * @return the number of frames that weren't taken because of {@link FrameAnalysisPipeline#FRAME_STRATEGY_EVERY_NTH_FRAME}
+   */
+  public long getFramesSkipped() {
+    return framesSkipped;
+  }
+
+  /**
+   * @return the number of frames that were taken, but dropped for a newer frame before the analyzer got to them
+   */
+  public long getFramesDropped() {
+    return framesDropped;
+  }
+
+  public long getFramesAnalyzed() {
+    return framesAnalyzed;
+  }
+
+  /**
+   * @return the number of frames that the analyzer threw an exception for
+   */
+  public long getFramesFailed() {
+    return framesFailed;
+  }
+
+  /**
+   * @return the number of frames that are waiting for the analyzer
+   */
+  public int getQueueDepth() {
+    return queueDepth;
+  }
+
+  /**
+   * @return the most frames that were waiting for the analyzer at once
+   */
+  public int getMaxQueueDepth() {
+    return maxQueueDepth;
+  }
+
+  /**
+   * @return how long the analyzer took for the last frame, or -1 if it didn't analyze one yet
+   */
+  public long getProcessingMicros() {
+    return processingMicros;
+  }
+
+  /**
+   * @return how long the analyzer took per frame on average, or -1 if it didn't analyze one yet
+   */
+  public long getAverageProcessingMicros() {
+    return averageProcessingMicros;
+  }
+
+  /**
+   * @return the longest the analyzer took for a frame, or -1 if it didn't analyze one yet
+   */
+  public long getMaxProcessingMicros() {
+    return maxProcessingMicros;
+  }
+
+  /**
+   * @return how old the last frame was when the analyzer was done with it, or -1 if it didn't analyze one yet
+   */
+  public long getFrameLatencyMillis() {
+    return frameLatencyMillis;
+  }
+
+  @Override
+  public String toString() {
+    return "FrameAnalyzerStats{" +
+        "framesReceived=" + framesReceived +
+        ", framesSkipped=" + framesSkipped +
+        ", framesDropped=" + framesDropped +
+        ", framesAnalyzed=" + framesAnalyzed +
+        ", framesFailed=" + framesFailed +
+        ", queueDepth=" + queueDepth +
+        ", maxQueueDepth=" + maxQueueDepth +
+        ", processingMicros=" + processingMicros +
+        ", averageProcessingMicros=" + averageProcessingMicros +
+        ", maxProcessingMicros=" + maxProcessingMicros +
+        ", frameLatencyMillis=" + frameLatencyMillis +
+        '}';
+  }
+}
@@ -0,0 +1,163 @@
+package com.staticbloc.media.camera;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Records the intervals between preview frames into fixed buckets, without locking or allocating, so that it can be
+ * called for every frame from whichever thread the frame arrives on.
+ *
+ * Frames can be timed from more than one source, but their timestamps aren't comparable, so only one source is recorded
+ * at a time; a source with a higher {@link PreviewFrameStats.TimingSource} takes over from a lower one, and everything
+ * that was recorded before is dropped. Dropping swaps in a new {@link State}, instead of zeroing the old one, so that a
+ * frame that is being recorded on another thread at the same time can't leave part of itself in the new one.
+ */
+/*package*/ final class FrameTimingHistogram {
+  /*package*/ static final long BUCKET_NANOS = 250_000;
+  // 250ms; anything longer goes in the last bucket
+  /*package*/ static final int BUCKET_COUNT = 1000;
+  /*package*/ static final int FPS_WINDOW = 32;
+
+  private final AtomicReference<State> state = new AtomicReference<>(new State(PreviewFrameStats.TIMING_SOURCE_NONE));
+
+  /*package*/ void record(@PreviewFrameStats.TimingSource int source, long timestampNanos) {
+    State state = this.state.get();
+    if(source < state.source) {
+      return;
+    }
+    if(source > state.source) {
+      State fresh = new State(source);
+      if(!this.state.compareAndSet(state, fresh)) {
+        return;
+      }
+      state = fresh;
+    }
+
+    long count = state.frameCount.getAndIncrement();
+    state.recentTimestamps.set((int) (count % FPS_WINDOW), timestampNanos);
+
+    long previous = state.lastTimestamp.getAndSet(timestampNanos);
+    if(previous == SimpleCamera.NOT_SET || timestampNanos <= previous) {
+      return;
+    }
+
+    long interval = timestampNanos - previous;
+    int bucket = (int) Math.min(interval / BUCKET_NANOS, BUCKET_COUNT);
+    state.buckets.incrementAndGet(bucket);
+    if(bucket == BUCKET_COUNT) {
+      state.overflowNanos.addAndGet(interval);
+    }
+
+    long max;
+    while(interval > (max = state.maxIntervalNanos.get())) {
+      if(state.maxIntervalNanos.compareAndSet(max, interval)) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * The next frame doesn't count as following the previous one (e.g. because the preview was stopped in between).
+   */
+  /*package*/ void markGap() {
+    State state = this.state.get();
+    state.lastTimestamp.set(SimpleCamera.NOT_SET);
+    state.windowStart.set(state.frameCount.get());
+  }
+
+  /**
+   * Forgets everything that was recorded, and lets any source take over again.
+   */
+  /*package*/ void clear() {
+    state.set(new State(PreviewFrameStats.TIMING_SOURCE_NONE));
+  }
+
+  /**
+   * Frames that are recorded while this runs may or may not be part of the snapshot.
+   */
+  @NonNull
+  /*package*/ PreviewFrameStats snapshot() {
+    State state = this.state.get();
+    long[] counts = new long[BUCKET_COUNT + 1];
+    long intervalCount = 0;
+    for(int i = 0; i <= BUCKET_COUNT; i++) {
+      counts[i] = state.buckets.get(i);
+      intervalCount += counts[i];
+    }
+
+    long frames = state.frameCount.get();
+    float fps = 0;
+    long windowFrames = Math.min(frames - state.windowStart.get(), FPS_WINDOW);
+    if(windowFrames > 1) {
+      long newest = state.recentTimestamps.get((int) ((frames - 1) % FPS_WINDOW));
+      long oldest = state.recentTimestamps.get((int) ((frames - windowFrames) % FPS_WINDOW));
+      if(newest > oldest) {
+        fps = (windowFrames - 1) * 1_000_000_000f / (newest - oldest);
+      }
+    }
+
+    long maxInterval = state.maxIntervalNanos.get();
+    long medianInterval = percentile(counts, intervalCount, 0.5f, maxInterval);
+    return new PreviewFrameStats(state.source, frames, fps, droppedFrames(counts, medianInterval, state.overflowNanos.get()),
+        medianInterval, percentile(counts, intervalCount, 0.9f, maxInterval), percentile(counts, intervalCount, 0.99f, maxInterval),
+        maxInterval, counts, BUCKET_NANOS);
+  }
+
+  private static long percentile(long[] counts, long total, float percentile, long maxInterval) {
+    if(total == 0) {
+      return SimpleCamera.NOT_SET;
+    }
+
+    long rank = (long) Math.ceil(total * percentile);
+    long seen = 0;
+    for(int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts[i];
+      if(seen >= rank) {
+        // the middle of the bucket, but never more than the longest interval that was seen
+        return Math.min(i * BUCKET_NANOS + BUCKET_NANOS / 2, maxInterval);
+      }
+    }
+    return maxInterval;
+  }
+
+  // an interval of about n times the usual one means that n - 1 frames were missed in between
+  private static long droppedFrames(long[] counts, long medianInterval, long overflowNanos) {
+    if(medianInterval <= 0) {
+      return 0;
+    }
+
+    long dropped = 0;
+    for(int i = 0; i < BUCKET_COUNT; i++) {
+      long interval = i * BUCKET_NANOS + BUCKET_NANOS / 2;
+      if(counts[i] != 0 && interval * 2 >= medianInterval * 3) {
+        dropped += counts[i] * (Math.round((double) interval / medianInterval) - 1);
+      }
+    }
+    if(counts[BUCKET_COUNT] != 0) {
+      dropped += Math.max(0, Math.round((double) overflowNanos / medianInterval) - counts[BUCKET_COUNT]);
+    }
+    return dropped;
+  }
+
+  // everything that is recorded from one source
+  private static final class State {
+    @PreviewFrameStats.TimingSource private final int source;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT + 1);
+    private final AtomicLong overflowNanos = new AtomicLong();
+    private final AtomicLong maxIntervalNanos = new AtomicLong(SimpleCamera.NOT_SET);
+
+    private final AtomicLong lastTimestamp = new AtomicLong(SimpleCamera.NOT_SET);
+    private final AtomicLong frameCount = new AtomicLong();
+    // the live fps only looks at the frames since the last gap
+    private final AtomicLong windowStart = new AtomicLong();
+    private final AtomicLongArray recentTimestamps = new AtomicLongArray(FPS_WINDOW);
+
+    private State(@PreviewFrameStats.TimingSource int source) {
+      this.source = source;
+    }
+  }
+}
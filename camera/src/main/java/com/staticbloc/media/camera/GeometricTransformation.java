@@ -0,0 +1,201 @@
+package com.staticbloc.media.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.staticbloc.media.utils.BitmapPool;
+import com.staticbloc.media.utils.Size;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link PhotoCaptureRequest.Transformation} that only moves pixels around, and so can be expressed as a {@link Matrix}.
+ * Consecutive {@code GeometricTransformation}s in a {@link PhotoCaptureRequest} (and the ones right after the photo is
+ * decoded, together with its orientation) are composed into a single matrix, and drawn in one pass.
+ */
+public abstract class GeometricTransformation implements PhotoCaptureRequest.Transformation {
+  /**
+   * Post-concatenates the transformation of an image that is {@code size} onto {@code matrix}.
+   *
+   * @return the size of the transformed image
+   */
+  @NonNull
+  public abstract Size apply(@NonNull Size size, @NonNull Matrix matrix);
+
+  @NonNull
+  @Override
+  public final Bitmap transform(Bitmap data) {
+    return transform(data, Collections.singletonList(this), null);
+  }
+
+  /**
+   * Rotates clockwise by {@code degrees}. The result is big enough to hold the whole rotated image.
+   */
+  @NonNull
+  public static GeometricTransformation rotate(final float degrees) {
+    return new GeometricTransformation() {
+      @NonNull
+      @Override
+      public Size apply(@NonNull Size size, @NonNull Matrix matrix) {
+        Matrix rotation = new Matrix();
+        rotation.setRotate(degrees);
+        RectF bounds = new RectF(0, 0, size.width, size.height);
+        rotation.mapRect(bounds);
+
+        matrix.postRotate(degrees);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        return new Size(Math.round(bounds.width()), Math.round(bounds.height()));
+      }
+    };
+  }
+
+  /**
+   * Mirrors horizontally.
+   */
+  @NonNull
+  public static GeometricTransformation mirror() {
+    return new GeometricTransformation() {
+      @NonNull
+      @Override
+      public Size apply(@NonNull Size size, @NonNull Matrix matrix) {
+        matrix.postScale(-1, 1);
+        matrix.postTranslate(size.width, 0);
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Flips vertically.
+   */
+  @NonNull
+  public static GeometricTransformation flip() {
+    return new GeometricTransformation() {
+      @NonNull
+      @Override
+      public Size apply(@NonNull Size size, @NonNull Matrix matrix) {
+        matrix.postScale(1, -1);
+        matrix.postTranslate(0, size.height);
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Crops to {@code crop}, which is clipped to the bounds of the image.
+   */
+  @NonNull
+  public static GeometricTransformation crop(@NonNull Rect crop) {
+    final Rect cropCopy = new Rect(crop);
+    return new GeometricTransformation() {
+      @NonNull
+      @Override
+      public Size apply(@NonNull Size size, @NonNull Matrix matrix) {
+        Rect bounds = new Rect(cropCopy);
+        if(!bounds.intersect(0, 0, size.width, size.height)) {
+          throw new IllegalArgumentException("The crop " + cropCopy + " is outside of the photo (" + size.width + "x" + size.height + ")");
+        }
+
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        return new Size(bounds.width(), bounds.height());
+      }
+    };
+  }
+
+  @NonNull
+  public static GeometricTransformation scale(final float scaleX, final float scaleY) {
+    if(scaleX <= 0 || scaleY <= 0) {
+      throw new IllegalArgumentException("scaleX and scaleY must be positive");
+    }
+
+    return new GeometricTransformation() {
+      @NonNull
+      @Override
+      public Size apply(@NonNull Size size, @NonNull Matrix matrix) {
+        int width = Math.max(1, Math.round(size.width * scaleX));
+        int height = Math.max(1, Math.round(size.height * scaleY));
+        matrix.postScale(width / (float) size.width, height / (float) size.height);
+        return new Size(width, height);
+      }
+    };
+  }
+
+  /**
+   * Scales to exactly {@code targetSize}, without keeping the aspect ratio.
+   */
+  @NonNull
+  public static GeometricTransformation scaleTo(@NonNull final Size targetSize) {
+    if(targetSize.width <= 0 || targetSize.height <= 0) {
+      throw new IllegalArgumentException("targetSize must have a positive width and height");
+    }
+
+    return new GeometricTransformation() {
+      @NonNull
+      @Override
+      public Size apply(@NonNull Size size, @NonNull Matrix matrix) {
+        matrix.postScale(targetSize.width / (float) size.width, targetSize.height / (float) size.height);
+        return targetSize;
+      }
+    };
+  }
+
+  /**
+   * Moves the image by {@code dx} and {@code dy} without changing its size. Uncovered pixels are transparent.
+   */
+  @NonNull
+  public static GeometricTransformation translate(final float dx, final float dy) {
+    return new GeometricTransformation() {
+      @NonNull
+      @Override
+      public Size apply(@NonNull Size size, @NonNull Matrix matrix) {
+        matrix.postTranslate(dx, dy);
+        return size;
+      }
+    };
+  }
+
+  /*package*/ static Bitmap transform(@NonNull Bitmap source, @NonNull List<GeometricTransformation> transformations, @Nullable BitmapPool bitmapPool) {
+    Matrix matrix = new Matrix();
+    Size size = new Size(source.getWidth(), source.getHeight());
+    for(GeometricTransformation transformation : transformations) {
+      size = transformation.apply(size, matrix);
+    }
+
+    if(matrix.isIdentity() && size.width == source.getWidth() && size.height == source.getHeight()) {
+      return source;
+    }
+
+    return draw(source, matrix, size, bitmapPool);
+  }
+
+  // draws source into a new (or pooled) Bitmap of size, through matrix
+  /*package*/ static Bitmap draw(@NonNull Bitmap source, @NonNull Matrix matrix, @NonNull Size size, @Nullable BitmapPool bitmapPool) {
+    Bitmap.Config config = source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+    Bitmap destination;
+    if(bitmapPool != null) {
+      destination = bitmapPool.getOrCreate(size.width, size.height, config);
+
+      // a pooled Bitmap still has whatever it held before
+      RectF bounds = new RectF(0, 0, source.getWidth(), source.getHeight());
+      matrix.mapRect(bounds);
+      boolean coversDestination = matrix.rectStaysRect() &&
+          bounds.left <= 0 && bounds.top <= 0 && bounds.right >= size.width && bounds.bottom >= size.height;
+      if(!coversDestination) {
+        destination.eraseColor(Color.TRANSPARENT);
+      }
+    }
+    else {
+      destination = Bitmap.createBitmap(size.width, size.height, config);
+    }
+
+    new Canvas(destination).drawBitmap(source, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+    return destination;
+  }
+}
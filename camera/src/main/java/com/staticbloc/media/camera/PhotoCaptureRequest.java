@@ -2,24 +2,62 @@ package com.staticbloc.media.camera;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
-import android.media.ExifInterface;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
 import android.os.Handler;
+import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import com.drew.imaging.ImageMetadataReader;
-import com.drew.metadata.Metadata;
-import com.drew.metadata.exif.ExifDirectoryBase;
-import com.drew.metadata.exif.ExifIFD0Directory;
+import com.staticbloc.media.imaging.ExifUtils;
+import com.staticbloc.media.imaging.JpegEncoder;
+import com.staticbloc.media.imaging.JpegTransformer;
+import com.staticbloc.media.utils.AtomicPhotoWriter;
+import com.staticbloc.media.utils.BitmapPool;
 import com.staticbloc.media.utils.BitmapUtils;
+import com.staticbloc.media.utils.EncodedJpeg;
+import com.staticbloc.media.utils.JpegBudget;
+import com.staticbloc.media.utils.PendingPhoto;
+import com.staticbloc.media.utils.PhotoPersistenceQueue;
 import com.staticbloc.media.utils.PhotoWriter;
+import com.staticbloc.media.utils.Size;
+import com.staticbloc.media.utils.SizeUnit;
 
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.InputStream;
-import java.util.Collection;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class PhotoCaptureRequest<T> {
+  @IntDef({SCALE_TYPE_FIT, SCALE_TYPE_FILL})
+  @Retention(RetentionPolicy.SOURCE)
+  public @interface ScaleType {}
+
+  // the photo is scaled to fit inside the target size
+  public static final int SCALE_TYPE_FIT = 0;
+  // the photo is scaled to cover the target size, and cropped to it
+  public static final int SCALE_TYPE_FILL = 1;
+
   private final PhotoCaptureSession<T> photoCaptureSession;
 
   private PhotoCaptureRequest() {
@@ -36,6 +74,23 @@ public abstract class PhotoCaptureRequest<T> {
     return new FileCaptureRequest(file);
   }
 
+  /**
+   * The photo is written with {@code photoWriter} (e.g. to sync photos to storage) instead of {@link AtomicPhotoWriter#getDefault()}.
+   */
+  @NonNull
+  public static FileCaptureRequest asFile(@NonNull File file, @NonNull AtomicPhotoWriter photoWriter) {
+    return new FileCaptureRequest(file, photoWriter);
+  }
+
+  /**
+   * The photo is handed to {@code persistenceQueue}, and the capture completes with a {@link PendingPhoto}
+   * right away, instead of waiting for the photo to be written to {@code file}.
+   */
+  @NonNull
+  public static PendingFileCaptureRequest asFile(@NonNull File file, @NonNull PhotoPersistenceQueue persistenceQueue) {
+    return new PendingFileCaptureRequest(file, persistenceQueue);
+  }
+
   @NonNull
   public static ByteCaptureRequest asByteArray() {
     return new ByteCaptureRequest();
@@ -46,11 +101,33 @@ public abstract class PhotoCaptureRequest<T> {
     return new BitmapCaptureRequest();
   }
 
+  /**
+   * The photo is decoded (and transformed) once, and every one of {@code outputs} is produced from it.
+   */
+  @NonNull
+  public static MultiOutputCaptureRequest asMultiOutput(@NonNull PhotoOutput... outputs) {
+    return new MultiOutputCaptureRequest(outputs);
+  }
+
   private PhotoCapturedListener<T> photoCapturedListener;
   private OnShutterActionListener shutterActionListener;
+  private OnJpegEncodedListener jpegEncodedListener;
+  private OnThumbnailReadyListener thumbnailReadyListener;
+  private Size thumbnailSize;
   private Transformation[] transformations;
   private boolean restartPreview = false;
+  private boolean pipelined = false;
+  private int priority = 0;
+  private long shutterPressedTime = SimpleCamera.NOT_SET;
   private boolean mirrorFrontCameraImage = false;
+  private boolean jpegPassthrough = false;
+  private boolean losslessJpegOrientation = false;
+  private Size targetSize;
+  @ScaleType private int scaleType = SCALE_TYPE_FIT;
+  private long tileBudget = SimpleCamera.NOT_SET;
+  private JpegBudget jpegBudget;
+  private BitmapPool bitmapPool;
+  private Handler callbackHandler;
 
   @NonNull
   public PhotoCaptureRequest<T> photoReadyListener(@NonNull PhotoCapturedListener<T> photoCapturedListener) {
@@ -64,6 +141,31 @@ public abstract class PhotoCaptureRequest<T> {
     return this;
   }
 
+  /**
+   * Called with a thumbnail of the photo, no bigger than {@code maxSize}, before the photo is transformed.
+   * The thumbnail that the camera embeds in the JPEG's EXIF is used if there is one (in which case it can be smaller
+   * than {@code maxSize}), otherwise the photo is decoded heavily subsampled. The thumbnail has the photo's orientation
+   * (and is mirrored if the photo is), but doesn't go through the {@link Transformation}s.
+   */
+  @NonNull
+  public PhotoCaptureRequest<T> thumbnailReadyListener(@NonNull Size maxSize, @NonNull OnThumbnailReadyListener thumbnailReadyListener) {
+    if(maxSize.width <= 0 || maxSize.height <= 0) {
+      throw new IllegalArgumentException("maxSize must have a positive width and height");
+    }
+    this.thumbnailSize = maxSize;
+    this.thumbnailReadyListener = thumbnailReadyListener;
+    return this;
+  }
+
+  /**
+   * Called with the quality and size of the JPEG once the photo is encoded with a {@link #jpegBudget(JpegBudget)}.
+   */
+  @NonNull
+  public PhotoCaptureRequest<T> jpegEncodedListener(@NonNull OnJpegEncodedListener jpegEncodedListener) {
+    this.jpegEncodedListener = jpegEncodedListener;
+    return this;
+  }
+
   @NonNull
   public PhotoCaptureRequest<T> transformations(@NonNull Transformation... transformations) {
     this.transformations = transformations;
@@ -76,39 +178,208 @@ public abstract class PhotoCaptureRequest<T> {
     return this;
   }
 
+  /**
+   * While photos wait for the camera, the ones with a higher priority are taken first. Defaults to 0.
+   */
+  @NonNull
+  public PhotoCaptureRequest<T> priority(int priority) {
+    this.priority = priority;
+    return this;
+  }
+
+  /**
+   * The next photo can be taken as soon as the camera is done with this one, regardless of the camera's
+   * {@link SimpleCamera.PhotoCaptureMode}, while this one is still being processed.
+   */
+  @NonNull
+  /*package*/ PhotoCaptureRequest<T> pipelined(boolean pipelined) {
+    this.pipelined = pipelined;
+    return this;
+  }
+
   @NonNull
   public PhotoCaptureRequest<T> mirrorFrontCameraImage(boolean mirrorFrontCameraImage) {
     this.mirrorFrontCameraImage = mirrorFrontCameraImage;
     return this;
   }
 
+  /**
+   * The photo is decoded at a size that matches {@code targetSize} according to {@code scaleType}, so that the
+   * full size photo never has to be in memory. {@code targetSize} is in the orientation of the photo, and applies before any
+   * {@link Transformation}s. The photo is never scaled up.
+   */
+  @NonNull
+  public PhotoCaptureRequest<T> targetSize(@NonNull Size targetSize, @ScaleType int scaleType) {
+    if(targetSize.width <= 0 || targetSize.height <= 0) {
+      throw new IllegalArgumentException("targetSize must have a positive width and height");
+    }
+    this.targetSize = targetSize;
+    this.scaleType = scaleType;
+    return this;
+  }
+
+  /**
+   * The photo is decoded, transformed, and encoded a strip at a time, so that only about {@code tileBudget}
+   * of memory is used for pixels (on top of the JPEG itself) instead of the whole decoded photo.
+   *
+   * Only requests that produce a JPEG (i.e. not {@link BitmapCaptureRequest}) can be tiled, and only if every
+   * {@link Transformation} after the leading {@link GeometricTransformation}s is a {@link TileTransformation}.
+   * Otherwise the photo is decoded as usual.
+   */
+  @NonNull
+  public PhotoCaptureRequest<T> tiled(long tileBudget, @NonNull SizeUnit sizeUnit) {
+    long budget = sizeUnit.toBytes(tileBudget);
+    if(budget <= 0) {
+      throw new IllegalArgumentException("tileBudget must be positive");
+    }
+    this.tileBudget = budget;
+    return this;
+  }
+
+  /**
+   * Instead of always encoding with quality 100, the photo is encoded with the highest quality that fits in
+   * {@code jpegBudget} (see {@link BitmapUtils#encodeJpeg(Bitmap, JpegBudget)}). A JPEG from the camera that already
+   * fits is still passed through if {@link #jpegPassthrough(boolean)} is set, and tiled photos
+   * (see {@link #tiled(long, SizeUnit)}) are encoded once with the budget's max quality, since they can't be re-encoded cheaply.
+   *
+   * Requests that don't produce a JPEG (i.e. {@link BitmapCaptureRequest}) ignore this.
+   */
+  @NonNull
+  public PhotoCaptureRequest<T> jpegBudget(@NonNull JpegBudget jpegBudget) {
+    this.jpegBudget = jpegBudget;
+    return this;
+  }
+
+  /**
+   * If there are no {@link Transformation}s or target size, the JPEG from the camera is handed to the request as is,
+   * without being decoded and re-encoded. Orientation and mirroring are then only expressed
+   * through the EXIF orientation tag, so only use this if the consumer of the photo honors it.
+   *
+   * Requests that need a decoded photo (i.e. {@link BitmapCaptureRequest}) ignore this.
+   */
+  @NonNull
+  public PhotoCaptureRequest<T> jpegPassthrough(boolean jpegPassthrough) {
+    this.jpegPassthrough = jpegPassthrough;
+    return this;
+  }
+
+  /**
+   * Only applies together with {@link #jpegPassthrough(boolean)}. Instead of relying on the EXIF orientation tag,
+   * the orientation and mirroring are applied to the JPEG losslessly (see {@link JpegTransformer}),
+   * and the tag is reset to normal. JPEGs that can't be transformed losslessly are decoded as usual.
+   */
+  @NonNull
+  public PhotoCaptureRequest<T> losslessJpegOrientation(boolean losslessJpegOrientation) {
+    this.losslessJpegOrientation = losslessJpegOrientation;
+    return this;
+  }
+
   @NonNull
   /*package*/ PhotoCaptureSession<T> getPhotoCaptureSession() {
     return photoCaptureSession;
   }
 
-  /*package*/ void onCapture(@NonNull byte[] data, @NonNull Handler callbackHandler, @SimpleCamera.CameraType int cameraType) {
+  /*package*/ void onCapture(@NonNull byte[] data, @NonNull Handler callbackHandler, @SimpleCamera.CameraType int cameraType, @Nullable BitmapPool bitmapPool) {
+    Cancellation.setCurrent(photoCaptureSession.getCancellation());
+    try {
+      capture(data, callbackHandler, cameraType, bitmapPool);
+    }
+    catch(CancellationException e) {
+      // a stage stopped because the session was cancelled, which already let the listener know
+      if(!photoCaptureSession.isCancelled()) {
+        throw e;
+      }
+    }
+    finally {
+      Cancellation.setCurrent(null);
+    }
+  }
+
+  private void capture(@NonNull byte[] data, @NonNull Handler callbackHandler, @SimpleCamera.CameraType int cameraType, @Nullable BitmapPool bitmapPool) {
     if(photoCaptureSession.isCancelled()) return;
 
+    this.bitmapPool = bitmapPool;
+    this.callbackHandler = callbackHandler;
+
     if(cameraType != SimpleCamera.CAMERA_TYPE_FRONT) {
       mirrorFrontCameraImage = false;
     }
 
-    Bitmap photo = ByteArrayToBitmapTransformation.transform(data, mirrorFrontCameraImage);
+    if(thumbnailReadyListener != null) {
+      onThumbnail(data, callbackHandler);
+    }
+
+    JpegPassthroughTarget<T> jpegPassthroughTarget = getJpegPassthroughTarget();
+    byte[] jpeg = null;
+    if(jpegPassthrough && jpegPassthroughTarget != null && targetSize == null && (transformations == null || transformations.length == 0) &&
+        (jpegBudget == null || data.length <= jpegBudget.getMaxBytes())) {
+      jpeg = JpegPassthrough.transform(data, mirrorFrontCameraImage, losslessJpegOrientation);
+    }
+
+    Transformation[] transformations = this.transformations != null ? this.transformations : new Transformation[0];
+    TiledEncodingTarget<T> tiledEncodingTarget = getTiledEncodingTarget();
+    PhotoWriter.PhotoSource tiledPhoto = null;
+    if(jpeg == null && tileBudget != SimpleCamera.NOT_SET && tiledEncodingTarget != null) {
+      int quality = jpegBudget != null ? jpegBudget.getMaxQuality() : TiledPhotoTransformation.DEFAULT_QUALITY;
+      tiledPhoto = TiledPhotoTransformation.create(data, mirrorFrontCameraImage, bitmapPool, targetSize, scaleType, transformations, tileBudget, quality);
+    }
+
+    Bitmap photo = null;
+    if(jpeg == null && tiledPhoto == null) {
+      // geometric transformations right after decoding are drawn together with the orientation
+      List<GeometricTransformation> geometricTransformations = new ArrayList<>();
+      int next = collectGeometricTransformations(transformations, 0, geometricTransformations);
+      photo = ByteArrayToBitmapTransformation.transform(data, mirrorFrontCameraImage, bitmapPool, targetSize, scaleType, geometricTransformations);
 
-    if(transformations != null) {
-      for(Transformation transformation : transformations) {
-        if(photoCaptureSession.isCancelled()) return;
-        photo = transformation.transform(photo);
+      try {
+        while(next < transformations.length) {
+          if(photoCaptureSession.isCancelled()) {
+            releasePhoto(photo);
+            return;
+          }
+
+          Bitmap transformed;
+          geometricTransformations.clear();
+          int afterGeometric = collectGeometricTransformations(transformations, next, geometricTransformations);
+          if(afterGeometric > next) {
+            transformed = GeometricTransformation.transform(photo, geometricTransformations, bitmapPool);
+            next = afterGeometric;
+          }
+          else {
+            transformed = transformations[next++].transform(photo);
+          }
+
+          // the previous photo was only ever seen by the transformation, so it can be reused
+          if(transformed != photo) {
+            releasePhoto(photo);
+          }
+          photo = transformed;
+        }
+      }
+      catch(RuntimeException e) {
+        // give the pooled photo back right away instead of leaving it to the garbage collector
+        releasePhoto(photo);
+        throw e;
       }
     }
 
-    if(photoCaptureSession.isCancelled()) return;
+    if(photoCaptureSession.isCancelled()) {
+      releasePhoto(photo);
+      return;
+    }
 
     Throwable t = null;
     T value = null;
     try {
-      value = onTransformed(photo);
+      if(jpeg != null) {
+        value = jpegPassthroughTarget.onJpeg(jpeg);
+      }
+      else if(tiledPhoto != null) {
+        value = tiledEncodingTarget.onTiled(tiledPhoto);
+      }
+      else {
+        value = onTransformed(photo);
+      }
 
       if(!photoCaptureSession.set(value)) {
         onCancelled(value);
@@ -123,6 +394,11 @@ public abstract class PhotoCaptureRequest<T> {
         onCancelled(value);
       }
 
+      if(t instanceof CancellationException && photoCaptureSession.isCancelled()) {
+        // the stage stopped because the session was cancelled, which already let the listener know
+        return;
+      }
+
       // null this out in case it is an expensive object (e.g. Bitmap, byte[], etc...)
       // also, we don't want to pass a good value together with the Throwable
       value = null;
@@ -138,10 +414,121 @@ public abstract class PhotoCaptureRequest<T> {
     });
   }
 
+  private void onThumbnail(@NonNull byte[] data, @NonNull Handler callbackHandler) {
+    final Bitmap thumbnail;
+    try {
+      Cancellation.throwIfCurrentCancelled();
+      thumbnail = ByteArrayToBitmapTransformation.thumbnail(data, mirrorFrontCameraImage, thumbnailSize);
+    }
+    catch(RuntimeException e) {
+      // the photo itself will fail to decode, and that gets reported
+      return;
+    }
+
+    final OnThumbnailReadyListener listener = thumbnailReadyListener;
+    callbackHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        listener.onThumbnailReady(thumbnail);
+      }
+    });
+  }
+
+  // adds the run of GeometricTransformations starting at start, and returns the index after it
+  private static int collectGeometricTransformations(@NonNull Transformation[] transformations, int start, @NonNull List<GeometricTransformation> out) {
+    int i = start;
+    while(i < transformations.length && transformations[i] instanceof GeometricTransformation) {
+      out.add((GeometricTransformation) transformations[i]);
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Returns {@code photo} to the {@link BitmapPool} set on the camera, if there is one.
+   * {@code photo} must not be used after this.
+   */
+  protected void releasePhoto(@Nullable Bitmap photo) {
+    if(photo != null && bitmapPool != null) {
+      bitmapPool.put(photo);
+    }
+  }
+
+  /**
+   * Encodes {@code photo} within the {@link JpegBudget} of this request, and reports the result to the {@link OnJpegEncodedListener}.
+   */
+  @NonNull
+  /*package*/ EncodedJpeg encodeJpeg(@NonNull Bitmap photo) {
+    final EncodedJpeg jpeg = BitmapUtils.encodeJpeg(photo, jpegBudget);
+    final int quality = jpeg.getQuality();
+    final int size = jpeg.getSize();
+    if(jpegEncodedListener != null && callbackHandler != null) {
+      callbackHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          jpegEncodedListener.onJpegEncoded(quality, size);
+        }
+      });
+    }
+    return jpeg;
+  }
+
+  // encodes (and releases) photo
+  @NonNull
+  /*package*/ byte[] toJpegBytes(@NonNull Bitmap photo) {
+    try {
+      if(jpegBudget != null) {
+        EncodedJpeg jpeg = encodeJpeg(photo);
+        try {
+          return jpeg.toByteArray();
+        }
+        finally {
+          jpeg.release();
+        }
+      }
+
+      return BitmapUtils.bitmapToByteArray(photo);
+    }
+    finally {
+      releasePhoto(photo);
+    }
+  }
+
+  @NonNull
+  /*package*/ static byte[] toJpegBytes(@NonNull PhotoWriter.PhotoSource photo) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    photo.writeTo(out);
+    return out.toByteArray();
+  }
+
+  @Nullable
+  /*package*/ JpegBudget getJpegBudget() {
+    return jpegBudget;
+  }
+
+  @Nullable
+  /*package*/ BitmapPool getBitmapPool() {
+    return bitmapPool;
+  }
+
   @NonNull
   protected abstract T onTransformed(@NonNull Bitmap photo) throws Throwable;
   protected abstract void onCancelled(@NonNull T value);
 
+  @SuppressWarnings("unchecked")
+  @Nullable
+  private JpegPassthroughTarget<T> getJpegPassthroughTarget() {
+    // every request that implements it does so for its own T
+    return this instanceof JpegPassthroughTarget ? (JpegPassthroughTarget<T>) this : null;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Nullable
+  private TiledEncodingTarget<T> getTiledEncodingTarget() {
+    // every request that implements it does so for its own T
+    return this instanceof TiledEncodingTarget ? (TiledEncodingTarget<T>) this : null;
+  }
+
   @NonNull
   public PhotoCapturedListener<T> getPhotoCapturedListener() {
     return photoCapturedListener;
@@ -156,10 +543,39 @@ public abstract class PhotoCaptureRequest<T> {
     return restartPreview;
   }
 
+  public int getPriority() {
+    return priority;
+  }
+
+  /*package*/ boolean isPipelined() {
+    return pipelined;
+  }
+
+  /**
+   * Only the first call counts, so that it's the time the photo was asked for, not when the camera thread got to it.
+   */
+  /*package*/ synchronized void onShutterPressed(long time) {
+    if(shutterPressedTime == SimpleCamera.NOT_SET) {
+      shutterPressedTime = time;
+    }
+  }
+
+  /*package*/ synchronized long getShutterPressedTime() {
+    return shutterPressedTime;
+  }
+
   public interface OnShutterActionListener {
     void onShutterAction();
   }
 
+  public interface OnThumbnailReadyListener {
+    void onThumbnailReady(@NonNull Bitmap thumbnail);
+  }
+
+  public interface OnJpegEncodedListener {
+    void onJpegEncoded(int quality, int size);
+  }
+
   public interface PhotoCapturedListener<T> {
     void onPhotoCaptured(@Nullable Throwable t, @Nullable T photo);
     void onCancelled();
@@ -170,30 +586,101 @@ public abstract class PhotoCaptureRequest<T> {
     Bitmap transform(Bitmap data);
   }
 
-  public static final class ByteCaptureRequest extends PhotoCaptureRequest<byte[]> {
+  /**
+   * A {@link Transformation} that can also work on a strip of the photo at a time (see {@link #tiled(long, SizeUnit)}),
+   * because each pixel only depends on itself and its position.
+   */
+  public interface TileTransformation extends Transformation {
+    /**
+     * Transforms {@code tile} in place. {@code tile} is as wide as the photo, and holds its rows starting at {@code top}.
+     */
+    void transformTile(@NonNull Bitmap tile, int top, @NonNull Size photoSize);
+  }
+
+  /**
+   * Implemented by requests that can take the JPEG from the camera as is (see {@link #jpegPassthrough(boolean)}).
+   */
+  /*package*/ interface JpegPassthroughTarget<T> {
+    @NonNull
+    T onJpeg(@NonNull byte[] jpeg) throws Throwable;
+  }
+
+  /**
+   * Implemented by requests that can take the photo a strip at a time instead of as a whole bitmap
+   * (see {@link #tiled(long, SizeUnit)}).
+   */
+  /*package*/ interface TiledEncodingTarget<T> {
+    @NonNull
+    T onTiled(@NonNull PhotoWriter.PhotoSource photo) throws Throwable;
+  }
+
+  public static final class ByteCaptureRequest extends PhotoCaptureRequest<byte[]> implements JpegPassthroughTarget<byte[]>,
+      TiledEncodingTarget<byte[]> {
     @NonNull @Override
     protected byte[] onTransformed(@NonNull Bitmap photo) {
-      return BitmapUtils.bitmapToByteArray(photo);
+      return toJpegBytes(photo);
+    }
+
+    @NonNull @Override
+    public byte[] onJpeg(@NonNull byte[] jpeg) {
+      return jpeg;
+    }
+
+    @NonNull @Override
+    public byte[] onTiled(@NonNull PhotoWriter.PhotoSource photo) throws Throwable {
+      return toJpegBytes(photo);
     }
 
     @Override
     protected void onCancelled(@NonNull byte[] value) {}
   }
 
-  public static final class FileCaptureRequest extends PhotoCaptureRequest<File> {
+  public static final class FileCaptureRequest extends PhotoCaptureRequest<File> implements JpegPassthroughTarget<File>,
+      TiledEncodingTarget<File> {
     private File file;
+    private AtomicPhotoWriter photoWriter;
 
     private FileCaptureRequest(@NonNull String file) {
       this(new File(file));
     }
 
     private FileCaptureRequest(@NonNull File file) {
+      this(file, AtomicPhotoWriter.getDefault());
+    }
+
+    private FileCaptureRequest(@NonNull File file, @NonNull AtomicPhotoWriter photoWriter) {
       this.file = file;
+      this.photoWriter = photoWriter;
     }
 
     @NonNull @Override
     protected File onTransformed(@NonNull Bitmap photo) throws Throwable {
-      return PhotoWriter.writePhotoToFile(photo, file);
+      try {
+        if(getJpegBudget() != null) {
+          EncodedJpeg jpeg = encodeJpeg(photo);
+          try {
+            return photoWriter.write(jpeg, file);
+          }
+          finally {
+            jpeg.release();
+          }
+        }
+
+        return photoWriter.write(photo, 100, Bitmap.CompressFormat.JPEG, file);
+      }
+      finally {
+        releasePhoto(photo);
+      }
+    }
+
+    @NonNull @Override
+    public File onJpeg(@NonNull byte[] jpeg) throws Throwable {
+      return photoWriter.write(jpeg, file);
+    }
+
+    @NonNull @Override
+    public File onTiled(@NonNull PhotoWriter.PhotoSource photo) throws Throwable {
+      return photoWriter.write(photo, file);
     }
 
     @Override
@@ -202,6 +689,37 @@ public abstract class PhotoCaptureRequest<T> {
     }
   }
 
+  public static final class PendingFileCaptureRequest extends PhotoCaptureRequest<PendingPhoto> implements JpegPassthroughTarget<PendingPhoto>,
+      TiledEncodingTarget<PendingPhoto> {
+    private final File file;
+    private final PhotoPersistenceQueue persistenceQueue;
+
+    private PendingFileCaptureRequest(@NonNull File file, @NonNull PhotoPersistenceQueue persistenceQueue) {
+      this.file = file;
+      this.persistenceQueue = persistenceQueue;
+    }
+
+    @NonNull @Override
+    protected PendingPhoto onTransformed(@NonNull Bitmap photo) throws Throwable {
+      return persistenceQueue.enqueue(toJpegBytes(photo), file);
+    }
+
+    @NonNull @Override
+    public PendingPhoto onJpeg(@NonNull byte[] jpeg) throws Throwable {
+      return persistenceQueue.enqueue(jpeg, file);
+    }
+
+    @NonNull @Override
+    public PendingPhoto onTiled(@NonNull PhotoWriter.PhotoSource photo) throws Throwable {
+      return persistenceQueue.enqueue(toJpegBytes(photo), file);
+    }
+
+    @Override
+    protected void onCancelled(@NonNull PendingPhoto value) {
+      value.cancel();
+    }
+  }
+
   public static final class BitmapCaptureRequest extends PhotoCaptureRequest<Bitmap> {
     @NonNull @Override
     protected Bitmap onTransformed(@NonNull Bitmap photo) throws Throwable {
@@ -210,7 +728,217 @@ public abstract class PhotoCaptureRequest<T> {
 
     @Override
     protected void onCancelled(@NonNull Bitmap value) {
-      if(!value.isRecycled()) value.recycle();
+      if(getBitmapPool() != null) {
+        getBitmapPool().put(value);
+      }
+      else if(!value.isRecycled()) {
+        value.recycle();
+      }
+    }
+  }
+
+  /**
+   * Produces several {@link PhotoOutput}s from a single decode. A {@link PhotoPyramid} of the photo is built down
+   * to the smallest output, every output is scaled from the closest level above it, and the outputs are
+   * scaled and encoded in parallel.
+   */
+  public static final class MultiOutputCaptureRequest extends PhotoCaptureRequest<PhotoOutputs> {
+    private static ExecutorService encodeExecutor;
+
+    private final PhotoOutput[] outputs;
+
+    private MultiOutputCaptureRequest(@NonNull PhotoOutput[] outputs) {
+      if(outputs.length == 0) {
+        throw new IllegalArgumentException("At least one PhotoOutput is needed");
+      }
+
+      Set<String> names = new HashSet<>();
+      for(PhotoOutput output : outputs) {
+        if(!names.add(output.getName())) {
+          throw new IllegalArgumentException("There is more than one output named " + output.getName());
+        }
+      }
+      this.outputs = outputs.clone();
+    }
+
+    @NonNull @Override
+    protected PhotoOutputs onTransformed(@NonNull Bitmap photo) throws Throwable {
+      final Size photoSize = new Size(photo.getWidth(), photo.getHeight());
+      final PhotoPyramid pyramid = new PhotoPyramid(photo, getBitmapPool());
+      final Cancellation cancellation = Cancellation.current();
+      final PhotoOutputs result = new PhotoOutputs();
+      try {
+        Size smallest = photoSize;
+        for(PhotoOutput output : outputs) {
+          Size size = output.getOutputSize(photoSize);
+          if((long) size.width * size.height < (long) smallest.width * smallest.height) {
+            smallest = size;
+          }
+        }
+        pyramid.buildDownTo(smallest);
+
+        List<Future<Void>> futures = new ArrayList<>(outputs.length - 1);
+        for(int i = 1; i < outputs.length; i++) {
+          final PhotoOutput output = outputs[i];
+          futures.add(getEncodeExecutor().submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              produce(pyramid, output, photoSize, result, cancellation);
+              return null;
+            }
+          }));
+        }
+
+        // this thread produces the first output instead of just waiting
+        Throwable error = null;
+        try {
+          produce(pyramid, outputs[0], photoSize, result, cancellation);
+        }
+        catch(Throwable t) {
+          error = t;
+        }
+
+        // the pyramid can't be released until every output is done with it, so interrupts have to wait
+        boolean interrupted = false;
+        for(Future<Void> future : futures) {
+          while(true) {
+            try {
+              future.get();
+              break;
+            }
+            catch(InterruptedException e) {
+              interrupted = true;
+            }
+            catch(ExecutionException e) {
+              if(error == null) error = e.getCause();
+              break;
+            }
+          }
+        }
+        if(interrupted) {
+          Thread.currentThread().interrupt();
+        }
+
+        if(error != null) {
+          onCancelled(result);
+          throw error;
+        }
+        return result;
+      }
+      finally {
+        pyramid.release();
+      }
+    }
+
+    @Override
+    protected void onCancelled(@NonNull PhotoOutputs value) {
+      for(Object output : value.getOutputs().values()) {
+        if(output instanceof File) {
+          ((File) output).delete();
+        }
+        else if(output instanceof Bitmap) {
+          releasePhoto((Bitmap) output);
+        }
+      }
+    }
+
+    private static void produce(@NonNull PhotoPyramid pyramid, @NonNull PhotoOutput output, @NonNull Size photoSize,
+                                @NonNull PhotoOutputs result, @Nullable Cancellation cancellation) throws IOException {
+      if(cancellation != null) {
+        cancellation.throwIfCancelled();
+      }
+
+      Size size = output.getOutputSize(photoSize);
+      if(output.getType() == PhotoOutput.TYPE_BITMAP) {
+        result.put(output.getName(), pyramid.render(size, true));
+        return;
+      }
+
+      Bitmap bitmap = pyramid.render(size, false);
+      try {
+        if(cancellation != null) {
+          cancellation.throwIfCancelled();
+        }
+
+        if(output.getType() == PhotoOutput.TYPE_FILE) {
+          //noinspection ConstantConditions
+          result.put(output.getName(), output.getPhotoWriter().write(bitmap, output.getQuality(), output.getFormat(), output.getFile()));
+        }
+        else {
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          if(!bitmap.compress(output.getFormat(), output.getQuality(), out)) {
+            throw new IOException("The output " + output.getName() + " could not be compressed");
+          }
+          result.put(output.getName(), out.toByteArray());
+        }
+      }
+      finally {
+        pyramid.release(bitmap);
+      }
+    }
+
+    @NonNull
+    private static synchronized ExecutorService getEncodeExecutor() {
+      if(encodeExecutor == null) {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        encodeExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          @Override
+          public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, "SimpleCameraEncoder-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+      }
+      return encodeExecutor;
+    }
+  }
+
+  private static class JpegPassthrough {
+    private JpegPassthrough() {}
+
+    /**
+     * @return {@code data} with its orientation tag updated to express the mirroring (or with its orientation
+     * applied losslessly if {@code applyOrientation} is true), or null if that can't be done without decoding it
+     */
+    @Nullable
+    public static byte[] transform(@NonNull byte[] data, boolean mirrorImage, boolean applyOrientation) {
+      if(applyOrientation) {
+        return applyOrientation(data, mirrorImage);
+      }
+
+      if(!mirrorImage) {
+        return data;
+      }
+
+      int orientation = ExifUtils.getOrientation(data);
+      if(ExifUtils.setOrientation(data, ExifUtils.mirrorOrientation(orientation))) {
+        return data;
+      }
+      else {
+        return null;
+      }
+    }
+
+    @Nullable
+    private static byte[] applyOrientation(@NonNull byte[] data, boolean mirrorImage) {
+      int orientation = ExifUtils.getOrientation(data);
+      if(mirrorImage) {
+        orientation = ExifUtils.mirrorOrientation(orientation);
+      }
+
+      try {
+        byte[] transformed = JpegTransformer.transform(data, orientation);
+        if(transformed != null) {
+          ExifUtils.resetOrientation(transformed);
+        }
+        return transformed;
+      }
+      catch(IllegalArgumentException e) {
+        return null;
+      }
     }
   }
 
@@ -218,102 +946,450 @@ public abstract class PhotoCaptureRequest<T> {
     private ByteArrayToBitmapTransformation() {}
 
     @NonNull
-    public static Bitmap transform(byte[] data, boolean mirrorImage) {
-      final int orientation = getOrientation(data);
+    public static Bitmap transform(byte[] data, boolean mirrorImage, @Nullable BitmapPool bitmapPool,
+                                   @Nullable Size targetSize, @ScaleType int scaleType,
+                                   @NonNull List<GeometricTransformation> geometricTransformations) {
+      int orientation = ExifUtils.getOrientation(data);
+      if(mirrorImage) {
+        orientation = ExifUtils.mirrorOrientation(orientation);
+      }
 
-      Matrix matrix = new Matrix();
+      if(orientation == ExifUtils.ORIENTATION_NORMAL && targetSize == null && geometricTransformations.isEmpty()) {
+        return decode(data, bitmapPool);
+      }
+
+      return transformData(data, orientation, bitmapPool, targetSize, scaleType, geometricTransformations);
+    }
+
+    @NonNull
+    public static Bitmap thumbnail(@NonNull byte[] data, boolean mirrorImage, @NonNull Size maxSize) {
+      int orientation = ExifUtils.getOrientation(data);
       if(mirrorImage) {
-        matrix.postScale(-1, 1);
+        orientation = ExifUtils.mirrorOrientation(orientation);
       }
 
-      boolean shouldTransform = applyOrientation(orientation, matrix, mirrorImage);
-      if(!shouldTransform && !mirrorImage) {
-        return BitmapFactory.decodeByteArray(data, 0, data.length);
+      List<GeometricTransformation> none = Collections.emptyList();
+      byte[] thumbnail = ExifUtils.getThumbnail(data);
+      if(thumbnail != null) {
+        try {
+          return transformData(thumbnail, orientation, null, maxSize, SCALE_TYPE_FIT, none);
+        }
+        catch(IllegalArgumentException ignore) {
+          // fall back to the photo if the embedded thumbnail is corrupt
+        }
       }
 
-      return transformData(data, matrix);
+      return transformData(data, orientation, null, maxSize, SCALE_TYPE_FIT, none);
     }
 
-    private static int getOrientation(byte[] data) {
-      InputStream is = null;
+    @NonNull
+    private static Matrix getOrientationMatrix(int orientation) {
+      Matrix matrix = new Matrix();
+      switch (orientation) {
+        case ExifUtils.ORIENTATION_FLIP_HORIZONTAL:
+          matrix.postScale(-1, 1);
+          break;
+        case ExifUtils.ORIENTATION_ROTATE_180:
+          matrix.postRotate(180);
+          break;
+        case ExifUtils.ORIENTATION_FLIP_VERTICAL:
+          matrix.postScale(1, -1);
+          break;
+        case ExifUtils.ORIENTATION_TRANSPOSE:
+          matrix.postRotate(90);
+          matrix.postScale(-1, 1);
+          break;
+        case ExifUtils.ORIENTATION_ROTATE_90:
+          matrix.postRotate(90);
+          break;
+        case ExifUtils.ORIENTATION_TRANSVERSE:
+          matrix.postRotate(270);
+          matrix.postScale(-1, 1);
+          break;
+        case ExifUtils.ORIENTATION_ROTATE_270:
+          matrix.postRotate(270);
+          break;
+      }
+      return matrix;
+    }
+
+    private static Bitmap decode(@NonNull byte[] data, @Nullable BitmapPool bitmapPool) {
+      BitmapFactory.Options options = new BitmapFactory.Options();
+      if(bitmapPool != null) {
+        decodeBounds(data, options);
+      }
+      return decode(data, options, bitmapPool);
+    }
+
+    private static void decodeBounds(@NonNull byte[] data, @NonNull BitmapFactory.Options options) {
+      options.inJustDecodeBounds = true;
+      BitmapFactory.decodeByteArray(data, 0, data.length, options);
+      options.inJustDecodeBounds = false;
+    }
+
+    // if there is a bitmapPool, options needs to have had its bounds decoded with its current inSampleSize
+    private static Bitmap decode(@NonNull byte[] data, @NonNull BitmapFactory.Options options, @Nullable BitmapPool bitmapPool) {
+      Cancellation cancellation = Cancellation.current();
+      if(cancellation == null) {
+        return decodeReusing(data, options, bitmapPool);
+      }
+
+      Bitmap bitmap;
+      cancellation.beginDecode(options);
       try {
-        is = new ByteArrayInputStream(data);
-        Metadata metadata = ImageMetadataReader.readMetadata(is);
-        Collection<ExifIFD0Directory> directories = metadata.getDirectoriesOfType(ExifIFD0Directory.class);
-        for(ExifIFD0Directory directory : directories) {
-          if(directory.containsTag(ExifDirectoryBase.TAG_ORIENTATION)) {
-            return directory.getInt(ExifDirectoryBase.TAG_ORIENTATION);
-          }
+        bitmap = decodeReusing(data, options, bitmapPool);
+      }
+      finally {
+        cancellation.endDecode(options);
+      }
+
+      if(cancellation.isCancelled()) {
+        // requestCancelDecode leaves a partial (or no) result behind
+        if(bitmap != null) {
+          releaseDecoded(bitmap, bitmapPool);
+        }
+        else if(options.inBitmap != null && bitmapPool != null) {
+          bitmapPool.put(options.inBitmap);
         }
+        cancellation.throwIfCancelled();
+      }
+      return bitmap;
+    }
+
+    private static void releaseDecoded(@NonNull Bitmap bitmap, @Nullable BitmapPool bitmapPool) {
+      if(bitmapPool != null) {
+        bitmapPool.put(bitmap);
+      }
+      else {
+        bitmap.recycle();
+      }
+    }
 
-        return ExifInterface.ORIENTATION_NORMAL;
+    private static Bitmap decodeReusing(@NonNull byte[] data, @NonNull BitmapFactory.Options options, @Nullable BitmapPool bitmapPool) {
+      if(bitmapPool == null) {
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
       }
-      catch (Exception e) {
-        return ExifInterface.ORIENTATION_NORMAL;
+
+      options.inMutable = true;
+      // before KitKat a Bitmap can only be reused by a decode that isn't subsampled
+      boolean canReuse = options.inSampleSize <= 1 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+      if(canReuse && options.outWidth > 0 && options.outHeight > 0) {
+        options.inBitmap = bitmapPool.get(options.outWidth, options.outHeight, Bitmap.Config.ARGB_8888);
+      }
+
+      try {
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+      }
+      catch(IllegalArgumentException e) {
+        // the decoder couldn't reuse inBitmap
+        bitmapPool.put(options.inBitmap);
+        options.inBitmap = null;
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+      }
+    }
+
+    @NonNull
+    private static Bitmap transformData(@NonNull byte[] data, int orientation, @Nullable BitmapPool bitmapPool,
+                                        @Nullable Size targetSize, @ScaleType int scaleType,
+                                        @NonNull List<GeometricTransformation> geometricTransformations) {
+      BitmapFactory.Options options = new BitmapFactory.Options();
+      decodeBounds(data, options);
+      int width = options.outWidth;
+      int height = options.outHeight;
+
+      Matrix matrix = new Matrix();
+      Size size = planTransform(width, height, orientation, targetSize, scaleType, geometricTransformations, matrix);
+
+      // let the decoder do as much of the scaling down as it can, so the full size photo is never in memory
+      if(width > 0 && height > 0) {
+        options.inSampleSize = getSampleSize(getMinScale(matrix));
+        if(options.inSampleSize > 1) {
+          decodeBounds(data, options);
+        }
+      }
+
+      Bitmap picture = null;
+      try {
+        picture = decode(data, options, bitmapPool);
+        if(picture == null) {
+          throw new IllegalArgumentException("The photo could not be decoded");
+        }
+
+        Cancellation.throwIfCurrentCancelled();
+
+        // map the decoded photo onto the full size one, and everything else follows from there
+        matrix.preScale(width / (float) picture.getWidth(), height / (float) picture.getHeight());
+
+        if(matrix.isIdentity() && picture.getWidth() == size.width && picture.getHeight() == size.height) {
+          Bitmap transformedPicture = picture;
+          picture = null;
+          return transformedPicture;
+        }
+
+        return GeometricTransformation.draw(picture, matrix, size, bitmapPool);
       }
       finally {
-        if(is != null) try { is.close(); } catch(Exception ignore) {}
+        if(picture != null) {
+          releaseDecoded(picture, bitmapPool);
+        }
       }
     }
 
-    private static boolean applyOrientation(int orientation, @NonNull Matrix matrix, boolean mirrorImage) {
-      switch (orientation) {
-        case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
-          if(!mirrorImage) matrix.postScale(-1, 1);
-          return true;
-        case ExifInterface.ORIENTATION_ROTATE_180:
-          if(!mirrorImage) {
-            matrix.postRotate(180);
-          }
-          return true;
-        case ExifInterface.ORIENTATION_FLIP_VERTICAL:
-          if(!mirrorImage) matrix.postScale(-1, 1);
-          return true;
-        case ExifInterface.ORIENTATION_TRANSPOSE:
-          if(!mirrorImage) matrix.postScale(-1, 1);
-          return true;
-        case ExifInterface.ORIENTATION_ROTATE_90:
-          if(mirrorImage) {
-            matrix.postRotate(270);
-          }
-          else {
-            matrix.postRotate(90);
+    /**
+     * Sets {@code matrix} to map the full size photo (that is {@code width}x{@code height}) onto the output,
+     * going through its orientation, the target size, and {@code geometricTransformations}.
+     *
+     * @return the size of the output
+     */
+    @NonNull
+    private static Size planTransform(int width, int height, int orientation, @Nullable Size targetSize, @ScaleType int scaleType,
+                                       @NonNull List<GeometricTransformation> geometricTransformations, @NonNull Matrix matrix) {
+      matrix.set(getOrientationMatrix(orientation));
+
+      RectF bounds = new RectF(0, 0, width, height);
+      matrix.mapRect(bounds);
+      matrix.postTranslate(-bounds.left, -bounds.top);
+      Size size = new Size(Math.round(bounds.width()), Math.round(bounds.height()));
+
+      if(targetSize != null && width > 0 && height > 0) {
+        float scaleX = targetSize.width / bounds.width();
+        float scaleY = targetSize.height / bounds.height();
+        float scale = Math.min(1f, scaleType == SCALE_TYPE_FILL ? Math.max(scaleX, scaleY) : Math.min(scaleX, scaleY));
+
+        int outputWidth = Math.max(1, Math.round(bounds.width() * scale));
+        int outputHeight = Math.max(1, Math.round(bounds.height() * scale));
+        if(scaleType == SCALE_TYPE_FILL) {
+          outputWidth = Math.min(outputWidth, targetSize.width);
+          outputHeight = Math.min(outputHeight, targetSize.height);
+        }
+
+        // center it in the output, which crops it when filling
+        matrix.postScale(scale, scale);
+        matrix.postTranslate(-(bounds.width() * scale - outputWidth) / 2f, -(bounds.height() * scale - outputHeight) / 2f);
+        size = new Size(outputWidth, outputHeight);
+      }
+
+      for(GeometricTransformation transformation : geometricTransformations) {
+        size = transformation.apply(size, matrix);
+      }
+
+      return size;
+    }
+
+    // the smallest amount that either axis of the source gets scaled by
+    private static float getMinScale(@NonNull Matrix matrix) {
+      float[] values = new float[9];
+      matrix.getValues(values);
+      double scaleX = Math.hypot(values[Matrix.MSCALE_X], values[Matrix.MSKEW_Y]);
+      double scaleY = Math.hypot(values[Matrix.MSKEW_X], values[Matrix.MSCALE_Y]);
+      return (float) Math.min(scaleX, scaleY);
+    }
+
+    // the largest power of 2 that doesn't subsample below scale
+    private static int getSampleSize(float scale) {
+      int sampleSize = 1;
+      while(scale > 0 && scale * sampleSize * 2 <= 1f) {
+        sampleSize *= 2;
+      }
+      return sampleSize;
+    }
+  }
+
+  private static class TiledPhotoTransformation implements PhotoWriter.PhotoSource {
+    private static final int MIN_STRIP_HEIGHT = 16;
+    private static final int BYTES_PER_PIXEL = 4;
+    /*package*/ static final int DEFAULT_QUALITY = 100;
+
+    private final byte[] data;
+    private final int orientation;
+    private final BitmapPool bitmapPool;
+    private final Size targetSize;
+    @ScaleType private final int scaleType;
+    private final List<GeometricTransformation> geometricTransformations;
+    private final List<TileTransformation> tileTransformations;
+    private final long tileBudget;
+    private final int quality;
+
+    private TiledPhotoTransformation(byte[] data, int orientation, BitmapPool bitmapPool, Size targetSize, int scaleType,
+                                     List<GeometricTransformation> geometricTransformations,
+                                     List<TileTransformation> tileTransformations, long tileBudget, int quality) {
+      this.data = data;
+      this.orientation = orientation;
+      this.bitmapPool = bitmapPool;
+      this.targetSize = targetSize;
+      this.scaleType = scaleType;
+      this.geometricTransformations = geometricTransformations;
+      this.tileTransformations = tileTransformations;
+      this.tileBudget = tileBudget;
+      this.quality = quality;
+    }
+
+    /**
+     * @return null if {@code transformations} can't all be applied a strip at a time
+     */
+    @Nullable
+    public static TiledPhotoTransformation create(@NonNull byte[] data, boolean mirrorImage, @Nullable BitmapPool bitmapPool,
+                                                  @Nullable Size targetSize, @ScaleType int scaleType,
+                                                  @NonNull Transformation[] transformations, long tileBudget, int quality) {
+      List<GeometricTransformation> geometricTransformations = new ArrayList<>();
+      int next = collectGeometricTransformations(transformations, 0, geometricTransformations);
+
+      List<TileTransformation> tileTransformations = new ArrayList<>();
+      for(int i = next; i < transformations.length; i++) {
+        if(!(transformations[i] instanceof TileTransformation)) {
+          return null;
+        }
+        tileTransformations.add((TileTransformation) transformations[i]);
+      }
+
+      int orientation = ExifUtils.getOrientation(data);
+      if(mirrorImage) {
+        orientation = ExifUtils.mirrorOrientation(orientation);
+      }
+
+      return new TiledPhotoTransformation(data, orientation, bitmapPool, targetSize, scaleType,
+          geometricTransformations, tileTransformations, tileBudget, quality);
+    }
+
+    @Override
+    public void writeTo(@NonNull OutputStream out) throws IOException {
+      BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(data, 0, data.length, false);
+      Bitmap strip = null;
+      try {
+        int width = decoder.getWidth();
+        int height = decoder.getHeight();
+
+        Matrix matrix = new Matrix();
+        Size size = ByteArrayToBitmapTransformation.planTransform(width, height, orientation, targetSize, scaleType,
+            geometricTransformations, matrix);
+        Matrix inverse = new Matrix();
+        if(!matrix.invert(inverse)) {
+          throw new IllegalArgumentException("The photo can't be transformed to " + size.width + "x" + size.height);
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = ByteArrayToBitmapTransformation.getSampleSize(ByteArrayToBitmapTransformation.getMinScale(matrix));
+        // leave room around each region for filtering, so the strips don't have seams
+        int margin = 2 * options.inSampleSize;
+
+        int stripHeight = getStripHeight(size, (width / options.inSampleSize) * (long) (height / options.inSampleSize));
+        int[] pixels = new int[size.width * stripHeight];
+        JpegEncoder encoder = new JpegEncoder(out, size.width, size.height, quality);
+
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        Matrix stripMatrix = new Matrix();
+        RectF stripBounds = new RectF();
+        Rect region = new Rect();
+        for(int top = 0; top < size.height; top += stripHeight) {
+          Cancellation.throwIfCurrentCancelled();
+
+          int rows = Math.min(stripHeight, size.height - top);
+          if(strip == null || strip.getHeight() != rows) {
+            releaseBitmap(strip);
+            strip = obtainBitmap(size.width, rows);
           }
-          return true;
-        case ExifInterface.ORIENTATION_TRANSVERSE:
-          if(!mirrorImage) matrix.postScale(-1, 1);
-          return true;
-        case ExifInterface.ORIENTATION_ROTATE_270:
-          if(mirrorImage) {
-            matrix.postRotate(90);
+          strip.eraseColor(Color.TRANSPARENT);
+
+          // the part of the photo that ends up in this strip
+          stripBounds.set(0, top, size.width, top + rows);
+          inverse.mapRect(stripBounds);
+          region.set((int) Math.floor(stripBounds.left) - margin, (int) Math.floor(stripBounds.top) - margin,
+              (int) Math.ceil(stripBounds.right) + margin, (int) Math.ceil(stripBounds.bottom) + margin);
+
+          if(region.intersect(0, 0, width, height)) {
+            Bitmap decoded = decodeRegion(decoder, region, options);
+            try {
+              stripMatrix.setScale(region.width() / (float) decoded.getWidth(), region.height() / (float) decoded.getHeight());
+              stripMatrix.postTranslate(region.left, region.top);
+              stripMatrix.postConcat(matrix);
+              stripMatrix.postTranslate(0, -top);
+              new Canvas(strip).drawBitmap(decoded, stripMatrix, paint);
+            }
+            finally {
+              releaseBitmap(decoded);
+            }
           }
-          else {
-            matrix.postRotate(270);
+
+          for(TileTransformation tileTransformation : tileTransformations) {
+            tileTransformation.transformTile(strip, top, size);
           }
-          return true;
-        default:
-          return false;
+
+          strip.getPixels(pixels, 0, size.width, 0, 0, size.width, rows);
+          encoder.writeRows(pixels, 0, size.width, rows);
+        }
+
+        encoder.finish();
+      }
+      finally {
+        releaseBitmap(strip);
+        decoder.recycle();
       }
     }
 
+    // a strip row costs a row of the strip, a row of pixels for the encoder, and its share of the decoded regions
+    private int getStripHeight(@NonNull Size size, long decodedPixels) {
+      long bytesPerRow = BYTES_PER_PIXEL * (2L * size.width + Math.max(1, decodedPixels / size.height));
+      long stripHeight = tileBudget / bytesPerRow;
+      stripHeight -= stripHeight % MIN_STRIP_HEIGHT;
+      return (int) Math.min(size.height, Math.max(MIN_STRIP_HEIGHT, stripHeight));
+    }
+
     @NonNull
-    private static Bitmap transformData(@NonNull byte[] data, @NonNull Matrix matrix) {
-      Bitmap picture = null;
-      Bitmap tranformedPicture;
+    private Bitmap decodeRegion(@NonNull BitmapRegionDecoder decoder, @NonNull Rect region, @NonNull BitmapFactory.Options options) {
+      options.inBitmap = null;
+      // region decoders can reuse any large enough Bitmap starting with KitKat
+      if(bitmapPool != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+        int sampleSize = options.inSampleSize;
+        options.inBitmap = bitmapPool.get((region.width() + sampleSize - 1) / sampleSize,
+            (region.height() + sampleSize - 1) / sampleSize, Bitmap.Config.ARGB_8888);
+      }
 
-      try {
-        picture = BitmapFactory.decodeByteArray(data, 0, data.length);
+      Cancellation cancellation = Cancellation.current();
+      if(cancellation != null) {
+        cancellation.beginDecode(options);
+      }
 
-        tranformedPicture = Bitmap.createBitmap(picture, 0, 0, picture.getWidth(), picture.getHeight(), matrix, true);
-        if(tranformedPicture != picture) {
-          picture.recycle();
+      Bitmap decoded;
+      try {
+        decoded = decoder.decodeRegion(region, options);
+      }
+      catch(IllegalArgumentException e) {
+        // the decoder couldn't reuse inBitmap
+        releaseBitmap(options.inBitmap);
+        options.inBitmap = null;
+        decoded = decoder.decodeRegion(region, options);
+      }
+      finally {
+        if(cancellation != null) {
+          cancellation.endDecode(options);
         }
-        picture = null;
+      }
 
-        return tranformedPicture;
+      if(cancellation != null && cancellation.isCancelled()) {
+        releaseBitmap(decoded != null ? decoded : options.inBitmap);
+        cancellation.throwIfCancelled();
       }
-      finally {
-        if(picture != null) picture.recycle();
+
+      if(decoded == null) {
+        throw new IllegalArgumentException("Couldn't decode " + region + " of the photo");
+      }
+      return decoded;
+    }
+
+    @NonNull
+    private Bitmap obtainBitmap(int width, int height) {
+      Bitmap bitmap = bitmapPool != null ? bitmapPool.get(width, height, Bitmap.Config.ARGB_8888) : null;
+      return bitmap != null ? bitmap : Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private void releaseBitmap(@Nullable Bitmap bitmap) {
+      if(bitmap == null) return;
+
+      if(bitmapPool != null) {
+        bitmapPool.put(bitmap);
+      }
+      else {
+        bitmap.recycle();
       }
     }
   }
@@ -7,6 +7,7 @@ import android.support.annotation.Nullable;
 public final class PhotoCaptureSession<T> extends CaptureSession<T> {
   private PhotoCaptureRequest.PhotoCapturedListener<T> photoCapturedListener;
   private Handler callbackHandler;
+  private final Cancellation cancellation = new Cancellation();
 
   private final Runnable callCancelCallback = new Runnable() {
     @Override
@@ -45,10 +46,19 @@ public final class PhotoCaptureSession<T> extends CaptureSession<T> {
   @Override
   /*package*/ synchronized boolean cancel(@Nullable Throwable throwable) {
     boolean notCanceledYet = throwable == null ? super.cancel() : super.cancel(throwable);
+    if(notCanceledYet) {
+      // stop whatever is processing the photo
+      cancellation.cancel();
+    }
     if(notCanceledYet && callbackHandler != null) {
       if(throwable == null) callbackHandler.post(callCancelCallback);
       else callbackHandler.post(new ErrorCallbackRunnable(throwable));
     }
     return notCanceledYet;
   }
+
+  @NonNull
+  /*package*/ Cancellation getCancellation() {
+    return cancellation;
+  }
 }
@@ -0,0 +1,105 @@
+package com.staticbloc.media.camera;
+
+public final class PhotoCaptureStats {
+  private final long captureLatencyMillis;
+  private final long readyLatencyMillis;
+  private final long shotToShotIntervalMillis;
+  private final int photosProcessing;
+  private final int captureQueueDepth;
+  private final int maxCaptureQueueDepth;
+  private final long captureQueueWaitMillis;
+  private final long averageCaptureQueueWaitMillis;
+  private final int photosDropped;
+
+  /*package*/ PhotoCaptureStats(long captureLatencyMillis, long readyLatencyMillis, long shotToShotIntervalMillis, int photosProcessing,
+                              int captureQueueDepth, int maxCaptureQueueDepth, long captureQueueWaitMillis,
+                              long averageCaptureQueueWaitMillis, int photosDropped) {
+    this.captureLatencyMillis = captureLatencyMillis;
+    this.readyLatencyMillis = readyLatencyMillis;
+    this.shotToShotIntervalMillis = shotToShotIntervalMillis;
+    this.photosProcessing = photosProcessing;
+    this.captureQueueDepth = captureQueueDepth;
+    this.maxCaptureQueueDepth = maxCaptureQueueDepth;
+    this.captureQueueWaitMillis = captureQueueWaitMillis;
+    this.averageCaptureQueueWaitMillis = averageCaptureQueueWaitMillis;
+    this.photosDropped = photosDropped;
+  }
+
+  /**
+   * @return how long the last photo took to arrive from the camera after it was requested, or -1 if no photo was taken yet
+   */
+  public long getCaptureLatencyMillis() {
+    return captureLatencyMillis;
+  }
+
+  /**
+   * @return how long it took after the last photo arrived until another photo could be taken, or -1 if no photo was taken yet
+   */
+  public long getReadyLatencyMillis() {
+    return readyLatencyMillis;
+  }
+
+  /**
+   * @return the time between the last two photos that were taken, or -1 if fewer than two were taken
+   */
+  public long getShotToShotIntervalMillis() {
+    return shotToShotIntervalMillis;
+  }
+
+  /**
+   * @return the number of photos that arrived from the camera and are still being processed
+   */
+  public int getPhotosProcessing() {
+    return photosProcessing;
+  }
+
+  /**
+   * @return the number of photos that are waiting for the camera to finish taking another photo
+   */
+  public int getCaptureQueueDepth() {
+    return captureQueueDepth;
+  }
+
+  /**
+   * @return the most photos that were waiting for the camera at once
+   */
+  public int getMaxCaptureQueueDepth() {
+    return maxCaptureQueueDepth;
+  }
+
+  /**
+   * @return how long the last photo that the camera took waited for it, or -1 if no photo was taken yet
+   */
+  public long getCaptureQueueWaitMillis() {
+    return captureQueueWaitMillis;
+  }
+
+  /**
+   * @return how long photos waited for the camera on average, or -1 if no photo was taken yet
+   */
+  public long getAverageCaptureQueueWaitMillis() {
+    return averageCaptureQueueWaitMillis;
+  }
+
+  /**
+   * @return the number of photos that were cancelled because too many photos were waiting for the camera
+   */
+  public int getPhotosDropped() {
+    return photosDropped;
+  }
+
+  @Override
+  public String toString() {
+    return "PhotoCaptureStats{" +
+        "captureLatencyMillis=" + captureLatencyMillis +
+        ", readyLatencyMillis=" + readyLatencyMillis +
+        ", shotToShotIntervalMillis=" + shotToShotIntervalMillis +
+        ", photosProcessing=" + photosProcessing +
+        ", captureQueueDepth=" + captureQueueDepth +
+        ", maxCaptureQueueDepth=" + maxCaptureQueueDepth +
+        ", captureQueueWaitMillis=" + captureQueueWaitMillis +
+        ", averageCaptureQueueWaitMillis=" + averageCaptureQueueWaitMillis +
+        ", photosDropped=" + photosDropped +
+        '}';
+  }
+}
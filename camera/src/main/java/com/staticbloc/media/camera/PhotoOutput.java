@@ -0,0 +1,127 @@
+package com.staticbloc.media.camera;
+
+import android.graphics.Bitmap;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.staticbloc.media.utils.AtomicPhotoWriter;
+import com.staticbloc.media.utils.Size;
+
+import java.io.File;
+
+/**
+ * One of the outputs of a {@link PhotoCaptureRequest.MultiOutputCaptureRequest}. Outputs are scaled down
+ * (never up) to fit in their {@link #maxSize(Size)}, keeping the aspect ratio of the photo.
+ */
+public final class PhotoOutput {
+  /*package*/ static final int TYPE_FILE = 0;
+  /*package*/ static final int TYPE_BITMAP = 1;
+  /*package*/ static final int TYPE_BYTES = 2;
+
+  private final String name;
+  private final int type;
+  private final File file;
+  private final AtomicPhotoWriter photoWriter;
+  private Size maxSize;
+  private Bitmap.CompressFormat format = Bitmap.CompressFormat.JPEG;
+  private int quality = 100;
+
+  private PhotoOutput(@NonNull String name, int type, @Nullable File file, @Nullable AtomicPhotoWriter photoWriter) {
+    this.name = name;
+    this.type = type;
+    this.file = file;
+    this.photoWriter = photoWriter;
+  }
+
+  @NonNull
+  public static PhotoOutput file(@NonNull String name, @NonNull File file) {
+    return file(name, file, AtomicPhotoWriter.getDefault());
+  }
+
+  /**
+   * The output is written with {@code photoWriter} (e.g. to sync photos to storage) instead of {@link AtomicPhotoWriter#getDefault()}.
+   */
+  @NonNull
+  public static PhotoOutput file(@NonNull String name, @NonNull File file, @NonNull AtomicPhotoWriter photoWriter) {
+    return new PhotoOutput(name, TYPE_FILE, file, photoWriter);
+  }
+
+  @NonNull
+  public static PhotoOutput bitmap(@NonNull String name) {
+    return new PhotoOutput(name, TYPE_BITMAP, null, null);
+  }
+
+  @NonNull
+  public static PhotoOutput bytes(@NonNull String name) {
+    return new PhotoOutput(name, TYPE_BYTES, null, null);
+  }
+
+  @NonNull
+  public PhotoOutput maxSize(@NonNull Size maxSize) {
+    if(maxSize.width <= 0 || maxSize.height <= 0) {
+      throw new IllegalArgumentException("maxSize must have a positive width and height");
+    }
+    this.maxSize = maxSize;
+    return this;
+  }
+
+  /**
+   * Defaults to JPEG with quality 100. Bitmap outputs aren't compressed, so this can't be set for them.
+   */
+  @NonNull
+  public PhotoOutput format(@NonNull Bitmap.CompressFormat format, @IntRange(from=1, to=100) int quality) {
+    if(type == TYPE_BITMAP) {
+      throw new IllegalStateException("The bitmap output " + name + " is not compressed");
+    }
+    if(quality < 1 || quality > 100) {
+      throw new IllegalArgumentException("quality must be within 1 - 100 (was " + quality + ")");
+    }
+    this.format = format;
+    this.quality = quality;
+    return this;
+  }
+
+  @NonNull
+  public String getName() {
+    return name;
+  }
+
+  @Nullable
+  public Size getMaxSize() {
+    return maxSize;
+  }
+
+  @NonNull
+  public Bitmap.CompressFormat getFormat() {
+    return format;
+  }
+
+  public int getQuality() {
+    return quality;
+  }
+
+  /*package*/ int getType() {
+    return type;
+  }
+
+  @Nullable
+  /*package*/ File getFile() {
+    return file;
+  }
+
+  @Nullable
+  /*package*/ AtomicPhotoWriter getPhotoWriter() {
+    return photoWriter;
+  }
+
+  // the size of this output for a photo that is photoSize
+  @NonNull
+  /*package*/ Size getOutputSize(@NonNull Size photoSize) {
+    if(maxSize == null) {
+      return photoSize;
+    }
+
+    float scale = Math.min(1f, Math.min(maxSize.width / (float) photoSize.width, maxSize.height / (float) photoSize.height));
+    return new Size(Math.max(1, Math.round(photoSize.width * scale)), Math.max(1, Math.round(photoSize.height * scale)));
+  }
+}
@@ -0,0 +1,66 @@
+package com.staticbloc.media.camera;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The result of a {@link PhotoCaptureRequest.MultiOutputCaptureRequest}, holding every {@link PhotoOutput} by its name.
+ */
+public final class PhotoOutputs {
+  private final Map<String, Object> outputs = new LinkedHashMap<>();
+
+  /*package*/ PhotoOutputs() {}
+
+  @NonNull
+  public File getFile(@NonNull String name) {
+    return get(name, File.class);
+  }
+
+  @NonNull
+  public Bitmap getBitmap(@NonNull String name) {
+    return get(name, Bitmap.class);
+  }
+
+  @NonNull
+  public byte[] getBytes(@NonNull String name) {
+    return get(name, byte[].class);
+  }
+
+  @NonNull
+  public synchronized Set<String> getNames() {
+    return Collections.unmodifiableSet(new LinkedHashSet<>(outputs.keySet()));
+  }
+
+  /*package*/ synchronized void put(@NonNull String name, @NonNull Object output) {
+    outputs.put(name, output);
+  }
+
+  @NonNull
+  /*package*/ synchronized Map<String, Object> getOutputs() {
+    return new LinkedHashMap<>(outputs);
+  }
+
+  @NonNull
+  private synchronized <O> O get(@NonNull String name, @NonNull Class<O> type) {
+    Object output = outputs.get(name);
+    if(output == null) {
+      throw new IllegalArgumentException("There is no output named " + name);
+    }
+    if(!type.isInstance(output)) {
+      throw new IllegalArgumentException("The output " + name + " is not a " + type.getSimpleName());
+    }
+    return type.cast(output);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "PhotoOutputs{" + outputs.keySet() + '}';
+  }
+}
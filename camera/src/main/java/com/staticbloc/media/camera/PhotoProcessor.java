@@ -0,0 +1,183 @@
+package com.staticbloc.media.camera;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*package*/ class PhotoProcessor {
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  private final Executor executor;
+  private final ThreadPoolExecutor ownedExecutor;
+  @SimpleCamera.ProcessingBackpressure private final int backpressure;
+
+  // with PROCESSING_BACKPRESSURE_BLOCK, photos that didn't fit in the queue wait here instead of on the camera thread
+  private final Queue<Task> held = new ArrayDeque<>();
+
+  /*package*/ PhotoProcessor(@NonNull Executor executor) {
+    this.executor = executor;
+    this.ownedExecutor = null;
+    this.backpressure = SimpleCamera.PROCESSING_BACKPRESSURE_REJECT;
+  }
+
+  /*package*/ PhotoProcessor(int threadCount, int queueSize, @SimpleCamera.ProcessingBackpressure int backpressure) {
+    ownedExecutor = new ThreadPoolExecutor(threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(queueSize), new ProcessorThreadFactory(), new BackpressureHandler());
+    ownedExecutor.allowCoreThreadTimeOut(true);
+    executor = ownedExecutor;
+    this.backpressure = backpressure;
+  }
+
+  /**
+   * With {@link SimpleCamera#PROCESSING_BACKPRESSURE_BLOCK}, the camera shouldn't take another photo while this is true,
+   * so that photos wait in the capture queue instead of piling up here.
+   */
+  /*package*/ boolean isFull() {
+    if(ownedExecutor == null || backpressure != SimpleCamera.PROCESSING_BACKPRESSURE_BLOCK) {
+      return false;
+    }
+
+    synchronized(held) {
+      return !held.isEmpty() || ownedExecutor.getQueue().remainingCapacity() == 0;
+    }
+  }
+
+  /**
+   * Runs {@code job} on the processing executor. {@code after} always runs once {@code job} is done,
+   * or if {@code job} is dropped (in which case {@code session} is cancelled).
+   */
+  /*package*/ void process(@NonNull PhotoCaptureSession<?> session, @NonNull Runnable job, @NonNull Runnable after) {
+    Task task = new Task(session, job, after);
+    try {
+      executor.execute(task);
+    }
+    catch(RejectedExecutionException e) {
+      task.reject(e);
+    }
+  }
+
+  /*package*/ void shutdown() {
+    if(ownedExecutor != null) {
+      ownedExecutor.shutdown();
+    }
+
+    Task task;
+    while((task = pollHeld()) != null) {
+      task.reject(new RejectedExecutionException("The photo processor was shut down"));
+    }
+  }
+
+  @Nullable
+  private Task pollHeld() {
+    synchronized(held) {
+      return held.poll();
+    }
+  }
+
+  // moves held photos into the queue as it makes room
+  private void submitHeld() {
+    boolean submitted = false;
+    synchronized(held) {
+      Task task;
+      while((task = held.peek()) != null && !ownedExecutor.isShutdown() && ownedExecutor.getQueue().offer(task)) {
+        held.remove();
+        submitted = true;
+      }
+    }
+
+    // the queue was filled directly, so make sure there is a thread to take from it
+    if(submitted) {
+      ownedExecutor.prestartCoreThread();
+    }
+  }
+
+  private class Task implements Runnable {
+    private final PhotoCaptureSession<?> session;
+    private final Runnable job;
+    private final Runnable after;
+
+    private Task(PhotoCaptureSession<?> session, Runnable job, Runnable after) {
+      this.session = session;
+      this.job = job;
+      this.after = after;
+    }
+
+    @Override
+    public void run() {
+      try {
+        job.run();
+      }
+      catch(Throwable t) {
+        session.cancel(t);
+      }
+      finally {
+        if(ownedExecutor != null) {
+          submitHeld();
+        }
+        after.run();
+      }
+    }
+
+    private void reject(@NonNull Throwable t) {
+      try {
+        session.cancel(t);
+      }
+      finally {
+        after.run();
+      }
+    }
+  }
+
+  private class BackpressureHandler implements RejectedExecutionHandler {
+    @Override
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+      Task task = (Task) r;
+
+      if(executor.isShutdown()) {
+        task.reject(new RejectedExecutionException("The photo processor was shut down"));
+        return;
+      }
+
+      switch(backpressure) {
+        case SimpleCamera.PROCESSING_BACKPRESSURE_BLOCK:
+          // never wait for room here, since this runs on the camera thread
+          synchronized(held) {
+            held.add(task);
+          }
+          // a thread might have finished in the meantime
+          submitHeld();
+          break;
+        case SimpleCamera.PROCESSING_BACKPRESSURE_DROP_OLDEST:
+          Runnable oldest = executor.getQueue().poll();
+          if(oldest != null) {
+            ((Task) oldest).reject(new RejectedExecutionException("Dropped to make room for a newer photo"));
+          }
+          executor.execute(task);
+          break;
+        case SimpleCamera.PROCESSING_BACKPRESSURE_REJECT:
+        default:
+          task.reject(new RejectedExecutionException("Too many photos are waiting to be processed"));
+          break;
+      }
+    }
+  }
+
+  private static class ProcessorThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(@NonNull Runnable r) {
+      return new Thread(r, "SimpleCameraPhotoProcessor-" + count.incrementAndGet());
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package com.staticbloc.media.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.staticbloc.media.utils.BitmapPool;
+import com.staticbloc.media.utils.Size;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Successive halvings of a photo. Scaling a smaller output from the closest level above it is cheaper than scaling it
+ * from the full size photo, and doesn't alias the way a single large bilinear downscale does.
+ */
+/*package*/ final class PhotoPyramid {
+  private final BitmapPool bitmapPool;
+  // levels.get(0) is the photo
+  private final List<Bitmap> levels = new ArrayList<>();
+  private final List<Bitmap> taken = new ArrayList<>();
+
+  /*package*/ PhotoPyramid(@NonNull Bitmap photo, @Nullable BitmapPool bitmapPool) {
+    this.bitmapPool = bitmapPool;
+    levels.add(photo);
+  }
+
+  /**
+   * Adds levels until the next one would be smaller than {@code smallest}.
+   */
+  /*package*/ void buildDownTo(@NonNull Size smallest) {
+    Bitmap level = levels.get(levels.size() - 1);
+    while(level.getWidth() / 2 >= smallest.width && level.getHeight() / 2 >= smallest.height) {
+      Size half = new Size(level.getWidth() / 2, level.getHeight() / 2);
+      level = scale(level, half);
+      levels.add(level);
+    }
+  }
+
+  /**
+   * Scales the smallest level that is at least {@code size} to {@code size}. Different threads can render at the same time.
+   *
+   * @param take if the result can be a level itself, which then isn't released with the pyramid
+   */
+  @NonNull
+  /*package*/ Bitmap render(@NonNull Size size, boolean take) {
+    Bitmap source = levels.get(0);
+    for(Bitmap level : levels) {
+      if(level.getWidth() < size.width || level.getHeight() < size.height) {
+        break;
+      }
+      source = level;
+    }
+
+    if(source.getWidth() == size.width && source.getHeight() == size.height) {
+      if(take) {
+        synchronized(taken) {
+          if(!taken.contains(source)) {
+            taken.add(source);
+            return source;
+          }
+        }
+      }
+      Bitmap copy = source.copy(source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888, true);
+      if(copy == null) {
+        throw new IllegalStateException("Could not copy a " + size.width + "x" + size.height + " level of the photo");
+      }
+      return copy;
+    }
+
+    return scale(source, size);
+  }
+
+  /**
+   * Returns the levels that weren't taken to the pool (or recycles them if there isn't one).
+   */
+  /*package*/ void release() {
+    synchronized(taken) {
+      for(Bitmap level : levels) {
+        if(!taken.contains(level)) {
+          release(level);
+        }
+      }
+    }
+    levels.clear();
+  }
+
+  /*package*/ void release(@NonNull Bitmap bitmap) {
+    if(bitmapPool != null) {
+      bitmapPool.put(bitmap);
+    }
+    else {
+      bitmap.recycle();
+    }
+  }
+
+  @NonNull
+  private Bitmap scale(@NonNull Bitmap source, @NonNull Size size) {
+    Matrix matrix = new Matrix();
+    matrix.setScale(size.width / (float) source.getWidth(), size.height / (float) source.getHeight());
+    return GeometricTransformation.draw(source, matrix, size, bitmapPool);
+  }
+}
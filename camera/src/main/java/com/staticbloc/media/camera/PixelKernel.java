@@ -0,0 +1,90 @@
+package com.staticbloc.media.camera;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import com.staticbloc.media.imaging.RowBands;
+import com.staticbloc.media.utils.Size;
+
+/**
+ * A {@link PhotoCaptureRequest.Transformation} that works on the ARGB pixels of the photo directly, a band of rows
+ * at a time. The bands are processed in parallel on {@link RowBands#getDefault()}, which is sized to the device's cores,
+ * so each pixel may only depend on itself and its position (e.g. color grading, or a watermark). The band buffers are
+ * reused across photos, so {@link #processBand(int[], int, int, int, Size)} must not hold on to them.
+ *
+ * Since it is also a {@link PhotoCaptureRequest.TileTransformation}, it works with tiled photos
+ * (see {@link PhotoCaptureRequest#tiled(long, com.staticbloc.media.utils.SizeUnit)}).
+ */
+public abstract class PixelKernel implements PhotoCaptureRequest.TileTransformation {
+  // about 256KB of pixels per band
+  private static final int BAND_PIXELS = 64 * 1024;
+
+  // every thread keeps its band buffer
+  private static final ThreadLocal<int[]> bandBuffers = new ThreadLocal<>();
+
+  /**
+   * Transforms {@code band} in place.
+   *
+   * @param band {@code rowCount} rows of {@code width} ARGB pixels, one after another
+   * @param top the row of the photo that the first row of {@code band} is
+   */
+  public abstract void processBand(@NonNull int[] band, int width, int top, int rowCount, @NonNull Size photoSize);
+
+  @NonNull
+  @Override
+  public final Bitmap transform(Bitmap data) {
+    Bitmap photo = data;
+    if(!photo.isMutable()) {
+      photo = data.copy(data.getConfig() != null ? data.getConfig() : Bitmap.Config.ARGB_8888, true);
+      if(photo == null) {
+        throw new IllegalStateException("Could not copy the photo to apply " + getClass().getSimpleName());
+      }
+    }
+
+    process(photo, 0, new Size(photo.getWidth(), photo.getHeight()));
+    return photo;
+  }
+
+  @Override
+  public final void transformTile(@NonNull Bitmap tile, int top, @NonNull Size photoSize) {
+    process(tile, top, photoSize);
+  }
+
+  // top is the row of the photo that the first row of bitmap is
+  private void process(@NonNull final Bitmap bitmap, final int top, @NonNull final Size photoSize) {
+    final int width = bitmap.getWidth();
+    int height = bitmap.getHeight();
+    if(width <= 0 || height <= 0) {
+      return;
+    }
+
+    // RowBands hands out bigger bands than a buffer should be, so each of them is worked on a buffer at a time
+    final int bandRows = Math.max(1, BAND_PIXELS / width);
+    final Cancellation cancellation = Cancellation.current();
+    RowBands.getDefault().run(height, bandRows, new RowBands.Task() {
+      @Override
+      public void run(int y, int rowCount) {
+        int[] buffer = getBandBuffer(width * bandRows);
+        for(int end = y + rowCount; y < end; y += bandRows) {
+          if(cancellation != null) {
+            cancellation.throwIfCancelled();
+          }
+
+          int rows = Math.min(bandRows, end - y);
+          bitmap.getPixels(buffer, 0, width, 0, y, width, rows);
+          processBand(buffer, width, top + y, rows, photoSize);
+          bitmap.setPixels(buffer, 0, width, 0, y, width, rows);
+        }
+      }
+    });
+  }
+
+  @NonNull
+  private static int[] getBandBuffer(int size) {
+    int[] buffer = bandBuffers.get();
+    if(buffer == null || buffer.length < size) {
+      buffer = new int[size];
+      bandBuffers.set(buffer);
+    }
+    return buffer;
+  }
+}
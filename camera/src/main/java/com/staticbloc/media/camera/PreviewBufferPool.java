@@ -0,0 +1,154 @@
+package com.staticbloc.media.camera;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import com.staticbloc.media.utils.Size;
+
+/**
+ * The buffers that the camera fills with preview frames, allocated once for a preview size and format, and handed back and forth
+ * with {@link Camera#addCallbackBuffer(byte[])}. A buffer goes back to the camera when every reference to its {@link PreviewFrame}
+ * is released, so a steady preview doesn't allocate anything. If every buffer is held the camera drops frames until one is released.
+ *
+ * Only used on the camera thread, except for {@link #recycle(PreviewFrame)}.
+ */
+/*package*/ final class PreviewBufferPool implements Camera.PreviewCallback {
+  private final Size previewSize;
+  private final int previewFormat;
+  private final PreviewFrame[] frames;
+  private final boolean[] withCamera;
+  private final Handler handler;
+  private final OnFrameListener listener;
+
+  private Camera camera;
+
+  /**
+   * @param handler the camera thread's handler
+   */
+  /*package*/ PreviewBufferPool(@NonNull Size previewSize, int previewFormat, int bufferCount, @SimpleCamera.CameraType int cameraType,
+                                @NonNull Handler handler, @NonNull OnFrameListener listener) {
+    if(bufferCount < 1) {
+      throw new IllegalArgumentException("A preview buffer pool needs at least 1 buffer");
+    }
+
+    this.previewSize = previewSize;
+    this.previewFormat = previewFormat;
+    this.handler = handler;
+    this.listener = listener;
+
+    int bufferSize = getBufferSize(previewSize, previewFormat);
+    frames = new PreviewFrame[bufferCount];
+    for(int i = 0; i < bufferCount; i++) {
+      frames[i] = new PreviewFrame(this, new byte[bufferSize], previewSize, previewFormat, cameraType);
+    }
+    withCamera = new boolean[bufferCount];
+  }
+
+  /*package*/ boolean matches(@NonNull Size previewSize, int previewFormat, int bufferCount) {
+    return this.previewSize.equals(previewSize) && this.previewFormat == previewFormat && frames.length == bufferCount;
+  }
+
+  /**
+   * Starts filling the buffers from {@code camera}'s preview. Buffers that are still held are given to the camera once they're released.
+   */
+  /*package*/ void attach(@NonNull Camera camera) {
+    this.camera = camera;
+
+    // setting the callback clears the buffers that the camera had
+    camera.setPreviewCallbackWithBuffer(this);
+    for(int i = 0; i < frames.length; i++) {
+      withCamera[i] = false;
+      giveToCamera(i);
+    }
+  }
+
+  /*package*/ void detach() {
+    if(camera != null) {
+      camera.setPreviewCallbackWithBuffer(null);
+      camera = null;
+    }
+    for(int i = 0; i < frames.length; i++) {
+      withCamera[i] = false;
+    }
+  }
+
+  @Override
+  public void onPreviewFrame(byte[] data, Camera camera) {
+    if(data == null || camera != this.camera) {
+      return;
+    }
+
+    int index = indexOf(data);
+    if(index == -1) {
+      return;
+    }
+
+    withCamera[index] = false;
+    PreviewFrame frame = frames[index];
+    frame.onFilled(SystemClock.elapsedRealtime());
+    listener.onPreviewFrame(frame);
+    frame.release();
+  }
+
+  /**
+   * Called from any thread once every reference to {@code frame} is released.
+   */
+  /*package*/ void recycle(@NonNull final PreviewFrame frame) {
+    if(Looper.myLooper() == handler.getLooper()) {
+      giveToCamera(indexOf(frame.getData()));
+    }
+    else {
+      handler.post(new Runnable() {
+        @Override
+        public void run() {
+          giveToCamera(indexOf(frame.getData()));
+        }
+      });
+    }
+  }
+
+  private void giveToCamera(int index) {
+    // the frame could have been retained again by the time a recycle gets here
+    if(camera == null || index == -1 || withCamera[index] || frames[index].getReferenceCount() > 0) {
+      return;
+    }
+
+    withCamera[index] = true;
+    camera.addCallbackBuffer(frames[index].getData());
+  }
+
+  private int indexOf(byte[] data) {
+    for(int i = 0; i < frames.length; i++) {
+      if(frames[i].getData() == data) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /*package*/ static int getBufferSize(@NonNull Size previewSize, int previewFormat) {
+    if(previewFormat == ImageFormat.YV12) {
+      // YV12 rows are aligned to 16 bytes (see Camera.Parameters#setPreviewFormat)
+      int yStride = (previewSize.width + 15) / 16 * 16;
+      int uvStride = (yStride / 2 + 15) / 16 * 16;
+      return yStride * previewSize.height + uvStride * (previewSize.height / 2) * 2;
+    }
+
+    int bitsPerPixel = ImageFormat.getBitsPerPixel(previewFormat);
+    if(bitsPerPixel <= 0) {
+      throw new IllegalArgumentException("Can't size preview buffers for format " + previewFormat);
+    }
+    return previewSize.width * previewSize.height * bitsPerPixel / 8;
+  }
+
+  /*package*/ interface OnFrameListener {
+    /**
+     * Called on the camera thread. The pool releases its reference to {@code frame} once this returns,
+     * so anything that keeps the frame has to {@link PreviewFrame#retain()} it.
+     */
+    void onPreviewFrame(@NonNull PreviewFrame frame);
+  }
+}
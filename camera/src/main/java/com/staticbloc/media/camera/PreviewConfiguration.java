@@ -0,0 +1,94 @@
+package com.staticbloc.media.camera;
+
+/**
+ * How the preview runs: its frame rate range, its format, and whether the camera was told that video will be recorded
+ * (see {@link PreviewConfigurationStrategy}).
+ */
+public final class PreviewConfiguration {
+  private final int minFpsScaled;
+  private final int maxFpsScaled;
+  private final int format;
+  private final boolean recordingHint;
+
+  /**
+   * @param minFpsScaled the lowest frame rate, in frames per second times 1000 (like {@code Camera.Parameters.getSupportedPreviewFpsRange()})
+   * @param maxFpsScaled the highest frame rate, in frames per second times 1000
+   * @param format an {@link android.graphics.ImageFormat}
+   */
+  public PreviewConfiguration(int minFpsScaled, int maxFpsScaled, int format, boolean recordingHint) {
+    if(minFpsScaled < 0 || maxFpsScaled < minFpsScaled) {
+      throw new IllegalArgumentException("[" + minFpsScaled + ", " + maxFpsScaled + "] is not an fps range");
+    }
+
+    this.minFpsScaled = minFpsScaled;
+    this.maxFpsScaled = maxFpsScaled;
+    this.format = format;
+    this.recordingHint = recordingHint;
+  }
+
+  /**
+   * @return the lowest frame rate, in frames per second times 1000
+   */
+  public int getMinFpsScaled() {
+    return minFpsScaled;
+  }
+
+  /**
+   * @return the highest frame rate, in frames per second times 1000
+   */
+  public int getMaxFpsScaled() {
+    return maxFpsScaled;
+  }
+
+  public float getMinFps() {
+    return minFpsScaled / 1000f;
+  }
+
+  public float getMaxFps() {
+    return maxFpsScaled / 1000f;
+  }
+
+  /**
+   * @return the {@link android.graphics.ImageFormat} of the preview frames
+   */
+  public int getFormat() {
+    return format;
+  }
+
+  public boolean isRecordingHint() {
+    return recordingHint;
+  }
+
+  /*package*/ PreviewConfiguration withFormat(int format) {
+    return format == this.format ? this : new PreviewConfiguration(minFpsScaled, maxFpsScaled, format, recordingHint);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if(this == o) return true;
+    if(o == null || getClass() != o.getClass()) return false;
+
+    PreviewConfiguration that = (PreviewConfiguration) o;
+
+    return minFpsScaled == that.minFpsScaled && maxFpsScaled == that.maxFpsScaled &&
+        format == that.format && recordingHint == that.recordingHint;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = minFpsScaled;
+    result = 31 * result + maxFpsScaled;
+    result = 31 * result + format;
+    result = 31 * result + (recordingHint ? 1 : 0);
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "PreviewConfiguration{" +
+        "fps=[" + getMinFps() + ", " + getMaxFps() + "]" +
+        ", format=" + format +
+        ", recordingHint=" + recordingHint +
+        '}';
+  }
+}
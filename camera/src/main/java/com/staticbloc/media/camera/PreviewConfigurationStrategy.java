@@ -0,0 +1,115 @@
+package com.staticbloc.media.camera;
+
+import android.graphics.ImageFormat;
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * Picks how the preview runs, the way {@link SizeStrategy} picks its size. The chosen configuration is reported
+ * through {@link SimpleCamera.Callbacks#onPreviewConfigurationChanged(PreviewConfiguration)}.
+ */
+public interface PreviewConfigurationStrategy {
+  /**
+   * @param supportedFpsRanges {@code [min, max]} frame rates times 1000, from {@code Camera.Parameters.getSupportedPreviewFpsRange()}
+   * @param deviceDefault what the camera would do if nothing was changed (with the recording hint from
+   * {@link SimpleCamera.Builder#willRecordVideo(boolean)}), which is a valid choice
+   */
+  @NonNull PreviewConfiguration getPreviewConfiguration(@NonNull List<int[]> supportedFpsRanges, @NonNull List<Integer> supportedFormats,
+                                                        @NonNull PreviewConfiguration deviceDefault);
+
+  class DefaultPreviewConfigurationStrategy implements PreviewConfigurationStrategy {
+    private static final int DEFAULT_LOW_POWER_FPS = 15;
+
+    @SimpleCamera.PreviewGoal private final int goal;
+    private final int targetFpsScaled;
+
+    /**
+     * Leaves the preview the way the camera has it.
+     */
+    public DefaultPreviewConfigurationStrategy() {
+      this(SimpleCamera.PREVIEW_GOAL_DEVICE_DEFAULT);
+    }
+
+    /**
+     * For {@link SimpleCamera#PREVIEW_GOAL_LOW_POWER} the preview aims for 15 fps.
+     */
+    public DefaultPreviewConfigurationStrategy(@SimpleCamera.PreviewGoal int goal) {
+      this(goal, DEFAULT_LOW_POWER_FPS);
+    }
+
+    /**
+     * @param targetFps the frame rate that {@link SimpleCamera#PREVIEW_GOAL_LOW_POWER} has to reach (e.g. what a viewfinder
+     * or an analyzer needs); it's ignored for the other goals
+     */
+    public DefaultPreviewConfigurationStrategy(@SimpleCamera.PreviewGoal int goal, int targetFps) {
+      if(targetFps < 1) {
+        throw new IllegalArgumentException("targetFps has to be at least 1");
+      }
+      this.goal = goal;
+      this.targetFpsScaled = targetFps * 1000;
+    }
+
+    @NonNull
+    @Override
+    public PreviewConfiguration getPreviewConfiguration(@NonNull List<int[]> supportedFpsRanges, @NonNull List<Integer> supportedFormats,
+                                                       @NonNull PreviewConfiguration deviceDefault) {
+      if(supportedFpsRanges.isEmpty()) {
+        return deviceDefault;
+      }
+
+      // frames are read on the CPU for the throughput and latency goals, and every device can give them as NV21
+      int frameFormat = supportedFormats.contains(ImageFormat.NV21) ? ImageFormat.NV21 : deviceDefault.getFormat();
+
+      int[] range;
+      switch(goal) {
+        case SimpleCamera.PREVIEW_GOAL_MAX_THROUGHPUT:
+          // the most frames, held as steady as the camera allows
+          range = supportedFpsRanges.get(0);
+          for(int[] option : supportedFpsRanges) {
+            if(option[1] > range[1] || (option[1] == range[1] && option[0] > range[0])) {
+              range = option;
+            }
+          }
+          return new PreviewConfiguration(range[0], range[1], frameFormat, deviceDefault.isRecordingHint());
+
+        case SimpleCamera.PREVIEW_GOAL_LOW_LATENCY:
+          // the shortest time between frames, even in low light (where the camera would otherwise slow down to expose longer)
+          range = supportedFpsRanges.get(0);
+          for(int[] option : supportedFpsRanges) {
+            if(option[0] > range[0] || (option[0] == range[0] && option[1] > range[1])) {
+              range = option;
+            }
+          }
+          return new PreviewConfiguration(range[0], range[1], frameFormat, deviceDefault.isRecordingHint());
+
+        case SimpleCamera.PREVIEW_GOAL_LOW_POWER:
+          // the slowest range that reaches the target, with the lowest minimum so that the camera can slow down further in low light;
+          // the recording hint can keep video paths (e.g. stabilization) running, so it's off
+          range = null;
+          for(int[] option : supportedFpsRanges) {
+            if(option[1] < targetFpsScaled) {
+              continue;
+            }
+            if(range == null || option[1] < range[1] || (option[1] == range[1] && option[0] < range[0])) {
+              range = option;
+            }
+          }
+          if(range == null) {
+            // nothing reaches the target, so get as close as possible
+            range = supportedFpsRanges.get(0);
+            for(int[] option : supportedFpsRanges) {
+              if(option[1] > range[1] || (option[1] == range[1] && option[0] < range[0])) {
+                range = option;
+              }
+            }
+          }
+          return new PreviewConfiguration(range[0], range[1], deviceDefault.getFormat(), false);
+
+        case SimpleCamera.PREVIEW_GOAL_DEVICE_DEFAULT:
+        default:
+          return deviceDefault;
+      }
+    }
+  }
+}
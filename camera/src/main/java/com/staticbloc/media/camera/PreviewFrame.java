@@ -0,0 +1,132 @@
+package com.staticbloc.media.camera;
+
+import android.support.annotation.NonNull;
+import com.staticbloc.media.utils.Size;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A preview frame from the camera (see {@link SimpleCamera#addFrameConsumer(SimpleCamera.FrameConsumer)}).
+ *
+ * The data is in one of the camera's preview buffers, which goes back to the camera once every reference to the frame
+ * is released. Every {@link SimpleCamera.FrameConsumer} gets its own reference, and has to {@link #release()} it exactly once
+ * (from any thread); after that the data can be overwritten by a later frame at any time. Code that hands the frame
+ * to more than one owner can {@link #retain()} it for each extra owner.
+ */
+public final class PreviewFrame {
+  private final PreviewBufferPool pool;
+  private final byte[] data;
+  private final Size size;
+  private final int format;
+  @SimpleCamera.CameraType private final int cameraType;
+  private final AtomicInteger references = new AtomicInteger();
+
+  private volatile long timestamp;
+  private volatile int orientation;
+
+  /*package*/ PreviewFrame(@NonNull PreviewBufferPool pool, @NonNull byte[] data, @NonNull Size size, int format, @SimpleCamera.CameraType int cameraType) {
+    this.pool = pool;
+    this.data = data;
+    this.size = size;
+    this.format = format;
+    this.cameraType = cameraType;
+  }
+
+  /**
+   * @return the frame, in {@link #getFormat()}
+   */
+  @NonNull
+  public byte[] getData() {
+    return data;
+  }
+
+  /**
+   * @return when the frame arrived from the camera, in {@link android.os.SystemClock#elapsedRealtime()} time
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  @NonNull
+  public Size getSize() {
+    return size;
+  }
+
+  /**
+   * @return the {@link android.graphics.ImageFormat} of the frame
+   */
+  public int getFormat() {
+    return format;
+  }
+
+  /**
+   * @return how many degrees clockwise the frame has to be rotated to be upright, given how the device was held when it arrived
+   */
+  public int getOrientation() {
+    return orientation;
+  }
+
+  @SimpleCamera.CameraType
+  public int getCameraType() {
+    return cameraType;
+  }
+
+  /**
+   * Adds a reference to the frame, which has to be {@link #release() released} separately.
+   *
+   * @throws IllegalStateException if the frame was already released by all of its owners
+   */
+  @NonNull
+  public PreviewFrame retain() {
+    while(true) {
+      int count = references.get();
+      if(count <= 0) {
+        throw new IllegalStateException("A PreviewFrame can't be retained after it was released");
+      }
+      if(references.compareAndSet(count, count + 1)) {
+        return this;
+      }
+    }
+  }
+
+  /**
+   * Gives up a reference to the frame. Once every reference is released the buffer goes back to the camera.
+   *
+   * @throws IllegalStateException if the frame was released more times than it was retained
+   */
+  public void release() {
+    int count = references.decrementAndGet();
+    if(count == 0) {
+      pool.recycle(this);
+    }
+    else if(count < 0) {
+      references.incrementAndGet();
+      throw new IllegalStateException("A PreviewFrame was released more times than it was retained");
+    }
+  }
+
+  /*package*/ int getReferenceCount() {
+    return references.get();
+  }
+
+  // called on the camera thread when the camera fills the buffer; the pool holds the first reference
+  /*package*/ void onFilled(long timestamp) {
+    this.timestamp = timestamp;
+    references.set(1);
+  }
+
+  /*package*/ void setOrientation(int orientation) {
+    this.orientation = orientation;
+  }
+
+  @Override
+  public String toString() {
+    return "PreviewFrame{" +
+        "size=" + size +
+        ", format=" + format +
+        ", timestamp=" + timestamp +
+        ", orientation=" + orientation +
+        ", references=" + references.get() +
+        '}';
+  }
+}
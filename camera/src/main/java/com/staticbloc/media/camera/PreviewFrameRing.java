@@ -0,0 +1,81 @@
+package com.staticbloc.media.camera;
+
+import android.hardware.Camera;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps the most recent preview frames, so that a photo can be made from the frame that was on screen when the shutter
+ * was pressed instead of waiting for {@link Camera#takePicture}. The ring holds a reference to each frame it keeps,
+ * and keeps fewer frames than it has room for, so that the camera always has a buffer of its share to fill.
+ *
+ * Only used on the camera thread.
+ */
+/*package*/ final class PreviewFrameRing {
+  private final int frameCount;
+  // newest last
+  private final ArrayDeque<PreviewFrame> ring;
+  private int lockedCount;
+
+  /**
+   * @param frameCount how many of the preview buffers are for the ring
+   */
+  /*package*/ PreviewFrameRing(int frameCount) {
+    if(frameCount < 2) {
+      throw new IllegalArgumentException("A preview frame ring needs at least 2 frames");
+    }
+
+    this.frameCount = frameCount;
+    ring = new ArrayDeque<>(frameCount);
+  }
+
+  /*package*/ void add(@NonNull PreviewFrame frame) {
+    ring.addLast(frame.retain());
+    trim();
+  }
+
+  /**
+   * Takes the frame that arrived closest to {@code time} out of the ring, until it is {@link #unlock(PreviewFrame) unlocked}.
+   *
+   * @return null if there is no frame yet
+   */
+  @Nullable
+  /*package*/ PreviewFrame lockClosest(long time) {
+    PreviewFrame closest = null;
+    for(PreviewFrame frame : ring) {
+      if(closest == null || Math.abs(frame.getTimestamp() - time) < Math.abs(closest.getTimestamp() - time)) {
+        closest = frame;
+      }
+    }
+
+    if(closest != null) {
+      ring.remove(closest);
+      lockedCount++;
+    }
+    return closest;
+  }
+
+  /*package*/ void unlock(@NonNull PreviewFrame frame) {
+    lockedCount--;
+    frame.release();
+  }
+
+  /**
+   * Drops the frames that were kept, since they're stale.
+   */
+  /*package*/ void clear() {
+    while(!ring.isEmpty()) {
+      ring.removeFirst().release();
+    }
+  }
+
+  // gives the oldest frames back, so that the camera always has at least one buffer to fill
+  private void trim() {
+    int maxKept = frameCount - lockedCount - 1;
+    while(ring.size() > Math.max(0, maxKept)) {
+      ring.removeFirst().release();
+    }
+  }
+}
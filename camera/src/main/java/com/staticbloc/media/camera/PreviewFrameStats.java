@@ -0,0 +1,157 @@
+package com.staticbloc.media.camera;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Locale;
+
+/**
+ * How steadily preview frames arrive (see {@link SimpleCamera#getPreviewFrameStats()}), since the camera was opened.
+ * Intervals are bucketed to a quarter of a millisecond, so the percentiles are that accurate.
+ */
+public final class PreviewFrameStats {
+  @IntDef({TIMING_SOURCE_NONE, TIMING_SOURCE_PREVIEW_CALLBACK, TIMING_SOURCE_SURFACE_TEXTURE})
+  @Retention(RetentionPolicy.SOURCE)
+  public @interface TimingSource {}
+
+  // no frames were timed yet
+  public static final int TIMING_SOURCE_NONE = 0;
+  // frames are timed when their preview buffer is delivered (only while there is a FrameConsumer or zero shutter lag is used)
+  public static final int TIMING_SOURCE_PREVIEW_CALLBACK = 1;
+  // frames are timed with SurfaceTexture.getTimestamp() (see SimpleCamera#onPreviewFrameRendered(long))
+  public static final int TIMING_SOURCE_SURFACE_TEXTURE = 2;
+
+  @TimingSource private final int timingSource;
+  private final long frameCount;
+  private final float fps;
+  private final long droppedFrames;
+  private final long medianIntervalNanos;
+  private final long p90IntervalNanos;
+  private final long p99IntervalNanos;
+  private final long maxIntervalNanos;
+  private final long[] intervalBuckets;
+  private final long bucketNanos;
+
+  /*package*/ PreviewFrameStats(@TimingSource int timingSource, long frameCount, float fps, long droppedFrames, long medianIntervalNanos,
+                              long p90IntervalNanos, long p99IntervalNanos, long maxIntervalNanos, @NonNull long[] intervalBuckets,
+                              long bucketNanos) {
+    this.timingSource = timingSource;
+    this.frameCount = frameCount;
+    this.fps = fps;
+    this.droppedFrames = droppedFrames;
+    this.medianIntervalNanos = medianIntervalNanos;
+    this.p90IntervalNanos = p90IntervalNanos;
+    this.p99IntervalNanos = p99IntervalNanos;
+    this.maxIntervalNanos = maxIntervalNanos;
+    this.intervalBuckets = intervalBuckets;
+    this.bucketNanos = bucketNanos;
+  }
+
+  @TimingSource
+  public int getTimingSource() {
+    return timingSource;
+  }
+
+  public long getFrameCount() {
+    return frameCount;
+  }
+
+  /**
+   * @return the frame rate over the last 32 frames, or 0 if there weren't 2 frames yet
+   */
+  public float getFps() {
+    return fps;
+  }
+
+  /**
+   * @return an estimate of how many frames were missed, from the intervals that are at least 1.5 times the median interval
+   */
+  public long getDroppedFrames() {
+    return droppedFrames;
+  }
+
+  /**
+   * @return the median interval between frames, or -1 if there weren't 2 frames yet
+   */
+  public long getMedianIntervalNanos() {
+    return medianIntervalNanos;
+  }
+
+  /**
+   * @return the 90th percentile of the intervals between frames, or -1 if there weren't 2 frames yet
+   */
+  public long getP90IntervalNanos() {
+    return p90IntervalNanos;
+  }
+
+  /**
+   * @return the 99th percentile of the intervals between frames, or -1 if there weren't 2 frames yet
+   */
+  public long getP99IntervalNanos() {
+    return p99IntervalNanos;
+  }
+
+  /**
+   * @return the longest interval between frames, or -1 if there weren't 2 frames yet
+   */
+  public long getMaxIntervalNanos() {
+    return maxIntervalNanos;
+  }
+
+  /**
+   * @return how much later than the median interval the 90th percentile is, or -1 if there weren't 2 frames yet
+   */
+  public long getP90JitterNanos() {
+    return medianIntervalNanos == SimpleCamera.NOT_SET ? SimpleCamera.NOT_SET : p90IntervalNanos - medianIntervalNanos;
+  }
+
+  /**
+   * @return how much later than the median interval the 99th percentile is, or -1 if there weren't 2 frames yet
+   */
+  public long getP99JitterNanos() {
+    return medianIntervalNanos == SimpleCamera.NOT_SET ? SimpleCamera.NOT_SET : p99IntervalNanos - medianIntervalNanos;
+  }
+
+  /**
+   * @return the stats and every non empty bucket of the interval histogram, one per line, for attaching to bug reports
+   */
+  @NonNull
+  public String dump() {
+    StringBuilder sb = new StringBuilder(toString());
+    int last = intervalBuckets.length - 1;
+    for(int i = 0; i <= last; i++) {
+      if(intervalBuckets[i] == 0) {
+        continue;
+      }
+
+      sb.append('\n');
+      if(i == last) {
+        sb.append(String.format(Locale.US, ">= %.2fms: %d", toMillis(i * bucketNanos), intervalBuckets[i]));
+      }
+      else {
+        sb.append(String.format(Locale.US, "%.2f-%.2fms: %d", toMillis(i * bucketNanos), toMillis((i + 1) * bucketNanos), intervalBuckets[i]));
+      }
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public String toString() {
+    return "PreviewFrameStats{" +
+        "timingSource=" + timingSource +
+        ", frameCount=" + frameCount +
+        ", fps=" + String.format(Locale.US, "%.2f", fps) +
+        ", droppedFrames=" + droppedFrames +
+        ", medianIntervalNanos=" + medianIntervalNanos +
+        ", p90IntervalNanos=" + p90IntervalNanos +
+        ", p99IntervalNanos=" + p99IntervalNanos +
+        ", maxIntervalNanos=" + maxIntervalNanos +
+        '}';
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / 1_000_000.0;
+  }
+}
@@ -5,7 +5,9 @@ import android.os.Handler;
 import android.os.Looper;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.StringDef;
+import com.staticbloc.media.utils.BitmapPool;
 import com.staticbloc.media.utils.Size;
 import com.staticbloc.media.utils.SizeUnit;
 
@@ -16,6 +18,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 public abstract class SimpleCamera {
@@ -31,6 +34,22 @@ public abstract class SimpleCamera {
   @Retention(RetentionPolicy.SOURCE)
   public @interface FlashMode {}
 
+  @IntDef({PROCESSING_BACKPRESSURE_BLOCK, PROCESSING_BACKPRESSURE_DROP_OLDEST, PROCESSING_BACKPRESSURE_REJECT})
+  @Retention(RetentionPolicy.SOURCE)
+  public @interface ProcessingBackpressure {}
+
+  @IntDef({PHOTO_CAPTURE_MODE_SEQUENTIAL, PHOTO_CAPTURE_MODE_LOW_LATENCY, PHOTO_CAPTURE_MODE_ZERO_SHUTTER_LAG})
+  @Retention(RetentionPolicy.SOURCE)
+  public @interface PhotoCaptureMode {}
+
+  @IntDef({CAPTURE_QUEUE_OVERFLOW_DROP_NEWEST, CAPTURE_QUEUE_OVERFLOW_DROP_OLDEST, CAPTURE_QUEUE_OVERFLOW_REJECT})
+  @Retention(RetentionPolicy.SOURCE)
+  public @interface CaptureQueueOverflow {}
+
+  @IntDef({PREVIEW_GOAL_DEVICE_DEFAULT, PREVIEW_GOAL_MAX_THROUGHPUT, PREVIEW_GOAL_LOW_POWER, PREVIEW_GOAL_LOW_LATENCY})
+  @Retention(RetentionPolicy.SOURCE)
+  public @interface PreviewGoal {}
+
   public static final int CAMERA_TYPE_ALL = 0;
   public static final int CAMERA_TYPE_FRONT = 1;
   public static final int CAMERA_TYPE_BACK = 2;
@@ -42,6 +61,40 @@ public abstract class SimpleCamera {
   public static final String FLASH_MODE_RED_EYE = "red-eye";
   public static final String FLASH_MODE_TORCH = "torch";
 
+  // what happens to a photo when the photo processing queue is full
+  // don't take another photo until there is room in the queue (photos wait in the capture queue, and the camera thread never blocks)
+  public static final int PROCESSING_BACKPRESSURE_BLOCK = 0;
+  // cancel the oldest photo that is waiting to be processed
+  public static final int PROCESSING_BACKPRESSURE_DROP_OLDEST = 1;
+  // cancel the new photo
+  public static final int PROCESSING_BACKPRESSURE_REJECT = 2;
+
+  // the preview restarts, and another photo can be taken, once the previous photo is done processing
+  public static final int PHOTO_CAPTURE_MODE_SEQUENTIAL = 0;
+  // the preview restarts, and another photo can be taken, as soon as the previous photo arrives from the camera
+  public static final int PHOTO_CAPTURE_MODE_LOW_LATENCY = 1;
+  // the photo is made from the preview frame that was showing when the shutter was pressed, so it has the preview's size,
+  // and the preview keeps running; the camera only takes the photo if there is no preview frame yet
+  public static final int PHOTO_CAPTURE_MODE_ZERO_SHUTTER_LAG = 2;
+
+  // what happens to a photo when too many photos are waiting for the camera
+  // cancel the newest photo with the lowest priority (which can be the new one)
+  public static final int CAPTURE_QUEUE_OVERFLOW_DROP_NEWEST = 0;
+  // cancel the oldest photo with the lowest priority (unless the new one has a lower priority, in which case it's cancelled)
+  public static final int CAPTURE_QUEUE_OVERFLOW_DROP_OLDEST = 1;
+  // cancel the new photo with an error
+  public static final int CAPTURE_QUEUE_OVERFLOW_REJECT = 2;
+
+  // what the preview is configured for (see PreviewConfigurationStrategy.DefaultPreviewConfigurationStrategy)
+  // leave the preview the way the camera has it
+  public static final int PREVIEW_GOAL_DEVICE_DEFAULT = 0;
+  // as many preview frames as possible (e.g. for frame analysis)
+  public static final int PREVIEW_GOAL_MAX_THROUGHPUT = 1;
+  // the lowest frame rate that is good enough, to save power and keep the device cool (e.g. for a viewfinder)
+  public static final int PREVIEW_GOAL_LOW_POWER = 2;
+  // the shortest time between frames, even in low light
+  public static final int PREVIEW_GOAL_LOW_LATENCY = 3;
+
   protected static final int NOT_SET = -1;
 
   public static final class Builder {
@@ -49,6 +102,7 @@ public abstract class SimpleCamera {
 
     /*package*/ Handler callbackHandler;
     /*package*/ SizeStrategy sizeStrategy;
+    /*package*/ PreviewConfigurationStrategy previewConfigurationStrategy;
 
     /*package*/ Set<String> nonAllowedFlashModes;
     /*package*/ boolean willRecordVideo = false;
@@ -61,6 +115,17 @@ public abstract class SimpleCamera {
     /*package*/ String shutterSoundOverridePath = null;
     /*package*/ int shutterSoundOverrideRes = NOT_SET;
 
+    /*package*/ Executor photoProcessingExecutor;
+    /*package*/ int photoProcessingThreads = NOT_SET;
+    /*package*/ int photoProcessingQueueSize = NOT_SET;
+    /*package*/ int photoProcessingBackpressure = PROCESSING_BACKPRESSURE_BLOCK;
+    /*package*/ int photoCaptureMode = PHOTO_CAPTURE_MODE_SEQUENTIAL;
+    /*package*/ int zeroShutterLagFrames = 3;
+    /*package*/ int previewFrameBuffers = 3;
+    /*package*/ int captureQueueDepth = NOT_SET;
+    /*package*/ int captureQueueOverflow = CAPTURE_QUEUE_OVERFLOW_DROP_NEWEST;
+    /*package*/ BitmapPool bitmapPool;
+
     public Builder(Context context) {
       this.context = context;
     }
@@ -89,6 +154,17 @@ public abstract class SimpleCamera {
       return this;
     }
 
+    /**
+     * Picks the preview's frame rate range, format and recording hint when the camera is opened.
+     *
+     * Defaults to {@link PreviewConfigurationStrategy.DefaultPreviewConfigurationStrategy} with {@link #PREVIEW_GOAL_DEVICE_DEFAULT}.
+     */
+    @NonNull
+    public Builder previewConfigurationStrategy(@NonNull PreviewConfigurationStrategy previewConfigurationStrategy) {
+      this.previewConfigurationStrategy = previewConfigurationStrategy;
+      return this;
+    }
+
     @NonNull
     public Builder nonAllowedFlashModes(@NonNull String... nonAllowedFlashModes) {
       this.nonAllowedFlashModes = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(nonAllowedFlashModes)));
@@ -157,16 +233,129 @@ public abstract class SimpleCamera {
       return this;
     }
 
+    /**
+     * Decoding, transforming and saving photos happens on {@code executor} instead of the camera thread.
+     */
+    @NonNull
+    public Builder photoProcessingExecutor(@NonNull Executor executor) {
+      if(photoProcessingThreads != NOT_SET) {
+        throw new IllegalStateException("Cannot set photoProcessingExecutor if photoProcessing was already called");
+      }
+      this.photoProcessingExecutor = executor;
+      return this;
+    }
+
+    /**
+     * Decoding, transforming and saving photos happens on {@code threadCount} threads owned by the camera,
+     * with up to {@code queueSize} photos waiting for a thread. When the queue is full, {@code backpressure} decides
+     * what happens to the next photo.
+     *
+     * Defaults to 1 thread, a queue size of 4, and {@link #PROCESSING_BACKPRESSURE_BLOCK}.
+     */
+    @NonNull
+    public Builder photoProcessing(int threadCount, int queueSize, @ProcessingBackpressure int backpressure) {
+      if(photoProcessingExecutor != null) {
+        throw new IllegalStateException("Cannot call photoProcessing if photoProcessingExecutor was already set");
+      }
+      if(threadCount < 1 || queueSize < 1) {
+        throw new IllegalArgumentException("photoProcessing needs at least 1 thread and a queue size of at least 1");
+      }
+      this.photoProcessingThreads = threadCount;
+      this.photoProcessingQueueSize = queueSize;
+      this.photoProcessingBackpressure = backpressure;
+      return this;
+    }
+
+    /**
+     * With {@link #PHOTO_CAPTURE_MODE_LOW_LATENCY} several photos can be processing at once,
+     * so the photo processing queue should be sized for how many photos will be taken in a row.
+     *
+     * Defaults to {@link #PHOTO_CAPTURE_MODE_SEQUENTIAL}.
+     */
+    @NonNull
+    public Builder photoCaptureMode(@PhotoCaptureMode int photoCaptureMode) {
+      this.photoCaptureMode = photoCaptureMode;
+      return this;
+    }
+
+    /**
+     * How many preview frames are kept for {@link #PHOTO_CAPTURE_MODE_ZERO_SHUTTER_LAG}. One of them is always being filled
+     * by the camera, and each photo holds on to its frame until it's encoded, so more frames give a closer match to
+     * the shutter press when photos are taken in quick succession, at the cost of one preview sized buffer each.
+     *
+     * Defaults to 3.
+     */
+    @NonNull
+    public Builder zeroShutterLagFrames(int frameCount) {
+      if(frameCount < 2) {
+        throw new IllegalArgumentException("zeroShutterLagFrames needs at least 2 frames");
+      }
+      this.zeroShutterLagFrames = frameCount;
+      return this;
+    }
+
+    /**
+     * How many preview frames {@link FrameConsumer}s can hold at once. The buffers are allocated when the first consumer is added,
+     * and are reused for every frame; while all of them are held the camera drops preview frames (but keeps showing the preview).
+     *
+     * Defaults to 3.
+     */
+    @NonNull
+    public Builder previewFrameBuffers(int bufferCount) {
+      if(bufferCount < 1) {
+        throw new IllegalArgumentException("previewFrameBuffers needs at least 1 buffer");
+      }
+      this.previewFrameBuffers = bufferCount;
+      return this;
+    }
+
+    /**
+     * Photos that are asked for while the camera is taking another photo wait in a queue (by {@link PhotoCaptureRequest#priority(int)},
+     * then in order) without blocking the camera thread. When {@code maxDepth} photos are already waiting,
+     * {@code overflow} decides which photo is cancelled. Every frame of a burst waits in the queue too.
+     *
+     * Defaults to no limit.
+     */
+    @NonNull
+    public Builder captureQueue(int maxDepth, @CaptureQueueOverflow int overflow) {
+      if(maxDepth < 1) {
+        throw new IllegalArgumentException("captureQueue needs a max depth of at least 1");
+      }
+      this.captureQueueDepth = maxDepth;
+      this.captureQueueOverflow = overflow;
+      return this;
+    }
+
+    /**
+     * Photos are decoded into, and transformed into, {@link android.graphics.Bitmap}s from {@code bitmapPool},
+     * and intermediate {@code Bitmap}s are returned to it. Bitmaps from a {@link PhotoCaptureRequest.BitmapCaptureRequest}
+     * can be handed back to {@code bitmapPool} once they're no longer needed.
+     */
+    @NonNull
+    public Builder bitmapPool(@NonNull BitmapPool bitmapPool) {
+      this.bitmapPool = bitmapPool;
+      return this;
+    }
+
     @NonNull
     public SimpleCamera build() {
       if(sizeStrategy == null) {
         sizeStrategy = new SizeStrategy.DefaultSizeStrategy();
       }
 
+      if(previewConfigurationStrategy == null) {
+        previewConfigurationStrategy = new PreviewConfigurationStrategy.DefaultPreviewConfigurationStrategy();
+      }
+
       if(nonAllowedFlashModes == null) {
         nonAllowedFlashModes = Collections.emptySet();
       }
 
+      if(photoProcessingExecutor == null && photoProcessingThreads == NOT_SET) {
+        photoProcessingThreads = 1;
+        photoProcessingQueueSize = 4;
+      }
+
       return new CameraThreadDecorator(new SimpleCameraImpl(this));
     }
   }
@@ -185,6 +374,11 @@ public abstract class SimpleCamera {
   @NonNull public abstract Size getPreviewSize();
   public abstract void updatePreviewTargetSize(@NonNull Size previewTargetSize);
 
+  /**
+   * @return how the preview is running, or null if the camera isn't open
+   */
+  @Nullable public abstract PreviewConfiguration getPreviewConfiguration();
+
   @NonNull public abstract Size getPhotoSize();
   @NonNull public abstract List<Size> getSupportedPhotoSizes();
   public abstract void setPhotoSize(@NonNull Size photoSize);
@@ -215,10 +409,38 @@ public abstract class SimpleCamera {
   public abstract void setPreviewEnabled(boolean enabled);
   public abstract boolean isPreviewEnabled();
   @NonNull public abstract <T> PhotoCaptureSession<T> takePhoto(@NonNull PhotoCaptureRequest<T> captureRequest);
+  @NonNull public abstract PhotoCaptureStats getPhotoCaptureStats();
+
+  /**
+   * Frames are timed from the preview callbacks while there is a {@link FrameConsumer} or zero shutter lag is used, or from
+   * {@link #onPreviewFrameRendered(long)} once that is called.
+   */
+  @NonNull public abstract PreviewFrameStats getPreviewFrameStats();
+
+  /**
+   * Times a preview frame that was drawn to a {@code SurfaceTexture} preview, for {@link #getPreviewFrameStats()}. Call it from
+   * {@code TextureView.SurfaceTextureListener.onSurfaceTextureUpdated} with {@code SurfaceTexture.getTimestamp()}; it can be called
+   * from any thread, and doesn't allocate.
+   */
+  public abstract void onPreviewFrameRendered(long timestampNanos);
+
+  /**
+   * Takes {@code count} photos, starting one every {@code intervalMillis} (or as soon as the camera is ready for it, if that is later).
+   * Each photo is processed while the next one is being taken, and is reported through the returned session as soon as it is done.
+   */
+  @NonNull public abstract <T> BurstCaptureSession<T> takeBurst(int count, long intervalMillis, @NonNull BurstCaptureSession.RequestFactory<T> requestFactory);
+
+  /**
+   * {@code consumer} gets every preview frame on the camera thread, for as long as it's added (including after the camera
+   * is closed and opened again), and has to {@link PreviewFrame#release()} each one. Adding a consumer that was already added does nothing.
+   */
+  public abstract void addFrameConsumer(@NonNull FrameConsumer consumer);
+  public abstract void removeFrameConsumer(@NonNull FrameConsumer consumer);
   public abstract void close();
   public abstract void release();
 
   /*package*/ abstract int getCameraId();
+  /*package*/ abstract <T> void startBurst(@NonNull BurstCaptureSession<T> burst);
   public abstract VideoCaptureSession startVideoRecording(@NonNull VideoCaptureRequest videoCaptureRequest);
   public abstract void stopVideoRecording(@NonNull VideoCaptureSession videoCaptureSession);
   public abstract void cancelVideoRecording(@NonNull VideoCaptureSession videoCaptureSession);
@@ -232,9 +454,18 @@ public abstract class SimpleCamera {
     void onVideoCaptureEnabledChanged(boolean enabled);
     void onZoomEnabledChanged(boolean enabled);
     void onZoomChanged(int zoom, float zoomRatio);
+    void onPreviewConfigurationChanged(@NonNull PreviewConfiguration configuration);
     void onCameraClosed();
   }
 
+  public interface FrameConsumer {
+    /**
+     * Called on the camera thread, so anything slow should happen on another thread, which {@code frame} can be handed to.
+     * The camera drops frames while every preview buffer is held.
+     */
+    void onPreviewFrame(@NonNull PreviewFrame frame);
+  }
+
   public static class CallbacksAdapter implements Callbacks {
     @Override public void onCameraOpened(@CameraType int cameraType, Throwable t) {}
     @Override public void onCameraTypeSwitchingChanged(boolean enabled) {}
@@ -244,6 +475,7 @@ public abstract class SimpleCamera {
     @Override public void onVideoCaptureEnabledChanged(boolean enabled) {}
     @Override public void onZoomEnabledChanged(boolean enabled) {}
     @Override public void onZoomChanged(int zoom, float zoomRatio) {}
+    @Override public void onPreviewConfigurationChanged(@NonNull PreviewConfiguration configuration) {}
     @Override public void onCameraClosed() {}
   }
 }
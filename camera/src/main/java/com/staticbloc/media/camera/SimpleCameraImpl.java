@@ -1,11 +1,13 @@
 package com.staticbloc.media.camera;
 
 import android.content.Context;
+import android.graphics.ImageFormat;
 import android.hardware.Camera;
 import android.hardware.SensorManager;
 import android.media.MediaRecorder;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -15,6 +17,9 @@ import android.view.Display;
 import android.view.OrientationEventListener;
 import android.view.Surface;
 import android.view.WindowManager;
+import com.staticbloc.media.imaging.ExifUtils;
+import com.staticbloc.media.utils.BitmapPool;
+import com.staticbloc.media.utils.BitmapUtils;
 import com.staticbloc.media.utils.FileUtils;
 import com.staticbloc.media.utils.Size;
 import com.staticbloc.media.utils.SizeUnit;
@@ -25,9 +30,13 @@ import java.lang.annotation.RetentionPolicy;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static android.hardware.Camera.CameraInfo.CAMERA_FACING_BACK;
 import static android.hardware.Camera.CameraInfo.CAMERA_FACING_FRONT;
@@ -40,6 +49,7 @@ import static com.staticbloc.media.camera.CameraState.RELEASE;
 /*package*/ final class SimpleCameraImpl extends SimpleCamera {
   private static final int BAD_ID = -1;
   private static final long UNSET_ZOOM_DELAY = 1000;
+  private static final int ZERO_SHUTTER_LAG_JPEG_QUALITY = 100;
 
   @AllowedCameraType private volatile int allowedCameraType = CAMERA_TYPE_ALL;
   @CameraType private volatile int currentCameraType = CAMERA_TYPE_ALL;
@@ -48,6 +58,8 @@ import static com.staticbloc.media.camera.CameraState.RELEASE;
 
   private final Display display;
   private final SizeStrategy sizeStrategy;
+  private final PreviewConfigurationStrategy previewConfigurationStrategy;
+  private volatile PreviewConfiguration previewConfiguration;
 
   private Handler callbackHandler;
 
@@ -102,8 +114,60 @@ import static com.staticbloc.media.camera.CameraState.RELEASE;
     }
   };
 
-  private CountDownLatch takePictureLatch;
-  private final Object takePictureLock = new Object();
+  private final Executor photoProcessingExecutor;
+  private final int photoProcessingThreads;
+  private final int photoProcessingQueueSize;
+  @ProcessingBackpressure private final int photoProcessingBackpressure;
+  private PhotoProcessor photoProcessor;
+  @PhotoCaptureMode private final int photoCaptureMode;
+  private final int zeroShutterLagFrames;
+  private final int previewFrameBuffers;
+  private final BitmapPool bitmapPool;
+
+  private final FrameTimingHistogram frameTiming = new FrameTimingHistogram();
+
+  private final List<FrameConsumer> frameConsumers = new CopyOnWriteArrayList<>();
+  private final PreviewBufferPool.OnFrameListener onPreviewFrameListener = new PreviewBufferPool.OnFrameListener() {
+    @Override
+    public void onPreviewFrame(@NonNull PreviewFrame frame) {
+      frameTiming.record(PreviewFrameStats.TIMING_SOURCE_PREVIEW_CALLBACK, System.nanoTime());
+      frame.setOrientation(getCameraOrientation());
+
+      if(zeroShutterLagFrameRing != null) {
+        zeroShutterLagFrameRing.add(frame);
+      }
+
+      for(FrameConsumer consumer : frameConsumers) {
+        consumer.onPreviewFrame(frame.retain());
+      }
+    }
+  };
+
+  private final CaptureQueue captureQueue;
+  private final Runnable takeNextPhotoRunnable = new Runnable() {
+    @Override
+    public void run() {
+      takeNextPhoto();
+    }
+  };
+  @CaptureQueueOverflow private final int captureQueueOverflow;
+
+  // only touched on the camera thread
+  private boolean captureInProgress;
+  // the camera has been asked for a photo, and it hasn't arrived yet
+  private boolean pictureInFlight;
+  // the preview was turned on or off while pictureInFlight
+  private Boolean pendingPreviewEnabled;
+  private PreviewBufferPool previewBufferPool;
+  private PreviewFrameRing zeroShutterLagFrameRing;
+  private long takePictureTime = NOT_SET;
+  private long lastPictureTakenTime = NOT_SET;
+
+  // written on the camera thread, read from anywhere
+  private volatile long captureLatency = NOT_SET;
+  private volatile long readyLatency = NOT_SET;
+  private volatile long shotToShotInterval = NOT_SET;
+  private final AtomicInteger photosProcessing = new AtomicInteger();
 
   /*package*/ SimpleCameraImpl(@NonNull Builder builder) {
     Context context = builder.context.getApplicationContext();
@@ -111,6 +175,7 @@ import static com.staticbloc.media.camera.CameraState.RELEASE;
     this.display = windowManager.getDefaultDisplay();
     this.callbackHandler = builder.callbackHandler;
     this.sizeStrategy = builder.sizeStrategy;
+    this.previewConfigurationStrategy = builder.previewConfigurationStrategy;
     this.nonAllowedFlashModes = builder.nonAllowedFlashModes;
     this.willRecordVideo = builder.willRecordVideo;
     this.videoBitrate = builder.videoBitrate;
@@ -120,6 +185,16 @@ import static com.staticbloc.media.camera.CameraState.RELEASE;
     this.shutterSoundMute = builder.shutterSoundMute;
     this.shutterSoundOverridePath = builder.shutterSoundOverridePath;
     this.shutterSoundOverrideRes = builder.shutterSoundOverrideRes;
+    this.photoProcessingExecutor = builder.photoProcessingExecutor;
+    this.photoProcessingThreads = builder.photoProcessingThreads;
+    this.photoProcessingQueueSize = builder.photoProcessingQueueSize;
+    this.photoProcessingBackpressure = builder.photoProcessingBackpressure;
+    this.photoCaptureMode = builder.photoCaptureMode;
+    this.zeroShutterLagFrames = builder.zeroShutterLagFrames;
+    this.previewFrameBuffers = builder.previewFrameBuffers;
+    this.captureQueueOverflow = builder.captureQueueOverflow;
+    this.captureQueue = new CaptureQueue(builder.captureQueueDepth, builder.captureQueueOverflow);
+    this.bitmapPool = builder.bitmapPool;
 
     if(shutterSoundMute || shutterSoundOverridePath != null || shutterSoundOverrideRes != NOT_SET) {
       this.shutterSoundOverride = new ShutterSoundOverride(context);
@@ -157,6 +232,15 @@ import static com.staticbloc.media.camera.CameraState.RELEASE;
 
     myHandler = new Handler(Looper.myLooper());
 
+    if(photoProcessor == null) {
+      if(photoProcessingExecutor != null) {
+        photoProcessor = new PhotoProcessor(photoProcessingExecutor);
+      }
+      else {
+        photoProcessor = new PhotoProcessor(photoProcessingThreads, photoProcessingQueueSize, photoProcessingBackpressure);
+      }
+    }
+
     this.callbacks = new CallbackWrappers.UiThreadCallbacks(callbacks, callbackHandler);
     this.allowedCameraType = allowedCameraType;
   }
@@ -182,6 +266,10 @@ import static com.staticbloc.media.camera.CameraState.RELEASE;
     if(!state.compare(ERROR)) {
       device = new Device(cameraId, camera.getParameters(), sizeStrategy, nonAllowedFlashModes);
 
+      frameTiming.clear();
+
+      setUpPreviewConfiguration();
+
       setPreview(cameraPreview);
 
       setUpCamera();
@@ -222,7 +310,8 @@ import static com.staticbloc.media.camera.CameraState.RELEASE;
 
     try {
       Camera.Parameters parameters = camera.getParameters();
-      parameters.setRecordingHint(willRecordVideo);
+      PreviewConfiguration previewConfiguration = this.previewConfiguration;
+      parameters.setRecordingHint(previewConfiguration != null ? previewConfiguration.isRecordingHint() : willRecordVideo);
       camera.setParameters(parameters);
     }
     catch(Exception e) {
@@ -258,6 +347,12 @@ import static com.staticbloc.media.camera.CameraState.RELEASE;
     return device.getPreviewSize();
   }
 
+  @Nullable
+  @Override
+  public PreviewConfiguration getPreviewConfiguration() {
+    return previewConfiguration;
+  }
+
   @Override
   public void updatePreviewTargetSize(@NonNull Size previewTargetSize) {
     if(!state.compare(OPEN)) {
@@ -692,31 +787,28 @@ import static com.staticbloc.media.camera.CameraState.RELEASE;
 
   @Override
   public void setPreviewEnabled(boolean enabled) {
-    synchronized (takePictureLock) {
-      while(takePictureLatch != null) {
-        try {
-          takePictureLatch.await();
-        }
-        catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
-          return;
-        }
-      }
+    // the camera can't start or stop the preview while it's taking a photo, so it happens once the photo arrives
+    if(pictureInFlight) {
+      pendingPreviewEnabled = enabled;
+      return;
+    }
 
-      if(!state.compare(OPEN)) return;
+    if(!state.compare(OPEN)) return;
 
-      if(camera != null) {
-        boolean wasEnabled = previewEnabled.getAndSet(enabled);
-        if (enabled && !wasEnabled) {
-          camera.startPreview();
+    if(camera != null) {
+      boolean wasEnabled = previewEnabled.getAndSet(enabled);
+      if (enabled && !wasEnabled) {
+        attachPreviewBufferPool();
+        // the time that the preview was stopped for isn't a late frame
+        frameTiming.markGap();
+        camera.startPreview();
 
-          if(callbacks != null) callbacks.onPhotoCaptureEnabledChanged(true);
-        }
-        else if(!enabled && wasEnabled) {
-          if(callbacks != null) callbacks.onPhotoCaptureEnabledChanged(false);
+        if(callbacks != null) callbacks.onPhotoCaptureEnabledChanged(true);
+      }
+      else if(!enabled && wasEnabled) {
+        if(callbacks != null) callbacks.onPhotoCaptureEnabledChanged(false);
 
-          camera.stopPreview();
-        }
+        camera.stopPreview();
       }
     }
   }
@@ -731,6 +823,7 @@ import static com.staticbloc.media.camera.CameraState.RELEASE;
   public <T> PhotoCaptureSession<T> takePhoto(@NonNull final PhotoCaptureRequest<T> captureRequest) {
     final PhotoCaptureSession<T> photoCaptureSession = captureRequest.getPhotoCaptureSession();
     photoCaptureSession.init(captureRequest.getPhotoCapturedListener(), callbackHandler);
+    captureRequest.onShutterPressed(SystemClock.elapsedRealtime());
 
     if(photoCaptureSession.isCancelled()) {
       return photoCaptureSession;
@@ -741,90 +834,354 @@ import static com.staticbloc.media.camera.CameraState.RELEASE;
       return photoCaptureSession;
     }
 
-    if(camera != null) {
-      // disable taking a photo while the camera is taking a photo
-      if(callbacks != null) callbacks.onPhotoCaptureEnabledChanged(false);
+    if(camera == null) {
+      photoCaptureSession.cancel();
+      return photoCaptureSession;
+    }
 
-      Camera.ShutterCallback shutterCallback = new Camera.ShutterCallback() {
-        @Override
-        public void onShutter() {
-          callbackHandler.post(new Runnable() {
+    // the camera takes one photo at a time, so this one waits for the ones ahead of it without blocking the camera thread
+    PhotoCaptureRequest<?> dropped = captureQueue.offer(captureRequest, SystemClock.elapsedRealtime());
+    if(dropped != null) {
+      String reason = captureQueueOverflow == CAPTURE_QUEUE_OVERFLOW_REJECT ?
+          "Too many photos are waiting for the camera" :
+          "Dropped because too many photos were waiting for the camera";
+      dropped.getPhotoCaptureSession().cancel(new RejectedExecutionException(reason));
+    }
+
+    takeNextPhoto();
+    return photoCaptureSession;
+  }
+
+  private void takeNextPhoto() {
+    // released
+    if(photoProcessor == null) return;
+
+    PhotoCaptureRequest<?> next;
+    // with PROCESSING_BACKPRESSURE_BLOCK, photos wait in the capture queue until the processor has room for them
+    while(!captureInProgress && !photoProcessor.isFull() && (next = captureQueue.poll(SystemClock.elapsedRealtime())) != null) {
+      capture(next);
+    }
+  }
+
+  private <T> void capture(@NonNull final PhotoCaptureRequest<T> captureRequest) {
+    final PhotoCaptureSession<T> photoCaptureSession = captureRequest.getPhotoCaptureSession();
+    if(photoCaptureSession.isCancelled()) {
+      return;
+    }
+
+    if(!state.compare(OPEN) || camera == null) {
+      photoCaptureSession.cancel();
+      return;
+    }
+
+    if(photoCaptureMode == PHOTO_CAPTURE_MODE_ZERO_SHUTTER_LAG && zeroShutterLagFrameRing != null && previewEnabled.get()) {
+      PreviewFrame frame = zeroShutterLagFrameRing.lockClosest(captureRequest.getShutterPressedTime());
+      if(frame != null) {
+        takeZeroShutterLagPhoto(captureRequest, frame);
+        return;
+      }
+      // there's no preview frame yet, so the camera takes it
+    }
+
+    captureInProgress = true;
+
+    // disable taking a photo while the camera is taking a photo
+    if(callbacks != null) callbacks.onPhotoCaptureEnabledChanged(false);
+
+    Camera.ShutterCallback shutterCallback = new Camera.ShutterCallback() {
+      @Override
+      public void onShutter() {
+        callbackHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            if (photoCaptureSession.isCancelled()) return;
+            if(shutterSoundOverride != null) shutterSoundOverride.play();
+            if (captureRequest.getShutterActionListener() != null) captureRequest.getShutterActionListener().onShutterAction();
+          }
+        });
+      }
+    };
+
+    @CameraType final int cameraType = currentCameraType;
+    Camera.PictureCallback pictureCallback = new Camera.PictureCallback() {
+      @Override
+      public void onPictureTaken(final byte[] data, Camera camera) {
+        final long pictureTakenTime = SystemClock.elapsedRealtime();
+        onPictureArrived(pictureTakenTime);
+
+        pictureInFlight = false;
+
+        if(shutterSoundOverride != null) {
+          shutterSoundOverride.restoreVolume();
+        }
+
+        if(photoCaptureSession.isCancelled()) {
+          restartPreviewAfterCapture(true);
+          onCaptureFinished();
+          return;
+        }
+
+        boolean cancel = false;
+
+        if(!state.compare(OPEN)) {
+          cancel = true;
+        }
+
+        if(data == null || cancel) {
+          restartPreviewAfterCapture(true);
+          photoCaptureSession.cancel();
+          onCaptureFinished();
+        }
+        else {
+          final Camera captureCamera = SimpleCameraImpl.this.camera;
+          final boolean lowLatency = photoCaptureMode == PHOTO_CAPTURE_MODE_LOW_LATENCY || captureRequest.isPipelined();
+
+          // the processor owns data from here on, and the camera thread stays free while it works
+          photosProcessing.incrementAndGet();
+          photoProcessor.process(photoCaptureSession, new Runnable() {
             @Override
             public void run() {
-              if (photoCaptureSession.isCancelled()) return;
-              if(shutterSoundOverride != null) shutterSoundOverride.play();
-              if (captureRequest.getShutterActionListener() != null) captureRequest.getShutterActionListener().onShutterAction();
+              captureRequest.onCapture(data, callbackHandler, cameraType, bitmapPool);
             }
-          });
-        }
-      };
+          }, new Runnable() {
+            @Override
+            public void run() {
+              photosProcessing.decrementAndGet();
+              if(lowLatency) {
+                // a photo might be waiting for the processor to have room
+                myHandler.post(takeNextPhotoRunnable);
+                return;
+              }
 
-      @CameraType final int cameraType = currentCameraType;
-      Camera.PictureCallback pictureCallback = new Camera.PictureCallback() {
-        @Override
-        public void onPictureTaken(final byte[] data, Camera camera) {
-          synchronized (takePictureLock) {
-            if(takePictureLatch != null) {
-              takePictureLatch.countDown();
-              takePictureLatch = null;
+              myHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                  // the camera was closed or switched while the photo was being processed
+                  if(captureCamera != SimpleCameraImpl.this.camera) return;
+
+                  restartPreviewAfterCapture(captureRequest.shouldRestartPreview());
+                  onPhotoCaptureReady(pictureTakenTime);
+                  onCaptureFinished();
+                }
+              });
             }
-          }
+          });
 
-          if(shutterSoundOverride != null) {
-            shutterSoundOverride.restoreVolume();
+          // the camera is done with the photo, so don't wait for the processor before taking the next one
+          // (the photo is handed to the processor first, so that the next one sees whether it has room)
+          if(lowLatency) {
+            restartPreviewAfterCapture(captureRequest.shouldRestartPreview());
+            onPhotoCaptureReady(pictureTakenTime);
+            onCaptureFinished();
           }
+        }
+      }
+    };
 
-          if(photoCaptureSession.isCancelled()) {
-            setPreviewEnabled(true);
-            return;
-          }
+    if(shutterSoundOverride != null) {
+      shutterSoundOverride.overrideVolume();
+    }
 
-          boolean cancel = false;
+    try {
+      takePictureTime = SystemClock.elapsedRealtime();
+      pictureInFlight = true;
+      camera.takePicture(shutterCallback, null, pictureCallback);
+    }
+    catch(RuntimeException e) {
+      pictureInFlight = false;
 
-          if(!state.compare(OPEN)) {
-            cancel = true;
-          }
+      if(shutterSoundOverride != null) {
+        shutterSoundOverride.restoreVolume();
+      }
 
-          if(data == null || cancel) {
-            setPreviewEnabled(true);
-            photoCaptureSession.cancel();
-          }
-          else {
-            captureRequest.onCapture(data, callbackHandler, cameraType);
+      photoCaptureSession.cancel(new RuntimeException("Exception while taking a photo", e));
 
-            boolean restartPreview = captureRequest.shouldRestartPreview();
-            // simulate the preview being in the opposite state of where we want it so that it will actually switch
-            previewEnabled.set(!restartPreview);
-            setPreviewEnabled(restartPreview);
-          }
+      if(callbacks != null) callbacks.onPhotoCaptureEnabledChanged(previewEnabled.get());
+      applyPendingPreviewEnabled();
+      onCaptureFinished();
+    }
+  }
+
+  private <T> void takeZeroShutterLagPhoto(@NonNull final PhotoCaptureRequest<T> captureRequest, @NonNull final PreviewFrame frame) {
+    final PhotoCaptureSession<T> photoCaptureSession = captureRequest.getPhotoCaptureSession();
+    final PreviewFrameRing frameRing = zeroShutterLagFrameRing;
+
+    long pictureTakenTime = SystemClock.elapsedRealtime();
+    takePictureTime = captureRequest.getShutterPressedTime();
+    onPictureArrived(pictureTakenTime);
+    // the preview never stopped
+    onPhotoCaptureReady(pictureTakenTime);
+
+    callbackHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (photoCaptureSession.isCancelled()) return;
+        if(shutterSoundOverride != null) shutterSoundOverride.play();
+        if (captureRequest.getShutterActionListener() != null) captureRequest.getShutterActionListener().onShutterAction();
+      }
+    });
+
+    // the frame has to go back to the ring on the camera thread once it's encoded (or if it never gets encoded), and only once
+    final AtomicBoolean frameUnlocked = new AtomicBoolean();
+    final Runnable unlockFrame = new Runnable() {
+      @Override
+      public void run() {
+        if(frameUnlocked.compareAndSet(false, true)) {
+          frameRing.unlock(frame);
         }
-      };
+      }
+    };
 
-      synchronized (takePictureLock) {
-        while(takePictureLatch != null) {
-          try {
-            takePictureLatch.await();
-          }
-          catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            return photoCaptureSession;
-          }
+    @CameraType final int cameraType = currentCameraType;
+    final Size previewSize = frame.getSize();
+    final int orientation = ExifUtils.fromRotationDegrees(frame.getOrientation());
+    photosProcessing.incrementAndGet();
+    photoProcessor.process(photoCaptureSession, new Runnable() {
+      @Override
+      public void run() {
+        byte[] data;
+        try {
+          photoCaptureSession.getCancellation().throwIfCancelled();
+          data = BitmapUtils.nv21ToJpeg(frame.getData(), previewSize.width, previewSize.height, ZERO_SHUTTER_LAG_JPEG_QUALITY, orientation);
+        }
+        catch(CancellationException e) {
+          return;
+        }
+        catch(RuntimeException e) {
+          photoCaptureSession.cancel(new RuntimeException("Exception while encoding a preview frame", e));
+          return;
+        }
+        finally {
+          myHandler.post(unlockFrame);
         }
 
-        takePictureLatch = new CountDownLatch(1);
+        captureRequest.onCapture(data, callbackHandler, cameraType, bitmapPool);
+      }
+    }, new Runnable() {
+      @Override
+      public void run() {
+        photosProcessing.decrementAndGet();
+        myHandler.post(unlockFrame);
+        myHandler.post(takeNextPhotoRunnable);
+      }
+    });
+  }
 
-        if(shutterSoundOverride != null) {
-          shutterSoundOverride.overrideVolume();
-        }
+  // the zero shutter lag ring and the frame consumers share one set of preview buffers,
+  // which is kept across preview restarts unless the preview size or format, or the number of buffers that are needed, changed
+  private void attachPreviewBufferPool() {
+    boolean zeroShutterLag = photoCaptureMode == PHOTO_CAPTURE_MODE_ZERO_SHUTTER_LAG;
+    if(!zeroShutterLag && frameConsumers.isEmpty()) {
+      detachPreviewBufferPool();
+      return;
+    }
 
-        camera.takePicture(shutterCallback, null, pictureCallback);
+    int bufferCount = (zeroShutterLag ? zeroShutterLagFrames : 0) + (frameConsumers.isEmpty() ? 0 : previewFrameBuffers);
+    try {
+      Size previewSize = device.getPreviewSize();
+      int previewFormat = camera.getParameters().getPreviewFormat();
+      if(previewBufferPool == null || !previewBufferPool.matches(previewSize, previewFormat, bufferCount)) {
+        detachPreviewBufferPool();
+        previewBufferPool = new PreviewBufferPool(previewSize, previewFormat, bufferCount, currentCameraType, myHandler, onPreviewFrameListener);
+      }
+
+      if(zeroShutterLag && zeroShutterLagFrameRing == null) {
+        zeroShutterLagFrameRing = new PreviewFrameRing(zeroShutterLagFrames);
+      }
+      if(zeroShutterLagFrameRing != null) {
+        // the frames it kept are stale
+        zeroShutterLagFrameRing.clear();
       }
+
+      previewBufferPool.attach(camera);
     }
-    else {
-      photoCaptureSession.cancel();
+    catch(RuntimeException e) {
+      Log.w("SimpleCamera", "Could not get preview frames, so photos will be taken by the camera and frame consumers won't get any", e);
+      detachPreviewBufferPool();
     }
+  }
 
-    return photoCaptureSession;
+  private void detachPreviewBufferPool() {
+    if(zeroShutterLagFrameRing != null) {
+      zeroShutterLagFrameRing.clear();
+    }
+
+    if(previewBufferPool != null) {
+      previewBufferPool.detach();
+      previewBufferPool = null;
+    }
+  }
+
+  @Override
+  public void addFrameConsumer(@NonNull FrameConsumer consumer) {
+    if(frameConsumers.contains(consumer)) {
+      return;
+    }
+
+    boolean firstConsumer = frameConsumers.isEmpty();
+    frameConsumers.add(consumer);
+
+    // otherwise the buffers are set up when the preview starts
+    if(firstConsumer && state.compare(OPEN) && camera != null && previewEnabled.get() && !pictureInFlight) {
+      attachPreviewBufferPool();
+    }
+  }
+
+  @Override
+  public void removeFrameConsumer(@NonNull FrameConsumer consumer) {
+    if(frameConsumers.remove(consumer) && frameConsumers.isEmpty() && photoCaptureMode != PHOTO_CAPTURE_MODE_ZERO_SHUTTER_LAG) {
+      detachPreviewBufferPool();
+    }
+  }
+
+  @NonNull
+  @Override
+  public PhotoCaptureStats getPhotoCaptureStats() {
+    return new PhotoCaptureStats(captureLatency, readyLatency, shotToShotInterval, photosProcessing.get(),
+        captureQueue.getDepth(), captureQueue.getMaxDepthReached(), captureQueue.getLastWaitMillis(),
+        captureQueue.getAverageWaitMillis(), captureQueue.getDroppedCount());
+  }
+
+  @NonNull
+  @Override
+  public PreviewFrameStats getPreviewFrameStats() {
+    return frameTiming.snapshot();
+  }
+
+  @Override
+  public void onPreviewFrameRendered(long timestampNanos) {
+    // some devices report 0 until the first real frame
+    if(timestampNanos > 0 && previewEnabled.get()) {
+      frameTiming.record(PreviewFrameStats.TIMING_SOURCE_SURFACE_TEXTURE, timestampNanos);
+    }
+  }
+
+  @NonNull
+  @Override
+  public <T> BurstCaptureSession<T> takeBurst(int count, long intervalMillis, @NonNull BurstCaptureSession.RequestFactory<T> requestFactory) {
+    BurstCaptureSession<T> burst = new BurstCaptureSession<>(count, intervalMillis, requestFactory);
+    startBurst(burst);
+    return burst;
+  }
+
+  @Override
+  /*package*/ <T> void startBurst(@NonNull final BurstCaptureSession<T> burst) {
+    burst.init(callbackHandler);
+
+    // frames that can't be taken yet are deferred by takePhoto until the camera is done with the previous one
+    long start = SystemClock.uptimeMillis();
+    for(int i = 0; i < burst.getFrameCount(); i++) {
+      final int index = i;
+      myHandler.postAtTime(new Runnable() {
+        @Override
+        public void run() {
+          PhotoCaptureRequest<T> request = burst.createFrameRequest(index);
+          if(request != null) {
+            takePhoto(request);
+          }
+        }
+      }, start + i * burst.getIntervalMillis());
+    }
   }
 
   @Override
@@ -836,6 +1193,9 @@ import static com.staticbloc.media.camera.CameraState.RELEASE;
     orientationEventListener.disable();
     currentCameraRotation = OrientationEventListener.ORIENTATION_UNKNOWN;
 
+    detachPreviewBufferPool();
+    previewConfiguration = null;
+
     if (camera != null) {
       camera.release();
       camera = null;
@@ -854,10 +1214,18 @@ import static com.staticbloc.media.camera.CameraState.RELEASE;
     }
 
     previewEnabled.set(false);
+    pictureInFlight = false;
+    pendingPreviewEnabled = null;
 
     state.set(CLOSE);
 
     smoothZooming.set(false);
+
+    // any photos that were waiting on the camera are cancelled now that it's closed
+    for(PhotoCaptureRequest<?> waiting : captureQueue.clear()) {
+      waiting.getPhotoCaptureSession().cancel();
+    }
+    captureInProgress = false;
   }
 
   @Override
@@ -870,6 +1238,51 @@ import static com.staticbloc.media.camera.CameraState.RELEASE;
     }
 
     callbacks = null;
+
+    if(photoProcessor != null) {
+      photoProcessor.shutdown();
+      photoProcessor = null;
+    }
+  }
+
+  private void restartPreviewAfterCapture(boolean restartPreview) {
+    // turning the preview on or off while the photo was being taken wins over the request
+    if(pendingPreviewEnabled != null) {
+      restartPreview = pendingPreviewEnabled;
+      pendingPreviewEnabled = null;
+    }
+
+    // simulate the preview being in the opposite state of where we want it so that it will actually switch
+    previewEnabled.set(!restartPreview);
+    setPreviewEnabled(restartPreview);
+  }
+
+  private void onPictureArrived(long pictureTakenTime) {
+    if(takePictureTime != NOT_SET) {
+      captureLatency = pictureTakenTime - takePictureTime;
+      takePictureTime = NOT_SET;
+    }
+    if(lastPictureTakenTime != NOT_SET) {
+      shotToShotInterval = pictureTakenTime - lastPictureTakenTime;
+    }
+    lastPictureTakenTime = pictureTakenTime;
+  }
+
+  private void onPhotoCaptureReady(long pictureTakenTime) {
+    readyLatency = SystemClock.elapsedRealtime() - pictureTakenTime;
+  }
+
+  private void applyPendingPreviewEnabled() {
+    if(pendingPreviewEnabled != null) {
+      boolean enabled = pendingPreviewEnabled;
+      pendingPreviewEnabled = null;
+      setPreviewEnabled(enabled);
+    }
+  }
+
+  private void onCaptureFinished() {
+    captureInProgress = false;
+    takeNextPhoto();
   }
 
   private void setUpCamera() {
@@ -914,6 +1327,46 @@ import static com.staticbloc.media.camera.CameraState.RELEASE;
     catch(Exception ignore) {/* this barfs on some devices*/}
   }
 
+  private void setUpPreviewConfiguration() {
+    PreviewConfiguration deviceDefault = null;
+    PreviewConfiguration configuration = null;
+    try {
+      Camera.Parameters parameters = camera.getParameters();
+
+      int[] fpsRange = new int[2];
+      parameters.getPreviewFpsRange(fpsRange);
+      deviceDefault = new PreviewConfiguration(fpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+          fpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX], parameters.getPreviewFormat(), willRecordVideo);
+
+      List<int[]> supportedFpsRanges = parameters.getSupportedPreviewFpsRange();
+      List<Integer> supportedFormats = parameters.getSupportedPreviewFormats();
+      configuration = previewConfigurationStrategy.getPreviewConfiguration(
+          supportedFpsRanges == null ? Collections.<int[]>emptyList() : supportedFpsRanges,
+          supportedFormats == null ? Collections.<Integer>emptyList() : supportedFormats,
+          deviceDefault);
+
+      if(photoCaptureMode == PHOTO_CAPTURE_MODE_ZERO_SHUTTER_LAG) {
+        // every device supports NV21 previews, and it's what the preview frames are encoded from
+        configuration = configuration.withFormat(ImageFormat.NV21);
+      }
+
+      parameters.setPreviewFpsRange(configuration.getMinFpsScaled(), configuration.getMaxFpsScaled());
+      parameters.setPreviewFormat(configuration.getFormat());
+      parameters.setRecordingHint(configuration.isRecordingHint());
+      camera.setParameters(parameters);
+    }
+    catch(RuntimeException e) {
+      // some devices report ranges that they then refuse, so the preview stays the way the camera had it
+      Log.w("SimpleCamera", "There was an issue setting the preview configuration " + configuration, e);
+      configuration = deviceDefault;
+    }
+
+    previewConfiguration = configuration;
+    if(configuration != null && callbacks != null) {
+      callbacks.onPreviewConfigurationChanged(configuration);
+    }
+  }
+
   private boolean setOptimalPreviewSize(Size previewTargetSize) {
     Camera.Parameters parameters = camera.getParameters();
 
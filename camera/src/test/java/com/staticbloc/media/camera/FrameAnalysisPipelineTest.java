@@ -0,0 +1,113 @@
+package com.staticbloc.media.camera;
+
+import android.graphics.ImageFormat;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+
+import com.staticbloc.media.utils.Size;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FrameAnalysisPipelineTest {
+  private FrameAnalysisPipeline pipeline;
+  private PreviewBufferPool pool;
+
+  @Before
+  public void setUp() {
+    pipeline = new FrameAnalysisPipeline(2);
+    // YV12 so the buffers are sized without asking ImageFormat
+    pool = new PreviewBufferPool(new Size(16, 16), ImageFormat.YV12, 1, SimpleCamera.CAMERA_TYPE_BACK, new Handler(),
+        new PreviewBufferPool.OnFrameListener() {
+          @Override
+          public void onPreviewFrame(@NonNull PreviewFrame frame) {}
+        });
+  }
+
+  @After
+  public void tearDown() {
+    pipeline.shutdown();
+  }
+
+  @Test
+  public void analyzerThatIsAddedAgainWaitsForItsFrameInFlight() throws InterruptedException {
+    BlockingAnalyzer analyzer = new BlockingAnalyzer();
+    pipeline.addAnalyzer(analyzer);
+    pipeline.onPreviewFrame(frame(1));
+    assertTrue(analyzer.started.await(5, TimeUnit.SECONDS));
+
+    pipeline.removeAnalyzer(analyzer);
+    pipeline.addAnalyzer(analyzer);
+    PreviewFrame second = frame(2);
+    pipeline.onPreviewFrame(second);
+
+    // there's a free thread, but the analyzer is still busy with the first frame
+    Thread.sleep(100);
+    assertEquals(1, analyzer.timestamps.size());
+    assertEquals(1, second.getReferenceCount());
+
+    analyzer.unblock.countDown();
+    assertTrue(analyzer.analyzed.await(5, TimeUnit.SECONDS));
+    assertEquals(1, analyzer.maxConcurrent.get());
+    assertEquals(2, analyzer.timestamps.size());
+    assertEquals(1L, (long) analyzer.timestamps.get(0));
+    assertEquals(2L, (long) analyzer.timestamps.get(1));
+  }
+
+  @Test
+  public void analyzerThatIsAddedAgainAfterItsFrameIsDoneRunsRightAway() throws InterruptedException {
+    BlockingAnalyzer analyzer = new BlockingAnalyzer();
+    analyzer.unblock.countDown();
+    pipeline.addAnalyzer(analyzer);
+    pipeline.onPreviewFrame(frame(1));
+    assertTrue(analyzer.started.await(5, TimeUnit.SECONDS));
+
+    pipeline.removeAnalyzer(analyzer);
+    pipeline.addAnalyzer(analyzer);
+    pipeline.onPreviewFrame(frame(2));
+    assertTrue(analyzer.analyzed.await(5, TimeUnit.SECONDS));
+    assertEquals(1, analyzer.maxConcurrent.get());
+  }
+
+  private PreviewFrame frame(long timestamp) {
+    PreviewFrame frame = new PreviewFrame(pool, new byte[1], new Size(16, 16), ImageFormat.YV12, SimpleCamera.CAMERA_TYPE_BACK);
+    frame.onFilled(timestamp);
+    return frame;
+  }
+
+  // blocks on the first frame until it's unblocked, and keeps track of how many frames it analyzes at the same time
+  private static final class BlockingAnalyzer implements FrameAnalyzer {
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch unblock = new CountDownLatch(1);
+    private final CountDownLatch analyzed = new CountDownLatch(2);
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+    private final List<Long> timestamps = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void analyze(@NonNull PreviewFrame frame) {
+      int running = concurrent.incrementAndGet();
+      int max;
+      while(running > (max = maxConcurrent.get()) && !maxConcurrent.compareAndSet(max, running)) {}
+      timestamps.add(frame.getTimestamp());
+      started.countDown();
+      try {
+        unblock.await(5, TimeUnit.SECONDS);
+      }
+      catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      concurrent.decrementAndGet();
+      analyzed.countDown();
+    }
+  }
+}
@@ -25,6 +25,7 @@ import com.staticbloc.media.utils.Size;
   public interface CameraPreviewListener {
     void onPreviewReady(CameraPreview cameraPreview);
     void onPreviewViewSizeChanged(int width, int height);
+    void onPreviewFrameRendered(long timestampNanos);
   }
 
   private SurfaceHolder.Callback surfaceHolderCallback = new SurfaceHolder.Callback() {
@@ -104,6 +105,7 @@ import com.staticbloc.media.utils.Size;
 
         @Override
         public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+          cameraPreviewListener.onPreviewFrameRendered(surface.getTimestamp());
         }
       });
     }
@@ -3,6 +3,7 @@ package com.staticbloc.media.camera.fragment;
 import android.Manifest;
 import android.annotation.SuppressLint;
 import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
@@ -22,6 +23,7 @@ import android.widget.TextView;
 import com.staticbloc.media.camera.CameraPreview;
 import com.staticbloc.media.camera.CameraZoomTouchHandler;
 import com.staticbloc.media.camera.PhotoCaptureRequest;
+import com.staticbloc.media.camera.PreviewConfiguration;
 import com.staticbloc.media.camera.SimpleCamera;
 import com.staticbloc.media.camera.SizeStrategy;
 import com.staticbloc.media.camera.VideoCaptureRequest;
@@ -235,6 +237,9 @@ public abstract class SimpleCameraFragment extends Fragment {
       }
     }
 
+    @Override
+    public void onPreviewConfigurationChanged(@NonNull PreviewConfiguration configuration) {}
+
     @Override
     public void onCameraClosed() {
       if(recordVideoView != null) recordVideoView.setOnClickListener(null);
@@ -421,6 +426,11 @@ public abstract class SimpleCameraFragment extends Fragment {
               cameraPreviewWrapper.setPreviewViewAspectRatio(camera.getPreviewSize());
             }
           }
+
+          @Override
+          public void onPreviewFrameRendered(long timestampNanos) {
+            camera.onPreviewFrameRendered(timestampNanos);
+          }
         }, targetSize);
       }
     });
@@ -579,6 +589,17 @@ public abstract class SimpleCameraFragment extends Fragment {
 
   protected void animatePreviewViewDuringCameraTypeToggle(@NonNull ViewPropertyAnimator animator) {}
 
+  /**
+   * Return a size to get {@link #onThumbnailReady(Bitmap)} called with a thumbnail of every photo,
+   * long before {@link #onPhotoCaptured(File)} is called.
+   */
+  @Nullable
+  protected Size getThumbnailSize() {
+    return null;
+  }
+
+  protected void onThumbnailReady(@NonNull Bitmap thumbnail) {}
+
   @NonNull
   protected File getFileForPhoto() {
     return fileFactory.getFileForPhoto();
@@ -601,7 +622,18 @@ public abstract class SimpleCameraFragment extends Fragment {
         mockFrontFlashCallback.onShutterAction();
       }
 
-      camera.takePhoto(PhotoCaptureRequest.asFile(getFileForPhoto())
+      PhotoCaptureRequest<File> request = PhotoCaptureRequest.asFile(getFileForPhoto());
+      Size thumbnailSize = getThumbnailSize();
+      if(thumbnailSize != null) {
+        request.thumbnailReadyListener(thumbnailSize, new PhotoCaptureRequest.OnThumbnailReadyListener() {
+          @Override
+          public void onThumbnailReady(@NonNull Bitmap thumbnail) {
+            SimpleCameraFragment.this.onThumbnailReady(thumbnail);
+          }
+        });
+      }
+
+      camera.takePhoto(request
               .restartPreview(restartPreviewAfterTakingPhoto)
               .mirrorFrontCameraImage(mirrorFrontCameraImages)
               .shutterActionListener(shutterActionListener)
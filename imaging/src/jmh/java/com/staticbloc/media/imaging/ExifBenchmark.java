@@ -0,0 +1,72 @@
+package com.staticbloc.media.imaging;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifDirectoryBase;
+import com.drew.metadata.exif.ExifIFD0Directory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ExifUtils} against metadata-extractor (which parses the whole segment) on a camera JPEG.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExifBenchmark {
+  @Param({"4000x3000", "1920x1080"})
+  public String size;
+
+  @Param(SampleImages.GENERATED)
+  public String source;
+
+  private byte[] jpeg;
+  private byte[] bareJpeg;
+  private byte[] scratch;
+
+  @Setup
+  public void setUp() throws Exception {
+    jpeg = SampleImages.cameraJpeg(source, size, ExifUtils.ORIENTATION_ROTATE_90);
+    bareJpeg = SampleImages.bareJpeg(size);
+    scratch = new byte[jpeg.length];
+  }
+
+  @Benchmark
+  public int getOrientation() {
+    return ExifUtils.getOrientation(jpeg);
+  }
+
+  @Benchmark
+  public int getOrientationMetadataExtractor() throws Exception {
+    Metadata metadata = ImageMetadataReader.readMetadata(new ByteArrayInputStream(jpeg));
+    ExifIFD0Directory directory = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
+    return directory == null ? ExifUtils.ORIENTATION_UNDEFINED : directory.getInt(ExifDirectoryBase.TAG_ORIENTATION);
+  }
+
+  // the copy is part of what's measured, but it's the same for every run
+  @Benchmark
+  public boolean setOrientation() {
+    System.arraycopy(jpeg, 0, scratch, 0, jpeg.length);
+    return ExifUtils.setOrientation(scratch, ExifUtils.ORIENTATION_ROTATE_180);
+  }
+
+  @Benchmark
+  public byte[] getThumbnail() {
+    return ExifUtils.getThumbnail(jpeg);
+  }
+
+  @Benchmark
+  public byte[] withOrientationInserted() {
+    return ExifUtils.withOrientation(bareJpeg, ExifUtils.ORIENTATION_ROTATE_90);
+  }
+}
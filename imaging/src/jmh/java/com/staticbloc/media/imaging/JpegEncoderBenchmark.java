@@ -0,0 +1,63 @@
+package com.staticbloc.media.imaging;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding ARGB pixels with {@link JpegEncoder}. The output is counted and thrown away, so only the encoder is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JpegEncoderBenchmark {
+  @Param({"4000x3000", "1920x1080"})
+  public String size;
+
+  @Param({"95", "80"})
+  public int quality;
+
+  private int width;
+  private int height;
+  private int[] pixels;
+
+  @Setup
+  public void setUp() {
+    int[] dimensions = SampleImages.parseSize(size);
+    width = dimensions[0];
+    height = dimensions[1];
+    pixels = SampleImages.pixels(width, height);
+  }
+
+  @Benchmark
+  public long encode() throws IOException {
+    CountingOutputStream out = new CountingOutputStream();
+    JpegEncoder encoder = new JpegEncoder(out, width, height, quality);
+    encoder.writeRows(pixels, 0, width, height);
+    encoder.finish();
+    return out.count;
+  }
+
+  private static final class CountingOutputStream extends OutputStream {
+    private long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package com.staticbloc.media.imaging;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lossless rotation of a camera JPEG with {@link JpegTransformer}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JpegTransformerBenchmark {
+  @Param({"4000x3000", "1920x1080"})
+  public String size;
+
+  @Param(SampleImages.GENERATED)
+  public String source;
+
+  // 90 degrees, 180 degrees, and a mirror
+  @Param({"6", "3", "2"})
+  public int orientation;
+
+  private byte[] jpeg;
+
+  @Setup
+  public void setUp() throws Exception {
+    jpeg = SampleImages.cameraJpeg(source, size, ExifUtils.ORIENTATION_NORMAL);
+  }
+
+  @Benchmark
+  public byte[] transform() {
+    return JpegTransformer.transform(jpeg, orientation);
+  }
+}
@@ -0,0 +1,102 @@
+package com.staticbloc.media.imaging;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Nv21Kernels} on preview sized frames, with the outputs allocated once like they would be for a stream of frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Nv21KernelsBenchmark {
+  @Param({"1920x1080", "1280x720", "640x480"})
+  public String size;
+
+  private int width;
+  private int height;
+  private byte[] nv21;
+  private int[] argb;
+  private short[] rgb565;
+  private byte[] luma;
+  private byte[] downscaled;
+  private byte[] rotated;
+
+  private ExecutorService helpers;
+  private RowBands bands;
+
+  @Setup
+  public void setUp() {
+    int[] dimensions = SampleImages.parseSize(size);
+    width = dimensions[0];
+    height = dimensions[1];
+    nv21 = SampleImages.nv21(width, height);
+    argb = new int[width * height];
+    rgb565 = new short[width * height];
+    luma = new byte[width * height];
+    downscaled = new byte[Nv21Kernels.getBufferSize(width / 2, height / 2)];
+    rotated = new byte[nv21.length];
+
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    helpers = Executors.newFixedThreadPool(Math.max(1, parallelism - 1));
+    bands = new RowBands(helpers, parallelism);
+  }
+
+  @TearDown
+  public void tearDown() {
+    helpers.shutdown();
+  }
+
+  @Benchmark
+  public int[] toArgb() {
+    Nv21Kernels.toArgb(nv21, width, height, argb);
+    return argb;
+  }
+
+  @Benchmark
+  public int[] toArgbParallel() {
+    Nv21Kernels.toArgb(nv21, width, height, argb, bands);
+    return argb;
+  }
+
+  @Benchmark
+  public short[] toRgb565() {
+    Nv21Kernels.toRgb565(nv21, width, height, rgb565);
+    return rgb565;
+  }
+
+  @Benchmark
+  public byte[] extractLuma() {
+    Nv21Kernels.extractLuma(nv21, width, height, luma);
+    return luma;
+  }
+
+  @Benchmark
+  public byte[] downscaleLumaBy4() {
+    Nv21Kernels.downscaleLuma(nv21, width, height, 4, luma);
+    return luma;
+  }
+
+  @Benchmark
+  public byte[] downscaleBy2() {
+    Nv21Kernels.downscale(nv21, width, height, 2, downscaled);
+    return downscaled;
+  }
+
+  @Benchmark
+  public byte[] rotate90() {
+    Nv21Kernels.rotate(nv21, width, height, 90, rotated);
+    return rotated;
+  }
+}
@@ -0,0 +1,306 @@
+package com.staticbloc.media.imaging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Photo-like images for the benchmarks: a sky gradient over textured ground with a few hard edged shapes and some sensor noise,
+ * so that the JPEGs have the mix of flat and busy blocks (and roughly the size) of a real photo. The JPEGs have the kind of
+ * EXIF segment that a phone camera writes, including an IFD1 thumbnail.
+ *
+ * A benchmark's {@code source} param is either {@link #GENERATED} or the path of a real JPEG to use instead.
+ */
+/*package*/ final class SampleImages {
+  /*package*/ static final String GENERATED = "generated";
+
+  private static final int BAND_ROWS = 16;
+  private static final int NOISE_CELL = 64;
+  private static final int THUMBNAIL_WIDTH = 160;
+  private static final int THUMBNAIL_HEIGHT = 120;
+
+  private static final int TYPE_ASCII = 2;
+  private static final int TYPE_SHORT = 3;
+  private static final int TYPE_LONG = 4;
+  private static final int TYPE_RATIONAL = 5;
+
+  private SampleImages() {}
+
+  /**
+   * @param size {@code <width>x<height>}, which is ignored if {@code source} is a file
+   */
+  /*package*/ static byte[] cameraJpeg(String source, String size, int orientation) throws IOException {
+    if(!GENERATED.equals(source)) {
+      return readFile(new File(source));
+    }
+
+    int[] dimensions = parseSize(size);
+    byte[] jpeg = encode(dimensions[0], dimensions[1], 95);
+    byte[] thumbnail = encode(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, 80);
+    return withCameraExif(jpeg, dimensions[0], dimensions[1], orientation, thumbnail);
+  }
+
+  /**
+   * @return a JPEG without any EXIF, like the ones {@code YuvImage} produces
+   */
+  /*package*/ static byte[] bareJpeg(String size) throws IOException {
+    int[] dimensions = parseSize(size);
+    return encode(dimensions[0], dimensions[1], 95);
+  }
+
+  /*package*/ static int[] parseSize(String size) {
+    String[] parts = size.split("x");
+    if(parts.length != 2) {
+      throw new IllegalArgumentException(size + " is not <width>x<height>");
+    }
+    return new int[] {Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+  }
+
+  /*package*/ static int[] pixels(int width, int height) {
+    int[] argb = new int[width * height];
+    fill(argb, width, height, 0, height);
+    return argb;
+  }
+
+  /**
+   * @return the image as NV21, like a camera preview frame
+   */
+  /*package*/ static byte[] nv21(int width, int height) {
+    int[] argb = pixels(width, height);
+    byte[] nv21 = new byte[width * height * 3 / 2];
+    int frameSize = width * height;
+    for(int y = 0; y < height; y++) {
+      for(int x = 0; x < width; x++) {
+        int pixel = argb[y * width + x];
+        int r = (pixel >> 16) & 0xFF;
+        int g = (pixel >> 8) & 0xFF;
+        int b = pixel & 0xFF;
+        // BT.601 limited range
+        nv21[y * width + x] = (byte) clamp(((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+        if((x & 1) == 0 && (y & 1) == 0) {
+          int uvIndex = frameSize + (y >> 1) * width + x;
+          nv21[uvIndex] = (byte) clamp(((112 * r - 94 * g - 18 * b + 128) >> 8) + 128);
+          nv21[uvIndex + 1] = (byte) clamp(((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128);
+        }
+      }
+    }
+    return nv21;
+  }
+
+  /*package*/ static byte[] encode(int width, int height, int quality) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(width * height / 4);
+    JpegEncoder encoder = new JpegEncoder(out, width, height, quality);
+    int[] band = new int[width * BAND_ROWS];
+    for(int top = 0; top < height; top += BAND_ROWS) {
+      int rows = Math.min(BAND_ROWS, height - top);
+      fill(band, width, height, top, rows);
+      encoder.writeRows(band, 0, width, rows);
+    }
+    encoder.finish();
+    return out.toByteArray();
+  }
+
+  // fills argb with rowCount rows of the image, starting at row top
+  private static void fill(int[] argb, int width, int height, int top, int rowCount) {
+    int horizon = height * 2 / 5;
+    for(int row = 0; row < rowCount; row++) {
+      int y = top + row;
+      for(int x = 0; x < width; x++) {
+        int r;
+        int g;
+        int b;
+        if(y < horizon) {
+          int t = y * 255 / horizon;
+          r = 90 + t / 3;
+          g = 140 + t / 4;
+          b = 230 - t / 6;
+        }
+        else {
+          int texture = valueNoise(x, y, NOISE_CELL) / 2 + valueNoise(x, y, NOISE_CELL / 8) / 4;
+          r = 60 + texture / 2;
+          g = 90 + texture / 2;
+          b = 40 + texture / 4;
+        }
+
+        // a few hard edges, which are the expensive blocks to encode
+        int cx = x - width / 3;
+        int cy = y - height / 2;
+        int radius = height / 6;
+        if(cx * cx + cy * cy < radius * radius) {
+          r = 200;
+          g = 60;
+          b = 50;
+        }
+        else if(x > width * 3 / 5 && x < width * 4 / 5 && y > height / 4 && y < height * 3 / 4) {
+          boolean stripe = ((x / 24) & 1) == 0;
+          r = stripe ? 235 : 30;
+          g = stripe ? 235 : 30;
+          b = stripe ? 225 : 35;
+        }
+
+        int noise = (hash(x, y) & 7) - 4;
+        argb[row * width + x] = 0xFF000000 | (clamp(r + noise) << 16) | (clamp(g + noise) << 8) | clamp(b + noise);
+      }
+    }
+  }
+
+  // smooth 0-255 noise that changes over about cell pixels
+  private static int valueNoise(int x, int y, int cell) {
+    int gx = x / cell;
+    int gy = y / cell;
+    int fx = x % cell;
+    int fy = y % cell;
+    int top = lerp(hash(gx, gy) & 0xFF, hash(gx + 1, gy) & 0xFF, fx, cell);
+    int bottom = lerp(hash(gx, gy + 1) & 0xFF, hash(gx + 1, gy + 1) & 0xFF, fx, cell);
+    return lerp(top, bottom, fy, cell);
+  }
+
+  private static int lerp(int a, int b, int t, int range) {
+    return a + (b - a) * t / range;
+  }
+
+  private static int hash(int x, int y) {
+    int h = x * 374761393 + y * 668265263;
+    h = (h ^ (h >>> 13)) * 1274126177;
+    return h ^ (h >>> 16);
+  }
+
+  private static int clamp(int value) {
+    return value < 0 ? 0 : value > 255 ? 255 : value;
+  }
+
+  /**
+   * Adds an APP1 segment like a phone camera's (little endian, IFD0, an EXIF IFD, and IFD1 with {@code thumbnail}) right after SOI.
+   */
+  /*package*/ static byte[] withCameraExif(byte[] jpeg, int width, int height, int orientation, byte[] thumbnail) {
+    ByteBuffer tiff = ByteBuffer.allocate(1024 + thumbnail.length).order(ByteOrder.LITTLE_ENDIAN);
+    tiff.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+
+    int ifd0 = 8;
+    int exifIfd = ifd0 + ifdSize(9);
+    int ifd1 = exifIfd + ifdSize(6);
+    IfdWriter writer = new IfdWriter(tiff, ifd1 + ifdSize(3));
+
+    writer.start(ifd0, 9);
+    writer.ascii(0x010F, "Google");
+    writer.ascii(0x0110, "Pixel");
+    writer.shortValue(0x0112, orientation);
+    writer.rational(0x011A, 72, 1);
+    writer.rational(0x011B, 72, 1);
+    writer.shortValue(0x0128, 2);
+    writer.ascii(0x0131, "SimpleCamera");
+    writer.ascii(0x0132, "2016:11:20 10:00:00");
+    writer.longValue(0x8769, exifIfd);
+    writer.end(ifd1);
+
+    writer.start(exifIfd, 6);
+    writer.rational(0x829A, 1, 120);
+    writer.rational(0x829D, 18, 10);
+    writer.shortValue(0x8827, 100);
+    writer.ascii(0x9003, "2016:11:20 10:00:00");
+    writer.longValue(0xA002, width);
+    writer.longValue(0xA003, height);
+    writer.end(0);
+
+    int thumbnailOffset = writer.data(thumbnail);
+    writer.start(ifd1, 3);
+    writer.shortValue(0x0103, 6);
+    writer.longValue(0x0201, thumbnailOffset);
+    writer.longValue(0x0202, thumbnail.length);
+    writer.end(0);
+
+    int tiffLength = writer.dataEnd;
+    int segmentLength = 2 + 6 + tiffLength;
+    byte[] result = new byte[jpeg.length + 2 + segmentLength];
+    ByteBuffer out = ByteBuffer.wrap(result);
+    out.put(jpeg, 0, 2);
+    out.put((byte) 0xFF).put((byte) 0xE1).putShort((short) segmentLength);
+    out.put(new byte[] {'E', 'x', 'i', 'f', 0, 0});
+    out.put(tiff.array(), 0, tiffLength);
+    out.put(jpeg, 2, jpeg.length - 2);
+    return result;
+  }
+
+  private static int ifdSize(int entryCount) {
+    return 2 + entryCount * 12 + 4;
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      byte[] data = new byte[(int) in.length()];
+      in.readFully(data);
+      return data;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  // writes entries at the IFD's position, and values that don't fit in an entry to the data area after the IFDs
+  private static final class IfdWriter {
+    private final ByteBuffer tiff;
+    private int dataEnd;
+
+    private IfdWriter(ByteBuffer tiff, int dataStart) {
+      this.tiff = tiff;
+      this.dataEnd = dataStart;
+    }
+
+    private void start(int offset, int entryCount) {
+      tiff.position(offset);
+      tiff.putShort((short) entryCount);
+    }
+
+    private void end(int nextIfd) {
+      tiff.putInt(nextIfd);
+    }
+
+    private void ascii(int tag, String value) {
+      byte[] bytes = (value + '\0').getBytes();
+      entry(tag, TYPE_ASCII, bytes.length);
+      if(bytes.length <= 4) {
+        tiff.put(bytes).put(new byte[4 - bytes.length]);
+      }
+      else {
+        tiff.putInt(data(bytes));
+      }
+    }
+
+    private void shortValue(int tag, int value) {
+      entry(tag, TYPE_SHORT, 1);
+      tiff.putShort((short) value).putShort((short) 0);
+    }
+
+    private void longValue(int tag, int value) {
+      entry(tag, TYPE_LONG, 1);
+      tiff.putInt(value);
+    }
+
+    private void rational(int tag, int numerator, int denominator) {
+      entry(tag, TYPE_RATIONAL, 1);
+      ByteBuffer value = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+      value.putInt(numerator).putInt(denominator);
+      tiff.putInt(data(value.array()));
+    }
+
+    private void entry(int tag, int type, int count) {
+      tiff.putShort((short) tag).putShort((short) type).putInt(count);
+    }
+
+    // returns the offset of bytes
+    private int data(byte[] bytes) {
+      int offset = dataEnd;
+      int position = tiff.position();
+      tiff.position(offset);
+      tiff.put(bytes);
+      tiff.position(position);
+      // values start on a word boundary
+      dataEnd = (offset + bytes.length + 1) & ~1;
+      return offset;
+    }
+  }
+}
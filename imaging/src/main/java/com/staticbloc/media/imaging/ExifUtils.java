@@ -0,0 +1,532 @@
+package com.staticbloc.media.imaging;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Reads and rewrites the EXIF orientation tag of a JPEG in place (or adds one), and reads its embedded thumbnail, without decoding
+ * the image or parsing any metadata other than IFD0, IFD1 and the pixel dimensions of the Exif IFD of the APP1 segment.
+ */
+public class ExifUtils {
+  public static final int ORIENTATION_UNDEFINED = 0;
+  public static final int ORIENTATION_NORMAL = 1;
+  public static final int ORIENTATION_FLIP_HORIZONTAL = 2;
+  public static final int ORIENTATION_ROTATE_180 = 3;
+  public static final int ORIENTATION_FLIP_VERTICAL = 4;
+  public static final int ORIENTATION_TRANSPOSE = 5;
+  public static final int ORIENTATION_ROTATE_90 = 6;
+  public static final int ORIENTATION_TRANSVERSE = 7;
+  public static final int ORIENTATION_ROTATE_270 = 8;
+
+  private static final int NOT_FOUND = -1;
+
+  private static final int MARKER_SOI = 0xD8;
+  private static final int MARKER_EOI = 0xD9;
+  private static final int MARKER_SOS = 0xDA;
+  private static final int MARKER_APP1 = 0xE1;
+
+  private static final int TAG_ORIENTATION = 0x0112;
+  private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+  private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+  private static final int TAG_EXIF_IFD_POINTER = 0x8769;
+  private static final int TAG_PIXEL_X_DIMENSION = 0xA002;
+  private static final int TAG_PIXEL_Y_DIMENSION = 0xA003;
+  private static final int TYPE_SHORT = 3;
+  private static final int TYPE_LONG = 4;
+  private static final int IFD_ENTRY_SIZE = 12;
+  // "Exif\0\0"
+  private static final int EXIF_HEADER_SIZE = 6;
+
+  // an APP1 segment (marker and length included) with a big endian TIFF header and an IFD0 that only holds the orientation
+  private static final int ORIENTATION_SEGMENT_SIZE = 2 + 2 + 6 + 8 + 2 + IFD_ENTRY_SIZE + 4;
+
+  private ExifUtils() {}
+
+  /**
+   * @return the EXIF orientation of {@code jpeg}, or {@link #ORIENTATION_NORMAL} if it doesn't have one
+   */
+  public static int getOrientation(@NonNull byte[] jpeg) {
+    int entry = findOrientationEntry(jpeg);
+    if(entry == NOT_FOUND) {
+      return ORIENTATION_NORMAL;
+    }
+
+    int orientation = readShort(jpeg, entry + 8, isLittleEndianEntry(jpeg, entry));
+    if(orientation < ORIENTATION_NORMAL || orientation > ORIENTATION_ROTATE_270) {
+      return ORIENTATION_NORMAL;
+    }
+    return orientation;
+  }
+
+  /**
+   * Overwrites the existing orientation tag of {@code jpeg}.
+   *
+   * @return false if {@code jpeg} doesn't already have an orientation tag (nothing is written in that case)
+   */
+  public static boolean setOrientation(@NonNull byte[] jpeg, int orientation) {
+    if(orientation < ORIENTATION_NORMAL || orientation > ORIENTATION_ROTATE_270) {
+      throw new IllegalArgumentException(orientation + " is not a valid EXIF orientation");
+    }
+
+    int entry = findOrientationEntry(jpeg);
+    if(entry == NOT_FOUND) {
+      return false;
+    }
+
+    writeShort(jpeg, entry + 8, orientation, isLittleEndianEntry(jpeg, entry));
+    return true;
+  }
+
+  /**
+   * For a JPEG whose pixels were already transformed the way its orientation said (e.g. by {@link JpegTransformer}), sets the
+   * orientation back to {@link #ORIENTATION_NORMAL} in place, and fixes the metadata that the transform left stale, like exiftran
+   * does: IFD1 is dropped, since its thumbnail still needs the old orientation, and the pixel dimensions of the Exif IFD are set
+   * to the size in the frame header, which is swapped and possibly trimmed.
+   *
+   * @return false if {@code jpeg} doesn't have an orientation tag (the rest of the metadata is still fixed)
+   */
+  public static boolean resetOrientation(@NonNull byte[] jpeg) {
+    int tiff = findTiff(jpeg);
+    if(tiff == NOT_FOUND) {
+      return false;
+    }
+
+    int tiffEnd = getTiffEnd(jpeg, tiff);
+    boolean littleEndian = isLittleEndianTiff(jpeg, tiff);
+    int ifd0 = getIfd0(jpeg, tiff);
+    int entryCount = readShort(jpeg, ifd0, littleEndian);
+    int orientationEntry = NOT_FOUND;
+    long exifIfdOffset = NOT_FOUND;
+    for(int i = 0; i < entryCount; i++) {
+      int entry = ifd0 + 2 + (i * IFD_ENTRY_SIZE);
+      if(entry + IFD_ENTRY_SIZE > tiffEnd) {
+        return false;
+      }
+
+      int tag = readShort(jpeg, entry, littleEndian);
+      if(tag == TAG_ORIENTATION && readShort(jpeg, entry + 2, littleEndian) == TYPE_SHORT) {
+        orientationEntry = entry;
+      }
+      else if(tag == TAG_EXIF_IFD_POINTER) {
+        exifIfdOffset = readIntegerValue(jpeg, entry, littleEndian);
+      }
+    }
+
+    if(orientationEntry != NOT_FOUND) {
+      writeShort(jpeg, orientationEntry + 8, ORIENTATION_NORMAL, littleEndian);
+    }
+
+    int nextIfdPointer = ifd0 + 2 + (entryCount * IFD_ENTRY_SIZE);
+    if(nextIfdPointer + 4 <= tiffEnd) {
+      writeInt(jpeg, nextIfdPointer, 0, littleEndian);
+    }
+
+    int frameHeader = findFrameHeader(jpeg);
+    if(frameHeader != NOT_FOUND && exifIfdOffset >= 8 && tiff + exifIfdOffset + 2 <= tiffEnd) {
+      int height = readShort(jpeg, frameHeader + 5, false);
+      int width = readShort(jpeg, frameHeader + 7, false);
+      int exifIfd = tiff + (int) exifIfdOffset;
+      int exifEntryCount = readShort(jpeg, exifIfd, littleEndian);
+      for(int i = 0; i < exifEntryCount; i++) {
+        int entry = exifIfd + 2 + (i * IFD_ENTRY_SIZE);
+        if(entry + IFD_ENTRY_SIZE > tiffEnd) {
+          break;
+        }
+
+        int tag = readShort(jpeg, entry, littleEndian);
+        if(tag == TAG_PIXEL_X_DIMENSION) {
+          writeIntegerValue(jpeg, entry, width, littleEndian);
+        }
+        else if(tag == TAG_PIXEL_Y_DIMENSION) {
+          writeIntegerValue(jpeg, entry, height, littleEndian);
+        }
+      }
+    }
+
+    return orientationEntry != NOT_FOUND;
+  }
+
+  /**
+   * @return {@code jpeg} with its orientation set to {@code orientation}. If it doesn't have an orientation tag yet,
+   * it is copied with an EXIF segment that only holds the orientation.
+   */
+  @NonNull
+  public static byte[] withOrientation(@NonNull byte[] jpeg, int orientation) {
+    return withOrientation(jpeg, jpeg.length, orientation);
+  }
+
+  /**
+   * Like {@link #withOrientation(byte[], int)}, for a JPEG that is the first {@code length} bytes of {@code jpeg}
+   * (e.g. the buffer of a stream it was encoded to). A copy is returned unless {@code length} is all of {@code jpeg}.
+   */
+  @NonNull
+  public static byte[] withOrientation(@NonNull byte[] jpeg, int length, int orientation) {
+    if(orientation < ORIENTATION_NORMAL || orientation > ORIENTATION_ROTATE_270) {
+      throw new IllegalArgumentException(orientation + " is not a valid EXIF orientation");
+    }
+    if(length < 4 || length > jpeg.length || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != MARKER_SOI) {
+      throw new IllegalArgumentException("jpeg is not a JPEG");
+    }
+
+    byte[] result = length == jpeg.length ? jpeg : Arrays.copyOf(jpeg, length);
+    if(setOrientation(result, orientation)) {
+      return result;
+    }
+
+    // the segment goes right after SOI, where cameras put theirs
+    result = new byte[length + ORIENTATION_SEGMENT_SIZE];
+    int pos = 0;
+    result[pos++] = (byte) 0xFF;
+    result[pos++] = (byte) MARKER_SOI;
+    result[pos++] = (byte) 0xFF;
+    result[pos++] = (byte) MARKER_APP1;
+    writeShort(result, pos, ORIENTATION_SEGMENT_SIZE - 2, false);
+    pos += 2;
+    result[pos++] = 'E';
+    result[pos++] = 'x';
+    result[pos++] = 'i';
+    result[pos++] = 'f';
+    pos += 2;
+    result[pos++] = 'M';
+    result[pos++] = 'M';
+    writeShort(result, pos, 42, false);
+    pos += 2;
+    // IFD0 right after the header
+    pos += 3;
+    result[pos++] = 8;
+    writeShort(result, pos, 1, false);
+    pos += 2;
+    writeShort(result, pos, TAG_ORIENTATION, false);
+    writeShort(result, pos + 2, TYPE_SHORT, false);
+    // count of 1
+    result[pos + 7] = 1;
+    writeShort(result, pos + 8, orientation, false);
+    pos += IFD_ENTRY_SIZE;
+    // no IFD1
+    pos += 4;
+    System.arraycopy(jpeg, 2, result, pos, length - 2);
+    return result;
+  }
+
+  /**
+   * @return the orientation that rotates an image clockwise by {@code degrees} (a multiple of 90) when it is displayed
+   */
+  public static int fromRotationDegrees(int degrees) {
+    switch(((degrees % 360) + 360) % 360) {
+      case 0:
+        return ORIENTATION_NORMAL;
+      case 90:
+        return ORIENTATION_ROTATE_90;
+      case 180:
+        return ORIENTATION_ROTATE_180;
+      case 270:
+        return ORIENTATION_ROTATE_270;
+      default:
+        throw new IllegalArgumentException(degrees + " is not a multiple of 90");
+    }
+  }
+
+  /**
+   * @return a copy of the JPEG thumbnail that is embedded in IFD1 of {@code jpeg}, or null if there isn't one.
+   * The thumbnail has the same orientation as {@code jpeg}.
+   */
+  @Nullable
+  public static byte[] getThumbnail(@NonNull byte[] jpeg) {
+    int tiff = findTiff(jpeg);
+    if(tiff == NOT_FOUND) {
+      return null;
+    }
+
+    int tiffEnd = getTiffEnd(jpeg, tiff);
+    boolean littleEndian = isLittleEndianTiff(jpeg, tiff);
+    int ifd0 = getIfd0(jpeg, tiff);
+    int ifd0EntryCount = readShort(jpeg, ifd0, littleEndian);
+    int nextIfdPointer = ifd0 + 2 + (ifd0EntryCount * IFD_ENTRY_SIZE);
+    if(nextIfdPointer + 4 > tiffEnd) {
+      return null;
+    }
+
+    long ifd1Offset = readInt(jpeg, nextIfdPointer, littleEndian) & 0xFFFFFFFFL;
+    if(ifd1Offset < 8 || tiff + ifd1Offset + 2 > tiffEnd) {
+      return null;
+    }
+
+    int ifd1 = tiff + (int) ifd1Offset;
+    int entryCount = readShort(jpeg, ifd1, littleEndian);
+    long offset = NOT_FOUND;
+    long length = NOT_FOUND;
+    for(int i = 0; i < entryCount; i++) {
+      int entry = ifd1 + 2 + (i * IFD_ENTRY_SIZE);
+      if(entry + IFD_ENTRY_SIZE > tiffEnd) {
+        return null;
+      }
+
+      int tag = readShort(jpeg, entry, littleEndian);
+      if(tag == TAG_THUMBNAIL_OFFSET) {
+        offset = readIntegerValue(jpeg, entry, littleEndian);
+      }
+      else if(tag == TAG_THUMBNAIL_LENGTH) {
+        length = readIntegerValue(jpeg, entry, littleEndian);
+      }
+    }
+
+    if(offset <= 0 || length <= 0 || tiff + offset + length > tiffEnd) {
+      return null;
+    }
+
+    int thumbnailStart = tiff + (int) offset;
+    if((jpeg[thumbnailStart] & 0xFF) != 0xFF || (jpeg[thumbnailStart + 1] & 0xFF) != MARKER_SOI) {
+      return null;
+    }
+    return Arrays.copyOfRange(jpeg, thumbnailStart, thumbnailStart + (int) length);
+  }
+
+  /**
+   * @return the orientation that displays an image the way {@code orientation} would, and then mirrors it horizontally
+   */
+  public static int mirrorOrientation(int orientation) {
+    switch(orientation) {
+      case ORIENTATION_FLIP_HORIZONTAL:
+        return ORIENTATION_NORMAL;
+      case ORIENTATION_ROTATE_180:
+        return ORIENTATION_FLIP_VERTICAL;
+      case ORIENTATION_FLIP_VERTICAL:
+        return ORIENTATION_ROTATE_180;
+      case ORIENTATION_TRANSPOSE:
+        return ORIENTATION_ROTATE_90;
+      case ORIENTATION_ROTATE_90:
+        return ORIENTATION_TRANSPOSE;
+      case ORIENTATION_TRANSVERSE:
+        return ORIENTATION_ROTATE_270;
+      case ORIENTATION_ROTATE_270:
+        return ORIENTATION_TRANSVERSE;
+      default:
+        return ORIENTATION_FLIP_HORIZONTAL;
+    }
+  }
+
+  // returns the offset of the orientation entry in IFD0, or NOT_FOUND
+  private static int findOrientationEntry(byte[] jpeg) {
+    int tiff = findTiff(jpeg);
+    if(tiff == NOT_FOUND) {
+      return NOT_FOUND;
+    }
+
+    int tiffEnd = getTiffEnd(jpeg, tiff);
+    boolean littleEndian = isLittleEndianTiff(jpeg, tiff);
+    int ifd = getIfd0(jpeg, tiff);
+    int entryCount = readShort(jpeg, ifd, littleEndian);
+    // entries should be sorted by tag, but some cameras don't sort them, so every entry is checked
+    for(int i = 0; i < entryCount; i++) {
+      int entry = ifd + 2 + (i * IFD_ENTRY_SIZE);
+      if(entry + IFD_ENTRY_SIZE > tiffEnd) {
+        return NOT_FOUND;
+      }
+
+      if(readShort(jpeg, entry, littleEndian) == TAG_ORIENTATION) {
+        if(readShort(jpeg, entry + 2, littleEndian) != TYPE_SHORT) {
+          return NOT_FOUND;
+        }
+        return entry;
+      }
+    }
+
+    return NOT_FOUND;
+  }
+
+  // returns the offset of a valid TIFF header in the EXIF APP1 segment, or NOT_FOUND
+  private static int findTiff(byte[] jpeg) {
+    if(jpeg.length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != MARKER_SOI) {
+      return NOT_FOUND;
+    }
+
+    int pos = 2;
+    while(pos + 4 <= jpeg.length) {
+      if((jpeg[pos] & 0xFF) != 0xFF) {
+        return NOT_FOUND;
+      }
+
+      int marker = jpeg[pos + 1] & 0xFF;
+      if(marker == 0xFF) {
+        // fill byte
+        pos++;
+        continue;
+      }
+
+      if(marker == MARKER_SOS || marker == MARKER_EOI) {
+        return NOT_FOUND;
+      }
+
+      int segmentLength = readShort(jpeg, pos + 2, false);
+      int segmentStart = pos + 4;
+      int segmentEnd = pos + 2 + segmentLength;
+      if(segmentLength < 2 || segmentEnd > jpeg.length) {
+        return NOT_FOUND;
+      }
+
+      if(marker == MARKER_APP1 && isExifHeader(jpeg, segmentStart, segmentEnd)) {
+        int tiff = segmentStart + EXIF_HEADER_SIZE;
+        return isValidTiffHeader(jpeg, tiff, segmentEnd) ? tiff : NOT_FOUND;
+      }
+
+      pos = segmentEnd;
+    }
+
+    return NOT_FOUND;
+  }
+
+  // returns the offset of the SOF marker, or NOT_FOUND
+  private static int findFrameHeader(byte[] jpeg) {
+    int pos = 2;
+    while(pos + 4 <= jpeg.length) {
+      if((jpeg[pos] & 0xFF) != 0xFF) {
+        return NOT_FOUND;
+      }
+
+      int marker = jpeg[pos + 1] & 0xFF;
+      if(marker == 0xFF) {
+        // fill byte
+        pos++;
+        continue;
+      }
+
+      if(marker == MARKER_SOS || marker == MARKER_EOI) {
+        return NOT_FOUND;
+      }
+
+      int segmentLength = readShort(jpeg, pos + 2, false);
+      int segmentEnd = pos + 2 + segmentLength;
+      if(segmentLength < 2 || segmentEnd > jpeg.length) {
+        return NOT_FOUND;
+      }
+
+      // precision, height and width
+      if(JpegFormat.isStartOfFrame(marker)) {
+        return segmentLength >= 7 ? pos : NOT_FOUND;
+      }
+
+      pos = segmentEnd;
+    }
+
+    return NOT_FOUND;
+  }
+
+  private static boolean isExifHeader(byte[] jpeg, int start, int end) {
+    return end - start >= EXIF_HEADER_SIZE &&
+        jpeg[start] == 'E' && jpeg[start + 1] == 'x' && jpeg[start + 2] == 'i' && jpeg[start + 3] == 'f' &&
+        jpeg[start + 4] == 0 && jpeg[start + 5] == 0;
+  }
+
+  private static boolean isValidTiffHeader(byte[] jpeg, int tiffStart, int tiffEnd) {
+    if(tiffEnd - tiffStart < 8) {
+      return false;
+    }
+
+    boolean littleEndian;
+    if(jpeg[tiffStart] == 'I' && jpeg[tiffStart + 1] == 'I') {
+      littleEndian = true;
+    }
+    else if(jpeg[tiffStart] == 'M' && jpeg[tiffStart + 1] == 'M') {
+      littleEndian = false;
+    }
+    else {
+      return false;
+    }
+
+    if(readShort(jpeg, tiffStart + 2, littleEndian) != 42) {
+      return false;
+    }
+
+    long ifdOffset = readInt(jpeg, tiffStart + 4, littleEndian) & 0xFFFFFFFFL;
+    return ifdOffset >= 8 && tiffStart + ifdOffset + 2 <= tiffEnd;
+  }
+
+  // the rest of the TIFF header is read back from the segment instead of being kept in an object,
+  // so that finding the orientation doesn't allocate
+
+  private static int getTiffEnd(byte[] jpeg, int tiff) {
+    // the segment length comes right before the Exif header, and counts itself
+    int segmentLengthOffset = tiff - EXIF_HEADER_SIZE - 2;
+    return segmentLengthOffset + readShort(jpeg, segmentLengthOffset, false);
+  }
+
+  private static boolean isLittleEndianTiff(byte[] jpeg, int tiff) {
+    return jpeg[tiff] == 'I';
+  }
+
+  private static int getIfd0(byte[] jpeg, int tiff) {
+    return tiff + readInt(jpeg, tiff + 4, isLittleEndianTiff(jpeg, tiff));
+  }
+
+  // reads the value of an entry whose type is SHORT or LONG, or returns NOT_FOUND
+  private static long readIntegerValue(byte[] jpeg, int entry, boolean littleEndian) {
+    int type = readShort(jpeg, entry + 2, littleEndian);
+    if(type == TYPE_SHORT) {
+      return readShort(jpeg, entry + 8, littleEndian);
+    }
+    else if(type == TYPE_LONG) {
+      return readInt(jpeg, entry + 8, littleEndian) & 0xFFFFFFFFL;
+    }
+    return NOT_FOUND;
+  }
+
+  // writes the value of an entry whose type is SHORT or LONG, and leaves other types alone
+  private static void writeIntegerValue(byte[] jpeg, int entry, int value, boolean littleEndian) {
+    int type = readShort(jpeg, entry + 2, littleEndian);
+    if(type == TYPE_SHORT) {
+      writeShort(jpeg, entry + 8, value, littleEndian);
+    }
+    else if(type == TYPE_LONG) {
+      writeInt(jpeg, entry + 8, value, littleEndian);
+    }
+  }
+
+  // the tag id is 0x0112, so its first byte tells us the byte order of the entry
+  private static boolean isLittleEndianEntry(byte[] jpeg, int entry) {
+    return jpeg[entry] == 0x12;
+  }
+
+  private static int readShort(byte[] data, int offset, boolean littleEndian) {
+    if(littleEndian) {
+      return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+    }
+    else {
+      return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+  }
+
+  private static int readInt(byte[] data, int offset, boolean littleEndian) {
+    if(littleEndian) {
+      return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8) |
+          ((data[offset + 2] & 0xFF) << 16) | ((data[offset + 3] & 0xFF) << 24);
+    }
+    else {
+      return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) |
+          ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+  }
+
+  private static void writeShort(byte[] data, int offset, int value, boolean littleEndian) {
+    if(littleEndian) {
+      data[offset] = (byte) value;
+      data[offset + 1] = (byte) (value >> 8);
+    }
+    else {
+      data[offset] = (byte) (value >> 8);
+      data[offset + 1] = (byte) value;
+    }
+  }
+
+  private static void writeInt(byte[] data, int offset, int value, boolean littleEndian) {
+    if(littleEndian) {
+      writeShort(data, offset, value, true);
+      writeShort(data, offset + 2, value >> 16, true);
+    }
+    else {
+      writeShort(data, offset, value >> 16, false);
+      writeShort(data, offset + 2, value, false);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package com.staticbloc.media.imaging;
+
+import android.support.annotation.NonNull;
+
+// reads entropy coded data, removing stuffed bytes and stopping at markers
+/*package*/ final class JpegBitReader {
+  private final byte[] data;
+  private final int end;
+  private int pos;
+
+  // the next bits are left aligned
+  private long buffer;
+  private int bitCount;
+  private boolean hitMarker;
+
+  /*package*/ JpegBitReader(@NonNull byte[] data, int offset, int end) {
+    this.data = data;
+    this.pos = offset;
+    this.end = end;
+  }
+
+  /*package*/ int peekBits(int count) {
+    if(bitCount < count) fill();
+    return (int) (buffer >>> (64 - count));
+  }
+
+  /*package*/ void skipBits(int count) {
+    buffer <<= count;
+    bitCount -= count;
+  }
+
+  /*package*/ int readBits(int count) {
+    if(count == 0) return 0;
+    int bits = peekBits(count);
+    skipBits(count);
+    return bits;
+  }
+
+  // reads a magnitude category worth of bits and converts it to a signed value
+  /*package*/ int receiveExtend(int category) {
+    if(category == 0) return 0;
+    int value = readBits(category);
+    return value < (1 << (category - 1)) ? value - (1 << category) + 1 : value;
+  }
+
+  /*package*/ void restart() {
+    buffer = 0;
+    bitCount = 0;
+    hitMarker = false;
+
+    while(pos < end && (data[pos] & 0xFF) == 0xFF && pos + 1 < end && (data[pos + 1] & 0xFF) == 0xFF) {
+      pos++;
+    }
+
+    if(pos + 1 < end && (data[pos] & 0xFF) == 0xFF) {
+      int marker = data[pos + 1] & 0xFF;
+      if(marker >= JpegFormat.RST0 && marker <= JpegFormat.RST7) {
+        pos += 2;
+      }
+    }
+  }
+
+  private void fill() {
+    while(bitCount <= 56) {
+      int b = 0;
+      if(!hitMarker && pos < end) {
+        b = data[pos] & 0xFF;
+        if(b == 0xFF) {
+          int next = pos + 1 < end ? data[pos + 1] & 0xFF : JpegFormat.EOI;
+          if(next == 0) {
+            pos += 2;
+          }
+          else {
+            // a marker ends the entropy coded segment; feed zeros until we get restarted
+            hitMarker = true;
+            b = 0;
+          }
+        }
+        else {
+          pos++;
+        }
+      }
+
+      buffer |= ((long) b) << (56 - bitCount);
+      bitCount += 8;
+    }
+  }
+}
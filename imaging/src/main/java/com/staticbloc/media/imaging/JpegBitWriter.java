@@ -0,0 +1,136 @@
+package com.staticbloc.media.imaging;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// writes entropy coded data, stuffing a zero after every 0xFF
+/*package*/ final class JpegBitWriter {
+  private final OutputStream out;
+  private final byte[] bytes;
+  private int byteCount;
+
+  private long buffer;
+  private int bitCount;
+
+  private IOException error;
+
+  /*package*/ JpegBitWriter(@NonNull OutputStream out, int bufferSize) {
+    this.out = out;
+    this.bytes = new byte[Math.max(bufferSize, 16)];
+  }
+
+  /*package*/ void writeBits(int bits, int count) {
+    buffer = (buffer << count) | (bits & ((1L << count) - 1));
+    bitCount += count;
+
+    while(bitCount >= 8) {
+      int b = (int) (buffer >>> (bitCount - 8)) & 0xFF;
+      writeByte(b);
+      if(b == 0xFF) {
+        writeByte(0);
+      }
+      bitCount -= 8;
+    }
+  }
+
+  // writes a block of coefficients in zigzag order, with the dc coefficient already differenced
+  /*package*/ void writeBlock(@NonNull int[] zigzag, int dcDiff, @NonNull JpegHuffmanTable dcTable, @NonNull JpegHuffmanTable acTable) {
+    int category = JpegFormat.category(dcDiff);
+    dcTable.encode(this, category);
+    if(category > 0) {
+      writeBits(dcDiff < 0 ? dcDiff - 1 : dcDiff, category);
+    }
+
+    int run = 0;
+    for(int k = 1; k < JpegFormat.BLOCK_SIZE; k++) {
+      int value = zigzag[k];
+      if(value == 0) {
+        run++;
+        continue;
+      }
+
+      while(run > 15) {
+        acTable.encode(this, 0xF0);
+        run -= 16;
+      }
+
+      category = JpegFormat.category(value);
+      acTable.encode(this, (run << 4) | category);
+      writeBits(value < 0 ? value - 1 : value, category);
+      run = 0;
+    }
+
+    if(run > 0) {
+      acTable.encode(this, 0x00);
+    }
+  }
+
+  // pads the last byte with ones, as required before a marker
+  /*package*/ void alignToByte() {
+    if(bitCount > 0) {
+      int padding = 8 - bitCount;
+      writeBits((1 << padding) - 1, padding);
+    }
+  }
+
+  /*package*/ void writeMarker(int marker) {
+    alignToByte();
+    writeByte(0xFF);
+    writeByte(marker);
+  }
+
+  /*package*/ void flush() throws IOException {
+    alignToByte();
+    flushBytes();
+    if(error != null) {
+      throw error;
+    }
+  }
+
+  private void writeByte(int b) {
+    if(byteCount == bytes.length) {
+      flushBytes();
+    }
+    bytes[byteCount++] = (byte) b;
+  }
+
+  private void flushBytes() {
+    if(byteCount > 0 && error == null) {
+      try {
+        out.write(bytes, 0, byteCount);
+      }
+      catch(IOException e) {
+        error = e;
+      }
+    }
+    byteCount = 0;
+  }
+
+  // counts the symbols that writeBlock would emit, without writing anything
+  /*package*/ static void countBlock(@NonNull int[] zigzag, int dcDiff, @NonNull int[] dcFrequencies, @NonNull int[] acFrequencies) {
+    dcFrequencies[JpegFormat.category(dcDiff)]++;
+
+    int run = 0;
+    for(int k = 1; k < JpegFormat.BLOCK_SIZE; k++) {
+      int value = zigzag[k];
+      if(value == 0) {
+        run++;
+        continue;
+      }
+
+      while(run > 15) {
+        acFrequencies[0xF0]++;
+        run -= 16;
+      }
+
+      acFrequencies[(run << 4) | JpegFormat.category(value)]++;
+      run = 0;
+    }
+
+    if(run > 0) {
+      acFrequencies[0x00]++;
+    }
+  }
+}
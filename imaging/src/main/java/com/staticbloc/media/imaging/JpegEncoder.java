@@ -0,0 +1,380 @@
+package com.staticbloc.media.imaging;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes a baseline JPEG (YCbCr 4:2:0, standard Huffman tables) from rows of ARGB pixels as they are written,
+ * so the whole image never has to be in memory. Only the current 16 row band is buffered.
+ */
+public final class JpegEncoder {
+  private static final int MCU_SIZE = 16;
+  private static final int BLOCK_WIDTH = 8;
+
+  // scale factors of the AAN fdct outputs
+  private static final float[] AAN_SCALE = {
+      1.0f, 1.387039845f, 1.306562965f, 1.175875602f, 1.0f, 0.785694958f, 0.541196100f, 0.275899379f
+  };
+
+  private final OutputStream out;
+  private final int width;
+  private final int height;
+  private final int quality;
+  private final int paddedWidth;
+
+  private final int[] lumaQuantization = new int[JpegFormat.BLOCK_SIZE];
+  private final int[] chromaQuantization = new int[JpegFormat.BLOCK_SIZE];
+  private final float[] lumaMultipliers = new float[JpegFormat.BLOCK_SIZE];
+  private final float[] chromaMultipliers = new float[JpegFormat.BLOCK_SIZE];
+
+  private final JpegHuffmanTable lumaDcTable;
+  private final JpegHuffmanTable lumaAcTable;
+  private final JpegHuffmanTable chromaDcTable;
+  private final JpegHuffmanTable chromaAcTable;
+
+  // level shifted luma for MCU_SIZE rows, and sums of 2x2 chroma samples for MCU_SIZE / 2 rows
+  private final float[] lumaRows;
+  private final float[] cbRows;
+  private final float[] crRows;
+
+  private final float[] block = new float[JpegFormat.BLOCK_SIZE];
+  private final int[] zigzag = new int[JpegFormat.BLOCK_SIZE];
+
+  private final JpegBitWriter writer;
+
+  private boolean started;
+  private int rowsWritten;
+  private int mcuRow;
+  private int lumaDc;
+  private int cbDc;
+  private int crDc;
+
+  public JpegEncoder(@NonNull OutputStream out, int width, int height, @IntRange(from=1, to=100) int quality) {
+    if(width < 1 || height < 1 || width > 0xFFFF || height > 0xFFFF) {
+      throw new IllegalArgumentException("A JPEG can't be " + width + "x" + height);
+    }
+    if(quality < 1 || quality > 100) {
+      throw new IllegalArgumentException("quality must be between 1 and 100");
+    }
+
+    this.out = out;
+    this.width = width;
+    this.height = height;
+    this.quality = quality;
+    this.paddedWidth = (width + MCU_SIZE - 1) / MCU_SIZE * MCU_SIZE;
+
+    scaleQuantization(JpegFormat.STANDARD_LUMINANCE_QUANTIZATION, quality, lumaQuantization, lumaMultipliers);
+    scaleQuantization(JpegFormat.STANDARD_CHROMINANCE_QUANTIZATION, quality, chromaQuantization, chromaMultipliers);
+
+    lumaDcTable = new JpegHuffmanTable(JpegFormat.STANDARD_LUMINANCE_DC_BITS, JpegFormat.STANDARD_LUMINANCE_DC_VALUES);
+    lumaAcTable = new JpegHuffmanTable(JpegFormat.STANDARD_LUMINANCE_AC_BITS, JpegFormat.STANDARD_LUMINANCE_AC_VALUES);
+    chromaDcTable = new JpegHuffmanTable(JpegFormat.STANDARD_CHROMINANCE_DC_BITS, JpegFormat.STANDARD_CHROMINANCE_DC_VALUES);
+    chromaAcTable = new JpegHuffmanTable(JpegFormat.STANDARD_CHROMINANCE_AC_BITS, JpegFormat.STANDARD_CHROMINANCE_AC_VALUES);
+
+    lumaRows = new float[MCU_SIZE * paddedWidth];
+    cbRows = new float[(MCU_SIZE / 2) * (paddedWidth / 2)];
+    crRows = new float[(MCU_SIZE / 2) * (paddedWidth / 2)];
+
+    writer = new JpegBitWriter(out, 8192);
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getQuality() {
+    return quality;
+  }
+
+  /**
+   * @return how many of the image's rows have been written so far
+   */
+  public int getRowsWritten() {
+    return rowsWritten;
+  }
+
+  /**
+   * Encodes the next {@code rowCount} rows of the image. Row {@code i} starts at {@code argb[offset + i * stride]}.
+   * Once the last row of the image is written the JPEG is complete, other than {@link #finish()} flushing it.
+   */
+  public void writeRows(@NonNull int[] argb, int offset, int stride, int rowCount) throws IOException {
+    if(rowsWritten + rowCount > height) {
+      throw new IllegalStateException("Writing " + rowCount + " rows would go past the height of the image (" + height + ")");
+    }
+
+    if(!started) {
+      writeHeaders();
+      started = true;
+    }
+
+    for(int i = 0; i < rowCount; i++) {
+      int rowOffset = offset + i * stride;
+      bufferRow(argb, rowOffset);
+      rowsWritten++;
+
+      if(rowsWritten == height) {
+        // pad the last MCU row with copies of the last image row
+        while(mcuRow != 0) {
+          bufferRow(argb, rowOffset);
+        }
+      }
+    }
+  }
+
+  /**
+   * Finishes the JPEG and flushes it to the {@link OutputStream} (which isn't closed).
+   */
+  public void finish() throws IOException {
+    if(rowsWritten != height) {
+      throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows were written");
+    }
+
+    writer.writeMarker(JpegFormat.EOI);
+    writer.flush();
+    out.flush();
+  }
+
+  private void bufferRow(int[] argb, int offset) {
+    int lumaBase = mcuRow * paddedWidth;
+    int chromaBase = (mcuRow >> 1) * (paddedWidth / 2);
+    boolean firstChromaRow = (mcuRow & 1) == 0;
+
+    for(int x = 0; x < paddedWidth; x++) {
+      int pixel = argb[offset + (x < width ? x : width - 1)];
+      int r = (pixel >> 16) & 0xFF;
+      int g = (pixel >> 8) & 0xFF;
+      int b = pixel & 0xFF;
+
+      lumaRows[lumaBase + x] = 0.299f * r + 0.587f * g + 0.114f * b - 128f;
+
+      float cb = -0.168736f * r - 0.331264f * g + 0.5f * b;
+      float cr = 0.5f * r - 0.418688f * g - 0.081312f * b;
+      int chromaIndex = chromaBase + (x >> 1);
+      if(firstChromaRow && (x & 1) == 0) {
+        cbRows[chromaIndex] = cb;
+        crRows[chromaIndex] = cr;
+      }
+      else {
+        cbRows[chromaIndex] += cb;
+        crRows[chromaIndex] += cr;
+      }
+    }
+
+    mcuRow++;
+    if(mcuRow == MCU_SIZE) {
+      encodeMcuRow();
+      mcuRow = 0;
+    }
+  }
+
+  private void encodeMcuRow() {
+    int chromaWidth = paddedWidth / 2;
+    for(int mcuX = 0; mcuX < paddedWidth; mcuX += MCU_SIZE) {
+      for(int blockY = 0; blockY < MCU_SIZE; blockY += BLOCK_WIDTH) {
+        for(int blockX = 0; blockX < MCU_SIZE; blockX += BLOCK_WIDTH) {
+          loadBlock(lumaRows, paddedWidth, mcuX + blockX, blockY, 1f);
+          lumaDc = encodeBlock(lumaMultipliers, lumaDc, lumaDcTable, lumaAcTable);
+        }
+      }
+
+      loadBlock(cbRows, chromaWidth, mcuX / 2, 0, 0.25f);
+      cbDc = encodeBlock(chromaMultipliers, cbDc, chromaDcTable, chromaAcTable);
+      loadBlock(crRows, chromaWidth, mcuX / 2, 0, 0.25f);
+      crDc = encodeBlock(chromaMultipliers, crDc, chromaDcTable, chromaAcTable);
+    }
+  }
+
+  private void loadBlock(float[] rows, int rowWidth, int x, int y, float scale) {
+    int k = 0;
+    for(int row = 0; row < BLOCK_WIDTH; row++) {
+      int base = (y + row) * rowWidth + x;
+      for(int col = 0; col < BLOCK_WIDTH; col++) {
+        block[k++] = rows[base + col] * scale;
+      }
+    }
+  }
+
+  private int encodeBlock(float[] multipliers, int previousDc, JpegHuffmanTable dcTable, JpegHuffmanTable acTable) {
+    forwardDct(block);
+
+    for(int i = 0; i < JpegFormat.BLOCK_SIZE; i++) {
+      int natural = JpegFormat.ZIGZAG_TO_NATURAL[i];
+      zigzag[i] = Math.round(block[natural] * multipliers[natural]);
+    }
+
+    int dc = zigzag[0];
+    writer.writeBlock(zigzag, dc - previousDc, dcTable, acTable);
+    return dc;
+  }
+
+  private void writeHeaders() throws IOException {
+    int dhtLength = 2 + 4 * 17 + lumaDcTable.getValueCount() + lumaAcTable.getValueCount() +
+        chromaDcTable.getValueCount() + chromaAcTable.getValueCount();
+    byte[] headers = new byte[2 + 18 + 134 + 19 + (2 + dhtLength) + 14];
+    int pos = 0;
+
+    pos = writeMarker(headers, pos, JpegFormat.SOI);
+
+    pos = writeMarker(headers, pos, JpegFormat.APP0);
+    pos = writeShort(headers, pos, 16);
+    headers[pos++] = 'J';
+    headers[pos++] = 'F';
+    headers[pos++] = 'I';
+    headers[pos++] = 'F';
+    headers[pos++] = 0;
+    headers[pos++] = 1; // version 1.01
+    headers[pos++] = 1;
+    headers[pos++] = 0; // no density units
+    pos = writeShort(headers, pos, 1);
+    pos = writeShort(headers, pos, 1);
+    headers[pos++] = 0; // no thumbnail
+    headers[pos++] = 0;
+
+    pos = writeMarker(headers, pos, JpegFormat.DQT);
+    pos = writeShort(headers, pos, 2 + 2 * (1 + JpegFormat.BLOCK_SIZE));
+    headers[pos++] = 0;
+    for(int i = 0; i < JpegFormat.BLOCK_SIZE; i++) {
+      headers[pos++] = (byte) lumaQuantization[JpegFormat.ZIGZAG_TO_NATURAL[i]];
+    }
+    headers[pos++] = 1;
+    for(int i = 0; i < JpegFormat.BLOCK_SIZE; i++) {
+      headers[pos++] = (byte) chromaQuantization[JpegFormat.ZIGZAG_TO_NATURAL[i]];
+    }
+
+    pos = writeMarker(headers, pos, JpegFormat.SOF0);
+    pos = writeShort(headers, pos, 8 + 3 * 3);
+    headers[pos++] = 8;
+    pos = writeShort(headers, pos, height);
+    pos = writeShort(headers, pos, width);
+    headers[pos++] = 3;
+    headers[pos++] = 1; // Y, 2x2 sampling, table 0
+    headers[pos++] = 0x22;
+    headers[pos++] = 0;
+    headers[pos++] = 2; // Cb, 1x1 sampling, table 1
+    headers[pos++] = 0x11;
+    headers[pos++] = 1;
+    headers[pos++] = 3; // Cr, 1x1 sampling, table 1
+    headers[pos++] = 0x11;
+    headers[pos++] = 1;
+
+    pos = writeMarker(headers, pos, JpegFormat.DHT);
+    pos = writeShort(headers, pos, dhtLength);
+    pos = writeHuffmanTable(headers, pos, 0x00, lumaDcTable);
+    pos = writeHuffmanTable(headers, pos, 0x10, lumaAcTable);
+    pos = writeHuffmanTable(headers, pos, 0x01, chromaDcTable);
+    pos = writeHuffmanTable(headers, pos, 0x11, chromaAcTable);
+
+    pos = writeMarker(headers, pos, JpegFormat.SOS);
+    pos = writeShort(headers, pos, 6 + 2 * 3);
+    headers[pos++] = 3;
+    headers[pos++] = 1;
+    headers[pos++] = 0x00;
+    headers[pos++] = 2;
+    headers[pos++] = 0x11;
+    headers[pos++] = 3;
+    headers[pos++] = 0x11;
+    headers[pos++] = 0; // spectral selection 0..63, no successive approximation
+    headers[pos++] = 63;
+    headers[pos++] = 0;
+
+    out.write(headers, 0, pos);
+  }
+
+  private static int writeMarker(byte[] dest, int pos, int marker) {
+    dest[pos++] = (byte) 0xFF;
+    dest[pos++] = (byte) marker;
+    return pos;
+  }
+
+  private static int writeShort(byte[] dest, int pos, int value) {
+    dest[pos++] = (byte) (value >> 8);
+    dest[pos++] = (byte) value;
+    return pos;
+  }
+
+  private static int writeHuffmanTable(byte[] dest, int pos, int classAndId, JpegHuffmanTable table) {
+    dest[pos++] = (byte) classAndId;
+    table.writeTo(dest, pos);
+    return pos + 16 + table.getValueCount();
+  }
+
+  // scales a standard table the same way libjpeg does, and folds the fdct scale factors into its reciprocal
+  private static void scaleQuantization(int[] standard, int quality, int[] table, float[] multipliers) {
+    int scale = quality < 50 ? 5000 / quality : 200 - quality * 2;
+    for(int i = 0; i < JpegFormat.BLOCK_SIZE; i++) {
+      int value = (standard[i] * scale + 50) / 100;
+      table[i] = Math.max(1, Math.min(255, value));
+
+      int row = i / BLOCK_WIDTH;
+      int col = i % BLOCK_WIDTH;
+      multipliers[i] = 1f / (table[i] * AAN_SCALE[row] * AAN_SCALE[col] * 8f);
+    }
+  }
+
+  // the AAN floating point forward DCT (as in libjpeg's jfdctflt.c), leaving the outputs scaled by AAN_SCALE
+  private static void forwardDct(float[] data) {
+    for(int pass = 0; pass < 2; pass++) {
+      // rows on the first pass, columns on the second
+      int step = pass == 0 ? 1 : BLOCK_WIDTH;
+      int next = pass == 0 ? BLOCK_WIDTH : 1;
+      for(int line = 0; line < BLOCK_WIDTH; line++) {
+        int p = line * next;
+        float d0 = data[p];
+        float d1 = data[p + step];
+        float d2 = data[p + 2 * step];
+        float d3 = data[p + 3 * step];
+        float d4 = data[p + 4 * step];
+        float d5 = data[p + 5 * step];
+        float d6 = data[p + 6 * step];
+        float d7 = data[p + 7 * step];
+
+        float tmp0 = d0 + d7;
+        float tmp7 = d0 - d7;
+        float tmp1 = d1 + d6;
+        float tmp6 = d1 - d6;
+        float tmp2 = d2 + d5;
+        float tmp5 = d2 - d5;
+        float tmp3 = d3 + d4;
+        float tmp4 = d3 - d4;
+
+        // even part
+        float tmp10 = tmp0 + tmp3;
+        float tmp13 = tmp0 - tmp3;
+        float tmp11 = tmp1 + tmp2;
+        float tmp12 = tmp1 - tmp2;
+
+        data[p] = tmp10 + tmp11;
+        data[p + 4 * step] = tmp10 - tmp11;
+
+        float z1 = (tmp12 + tmp13) * 0.707106781f;
+        data[p + 2 * step] = tmp13 + z1;
+        data[p + 6 * step] = tmp13 - z1;
+
+        // odd part
+        tmp10 = tmp4 + tmp5;
+        tmp11 = tmp5 + tmp6;
+        tmp12 = tmp6 + tmp7;
+
+        float z5 = (tmp10 - tmp12) * 0.382683433f;
+        float z2 = 0.541196100f * tmp10 + z5;
+        float z4 = 1.306562965f * tmp12 + z5;
+        float z3 = tmp11 * 0.707106781f;
+
+        float z11 = tmp7 + z3;
+        float z13 = tmp7 - z3;
+
+        data[p + 5 * step] = z13 + z2;
+        data[p + 3 * step] = z13 - z2;
+        data[p + step] = z11 + z4;
+        data[p + 7 * step] = z11 - z4;
+      }
+    }
+  }
+}
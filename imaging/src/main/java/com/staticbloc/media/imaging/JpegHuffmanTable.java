@@ -0,0 +1,214 @@
+package com.staticbloc.media.imaging;
+
+import android.support.annotation.NonNull;
+
+/*package*/ final class JpegHuffmanTable {
+  private static final int LOOKAHEAD = 9;
+  private static final int MAX_CODE_LENGTH = 16;
+
+  // bits[i] is the number of codes of length i (bits[0] is unused)
+  private final int[] bits;
+  private final int[] values;
+
+  private final int[] codes = new int[256];
+  private final int[] codeSizes = new int[256];
+
+  private final int[] maxCode = new int[MAX_CODE_LENGTH + 2];
+  private final int[] valueOffset = new int[MAX_CODE_LENGTH + 1];
+  // (code length << 8) | value for every LOOKAHEAD bit prefix that starts with a short enough code, 0 otherwise
+  private final int[] lookup = new int[1 << LOOKAHEAD];
+
+  /*package*/ JpegHuffmanTable(@NonNull int[] bits, @NonNull int[] values) {
+    this.bits = bits;
+    this.values = values;
+
+    int code = 0;
+    int k = 0;
+    for(int length = 1; length <= MAX_CODE_LENGTH; length++) {
+      valueOffset[length] = k - code;
+      for(int i = 0; i < bits[length]; i++) {
+        if(k >= values.length) {
+          throw new IllegalArgumentException("Huffman table has more codes than values");
+        }
+
+        int value = values[k++];
+        codes[value] = code;
+        codeSizes[value] = length;
+
+        if(length <= LOOKAHEAD) {
+          int shift = LOOKAHEAD - length;
+          int entry = (length << 8) | value;
+          for(int j = 0; j < (1 << shift); j++) {
+            lookup[(code << shift) | j] = entry;
+          }
+        }
+
+        code++;
+      }
+
+      if(code > (1 << length)) {
+        throw new IllegalArgumentException("Huffman table has too many codes of length " + length);
+      }
+
+      maxCode[length] = bits[length] > 0 ? code - 1 : -1;
+      code <<= 1;
+    }
+    maxCode[MAX_CODE_LENGTH + 1] = Integer.MAX_VALUE;
+  }
+
+  /**
+   * Builds an optimal table for the symbol frequencies in {@code frequencies} (indexed by symbol)
+   * following the procedure in section K.2 of the JPEG spec.
+   */
+  @NonNull
+  /*package*/ static JpegHuffmanTable optimal(@NonNull int[] frequencies) {
+    final int maxLength = 32;
+
+    int[] freq = new int[257];
+    System.arraycopy(frequencies, 0, freq, 0, 256);
+    // reserve one code point so that no real code is all ones
+    freq[256] = 1;
+
+    int[] codeSize = new int[257];
+    int[] others = new int[257];
+    for(int i = 0; i < 257; i++) {
+      others[i] = -1;
+    }
+
+    while(true) {
+      // the least frequent symbol, preferring the larger symbol on ties
+      int c1 = -1;
+      long v = Long.MAX_VALUE;
+      for(int i = 0; i <= 256; i++) {
+        if(freq[i] != 0 && freq[i] <= v) {
+          v = freq[i];
+          c1 = i;
+        }
+      }
+
+      // the next least frequent symbol
+      int c2 = -1;
+      v = Long.MAX_VALUE;
+      for(int i = 0; i <= 256; i++) {
+        if(freq[i] != 0 && freq[i] <= v && i != c1) {
+          v = freq[i];
+          c2 = i;
+        }
+      }
+
+      if(c2 < 0) {
+        break;
+      }
+
+      freq[c1] += freq[c2];
+      freq[c2] = 0;
+
+      codeSize[c1]++;
+      while(others[c1] >= 0) {
+        c1 = others[c1];
+        codeSize[c1]++;
+      }
+      others[c1] = c2;
+
+      codeSize[c2]++;
+      while(others[c2] >= 0) {
+        c2 = others[c2];
+        codeSize[c2]++;
+      }
+    }
+
+    int[] lengthCounts = new int[maxLength + 1];
+    for(int i = 0; i <= 256; i++) {
+      if(codeSize[i] > 0) {
+        lengthCounts[codeSize[i]]++;
+      }
+    }
+
+    // limit the code lengths to 16 bits
+    for(int i = maxLength; i > MAX_CODE_LENGTH; i--) {
+      while(lengthCounts[i] > 0) {
+        int j = i - 2;
+        while(lengthCounts[j] == 0) {
+          j--;
+        }
+
+        lengthCounts[i] -= 2;
+        lengthCounts[i - 1]++;
+        lengthCounts[j + 1] += 2;
+        lengthCounts[j]--;
+      }
+    }
+
+    // remove the reserved code point
+    int longest = MAX_CODE_LENGTH;
+    while(lengthCounts[longest] == 0) {
+      longest--;
+    }
+    lengthCounts[longest]--;
+
+    int[] bits = new int[MAX_CODE_LENGTH + 1];
+    int symbolCount = 0;
+    for(int i = 1; i <= MAX_CODE_LENGTH; i++) {
+      bits[i] = lengthCounts[i];
+      symbolCount += lengthCounts[i];
+    }
+
+    int[] values = new int[symbolCount];
+    int k = 0;
+    for(int length = 1; length <= maxLength; length++) {
+      for(int symbol = 0; symbol < 256; symbol++) {
+        if(codeSize[symbol] == length) {
+          values[k++] = symbol;
+        }
+      }
+    }
+
+    return new JpegHuffmanTable(bits, values);
+  }
+
+  /*package*/ int decode(@NonNull JpegBitReader in) {
+    int entry = lookup[in.peekBits(LOOKAHEAD)];
+    if(entry != 0) {
+      in.skipBits(entry >> 8);
+      return entry & 0xFF;
+    }
+
+    int code = in.readBits(LOOKAHEAD);
+    int length = LOOKAHEAD;
+    while(code > maxCode[length]) {
+      code = (code << 1) | in.readBits(1);
+      length++;
+      if(length > MAX_CODE_LENGTH) {
+        throw new IllegalArgumentException("Corrupt JPEG data: bad Huffman code");
+      }
+    }
+
+    int index = code + valueOffset[length];
+    if(index < 0 || index >= values.length) {
+      throw new IllegalArgumentException("Corrupt JPEG data: bad Huffman code");
+    }
+    return values[index];
+  }
+
+  /*package*/ void encode(@NonNull JpegBitWriter out, int symbol) {
+    int size = codeSizes[symbol];
+    if(size == 0) {
+      throw new IllegalStateException("Huffman table has no code for symbol " + symbol);
+    }
+    out.writeBits(codes[symbol], size);
+  }
+
+  /*package*/ int getValueCount() {
+    return values.length;
+  }
+
+  // writes the table as it appears in a DHT segment, minus the class/id byte
+  /*package*/ void writeTo(@NonNull byte[] dest, int offset) {
+    for(int i = 1; i <= MAX_CODE_LENGTH; i++) {
+      dest[offset++] = (byte) bits[i];
+    }
+    for(int value : values) {
+      dest[offset++] = (byte) value;
+    }
+  }
+}
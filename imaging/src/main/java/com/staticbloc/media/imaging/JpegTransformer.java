@@ -0,0 +1,625 @@
+package com.staticbloc.media.imaging;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Losslessly rotates and mirrors baseline JPEGs by rearranging their DCT coefficients, the way jpegtran does,
+ * without ever decoding them to pixels.
+ *
+ * Like jpegtran's -trim, a partial MCU at an edge that would have to move to the opposite edge is dropped,
+ * so the result can be up to 15 pixels narrower or shorter than the source.
+ */
+public class JpegTransformer {
+  private JpegTransformer() {}
+
+  /**
+   * Applies the transform described by an EXIF {@code orientation} to the pixels of {@code jpeg}.
+   * The metadata is copied as is, so an orientation tag is left untouched (see {@link ExifUtils#resetOrientation(byte[])}).
+   *
+   * @return the transformed JPEG, {@code jpeg} itself if {@code orientation} doesn't transform anything,
+   * or null if {@code jpeg} isn't a baseline or extended sequential Huffman coded JPEG with a single scan
+   *
+   * @throws IllegalArgumentException if {@code jpeg} is corrupt
+   */
+  @Nullable
+  public static byte[] transform(@NonNull byte[] jpeg, int orientation) {
+    Operation operation = Operation.forOrientation(orientation);
+    if(operation == null) {
+      return jpeg;
+    }
+
+    Frame frame = Frame.parse(jpeg);
+    if(frame == null) {
+      return null;
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(jpeg.length + 1024);
+    try {
+      if(!frame.write(out, operation)) {
+        return null;
+      }
+    }
+    catch(IOException e) {
+      // ByteArrayOutputStream doesn't throw
+      throw new RuntimeException(e);
+    }
+    return out.toByteArray();
+  }
+
+  private static final class Operation {
+    private final boolean transpose;
+    private final boolean flipX;
+    private final boolean flipY;
+
+    // for each output position in zigzag order, the natural order index of the source coefficient
+    private final int[] sourceIndex = new int[JpegFormat.BLOCK_SIZE];
+    private final boolean[] negate = new boolean[JpegFormat.BLOCK_SIZE];
+
+    // transpose is applied first, followed by the flips
+    private Operation(boolean transpose, boolean flipX, boolean flipY) {
+      this.transpose = transpose;
+      this.flipX = flipX;
+      this.flipY = flipY;
+
+      for(int i = 0; i < JpegFormat.BLOCK_SIZE; i++) {
+        int natural = JpegFormat.ZIGZAG_TO_NATURAL[i];
+        int row = natural >> 3;
+        int column = natural & 7;
+        sourceIndex[i] = transpose ? (column << 3) | row : natural;
+        negate[i] = (flipX && (column & 1) == 1) ^ (flipY && (row & 1) == 1);
+      }
+    }
+
+    @Nullable
+    private static Operation forOrientation(int orientation) {
+      switch(orientation) {
+        case ExifUtils.ORIENTATION_FLIP_HORIZONTAL:
+          return new Operation(false, true, false);
+        case ExifUtils.ORIENTATION_ROTATE_180:
+          return new Operation(false, true, true);
+        case ExifUtils.ORIENTATION_FLIP_VERTICAL:
+          return new Operation(false, false, true);
+        case ExifUtils.ORIENTATION_TRANSPOSE:
+          return new Operation(true, false, false);
+        case ExifUtils.ORIENTATION_ROTATE_90:
+          return new Operation(true, true, false);
+        case ExifUtils.ORIENTATION_TRANSVERSE:
+          return new Operation(true, true, true);
+        case ExifUtils.ORIENTATION_ROTATE_270:
+          return new Operation(true, false, true);
+        default:
+          return null;
+      }
+    }
+  }
+
+  private static final class Component {
+    private int id;
+    private int h;
+    private int v;
+    private int quantizationTable;
+    private int dcTable;
+    private int acTable;
+
+    // padded to whole MCUs, in natural order
+    private int blocksWide;
+    private int blocksHigh;
+    private short[] coefficients;
+  }
+
+  private static final class Segment {
+    private final int marker;
+    private final int start;
+    private final int end;
+
+    private Segment(int marker, int start, int end) {
+      this.marker = marker;
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  private static final class Frame {
+    private final byte[] jpeg;
+    private final List<Segment> segments = new ArrayList<>();
+
+    private int sofMarker;
+    private int width;
+    private int height;
+    private Component[] components;
+    private Component[] scanComponents;
+    private Segment scanHeader;
+
+    private final JpegHuffmanTable[] dcTables = new JpegHuffmanTable[4];
+    private final JpegHuffmanTable[] acTables = new JpegHuffmanTable[4];
+    private int restartInterval;
+
+    private int maxH;
+    private int maxV;
+
+    private Frame(byte[] jpeg) {
+      this.jpeg = jpeg;
+    }
+
+    @Nullable
+    private static Frame parse(@NonNull byte[] jpeg) {
+      if(jpeg.length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != JpegFormat.SOI) {
+        throw new IllegalArgumentException("Not a JPEG");
+      }
+
+      Frame frame = new Frame(jpeg);
+
+      int pos = 2;
+      while(true) {
+        if(pos + 4 > jpeg.length) {
+          throw new IllegalArgumentException("Corrupt JPEG data: no scan found");
+        }
+
+        if((jpeg[pos] & 0xFF) != 0xFF) {
+          throw new IllegalArgumentException("Corrupt JPEG data: expected a marker at " + pos);
+        }
+
+        int marker = jpeg[pos + 1] & 0xFF;
+        if(marker == 0xFF) {
+          pos++;
+          continue;
+        }
+
+        if(JpegFormat.isStandalone(marker)) {
+          if(marker == JpegFormat.EOI) {
+            throw new IllegalArgumentException("Corrupt JPEG data: no scan found");
+          }
+          pos += 2;
+          continue;
+        }
+
+        int length = readShort(jpeg, pos + 2);
+        int start = pos + 4;
+        int end = pos + 2 + length;
+        if(length < 2 || end > jpeg.length) {
+          throw new IllegalArgumentException("Corrupt JPEG data: bad segment length at " + pos);
+        }
+
+        Segment segment = new Segment(marker, pos, end);
+
+        if(marker == JpegFormat.SOF0 || marker == JpegFormat.SOF1) {
+          if(!frame.parseStartOfFrame(marker, start, end)) return null;
+        }
+        else if(JpegFormat.isStartOfFrame(marker)) {
+          // progressive, lossless, hierarchical and arithmetic coding aren't supported
+          return null;
+        }
+        else if(marker == JpegFormat.DHT) {
+          frame.parseHuffmanTables(start, end);
+        }
+        else if(marker == JpegFormat.DRI) {
+          frame.restartInterval = readShort(jpeg, start);
+        }
+        else if(marker == JpegFormat.SOS) {
+          if(!frame.parseScanHeader(start, end)) return null;
+          frame.scanHeader = segment;
+          return frame;
+        }
+
+        frame.segments.add(segment);
+        pos = end;
+      }
+    }
+
+    private boolean parseStartOfFrame(int marker, int start, int end) {
+      if(components != null) {
+        throw new IllegalArgumentException("Corrupt JPEG data: more than one frame");
+      }
+
+      int precision = jpeg[start] & 0xFF;
+      height = readShort(jpeg, start + 1);
+      width = readShort(jpeg, start + 3);
+      int componentCount = jpeg[start + 5] & 0xFF;
+      if(precision != 8 || width == 0 || height == 0 || componentCount < 1 || componentCount > 4) {
+        return false;
+      }
+
+      if(start + 6 + (componentCount * 3) > end) {
+        throw new IllegalArgumentException("Corrupt JPEG data: SOF segment is too short");
+      }
+
+      sofMarker = marker;
+      components = new Component[componentCount];
+      for(int i = 0; i < componentCount; i++) {
+        int offset = start + 6 + (i * 3);
+        Component component = new Component();
+        component.id = jpeg[offset] & 0xFF;
+        component.h = (jpeg[offset + 1] & 0xFF) >> 4;
+        component.v = jpeg[offset + 1] & 0x0F;
+        component.quantizationTable = jpeg[offset + 2] & 0xFF;
+        if(component.h < 1 || component.h > 4 || component.v < 1 || component.v > 4) {
+          throw new IllegalArgumentException("Corrupt JPEG data: bad sampling factors");
+        }
+
+        // a single component scan isn't interleaved, so its MCU is always one block
+        if(componentCount == 1) {
+          component.h = 1;
+          component.v = 1;
+        }
+
+        components[i] = component;
+        maxH = Math.max(maxH, component.h);
+        maxV = Math.max(maxV, component.v);
+      }
+
+      return true;
+    }
+
+    private void parseHuffmanTables(int start, int end) {
+      int pos = start;
+      while(pos < end) {
+        int tableClass = (jpeg[pos] & 0xFF) >> 4;
+        int tableId = jpeg[pos] & 0x0F;
+        if(tableClass > 1 || tableId > 3 || pos + 17 > end) {
+          throw new IllegalArgumentException("Corrupt JPEG data: bad DHT segment");
+        }
+
+        int[] bits = new int[17];
+        int valueCount = 0;
+        for(int i = 1; i <= 16; i++) {
+          bits[i] = jpeg[pos + i] & 0xFF;
+          valueCount += bits[i];
+        }
+        pos += 17;
+
+        if(valueCount > 256 || pos + valueCount > end) {
+          throw new IllegalArgumentException("Corrupt JPEG data: bad DHT segment");
+        }
+
+        int[] values = new int[valueCount];
+        for(int i = 0; i < valueCount; i++) {
+          values[i] = jpeg[pos + i] & 0xFF;
+        }
+        pos += valueCount;
+
+        JpegHuffmanTable table = new JpegHuffmanTable(bits, values);
+        if(tableClass == 0) {
+          dcTables[tableId] = table;
+        }
+        else {
+          acTables[tableId] = table;
+        }
+      }
+    }
+
+    private boolean parseScanHeader(int start, int end) {
+      if(components == null) {
+        throw new IllegalArgumentException("Corrupt JPEG data: scan before frame");
+      }
+
+      int componentCount = jpeg[start] & 0xFF;
+      if(start + 1 + (componentCount * 2) + 3 > end) {
+        throw new IllegalArgumentException("Corrupt JPEG data: SOS segment is too short");
+      }
+
+      // we only handle a single scan that contains every component
+      if(componentCount != components.length) {
+        return false;
+      }
+
+      scanComponents = new Component[componentCount];
+      for(int i = 0; i < componentCount; i++) {
+        int offset = start + 1 + (i * 2);
+        int id = jpeg[offset] & 0xFF;
+        Component component = null;
+        for(Component c : components) {
+          if(c.id == id) component = c;
+        }
+        if(component == null) {
+          throw new IllegalArgumentException("Corrupt JPEG data: scan references unknown component " + id);
+        }
+
+        component.dcTable = (jpeg[offset + 1] & 0xFF) >> 4;
+        component.acTable = jpeg[offset + 1] & 0x0F;
+        if(component.dcTable > 3 || component.acTable > 3 ||
+            dcTables[component.dcTable] == null || acTables[component.acTable] == null) {
+          throw new IllegalArgumentException("Corrupt JPEG data: scan references a missing Huffman table");
+        }
+
+        scanComponents[i] = component;
+      }
+
+      int spectralStart = jpeg[end - 3] & 0xFF;
+      int spectralEnd = jpeg[end - 2] & 0xFF;
+      int approximation = jpeg[end - 1] & 0xFF;
+      return spectralStart == 0 && spectralEnd == 63 && approximation == 0;
+    }
+
+    private void decode() {
+      int mcusWide = divideRoundingUp(width, 8 * maxH);
+      int mcusHigh = divideRoundingUp(height, 8 * maxV);
+
+      for(Component component : components) {
+        component.blocksWide = mcusWide * component.h;
+        component.blocksHigh = mcusHigh * component.v;
+        component.coefficients = new short[component.blocksWide * component.blocksHigh * JpegFormat.BLOCK_SIZE];
+      }
+
+      JpegBitReader in = new JpegBitReader(jpeg, scanHeader.end, jpeg.length);
+      int[] predictors = new int[scanComponents.length];
+
+      int mcu = 0;
+      for(int mcuY = 0; mcuY < mcusHigh; mcuY++) {
+        for(int mcuX = 0; mcuX < mcusWide; mcuX++) {
+          if(restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+            in.restart();
+            for(int i = 0; i < predictors.length; i++) predictors[i] = 0;
+          }
+          mcu++;
+
+          for(int i = 0; i < scanComponents.length; i++) {
+            Component component = scanComponents[i];
+            JpegHuffmanTable dcTable = dcTables[component.dcTable];
+            JpegHuffmanTable acTable = acTables[component.acTable];
+            for(int y = 0; y < component.v; y++) {
+              for(int x = 0; x < component.h; x++) {
+                int blockX = (mcuX * component.h) + x;
+                int blockY = (mcuY * component.v) + y;
+                int offset = ((blockY * component.blocksWide) + blockX) * JpegFormat.BLOCK_SIZE;
+                predictors[i] = decodeBlock(in, component.coefficients, offset, predictors[i], dcTable, acTable);
+              }
+            }
+          }
+        }
+      }
+    }
+
+    private static int decodeBlock(JpegBitReader in, short[] coefficients, int offset, int predictor,
+                                   JpegHuffmanTable dcTable, JpegHuffmanTable acTable) {
+      int dc = predictor + in.receiveExtend(dcTable.decode(in));
+      coefficients[offset] = (short) dc;
+
+      for(int k = 1; k < JpegFormat.BLOCK_SIZE; k++) {
+        int symbol = acTable.decode(in);
+        int run = symbol >> 4;
+        int category = symbol & 0x0F;
+        if(category == 0) {
+          if(run == 15) {
+            k += 15;
+            continue;
+          }
+          break;
+        }
+
+        k += run;
+        if(k >= JpegFormat.BLOCK_SIZE) {
+          throw new IllegalArgumentException("Corrupt JPEG data: too many coefficients in a block");
+        }
+        coefficients[offset + JpegFormat.ZIGZAG_TO_NATURAL[k]] = (short) in.receiveExtend(category);
+      }
+
+      return dc;
+    }
+
+    private boolean write(OutputStream out, Operation operation) throws IOException {
+      // trim partial MCUs along the axes that get mirrored, since they can't be moved to the other side losslessly
+      boolean mirrorSourceX = operation.transpose ? operation.flipY : operation.flipX;
+      boolean mirrorSourceY = operation.transpose ? operation.flipX : operation.flipY;
+      int trimmedWidth = mirrorSourceX ? width - (width % (8 * maxH)) : width;
+      int trimmedHeight = mirrorSourceY ? height - (height % (8 * maxV)) : height;
+      if(trimmedWidth == 0 || trimmedHeight == 0) {
+        return false;
+      }
+
+      decode();
+
+      int outWidth = operation.transpose ? trimmedHeight : trimmedWidth;
+      int outHeight = operation.transpose ? trimmedWidth : trimmedHeight;
+      int outMaxH = operation.transpose ? maxV : maxH;
+      int outMaxV = operation.transpose ? maxH : maxV;
+      int outMcusWide = divideRoundingUp(outWidth, 8 * outMaxH);
+      int outMcusHigh = divideRoundingUp(outHeight, 8 * outMaxV);
+
+      int[][] dcFrequencies = new int[4][];
+      int[][] acFrequencies = new int[4][];
+      for(Component component : scanComponents) {
+        if(dcFrequencies[component.dcTable] == null) dcFrequencies[component.dcTable] = new int[256];
+        if(acFrequencies[component.acTable] == null) acFrequencies[component.acTable] = new int[256];
+      }
+
+      // first pass gathers statistics for optimal Huffman tables, since transposing changes the run lengths
+      encodeScan(null, operation, outMcusWide, outMcusHigh, dcFrequencies, acFrequencies, null, null);
+
+      JpegHuffmanTable[] outDcTables = new JpegHuffmanTable[4];
+      JpegHuffmanTable[] outAcTables = new JpegHuffmanTable[4];
+      for(int i = 0; i < 4; i++) {
+        if(dcFrequencies[i] != null) outDcTables[i] = JpegHuffmanTable.optimal(dcFrequencies[i]);
+        if(acFrequencies[i] != null) outAcTables[i] = JpegHuffmanTable.optimal(acFrequencies[i]);
+      }
+
+      out.write(0xFF);
+      out.write(JpegFormat.SOI);
+
+      for(Segment segment : segments) {
+        if(segment.marker == JpegFormat.DHT) {
+          continue;
+        }
+        else if(segment.marker == JpegFormat.DQT && operation.transpose) {
+          writeTransposedQuantizationTables(out, segment);
+        }
+        else if(segment.marker == sofMarker) {
+          writeStartOfFrame(out, outWidth, outHeight, operation.transpose);
+        }
+        else {
+          out.write(jpeg, segment.start, segment.end - segment.start);
+        }
+      }
+
+      writeHuffmanTables(out, outDcTables, outAcTables);
+      out.write(jpeg, scanHeader.start, scanHeader.end - scanHeader.start);
+
+      JpegBitWriter writer = new JpegBitWriter(out, 8192);
+      encodeScan(writer, operation, outMcusWide, outMcusHigh, null, null, outDcTables, outAcTables);
+      writer.writeMarker(JpegFormat.EOI);
+      writer.flush();
+
+      return true;
+    }
+
+    private void encodeScan(@Nullable JpegBitWriter writer, Operation operation, int outMcusWide, int outMcusHigh,
+                            int[][] dcFrequencies, int[][] acFrequencies,
+                            JpegHuffmanTable[] outDcTables, JpegHuffmanTable[] outAcTables) {
+      int[] block = new int[JpegFormat.BLOCK_SIZE];
+      int[] predictors = new int[scanComponents.length];
+      int restartCount = 0;
+
+      int mcu = 0;
+      for(int mcuY = 0; mcuY < outMcusHigh; mcuY++) {
+        for(int mcuX = 0; mcuX < outMcusWide; mcuX++) {
+          if(restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+            if(writer != null) writer.writeMarker(JpegFormat.RST0 + (restartCount++ & 7));
+            for(int i = 0; i < predictors.length; i++) predictors[i] = 0;
+          }
+          mcu++;
+
+          for(int i = 0; i < scanComponents.length; i++) {
+            Component component = scanComponents[i];
+            int h = operation.transpose ? component.v : component.h;
+            int v = operation.transpose ? component.h : component.v;
+            // mirrored axes were trimmed to whole MCUs, so these are exactly the blocks that hold the image
+            int outBlocksWide = outMcusWide * h;
+            int outBlocksHigh = outMcusHigh * v;
+
+            for(int y = 0; y < v; y++) {
+              for(int x = 0; x < h; x++) {
+                int outX = (mcuX * h) + x;
+                int outY = (mcuY * v) + y;
+                if(operation.flipX) outX = outBlocksWide - 1 - outX;
+                if(operation.flipY) outY = outBlocksHigh - 1 - outY;
+                int sourceX = operation.transpose ? outY : outX;
+                int sourceY = operation.transpose ? outX : outY;
+
+                if(sourceX < component.blocksWide && sourceY < component.blocksHigh) {
+                  int offset = ((sourceY * component.blocksWide) + sourceX) * JpegFormat.BLOCK_SIZE;
+                  for(int k = 0; k < JpegFormat.BLOCK_SIZE; k++) {
+                    int value = component.coefficients[offset + operation.sourceIndex[k]];
+                    block[k] = operation.negate[k] ? -value : value;
+                  }
+                }
+                else {
+                  for(int k = 0; k < JpegFormat.BLOCK_SIZE; k++) block[k] = 0;
+                }
+
+                int dcDiff = block[0] - predictors[i];
+                predictors[i] = block[0];
+                if(writer == null) {
+                  JpegBitWriter.countBlock(block, dcDiff, dcFrequencies[component.dcTable], acFrequencies[component.acTable]);
+                }
+                else {
+                  writer.writeBlock(block, dcDiff, outDcTables[component.dcTable], outAcTables[component.acTable]);
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+
+    private void writeTransposedQuantizationTables(OutputStream out, Segment segment) throws IOException {
+      byte[] transposed = new byte[segment.end - segment.start];
+      System.arraycopy(jpeg, segment.start, transposed, 0, transposed.length);
+
+      int pos = 4;
+      while(pos < transposed.length) {
+        int precision = (transposed[pos] & 0xFF) >> 4;
+        int valueSize = precision == 0 ? 1 : 2;
+        pos++;
+        if(pos + (JpegFormat.BLOCK_SIZE * valueSize) > transposed.length) {
+          throw new IllegalArgumentException("Corrupt JPEG data: bad DQT segment");
+        }
+
+        int[] natural = new int[JpegFormat.BLOCK_SIZE];
+        for(int k = 0; k < JpegFormat.BLOCK_SIZE; k++) {
+          int offset = segment.start + pos + (k * valueSize);
+          natural[JpegFormat.ZIGZAG_TO_NATURAL[k]] = valueSize == 1 ? jpeg[offset] & 0xFF : readShort(jpeg, offset);
+        }
+
+        for(int k = 0; k < JpegFormat.BLOCK_SIZE; k++) {
+          int index = JpegFormat.ZIGZAG_TO_NATURAL[k];
+          int value = natural[((index & 7) << 3) | (index >> 3)];
+          int offset = pos + (k * valueSize);
+          if(valueSize == 1) {
+            transposed[offset] = (byte) value;
+          }
+          else {
+            transposed[offset] = (byte) (value >> 8);
+            transposed[offset + 1] = (byte) value;
+          }
+        }
+
+        pos += JpegFormat.BLOCK_SIZE * valueSize;
+      }
+
+      out.write(transposed);
+    }
+
+    private void writeStartOfFrame(OutputStream out, int outWidth, int outHeight, boolean transpose) throws IOException {
+      int length = 8 + (components.length * 3);
+      out.write(0xFF);
+      out.write(sofMarker);
+      out.write(length >> 8);
+      out.write(length);
+      out.write(8);
+      out.write(outHeight >> 8);
+      out.write(outHeight);
+      out.write(outWidth >> 8);
+      out.write(outWidth);
+      out.write(components.length);
+      for(Component component : components) {
+        int h = transpose ? component.v : component.h;
+        int v = transpose ? component.h : component.v;
+        out.write(component.id);
+        out.write((h << 4) | v);
+        out.write(component.quantizationTable);
+      }
+    }
+
+    private static void writeHuffmanTables(OutputStream out, JpegHuffmanTable[] outDcTables, JpegHuffmanTable[] outAcTables) throws IOException {
+      int length = 2;
+      for(int i = 0; i < 4; i++) {
+        if(outDcTables[i] != null) length += 17 + outDcTables[i].getValueCount();
+        if(outAcTables[i] != null) length += 17 + outAcTables[i].getValueCount();
+      }
+
+      byte[] segment = new byte[length + 2];
+      segment[0] = (byte) 0xFF;
+      segment[1] = (byte) JpegFormat.DHT;
+      segment[2] = (byte) (length >> 8);
+      segment[3] = (byte) length;
+
+      int pos = 4;
+      for(int tableClass = 0; tableClass < 2; tableClass++) {
+        JpegHuffmanTable[] tables = tableClass == 0 ? outDcTables : outAcTables;
+        for(int i = 0; i < 4; i++) {
+          if(tables[i] != null) {
+            segment[pos++] = (byte) ((tableClass << 4) | i);
+            tables[i].writeTo(segment, pos);
+            pos += 16 + tables[i].getValueCount();
+          }
+        }
+      }
+
+      out.write(segment);
+    }
+  }
+
+  private static int readShort(byte[] data, int offset) {
+    return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+  }
+
+  private static int divideRoundingUp(int dividend, int divisor) {
+    return (dividend + divisor - 1) / divisor;
+  }
+}
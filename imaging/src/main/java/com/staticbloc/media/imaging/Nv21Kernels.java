@@ -0,0 +1,455 @@
+package com.staticbloc.media.imaging;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Converts, downscales and rotates NV21 images (the default format of camera preview frames) into arrays that the caller
+ * provides, so that analyzing preview frames doesn't have to go through a JPEG, and doesn't allocate anything.
+ *
+ * NV21 is a full resolution plane of luma (Y) followed by a half resolution plane of interleaved V and U samples,
+ * so widths and heights have to be even. Colors are converted with the BT.601 limited range coefficients that camera
+ * previews use.
+ *
+ * The {@code ...Rows} methods work on a band of output rows, so that bands can be worked on in parallel; the methods
+ * that take {@link RowBands} do that, with a task that every calling thread keeps, so they don't allocate either.
+ */
+public final class Nv21Kernels {
+  // a band should have about this many output pixels
+  private static final int BAND_PIXELS = 16 * 1024;
+
+  // 10 bit fixed point BT.601 coefficients
+  private static final int Y_SCALE = 1192;
+  private static final int V_TO_R = 1634;
+  private static final int V_TO_G = 833;
+  private static final int U_TO_G = 400;
+  private static final int U_TO_B = 2066;
+  private static final int MAX_CHANNEL = (1 << 18) - 1;
+  // half of the last bit that is dropped, so that channels are rounded instead of truncated (white would be 254 otherwise)
+  private static final int ROUNDING = 1 << 9;
+
+  private static final ThreadLocal<BandTask> bandTasks = new ThreadLocal<BandTask>() {
+    @Override
+    protected BandTask initialValue() {
+      return new BandTask();
+    }
+  };
+
+  private Nv21Kernels() {}
+
+  /**
+   * @return the size of an NV21 image
+   */
+  public static int getBufferSize(int width, int height) {
+    return width * height * 3 / 2;
+  }
+
+  /**
+   * Converts {@code nv21} to ARGB_8888 pixels (e.g. for {@code Bitmap.setPixels}).
+   *
+   * @param argb at least {@code width * height} pixels
+   */
+  public static void toArgb(@NonNull byte[] nv21, int width, int height, @NonNull int[] argb) {
+    toArgbRows(nv21, width, height, argb, 0, height);
+  }
+
+  /**
+   * Like {@link #toArgb(byte[], int, int, int[])}, with the rows split over {@code bands} (or on the calling thread if it is null).
+   */
+  public static void toArgb(@NonNull byte[] nv21, int width, int height, @NonNull int[] argb, @Nullable RowBands bands) {
+    if(bands == null) {
+      toArgb(nv21, width, height, argb);
+      return;
+    }
+
+    checkImage(nv21, width, height);
+    checkOutput(argb.length, width * height);
+    BandTask task = bandTasks.get();
+    task.kernel = BandTask.TO_ARGB;
+    task.nv21 = nv21;
+    task.width = width;
+    task.height = height;
+    task.argb = argb;
+    task.run(bands, height, minBandRows(width));
+  }
+
+  /**
+   * Converts rows {@code top} until {@code top + rowCount} of {@code nv21} to the same rows of {@code argb}.
+   */
+  public static void toArgbRows(@NonNull byte[] nv21, int width, int height, @NonNull int[] argb, int top, int rowCount) {
+    checkImage(nv21, width, height);
+    checkOutput(argb.length, width * height);
+    checkRows(top, rowCount, height);
+
+    int frameSize = width * height;
+    for(int y = top, end = top + rowCount; y < end; y++) {
+      int index = y * width;
+      int uvIndex = frameSize + (y >> 1) * width;
+      // each VU pair is shared by two pixels of the row
+      for(int x = 0; x < width; x += 2) {
+        int v = (nv21[uvIndex++] & 0xFF) - 128;
+        int u = (nv21[uvIndex++] & 0xFF) - 128;
+        int r = V_TO_R * v;
+        int g = -V_TO_G * v - U_TO_G * u;
+        int b = U_TO_B * u;
+
+        argb[index] = toArgb(nv21[index], r, g, b);
+        index++;
+        argb[index] = toArgb(nv21[index], r, g, b);
+        index++;
+      }
+    }
+  }
+
+  /**
+   * Converts {@code nv21} to RGB_565 pixels (e.g. for {@code Bitmap.copyPixelsFromBuffer} with a {@code ShortBuffer}),
+   * which is half the memory of ARGB_8888.
+   *
+   * @param rgb565 at least {@code width * height} pixels
+   */
+  public static void toRgb565(@NonNull byte[] nv21, int width, int height, @NonNull short[] rgb565) {
+    toRgb565Rows(nv21, width, height, rgb565, 0, height);
+  }
+
+  /**
+   * Like {@link #toRgb565(byte[], int, int, short[])}, with the rows split over {@code bands} (or on the calling thread if it is null).
+   */
+  public static void toRgb565(@NonNull byte[] nv21, int width, int height, @NonNull short[] rgb565, @Nullable RowBands bands) {
+    if(bands == null) {
+      toRgb565(nv21, width, height, rgb565);
+      return;
+    }
+
+    checkImage(nv21, width, height);
+    checkOutput(rgb565.length, width * height);
+    BandTask task = bandTasks.get();
+    task.kernel = BandTask.TO_RGB565;
+    task.nv21 = nv21;
+    task.width = width;
+    task.height = height;
+    task.rgb565 = rgb565;
+    task.run(bands, height, minBandRows(width));
+  }
+
+  /**
+   * Converts rows {@code top} until {@code top + rowCount} of {@code nv21} to the same rows of {@code rgb565}.
+   */
+  public static void toRgb565Rows(@NonNull byte[] nv21, int width, int height, @NonNull short[] rgb565, int top, int rowCount) {
+    checkImage(nv21, width, height);
+    checkOutput(rgb565.length, width * height);
+    checkRows(top, rowCount, height);
+
+    int frameSize = width * height;
+    for(int y = top, end = top + rowCount; y < end; y++) {
+      int index = y * width;
+      int uvIndex = frameSize + (y >> 1) * width;
+      for(int x = 0; x < width; x += 2) {
+        int v = (nv21[uvIndex++] & 0xFF) - 128;
+        int u = (nv21[uvIndex++] & 0xFF) - 128;
+        int r = V_TO_R * v;
+        int g = -V_TO_G * v - U_TO_G * u;
+        int b = U_TO_B * u;
+
+        rgb565[index] = toRgb565(nv21[index], r, g, b);
+        index++;
+        rgb565[index] = toRgb565(nv21[index], r, g, b);
+        index++;
+      }
+    }
+  }
+
+  /**
+   * Copies the luma plane of {@code nv21}, which is a grayscale version of the image, to {@code luma}.
+   *
+   * @param luma at least {@code width * height} bytes
+   */
+  public static void extractLuma(@NonNull byte[] nv21, int width, int height, @NonNull byte[] luma) {
+    checkImage(nv21, width, height);
+    checkOutput(luma.length, width * height);
+    System.arraycopy(nv21, 0, luma, 0, width * height);
+  }
+
+  /**
+   * Shrinks the luma plane at the start of {@code image} (which can be an NV21 image, or just a luma plane)
+   * by {@code factor} in both directions, averaging each {@code factor x factor} block.
+   *
+   * @param factor 2 or 4
+   * @param luma at least {@code (width / factor) * (height / factor)} bytes
+   */
+  public static void downscaleLuma(@NonNull byte[] image, int width, int height, int factor, @NonNull byte[] luma) {
+    downscaleLumaRows(image, width, height, factor, luma, 0, height / checkFactor(factor, width, height));
+  }
+
+  /**
+   * Like {@link #downscaleLuma(byte[], int, int, int, byte[])}, for output rows {@code top} until {@code top + rowCount}.
+   */
+  public static void downscaleLumaRows(@NonNull byte[] image, int width, int height, int factor, @NonNull byte[] luma, int top, int rowCount) {
+    checkFactor(factor, width, height);
+    checkOutput(image.length, width * height);
+    int outWidth = width / factor;
+    int outHeight = height / factor;
+    checkOutput(luma.length, outWidth * outHeight);
+    checkRows(top, rowCount, outHeight);
+
+    for(int y = top, end = top + rowCount; y < end; y++) {
+      downscalePlaneRow(image, 0, width, factor, 1, luma, 0, outWidth, y);
+    }
+  }
+
+  /**
+   * Shrinks {@code nv21} by {@code factor} in both directions into {@code out}, averaging each {@code factor x factor} block
+   * of luma and of chroma.
+   *
+   * @param factor 2 or 4. {@code width} and {@code height} have to be multiples of {@code 2 * factor}.
+   * @param out an NV21 image of {@code (width / factor) x (height / factor)}
+   */
+  public static void downscale(@NonNull byte[] nv21, int width, int height, int factor, @NonNull byte[] out) {
+    downscaleRows(nv21, width, height, factor, out, 0, height / checkFactor(factor, width, height));
+  }
+
+  /**
+   * Like {@link #downscale(byte[], int, int, int, byte[])}, with the rows split over {@code bands} (or on the calling thread if it is null).
+   */
+  public static void downscale(@NonNull byte[] nv21, int width, int height, int factor, @NonNull byte[] out, @Nullable RowBands bands) {
+    if(bands == null) {
+      downscale(nv21, width, height, factor, out);
+      return;
+    }
+
+    int outWidth = width / checkFactor(factor, width, height);
+    BandTask task = bandTasks.get();
+    task.kernel = BandTask.DOWNSCALE;
+    task.nv21 = nv21;
+    task.width = width;
+    task.height = height;
+    task.factor = factor;
+    task.out = out;
+    task.run(bands, height / factor, minBandRows(outWidth));
+  }
+
+  /**
+   * Like {@link #downscale(byte[], int, int, int, byte[])}, for output rows {@code top} until {@code top + rowCount}
+   * (and the chroma rows that go with them).
+   */
+  public static void downscaleRows(@NonNull byte[] nv21, int width, int height, int factor, @NonNull byte[] out, int top, int rowCount) {
+    checkFactor(factor, width, height);
+    if(width % (2 * factor) != 0 || height % (2 * factor) != 0) {
+      throw new IllegalArgumentException("Can't downscale a " + width + "x" + height + " NV21 image by " + factor);
+    }
+    checkImage(nv21, width, height);
+    int outWidth = width / factor;
+    int outHeight = height / factor;
+    checkOutput(out.length, getBufferSize(outWidth, outHeight));
+    checkRows(top, rowCount, outHeight);
+
+    int frameSize = width * height;
+    int outFrameSize = outWidth * outHeight;
+    for(int y = top, end = top + rowCount; y < end; y++) {
+      downscalePlaneRow(nv21, 0, width, factor, 1, out, 0, outWidth, y);
+      // a chroma row goes with two luma rows, so it's done with the even one (whichever band that's in)
+      if((y & 1) == 0) {
+        downscalePlaneRow(nv21, frameSize, width / 2, factor, 2, out, outFrameSize, outWidth / 2, y >> 1);
+      }
+    }
+  }
+
+  /**
+   * Rotates the luma plane at the start of {@code image} (which can be an NV21 image, or just a luma plane) clockwise into {@code luma}.
+   * For 90 and 270 degrees the result is {@code height} wide and {@code width} high.
+   *
+   * @param degrees 0, 90, 180 or 270
+   */
+  public static void rotateLuma(@NonNull byte[] image, int width, int height, int degrees, @NonNull byte[] luma) {
+    checkOutput(image.length, width * height);
+    checkOutput(luma.length, width * height);
+    rotatePlane(image, 0, width, height, 1, degrees, luma, 0);
+  }
+
+  /**
+   * Rotates {@code nv21} clockwise into {@code out}. For 90 and 270 degrees the result is {@code height} wide and {@code width} high.
+   *
+   * @param degrees 0, 90, 180 or 270
+   */
+  public static void rotate(@NonNull byte[] nv21, int width, int height, int degrees, @NonNull byte[] out) {
+    checkImage(nv21, width, height);
+    checkOutput(out.length, getBufferSize(width, height));
+    int frameSize = width * height;
+    rotatePlane(nv21, 0, width, height, 1, degrees, out, 0);
+    // the chroma plane is rotated a VU pair at a time
+    rotatePlane(nv21, frameSize, width / 2, height / 2, 2, degrees, out, frameSize);
+  }
+
+  // writes output row y of a plane that's shrunk by factor, where a sample is sampleBytes interleaved bytes (each averaged separately)
+  private static void downscalePlaneRow(byte[] in, int inOffset, int inWidth, int factor, int sampleBytes,
+                                        byte[] out, int outOffset, int outWidth, int y) {
+    int inStride = inWidth * sampleBytes;
+    int outIndex = outOffset + y * outWidth * sampleBytes;
+    int rowStart = inOffset + y * factor * inStride;
+
+    if(factor == 2) {
+      for(int x = 0; x < outWidth; x++) {
+        for(int s = 0; s < sampleBytes; s++) {
+          int i = rowStart + x * 2 * sampleBytes + s;
+          int sum = (in[i] & 0xFF) + (in[i + sampleBytes] & 0xFF) + (in[i + inStride] & 0xFF) + (in[i + inStride + sampleBytes] & 0xFF);
+          out[outIndex++] = (byte) ((sum + 2) >> 2);
+        }
+      }
+    }
+    else {
+      for(int x = 0; x < outWidth; x++) {
+        for(int s = 0; s < sampleBytes; s++) {
+          int sum = 0;
+          int i = rowStart + x * 4 * sampleBytes + s;
+          for(int row = 0; row < 4; row++, i += inStride) {
+            sum += (in[i] & 0xFF) + (in[i + sampleBytes] & 0xFF) + (in[i + 2 * sampleBytes] & 0xFF) + (in[i + 3 * sampleBytes] & 0xFF);
+          }
+          out[outIndex++] = (byte) ((sum + 8) >> 4);
+        }
+      }
+    }
+  }
+
+  // rotates a plane of width x height samples of sampleBytes bytes each
+  private static void rotatePlane(byte[] in, int inOffset, int width, int height, int sampleBytes, int degrees, byte[] out, int outOffset) {
+    switch(degrees) {
+      case 0:
+        System.arraycopy(in, inOffset, out, outOffset, width * height * sampleBytes);
+        break;
+      case 90:
+        // input row y becomes output column height - 1 - y; writing a whole output row at a time keeps the writes sequential
+        for(int outY = 0; outY < width; outY++) {
+          int outIndex = outOffset + outY * height * sampleBytes;
+          for(int outX = 0; outX < height; outX++) {
+            int inIndex = inOffset + ((height - 1 - outX) * width + outY) * sampleBytes;
+            for(int s = 0; s < sampleBytes; s++) {
+              out[outIndex++] = in[inIndex + s];
+            }
+          }
+        }
+        break;
+      case 180:
+        int last = width * height - 1;
+        for(int i = 0; i <= last; i++) {
+          int inIndex = inOffset + (last - i) * sampleBytes;
+          int outIndex = outOffset + i * sampleBytes;
+          for(int s = 0; s < sampleBytes; s++) {
+            out[outIndex + s] = in[inIndex + s];
+          }
+        }
+        break;
+      case 270:
+        // input column x becomes output row width - 1 - x
+        for(int outY = 0; outY < width; outY++) {
+          int outIndex = outOffset + outY * height * sampleBytes;
+          for(int outX = 0; outX < height; outX++) {
+            int inIndex = inOffset + (outX * width + (width - 1 - outY)) * sampleBytes;
+            for(int s = 0; s < sampleBytes; s++) {
+              out[outIndex++] = in[inIndex + s];
+            }
+          }
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Can only rotate by 0, 90, 180 or 270 degrees (not " + degrees + ")");
+    }
+  }
+
+  private static int toArgb(byte luma, int r, int g, int b) {
+    int y = Y_SCALE * Math.max(0, (luma & 0xFF) - 16) + ROUNDING;
+    return 0xFF000000 |
+        ((clamp(y + r) << 6) & 0xFF0000) |
+        ((clamp(y + g) >> 2) & 0xFF00) |
+        ((clamp(y + b) >> 10) & 0xFF);
+  }
+
+  private static short toRgb565(byte luma, int r, int g, int b) {
+    int y = Y_SCALE * Math.max(0, (luma & 0xFF) - 16) + ROUNDING;
+    return (short) (((clamp(y + r) >> 13) << 11) |
+        ((clamp(y + g) >> 12) << 5) |
+        (clamp(y + b) >> 13));
+  }
+
+  private static int clamp(int value) {
+    return value < 0 ? 0 : value > MAX_CHANNEL ? MAX_CHANNEL : value;
+  }
+
+  private static int minBandRows(int width) {
+    return Math.max(1, BAND_PIXELS / Math.max(1, width));
+  }
+
+  private static void checkImage(@NonNull byte[] nv21, int width, int height) {
+    if(width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+      throw new IllegalArgumentException("An NV21 image has to have an even width and height (was " + width + "x" + height + ")");
+    }
+    if(nv21.length < getBufferSize(width, height)) {
+      throw new IllegalArgumentException("A " + width + "x" + height + " NV21 image needs " + getBufferSize(width, height) +
+          " bytes (was " + nv21.length + ")");
+    }
+  }
+
+  private static void checkOutput(int length, int needed) {
+    if(length < needed) {
+      throw new IllegalArgumentException("The output needs room for " + needed + " values (was " + length + ")");
+    }
+  }
+
+  private static void checkRows(int top, int rowCount, int height) {
+    if(top < 0 || rowCount < 0 || top + rowCount > height) {
+      throw new IndexOutOfBoundsException("Rows " + top + " until " + (top + rowCount) + " aren't in an image of " + height + " rows");
+    }
+  }
+
+  private static int checkFactor(int factor, int width, int height) {
+    if(factor != 2 && factor != 4) {
+      throw new IllegalArgumentException("Can only downscale by 2 or 4 (not " + factor + ")");
+    }
+    if(width < factor || height < factor) {
+      throw new IllegalArgumentException("Can't downscale a " + width + "x" + height + " image by " + factor);
+    }
+    return factor;
+  }
+
+  // runs one of the kernels over RowBands; RowBands hands the task to its helpers under a lock, so they see its fields
+  private static final class BandTask implements RowBands.Task {
+    private static final int TO_ARGB = 0;
+    private static final int TO_RGB565 = 1;
+    private static final int DOWNSCALE = 2;
+
+    private int kernel;
+    private byte[] nv21;
+    private int width;
+    private int height;
+    private int factor;
+    private int[] argb;
+    private short[] rgb565;
+    private byte[] out;
+
+    private void run(@NonNull RowBands bands, int rowCount, int minBandRows) {
+      try {
+        bands.run(rowCount, minBandRows, this);
+      }
+      finally {
+        // don't keep the caller's arrays alive
+        nv21 = null;
+        argb = null;
+        rgb565 = null;
+        out = null;
+      }
+    }
+
+    @Override
+    public void run(int top, int rowCount) {
+      switch(kernel) {
+        case TO_ARGB:
+          toArgbRows(nv21, width, height, argb, top, rowCount);
+          break;
+        case TO_RGB565:
+          toRgb565Rows(nv21, width, height, rgb565, top, rowCount);
+          break;
+        case DOWNSCALE:
+          downscaleRows(nv21, width, height, factor, out, top, rowCount);
+          break;
+      }
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package com.staticbloc.media.imaging;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits the rows of an image into bands and works on them in parallel: the calling thread works on bands too, together with
+ * up to {@code parallelism - 1} helpers on an executor. A run doesn't allocate anything, so with a {@link Task} that is kept around
+ * (instead of being created for every run) one instance can be reused for every frame without allocating.
+ *
+ * Only one run happens at a time; concurrent calls to {@link #run(int, int, Task)} wait for each other.
+ */
+public final class RowBands {
+  // a band should be big enough that claiming it costs nothing in comparison
+  private static final int BANDS_PER_THREAD = 2;
+
+  private static RowBands defaultBands;
+
+  private final Executor executor;
+  private final int parallelism;
+  private final Runnable helper = new Runnable() {
+    @Override
+    public void run() {
+      work();
+    }
+  };
+
+  // the run's generation in the high bits, and the next band to claim in the low bits, so that a helper
+  // that starts after its run is over can't claim a band of the next run
+  private final AtomicLong nextBand = new AtomicLong();
+
+  private final Object lock = new Object();
+  // guarded by lock
+  private int generation;
+  private Task task;
+  private int rowCount;
+  private int bandRows;
+  private int bandCount;
+  private int bandsDone;
+  private Throwable error;
+
+  /**
+   * @param parallelism how many threads (including the calling thread) work on the bands of a run
+   */
+  public RowBands(@NonNull Executor executor, int parallelism) {
+    if(parallelism < 1) {
+      throw new IllegalArgumentException("parallelism has to be at least 1");
+    }
+
+    this.executor = executor;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * @return an instance that works on as many threads as there are cores, with daemon helper threads that are
+   * started when it's first used. It's shared by everything that uses it, so runs from different threads wait for each other.
+   */
+  @NonNull
+  public static synchronized RowBands getDefault() {
+    if(defaultBands == null) {
+      int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors());
+      Executor helpers = Executors.newFixedThreadPool(Math.max(1, parallelism - 1), new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+          Thread thread = new Thread(r, "RowBands-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      defaultBands = new RowBands(helpers, parallelism);
+    }
+    return defaultBands;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Runs {@code task} over rows 0 until {@code rowCount}, in bands of at least {@code minBandRows} rows (except for the last one),
+   * and returns once every band is done. If a band throws, the bands that weren't started yet are skipped, and the exception is
+   * rethrown here.
+   */
+  public synchronized void run(int rowCount, int minBandRows, @NonNull Task task) {
+    if(rowCount <= 0) {
+      return;
+    }
+
+    int bandCount = Math.min(parallelism * BANDS_PER_THREAD, (rowCount + minBandRows - 1) / Math.max(1, minBandRows));
+    if(bandCount <= 1) {
+      task.run(0, rowCount);
+      return;
+    }
+
+    synchronized(lock) {
+      generation++;
+      this.task = task;
+      this.rowCount = rowCount;
+      this.bandRows = (rowCount + bandCount - 1) / bandCount;
+      this.bandCount = (rowCount + bandRows - 1) / bandRows;
+      this.bandsDone = 0;
+      this.error = null;
+      nextBand.set((long) generation << 32);
+    }
+
+    int helperCount = Math.min(parallelism, bandCount) - 1;
+    for(int i = 0; i < helperCount; i++) {
+      executor.execute(helper);
+    }
+
+    work();
+
+    Throwable error;
+    boolean interrupted = false;
+    synchronized(lock) {
+      // the helpers are still using the caller's arrays, so they have to be waited for
+      while(bandsDone < bandCount) {
+        try {
+          lock.wait();
+        }
+        catch(InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      error = this.error;
+      this.task = null;
+    }
+    if(interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    if(error instanceof RuntimeException) {
+      throw (RuntimeException) error;
+    }
+    else if(error instanceof Error) {
+      throw (Error) error;
+    }
+  }
+
+  private void work() {
+    int generation;
+    Task task;
+    int rowCount;
+    int bandRows;
+    int bandCount;
+    synchronized(lock) {
+      if(this.task == null) {
+        return;
+      }
+      generation = this.generation;
+      task = this.task;
+      rowCount = this.rowCount;
+      bandRows = this.bandRows;
+      bandCount = this.bandCount;
+    }
+
+    int band;
+    while((band = claimBand(generation, bandCount)) != -1) {
+      boolean failed;
+      synchronized(lock) {
+        failed = error != null;
+      }
+
+      Throwable t = null;
+      if(!failed) {
+        try {
+          int top = band * bandRows;
+          task.run(top, Math.min(bandRows, rowCount - top));
+        }
+        catch(Throwable e) {
+          t = e;
+        }
+      }
+
+      synchronized(lock) {
+        if(t != null && error == null) {
+          error = t;
+        }
+        if(++bandsDone == bandCount) {
+          lock.notifyAll();
+        }
+      }
+    }
+  }
+
+  private int claimBand(int generation, int bandCount) {
+    while(true) {
+      long next = nextBand.get();
+      if((int) (next >>> 32) != generation || (int) next >= bandCount) {
+        return -1;
+      }
+      if(nextBand.compareAndSet(next, next + 1)) {
+        return (int) next;
+      }
+    }
+  }
+
+  public interface Task {
+    /**
+     * Works on {@code rowCount} rows starting at row {@code top}. Bands run on different threads at the same time.
+     */
+    void run(int top, int rowCount);
+  }
+}
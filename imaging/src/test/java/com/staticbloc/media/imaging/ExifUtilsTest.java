@@ -0,0 +1,306 @@
+package com.staticbloc.media.imaging;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ExifUtilsTest {
+  private static final int TAG_MAKE = 0x010F;
+  private static final int TAG_ORIENTATION = 0x0112;
+  private static final int TAG_X_RESOLUTION = 0x011A;
+  private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+  private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+  private static final int TAG_EXIF_IFD_POINTER = 0x8769;
+  private static final int TAG_PIXEL_X_DIMENSION = 0xA002;
+  private static final int TAG_PIXEL_Y_DIMENSION = 0xA003;
+  private static final int TYPE_ASCII = 2;
+  private static final int TYPE_SHORT = 3;
+  private static final int TYPE_LONG = 4;
+
+  // where the TIFF header starts in the fixtures: SOI, the APP1 marker and length, and "Exif\0\0"
+  private static final int TIFF_START = 2 + 4 + 6;
+  private static final byte[] THUMBNAIL = {(byte) 0xFF, (byte) JpegFormat.SOI, 1, 2, 3, (byte) 0xFF, (byte) JpegFormat.EOI};
+
+  @Test
+  public void findsTheOrientationInSortedEntries() {
+    for(boolean littleEndian : new boolean[] {true, false}) {
+      byte[] jpeg = jpeg(littleEndian, TAG_MAKE, TAG_ORIENTATION, TAG_X_RESOLUTION);
+      assertEquals(ExifUtils.ORIENTATION_ROTATE_90, ExifUtils.getOrientation(jpeg));
+    }
+  }
+
+  @Test
+  public void findsTheOrientationInUnsortedEntries() {
+    for(boolean littleEndian : new boolean[] {true, false}) {
+      byte[] jpeg = jpeg(littleEndian, TAG_X_RESOLUTION, TAG_MAKE, TAG_ORIENTATION);
+      assertEquals(ExifUtils.ORIENTATION_ROTATE_90, ExifUtils.getOrientation(jpeg));
+
+      assertTrue(ExifUtils.setOrientation(jpeg, ExifUtils.ORIENTATION_ROTATE_270));
+      assertEquals(ExifUtils.ORIENTATION_ROTATE_270, ExifUtils.getOrientation(jpeg));
+    }
+  }
+
+  @Test
+  public void withOrientationAddsASegmentWhenThereIsNoOrientation() {
+    byte[] jpeg = jpeg(false, TAG_MAKE, TAG_X_RESOLUTION);
+    assertEquals(ExifUtils.ORIENTATION_NORMAL, ExifUtils.getOrientation(jpeg));
+    assertFalse(ExifUtils.setOrientation(jpeg, ExifUtils.ORIENTATION_ROTATE_180));
+
+    byte[] result = ExifUtils.withOrientation(jpeg, ExifUtils.ORIENTATION_ROTATE_180);
+    assertEquals(ExifUtils.ORIENTATION_ROTATE_180, ExifUtils.getOrientation(result));
+  }
+
+  @Test
+  public void extractsTheThumbnailFromIfd1() {
+    for(boolean littleEndian : new boolean[] {true, false}) {
+      for(int type : new int[] {TYPE_SHORT, TYPE_LONG}) {
+        byte[] jpeg = jpeg(littleEndian, THUMBNAIL, type, 0, 0, TAG_MAKE, TAG_ORIENTATION);
+        assertArrayEquals(THUMBNAIL, ExifUtils.getThumbnail(jpeg));
+        // IFD0 is still read the same way
+        assertEquals(ExifUtils.ORIENTATION_ROTATE_90, ExifUtils.getOrientation(jpeg));
+      }
+    }
+  }
+
+  @Test
+  public void noThumbnailWithoutIfd1() {
+    for(boolean littleEndian : new boolean[] {true, false}) {
+      assertNull(ExifUtils.getThumbnail(jpeg(littleEndian, TAG_MAKE, TAG_ORIENTATION)));
+    }
+  }
+
+  @Test
+  public void ignoresThumbnailsThatAreNotJpegs() {
+    byte[] notJpeg = {1, 2, 3, 4, 5};
+    for(boolean littleEndian : new boolean[] {true, false}) {
+      assertNull(ExifUtils.getThumbnail(jpeg(littleEndian, notJpeg, TYPE_LONG, 0, 0, TAG_ORIENTATION)));
+    }
+  }
+
+  @Test
+  public void ignoresThumbnailsOutsideTheSegment() {
+    for(boolean littleEndian : new boolean[] {true, false}) {
+      // one byte too long, which would take the EOI marker after the segment
+      assertNull(ExifUtils.getThumbnail(jpeg(littleEndian, THUMBNAIL, TYPE_LONG, 0, 1, TAG_ORIENTATION)));
+      assertNull(ExifUtils.getThumbnail(jpeg(littleEndian, THUMBNAIL, TYPE_SHORT, 0, 1, TAG_ORIENTATION)));
+      // offsets that are past the end of the data, including one that is negative as an int
+      assertNull(ExifUtils.getThumbnail(jpeg(littleEndian, THUMBNAIL, TYPE_SHORT, 0xF000, 0, TAG_ORIENTATION)));
+      assertNull(ExifUtils.getThumbnail(jpeg(littleEndian, THUMBNAIL, TYPE_LONG, 0x7FFF0000, 0, TAG_ORIENTATION)));
+      assertNull(ExifUtils.getThumbnail(jpeg(littleEndian, THUMBNAIL, TYPE_LONG, 0xFFFF0000, 0, TAG_ORIENTATION)));
+      // a length that is negative as an int
+      assertNull(ExifUtils.getThumbnail(jpeg(littleEndian, THUMBNAIL, TYPE_LONG, 0, 0xFFFFFF00, TAG_ORIENTATION)));
+    }
+  }
+
+  @Test
+  public void ignoresIfd1OutsideTheSegment() {
+    for(boolean littleEndian : new boolean[] {true, false}) {
+      byte[] jpeg = jpeg(littleEndian, THUMBNAIL, TYPE_LONG, 0, 0, TAG_ORIENTATION);
+      // the next IFD pointer comes right after the single entry of IFD0
+      int nextIfdPointer = TIFF_START + 8 + 2 + 12;
+      for(int ifd1 : new int[] {jpeg.length - TIFF_START, 0x7FFFFFF0, 0xFFFFFFF0}) {
+        writeInt(jpeg, nextIfdPointer, ifd1, littleEndian);
+        assertNull(ExifUtils.getThumbnail(jpeg));
+      }
+      assertEquals(ExifUtils.ORIENTATION_ROTATE_90, ExifUtils.getOrientation(jpeg));
+    }
+  }
+
+  @Test
+  public void resetOrientationDropsTheThumbnailAndFixesThePixelDimensions() {
+    for(boolean littleEndian : new boolean[] {true, false}) {
+      // a 640x480 photo that was rotated and trimmed to 480x624
+      byte[] jpeg = rotatedJpeg(littleEndian, 480, 624);
+      assertArrayEquals(THUMBNAIL, ExifUtils.getThumbnail(jpeg));
+
+      assertTrue(ExifUtils.resetOrientation(jpeg));
+      assertEquals(ExifUtils.ORIENTATION_NORMAL, ExifUtils.getOrientation(jpeg));
+      assertNull(ExifUtils.getThumbnail(jpeg));
+      // the Exif IFD starts at 38, with PixelXDimension as a SHORT and PixelYDimension as a LONG
+      assertEquals(480, readShort(jpeg, TIFF_START + 38 + 2 + 8, littleEndian));
+      assertEquals(624, readInt(jpeg, TIFF_START + 38 + 2 + 12 + 8, littleEndian));
+    }
+  }
+
+  @Test
+  public void ignoresJpegsWithoutExif() {
+    byte[] jpeg = new byte[] {(byte) 0xFF, (byte) JpegFormat.SOI, (byte) 0xFF, (byte) JpegFormat.EOI};
+    assertEquals(ExifUtils.ORIENTATION_NORMAL, ExifUtils.getOrientation(jpeg));
+    assertNull(ExifUtils.getThumbnail(jpeg));
+  }
+
+  // a JPEG with only an EXIF segment, whose IFD0 holds the given tags in that order (the orientation is ROTATE_90)
+  private static byte[] jpeg(boolean littleEndian, int... tags) {
+    return jpeg(littleEndian, null, TYPE_LONG, 0, 0, tags);
+  }
+
+  // like jpeg(littleEndian, tags), with an IFD1 whose thumbnail tags are of thumbnailType, and the thumbnail at the end of
+  // the segment; the offset and length in the tags are off by offsetError and lengthError
+  private static byte[] jpeg(boolean littleEndian, byte[] thumbnail, int thumbnailType, int offsetError, int lengthError,
+                             int... tags) {
+    ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+    tiff.write(littleEndian ? 'I' : 'M');
+    tiff.write(littleEndian ? 'I' : 'M');
+    writeShort(tiff, 42, littleEndian);
+    writeInt(tiff, 8, littleEndian);
+    writeShort(tiff, tags.length, littleEndian);
+    for(int tag : tags) {
+      writeShort(tiff, tag, littleEndian);
+      if(tag == TAG_ORIENTATION) {
+        writeShort(tiff, TYPE_SHORT, littleEndian);
+        writeInt(tiff, 1, littleEndian);
+        writeShort(tiff, ExifUtils.ORIENTATION_ROTATE_90, littleEndian);
+        writeShort(tiff, 0, littleEndian);
+      }
+      else {
+        // 4 characters fit in the entry
+        writeShort(tiff, TYPE_ASCII, littleEndian);
+        writeInt(tiff, 4, littleEndian);
+        tiff.write('a');
+        tiff.write('b');
+        tiff.write('c');
+        tiff.write(0);
+      }
+    }
+    if(thumbnail == null) {
+      writeInt(tiff, 0, littleEndian);
+    }
+    else {
+      // IFD1 right after IFD0, with its 2 entries
+      int ifd1 = tiff.size() + 4;
+      writeInt(tiff, ifd1, littleEndian);
+      writeShort(tiff, 2, littleEndian);
+      writeEntry(tiff, TAG_THUMBNAIL_OFFSET, thumbnailType, ifd1 + 2 + 2 * 12 + 4 + offsetError, littleEndian);
+      writeEntry(tiff, TAG_THUMBNAIL_LENGTH, thumbnailType, thumbnail.length + lengthError, littleEndian);
+      writeInt(tiff, 0, littleEndian);
+      tiff.write(thumbnail, 0, thumbnail.length);
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(0xFF);
+    out.write(JpegFormat.SOI);
+    writeExifSegment(out, tiff.toByteArray());
+    out.write(0xFF);
+    out.write(JpegFormat.EOI);
+    return out.toByteArray();
+  }
+
+  // a JPEG whose IFD0 holds the orientation (ROTATE_90) and points to an Exif IFD with the pixel dimensions of a 640x480 photo,
+  // followed by an IFD1 with THUMBNAIL, and a frame header of width x height
+  private static byte[] rotatedJpeg(boolean littleEndian, int width, int height) {
+    ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+    tiff.write(littleEndian ? 'I' : 'M');
+    tiff.write(littleEndian ? 'I' : 'M');
+    writeShort(tiff, 42, littleEndian);
+    writeInt(tiff, 8, littleEndian);
+
+    // IFD0 at 8
+    writeShort(tiff, 2, littleEndian);
+    writeEntry(tiff, TAG_ORIENTATION, TYPE_SHORT, ExifUtils.ORIENTATION_ROTATE_90, littleEndian);
+    writeEntry(tiff, TAG_EXIF_IFD_POINTER, TYPE_LONG, 38, littleEndian);
+    writeInt(tiff, 68, littleEndian);
+
+    // the Exif IFD at 38
+    writeShort(tiff, 2, littleEndian);
+    writeEntry(tiff, TAG_PIXEL_X_DIMENSION, TYPE_SHORT, 640, littleEndian);
+    writeEntry(tiff, TAG_PIXEL_Y_DIMENSION, TYPE_LONG, 480, littleEndian);
+    writeInt(tiff, 0, littleEndian);
+
+    // IFD1 at 68, with the thumbnail right after it
+    writeShort(tiff, 2, littleEndian);
+    writeEntry(tiff, TAG_THUMBNAIL_OFFSET, TYPE_LONG, 98, littleEndian);
+    writeEntry(tiff, TAG_THUMBNAIL_LENGTH, TYPE_LONG, THUMBNAIL.length, littleEndian);
+    writeInt(tiff, 0, littleEndian);
+    tiff.write(THUMBNAIL, 0, THUMBNAIL.length);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(0xFF);
+    out.write(JpegFormat.SOI);
+    writeExifSegment(out, tiff.toByteArray());
+
+    // a grayscale frame header
+    out.write(0xFF);
+    out.write(JpegFormat.SOF0);
+    writeShort(out, 11, false);
+    out.write(8);
+    writeShort(out, height, false);
+    writeShort(out, width, false);
+    out.write(1);
+    out.write(1);
+    out.write(0x11);
+    out.write(0);
+
+    out.write(0xFF);
+    out.write(JpegFormat.EOI);
+    return out.toByteArray();
+  }
+
+  private static void writeExifSegment(ByteArrayOutputStream out, byte[] tiff) {
+    out.write(0xFF);
+    out.write(0xE1);
+    writeShort(out, 2 + 6 + tiff.length, false);
+    out.write('E');
+    out.write('x');
+    out.write('i');
+    out.write('f');
+    out.write(0);
+    out.write(0);
+    out.write(tiff, 0, tiff.length);
+  }
+
+  // an entry with a count of 1
+  private static void writeEntry(ByteArrayOutputStream out, int tag, int type, int value, boolean littleEndian) {
+    writeShort(out, tag, littleEndian);
+    writeShort(out, type, littleEndian);
+    writeInt(out, 1, littleEndian);
+    if(type == TYPE_SHORT) {
+      writeShort(out, value, littleEndian);
+      writeShort(out, 0, littleEndian);
+    }
+    else {
+      writeInt(out, value, littleEndian);
+    }
+  }
+
+  private static int readShort(byte[] data, int offset, boolean littleEndian) {
+    int first = data[offset] & 0xFF;
+    int second = data[offset + 1] & 0xFF;
+    return littleEndian ? first | (second << 8) : (first << 8) | second;
+  }
+
+  private static int readInt(byte[] data, int offset, boolean littleEndian) {
+    int first = readShort(data, offset, littleEndian);
+    int second = readShort(data, offset + 2, littleEndian);
+    return littleEndian ? first | (second << 16) : (first << 16) | second;
+  }
+
+  private static void writeInt(byte[] data, int offset, int value, boolean littleEndian) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeInt(out, value, littleEndian);
+    System.arraycopy(out.toByteArray(), 0, data, offset, 4);
+  }
+
+  private static void writeShort(ByteArrayOutputStream out, int value, boolean littleEndian) {
+    if(littleEndian) {
+      out.write(value);
+      out.write(value >> 8);
+    }
+    else {
+      out.write(value >> 8);
+      out.write(value);
+    }
+  }
+
+  private static void writeInt(ByteArrayOutputStream out, int value, boolean littleEndian) {
+    if(littleEndian) {
+      writeShort(out, value, true);
+      writeShort(out, value >> 16, true);
+    }
+    else {
+      writeShort(out, value >> 16, false);
+      writeShort(out, value, false);
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package com.staticbloc.media.imaging;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class JpegEncoderTest {
+  // smooth gradients at a high quality, so the only sizeable errors come from the chroma subsampling
+  private static final int QUALITY = 95;
+  private static final double MAX_MEAN_ERROR = 2.0;
+  private static final int MAX_ERROR = 16;
+
+  // rows are written in chunks of these sizes, in turn, so that chunks start and end in the middle of MCU rows
+  private static final int[] CHUNKS = {1, 3, 2, 7, 5};
+
+  @Test
+  public void encodesASinglePixel() throws IOException {
+    assertEncodes(1, 1);
+  }
+
+  @Test
+  public void encodesSizesThatAreNotWholeMcus() throws IOException {
+    assertEncodes(17, 9);
+    assertEncodes(15, 16);
+    assertEncodes(61, 43);
+  }
+
+  @Test
+  public void encodesSizesThatAreWholeMcus() throws IOException {
+    assertEncodes(32, 48);
+  }
+
+  @Test
+  public void countsTheRowsWritten() throws IOException {
+    JpegEncoder encoder = new JpegEncoder(new ByteArrayOutputStream(), 4, 3, QUALITY);
+    assertEquals(0, encoder.getRowsWritten());
+    encoder.writeRows(new int[4 * 2], 0, 4, 2);
+    assertEquals(2, encoder.getRowsWritten());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void rejectsRowsPastTheHeight() throws IOException {
+    JpegEncoder encoder = new JpegEncoder(new ByteArrayOutputStream(), 4, 3, QUALITY);
+    encoder.writeRows(new int[4 * 2], 0, 4, 2);
+    encoder.writeRows(new int[4 * 2], 0, 4, 2);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void rejectsFinishingBeforeTheLastRow() throws IOException {
+    JpegEncoder encoder = new JpegEncoder(new ByteArrayOutputStream(), 4, 3, QUALITY);
+    encoder.writeRows(new int[4 * 2], 0, 4, 2);
+    encoder.finish();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsEmptyImages() {
+    new JpegEncoder(new ByteArrayOutputStream(), 0, 1, QUALITY);
+  }
+
+  private static void assertEncodes(int width, int height) throws IOException {
+    // the pixels are in the middle of a bigger buffer, to check the offset and stride
+    int stride = width + 3;
+    int offset = 5;
+    int[] argb = new int[offset + stride * height];
+    for(int y = 0; y < height; y++) {
+      for(int x = 0; x < width; x++) {
+        argb[offset + y * stride + x] = color(x, y, width, height);
+      }
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JpegEncoder encoder = new JpegEncoder(out, width, height, QUALITY);
+    int chunk = 0;
+    while(encoder.getRowsWritten() < height) {
+      int rows = Math.min(CHUNKS[chunk++ % CHUNKS.length], height - encoder.getRowsWritten());
+      encoder.writeRows(argb, offset + encoder.getRowsWritten() * stride, stride, rows);
+    }
+    encoder.finish();
+
+    String size = width + "x" + height;
+    BufferedImage result = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+    assertNotNull(size, result);
+    assertEquals(size, width, result.getWidth());
+    assertEquals(size, height, result.getHeight());
+
+    long totalError = 0;
+    int maxError = 0;
+    for(int y = 0; y < height; y++) {
+      for(int x = 0; x < width; x++) {
+        int expected = argb[offset + y * stride + x];
+        int actual = result.getRGB(x, y);
+        for(int shift = 0; shift <= 16; shift += 8) {
+          int error = Math.abs(((expected >> shift) & 0xFF) - ((actual >> shift) & 0xFF));
+          totalError += error;
+          maxError = Math.max(maxError, error);
+        }
+      }
+    }
+
+    double meanError = (double) totalError / (width * height * 3);
+    assertTrue("mean error " + meanError + " for " + size, meanError <= MAX_MEAN_ERROR);
+    assertTrue("max error " + maxError + " for " + size, maxError <= MAX_ERROR);
+  }
+
+  private static int color(int x, int y, int width, int height) {
+    int r = 40 + x * 160 / width;
+    int g = 60 + y * 140 / height;
+    int b = 120 + (x + y) * 60 / (width + height);
+    return 0xFF000000 | (r << 16) | (g << 8) | b;
+  }
+}
@@ -0,0 +1,197 @@
+package com.staticbloc.media.imaging;
+
+import org.junit.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class JpegTransformerTest {
+  // the transform is lossless, so the only differences come from upsampling the chroma next to different neighbors
+  private static final double MAX_MEAN_ERROR = 1.0;
+  private static final int MAX_ERROR = 24;
+
+  @Test
+  public void transformsColorJpegsThatAreWholeMcus() throws Exception {
+    // ImageIO subsamples the chroma 2x2, so the MCUs are 16x16
+    assertAllOrientations(encode(photo(64, 48, BufferedImage.TYPE_INT_RGB), false), 16, 16);
+  }
+
+  @Test
+  public void transformsAndTrimsColorJpegsWithPartialMcus() throws Exception {
+    assertAllOrientations(encode(photo(61, 43, BufferedImage.TYPE_INT_RGB), false), 16, 16);
+  }
+
+  @Test
+  public void transformsAndTrimsGrayscaleJpegsWithPartialMcus() throws Exception {
+    assertAllOrientations(encode(photo(37, 29, BufferedImage.TYPE_BYTE_GRAY), false), 8, 8);
+  }
+
+  @Test
+  public void normalOrientationReturnsTheSameJpeg() throws Exception {
+    byte[] jpeg = encode(photo(61, 43, BufferedImage.TYPE_INT_RGB), false);
+    assertSame(jpeg, JpegTransformer.transform(jpeg, ExifUtils.ORIENTATION_NORMAL));
+    assertSame(jpeg, JpegTransformer.transform(jpeg, ExifUtils.ORIENTATION_UNDEFINED));
+  }
+
+  @Test
+  public void progressiveJpegsAreNotTransformed() throws Exception {
+    byte[] jpeg = encode(photo(64, 48, BufferedImage.TYPE_INT_RGB), true);
+    for(int orientation = ExifUtils.ORIENTATION_FLIP_HORIZONTAL; orientation <= ExifUtils.ORIENTATION_ROTATE_270; orientation++) {
+      assertNull("orientation " + orientation, JpegTransformer.transform(jpeg, orientation));
+    }
+  }
+
+  @Test
+  public void multiScanJpegsAreNotTransformed() throws Exception {
+    byte[] jpeg = multiScanJpeg();
+    // make sure that it really is a valid JPEG
+    assertNotNull(ImageIO.read(new ByteArrayInputStream(jpeg)));
+
+    for(int orientation = ExifUtils.ORIENTATION_FLIP_HORIZONTAL; orientation <= ExifUtils.ORIENTATION_ROTATE_270; orientation++) {
+      assertNull("orientation " + orientation, JpegTransformer.transform(jpeg, orientation));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsCorruptData() {
+    JpegTransformer.transform(new byte[] {1, 2, 3, 4}, ExifUtils.ORIENTATION_ROTATE_90);
+  }
+
+  private static void assertAllOrientations(byte[] jpeg, int mcuWidth, int mcuHeight) throws IOException {
+    BufferedImage source = ImageIO.read(new ByteArrayInputStream(jpeg));
+    int width = source.getWidth();
+    int height = source.getHeight();
+
+    for(int orientation = ExifUtils.ORIENTATION_FLIP_HORIZONTAL; orientation <= ExifUtils.ORIENTATION_ROTATE_270; orientation++) {
+      boolean transpose = orientation >= ExifUtils.ORIENTATION_TRANSPOSE;
+      boolean flipX = orientation == ExifUtils.ORIENTATION_FLIP_HORIZONTAL || orientation == ExifUtils.ORIENTATION_ROTATE_180 ||
+          orientation == ExifUtils.ORIENTATION_ROTATE_90 || orientation == ExifUtils.ORIENTATION_TRANSVERSE;
+      boolean flipY = orientation == ExifUtils.ORIENTATION_ROTATE_180 || orientation == ExifUtils.ORIENTATION_FLIP_VERTICAL ||
+          orientation == ExifUtils.ORIENTATION_TRANSVERSE || orientation == ExifUtils.ORIENTATION_ROTATE_270;
+
+      // a source axis that ends up mirrored loses its partial MCU (like jpegtran -trim), which is always on the right or bottom
+      boolean mirrorSourceX = transpose ? flipY : flipX;
+      boolean mirrorSourceY = transpose ? flipX : flipY;
+      int keptWidth = mirrorSourceX ? width - (width % mcuWidth) : width;
+      int keptHeight = mirrorSourceY ? height - (height % mcuHeight) : height;
+
+      byte[] transformed = JpegTransformer.transform(jpeg, orientation);
+      assertNotNull("orientation " + orientation, transformed);
+
+      BufferedImage result = ImageIO.read(new ByteArrayInputStream(transformed));
+      assertEquals("width for orientation " + orientation, transpose ? keptHeight : keptWidth, result.getWidth());
+      assertEquals("height for orientation " + orientation, transpose ? keptWidth : keptHeight, result.getHeight());
+
+      long totalError = 0;
+      int maxError = 0;
+      for(int y = 0; y < result.getHeight(); y++) {
+        for(int x = 0; x < result.getWidth(); x++) {
+          int flippedX = flipX ? result.getWidth() - 1 - x : x;
+          int flippedY = flipY ? result.getHeight() - 1 - y : y;
+          int expected = source.getRGB(transpose ? flippedY : flippedX, transpose ? flippedX : flippedY);
+          int actual = result.getRGB(x, y);
+          for(int shift = 0; shift <= 16; shift += 8) {
+            int error = Math.abs(((expected >> shift) & 0xFF) - ((actual >> shift) & 0xFF));
+            totalError += error;
+            maxError = Math.max(maxError, error);
+          }
+        }
+      }
+
+      double meanError = (double) totalError / (result.getWidth() * result.getHeight() * 3);
+      assertTrue("mean error " + meanError + " for orientation " + orientation, meanError <= MAX_MEAN_ERROR);
+      assertTrue("max error " + maxError + " for orientation " + orientation, maxError <= MAX_ERROR);
+    }
+  }
+
+  // smooth gradients with some hard edges, so that misplaced blocks or negated coefficients would show
+  private static BufferedImage photo(int width, int height, int type) {
+    BufferedImage image = new BufferedImage(width, height, type);
+    for(int y = 0; y < height; y++) {
+      for(int x = 0; x < width; x++) {
+        int r = x * 255 / width;
+        int g = y * 255 / height;
+        int b = ((x / 5) + (y / 7)) % 2 == 0 ? 40 : 210;
+        image.setRGB(x, y, 0xFF000000 | (r << 16) | (g << 8) | b);
+      }
+    }
+    return image;
+  }
+
+  private static byte[] encode(BufferedImage image, boolean progressive) throws IOException {
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+    ImageWriteParam param = writer.getDefaultWriteParam();
+    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+    param.setCompressionQuality(0.9f);
+    param.setProgressiveMode(progressive ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageOutputStream stream = ImageIO.createImageOutputStream(out);
+    try {
+      writer.setOutput(stream);
+      writer.write(null, new IIOImage(image, null, null), param);
+    }
+    finally {
+      stream.close();
+      writer.dispose();
+    }
+    return out.toByteArray();
+  }
+
+  // a gray 8x8 baseline JPEG with a separate scan for each of its 3 components, which ImageIO can't write
+  private static byte[] multiScanJpeg() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(0xFF);
+    out.write(JpegFormat.SOI);
+
+    byte[] quantization = new byte[1 + JpegFormat.BLOCK_SIZE];
+    for(int i = 1; i < quantization.length; i++) {
+      quantization[i] = 1;
+    }
+    writeSegment(out, JpegFormat.DQT, quantization);
+
+    writeSegment(out, JpegFormat.SOF0, new byte[] {8, 0, 8, 0, 8, 3, 1, 0x11, 0, 2, 0x11, 0, 3, 0x11, 0});
+
+    writeSegment(out, JpegFormat.DHT, huffmanTable(0x00, JpegFormat.STANDARD_LUMINANCE_DC_BITS, JpegFormat.STANDARD_LUMINANCE_DC_VALUES));
+    writeSegment(out, JpegFormat.DHT, huffmanTable(0x10, JpegFormat.STANDARD_LUMINANCE_AC_BITS, JpegFormat.STANDARD_LUMINANCE_AC_VALUES));
+
+    for(int component = 1; component <= 3; component++) {
+      writeSegment(out, JpegFormat.SOS, new byte[] {1, (byte) component, 0x00, 0, 63, 0});
+      // a DC difference of 0 (00) and an end of block (1010), padded with ones
+      out.write(0x2B);
+    }
+
+    out.write(0xFF);
+    out.write(JpegFormat.EOI);
+    return out.toByteArray();
+  }
+
+  private static byte[] huffmanTable(int classAndId, int[] bits, int[] values) {
+    byte[] table = new byte[17 + values.length];
+    table[0] = (byte) classAndId;
+    for(int i = 1; i <= 16; i++) {
+      table[i] = (byte) bits[i];
+    }
+    for(int i = 0; i < values.length; i++) {
+      table[17 + i] = (byte) values[i];
+    }
+    return table;
+  }
+
+  private static void writeSegment(ByteArrayOutputStream out, int marker, byte[] data) {
+    out.write(0xFF);
+    out.write(marker);
+    out.write((data.length + 2) >> 8);
+    out.write(data.length + 2);
+    out.write(data, 0, data.length);
+  }
+}
@@ -0,0 +1,289 @@
+package com.staticbloc.media.imaging;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class Nv21KernelsTest {
+  private static ExecutorService helpers;
+  private static RowBands bands;
+
+  @BeforeClass
+  public static void setUpBands() {
+    helpers = Executors.newFixedThreadPool(3);
+    bands = new RowBands(helpers, 4);
+  }
+
+  @AfterClass
+  public static void tearDownBands() {
+    helpers.shutdown();
+  }
+
+  @Test
+  public void convertsKnownColorsToArgb() {
+    // Y, U, V of black, white, red, green, blue and gray, each as a 2x2 block of a 12x2 image
+    int[][] yuv = {{16, 128, 128}, {235, 128, 128}, {81, 90, 240}, {145, 54, 34}, {41, 240, 110}, {126, 128, 128}};
+    int[] expected = {0xFF000000, 0xFFFFFFFF, 0xFFFE0000, 0xFF00FF01, 0xFF0000FF, 0xFF808080};
+
+    byte[] nv21 = blocks(yuv);
+    int[] argb = new int[12 * 2];
+    Nv21Kernels.toArgb(nv21, 12, 2, argb);
+    for(int block = 0; block < expected.length; block++) {
+      for(int dy = 0; dy < 2; dy++) {
+        for(int dx = 0; dx < 2; dx++) {
+          assertEquals("block " + block, Integer.toHexString(expected[block]), Integer.toHexString(argb[dy * 12 + block * 2 + dx]));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void convertsKnownColorsToRgb565() {
+    int[][] yuv = {{16, 128, 128}, {235, 128, 128}, {81, 90, 240}, {145, 54, 34}, {41, 240, 110}, {126, 128, 128}};
+    short[] expected = {0x0000, (short) 0xFFFF, (short) 0xF800, 0x07E0, 0x001F, (short) 0x8410};
+
+    byte[] nv21 = blocks(yuv);
+    short[] rgb565 = new short[12 * 2];
+    Nv21Kernels.toRgb565(nv21, 12, 2, rgb565);
+    for(int block = 0; block < expected.length; block++) {
+      for(int dy = 0; dy < 2; dy++) {
+        for(int dx = 0; dx < 2; dx++) {
+          assertEquals("block " + block, Integer.toHexString(expected[block] & 0xFFFF), Integer.toHexString(rgb565[dy * 12 + block * 2 + dx] & 0xFFFF));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void argbMatchesTheBt601Formula() {
+    int width = 64;
+    int height = 48;
+    byte[] nv21 = random(width, height, 1);
+    int[] argb = new int[width * height];
+    Nv21Kernels.toArgb(nv21, width, height, argb);
+
+    for(int y = 0; y < height; y++) {
+      for(int x = 0; x < width; x++) {
+        int[] rgb = bt601(nv21, width, height, x, y);
+        int pixel = argb[y * width + x];
+        assertEquals(0xFF, pixel >>> 24);
+        assertEquals("red at " + x + "," + y, rgb[0], (pixel >> 16) & 0xFF, 1);
+        assertEquals("green at " + x + "," + y, rgb[1], (pixel >> 8) & 0xFF, 1);
+        assertEquals("blue at " + x + "," + y, rgb[2], pixel & 0xFF, 1);
+      }
+    }
+  }
+
+  @Test
+  public void rgb565IsTheTopBitsOfArgb() {
+    int width = 64;
+    int height = 48;
+    byte[] nv21 = random(width, height, 2);
+    int[] argb = new int[width * height];
+    short[] rgb565 = new short[width * height];
+    Nv21Kernels.toArgb(nv21, width, height, argb);
+    Nv21Kernels.toRgb565(nv21, width, height, rgb565);
+
+    for(int i = 0; i < argb.length; i++) {
+      int pixel = argb[i];
+      int expected = (((pixel >> 19) & 0x1F) << 11) | (((pixel >> 10) & 0x3F) << 5) | ((pixel >> 3) & 0x1F);
+      assertEquals("pixel " + i, expected, rgb565[i] & 0xFFFF);
+    }
+  }
+
+  @Test
+  public void downscalesByTwo() {
+    assertDownscale(2);
+  }
+
+  @Test
+  public void downscalesByFour() {
+    assertDownscale(4);
+  }
+
+  @Test
+  public void downscalesLuma() {
+    int width = 40;
+    int height = 24;
+    byte[] nv21 = random(width, height, 3);
+    for(int factor = 2; factor <= 4; factor += 2) {
+      byte[] luma = new byte[(width / factor) * (height / factor)];
+      Nv21Kernels.downscaleLuma(nv21, width, height, factor, luma);
+      assertArrayEquals("factor " + factor, averagePlane(nv21, 0, width, height, 1, factor), luma);
+    }
+  }
+
+  @Test
+  public void rotatesClockwise() {
+    // a 4x2 image whose luma is its position, so the mapping can be checked
+    int width = 4;
+    int height = 2;
+    byte[] nv21 = new byte[Nv21Kernels.getBufferSize(width, height)];
+    for(int i = 0; i < nv21.length; i++) {
+      nv21[i] = (byte) i;
+    }
+
+    byte[] rotated = new byte[nv21.length];
+    Nv21Kernels.rotate(nv21, width, height, 90, rotated);
+    // the bottom left pixel ends up at the top left, and the top left at the top right
+    assertArrayEquals(new byte[] {4, 0, 5, 1, 6, 2, 7, 3, 8, 9, 10, 11}, rotated);
+
+    Nv21Kernels.rotate(nv21, width, height, 270, rotated);
+    assertArrayEquals(new byte[] {3, 7, 2, 6, 1, 5, 0, 4, 10, 11, 8, 9}, rotated);
+
+    Nv21Kernels.rotate(nv21, width, height, 180, rotated);
+    assertArrayEquals(new byte[] {7, 6, 5, 4, 3, 2, 1, 0, 10, 11, 8, 9}, rotated);
+  }
+
+  @Test
+  public void rotationsRoundTrip() {
+    int width = 16;
+    int height = 10;
+    byte[] nv21 = random(width, height, 4);
+
+    for(int degrees = 0; degrees < 360; degrees += 90) {
+      boolean swapped = degrees % 180 != 0;
+      byte[] rotated = new byte[nv21.length];
+      Nv21Kernels.rotate(nv21, width, height, degrees, rotated);
+
+      byte[] back = new byte[nv21.length];
+      Nv21Kernels.rotate(rotated, swapped ? height : width, swapped ? width : height, (360 - degrees) % 360, back);
+      assertArrayEquals("rotated by " + degrees, nv21, back);
+
+      byte[] luma = new byte[width * height];
+      Nv21Kernels.rotateLuma(nv21, width, height, degrees, luma);
+      assertArrayEquals("luma rotated by " + degrees, Arrays.copyOf(rotated, width * height), luma);
+    }
+
+    // four quarter turns are a full turn
+    byte[] image = nv21.clone();
+    byte[] rotated = new byte[nv21.length];
+    for(int i = 0; i < 4; i++) {
+      boolean swapped = i % 2 != 0;
+      Nv21Kernels.rotate(image, swapped ? height : width, swapped ? width : height, 90, rotated);
+      byte[] swap = image;
+      image = rotated;
+      rotated = swap;
+    }
+    assertArrayEquals(nv21, image);
+  }
+
+  @Test
+  public void bandsMatchTheCallingThread() {
+    // odd sized bands, so that a band can start on a row that doesn't have its own chroma row
+    int width = 648;
+    int height = 488;
+    byte[] nv21 = random(width, height, 5);
+
+    int[] argb = new int[width * height];
+    int[] argbBands = new int[width * height];
+    Nv21Kernels.toArgb(nv21, width, height, argb);
+    Nv21Kernels.toArgb(nv21, width, height, argbBands, bands);
+    assertArrayEquals(argb, argbBands);
+
+    short[] rgb565 = new short[width * height];
+    short[] rgb565Bands = new short[width * height];
+    Nv21Kernels.toRgb565(nv21, width, height, rgb565);
+    Nv21Kernels.toRgb565(nv21, width, height, rgb565Bands, bands);
+    assertArrayEquals(rgb565, rgb565Bands);
+
+    for(int factor = 2; factor <= 4; factor += 2) {
+      byte[] out = new byte[Nv21Kernels.getBufferSize(width / factor, height / factor)];
+      byte[] outBands = new byte[out.length];
+      Nv21Kernels.downscale(nv21, width, height, factor, out);
+      Nv21Kernels.downscale(nv21, width, height, factor, outBands, bands);
+      assertArrayEquals("factor " + factor, out, outBands);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsOddSizes() {
+    Nv21Kernels.toArgb(new byte[Nv21Kernels.getBufferSize(4, 4)], 3, 4, new int[16]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsSmallOutputs() {
+    Nv21Kernels.toArgb(new byte[Nv21Kernels.getBufferSize(4, 4)], 4, 4, new int[15], bands);
+  }
+
+  private static void assertDownscale(int factor) {
+    int width = 40;
+    int height = 24;
+    byte[] nv21 = random(width, height, factor);
+    byte[] out = new byte[Nv21Kernels.getBufferSize(width / factor, height / factor)];
+    Nv21Kernels.downscale(nv21, width, height, factor, out);
+
+    byte[] luma = averagePlane(nv21, 0, width, height, 1, factor);
+    byte[] chroma = averagePlane(nv21, width * height, width / 2, height / 2, 2, factor);
+    byte[] expected = Arrays.copyOf(luma, luma.length + chroma.length);
+    System.arraycopy(chroma, 0, expected, luma.length, chroma.length);
+    assertArrayEquals(expected, out);
+  }
+
+  // the rounded average of every factor x factor block, separately for each of the sampleBytes interleaved bytes
+  private static byte[] averagePlane(byte[] image, int offset, int width, int height, int sampleBytes, int factor) {
+    int outWidth = width / factor;
+    int outHeight = height / factor;
+    byte[] out = new byte[outWidth * outHeight * sampleBytes];
+    for(int y = 0; y < outHeight; y++) {
+      for(int x = 0; x < outWidth; x++) {
+        for(int s = 0; s < sampleBytes; s++) {
+          int sum = 0;
+          for(int dy = 0; dy < factor; dy++) {
+            for(int dx = 0; dx < factor; dx++) {
+              sum += image[offset + ((y * factor + dy) * width + x * factor + dx) * sampleBytes + s] & 0xFF;
+            }
+          }
+          out[(y * outWidth + x) * sampleBytes + s] = (byte) Math.round(sum / (float) (factor * factor));
+        }
+      }
+    }
+    return out;
+  }
+
+  private static int[] bt601(byte[] nv21, int width, int height, int x, int y) {
+    int uv = width * height + (y / 2) * width + (x / 2) * 2;
+    // like most NV21 converters, luma below black is black before the chroma is added
+    double luma = 1.164 * Math.max(0, (nv21[y * width + x] & 0xFF) - 16);
+    double v = (nv21[uv] & 0xFF) - 128;
+    double u = (nv21[uv + 1] & 0xFF) - 128;
+    return new int[] {
+        clamp(luma + 1.596 * v),
+        clamp(luma - 0.813 * v - 0.391 * u),
+        clamp(luma + 2.018 * u)
+    };
+  }
+
+  private static int clamp(double value) {
+    return (int) Math.max(0, Math.min(255, Math.round(value)));
+  }
+
+  // an image that is made of 2x2 blocks with the given Y, U and V, in a single row of blocks
+  private static byte[] blocks(int[][] yuv) {
+    int width = yuv.length * 2;
+    byte[] nv21 = new byte[Nv21Kernels.getBufferSize(width, 2)];
+    for(int block = 0; block < yuv.length; block++) {
+      for(int dy = 0; dy < 2; dy++) {
+        for(int dx = 0; dx < 2; dx++) {
+          nv21[dy * width + block * 2 + dx] = (byte) yuv[block][0];
+        }
+      }
+      nv21[width * 2 + block * 2] = (byte) yuv[block][2];
+      nv21[width * 2 + block * 2 + 1] = (byte) yuv[block][1];
+    }
+    return nv21;
+  }
+
+  private static byte[] random(int width, int height, long seed) {
+    byte[] nv21 = new byte[Nv21Kernels.getBufferSize(width, height)];
+    new Random(seed).nextBytes(nv21);
+    return nv21;
+  }
+}
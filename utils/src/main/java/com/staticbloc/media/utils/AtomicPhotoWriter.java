@@ -0,0 +1,534 @@
+package com.staticbloc.media.utils;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.annotation.IntDef;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes photos so that a crash never leaves a partially written photo under its final name. A photo is streamed
+ * into a temp file next to its destination through a {@link FileChannel} (using a direct buffer that is reused by
+ * every write on the same thread), synced according to the {@link SyncPolicy}, and then renamed to its destination.
+ *
+ * Syncing a photo's directory after the rename (so that the rename itself survives a power loss) needs
+ * {@link Os#fsync(FileDescriptor)} on a directory, which is only possible on Lollipop and up. On older versions only
+ * the data of the photos is synced.
+ */
+public final class AtomicPhotoWriter {
+  @Retention(RetentionPolicy.SOURCE)
+  @IntDef({SYNC_NONE, SYNC_EVERY_FILE, SYNC_EVERY_N_FILES})
+  public @interface SyncPolicy {}
+
+  // leave it to the OS to write the photo to storage; fastest, but photos written just before a power loss can be lost
+  public static final int SYNC_NONE = 0;
+  // the data of every photo is synced (fdatasync) before it is renamed, and its directory after (Lollipop and up)
+  public static final int SYNC_EVERY_FILE = 1;
+  // photos keep their temp names until n of them are written (see Builder#syncPolicy(int, int)) or sync() is called;
+  // then their data is synced, they're renamed, and their directories are synced (Lollipop and up)
+  public static final int SYNC_EVERY_N_FILES = 2;
+
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  // temp names have to be unique across writers and threads, since batched photos keep theirs until they're synced
+  private static final AtomicLong tempFileCount = new AtomicLong();
+
+  private static AtomicPhotoWriter defaultWriter;
+
+  @SyncPolicy private final int syncPolicy;
+  private final int syncInterval;
+  private final int bufferSize;
+  @Nullable private final SyncErrorListener syncErrorListener;
+
+  private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+    @Override
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocateDirect(bufferSize);
+    }
+  };
+
+  // photos that were written to their temp files, and are waiting to be synced and renamed when using SYNC_EVERY_N_FILES
+  private final List<UnsyncedFile> unsyncedFiles = new ArrayList<>();
+
+  private long filesWritten;
+  private long bytesWritten;
+  private long writeNanos;
+  private long syncCount;
+  private long syncNanos;
+  private long failureCount;
+  private long syncFailureCount;
+
+  public interface SyncErrorListener {
+    /**
+     * Called on the thread that wrote the photo that filled up a group of {@link #SYNC_EVERY_N_FILES} photos, if
+     * syncing or renaming the group failed. That photo was still written, and the photos of the group were renamed if
+     * they could be, so they may be there but not be durable.
+     */
+    void onSyncError(@NonNull IOException e, @NonNull List<File> files);
+  }
+
+  public static final class Builder {
+    /*package*/ int syncPolicy = SYNC_NONE;
+    /*package*/ int syncInterval = 1;
+    /*package*/ int bufferSize = DEFAULT_BUFFER_SIZE;
+    /*package*/ SyncErrorListener syncErrorListener;
+
+    @NonNull
+    public Builder syncPolicy(@SyncPolicy int syncPolicy) {
+      if(syncPolicy == SYNC_EVERY_N_FILES) {
+        throw new IllegalArgumentException("Use syncPolicy(int, int) to set how many photos are written between syncs");
+      }
+      this.syncPolicy = syncPolicy;
+      this.syncInterval = 1;
+      return this;
+    }
+
+    @NonNull
+    public Builder syncPolicy(@SyncPolicy int syncPolicy, @IntRange(from=1) int syncInterval) {
+      if(syncInterval < 1) {
+        throw new IllegalArgumentException("syncInterval must be at least 1");
+      }
+      this.syncPolicy = syncPolicy;
+      this.syncInterval = syncInterval;
+      return this;
+    }
+
+    /**
+     * The size of the direct buffer that photos are written through. Defaults to 64KB.
+     */
+    @NonNull
+    public Builder bufferSize(long bufferSize, @NonNull SizeUnit sizeUnit) {
+      long bytes = sizeUnit.toBytes(bufferSize);
+      if(bytes <= 0 || bytes > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("bufferSize must be positive and less than 2GB");
+      }
+      this.bufferSize = (int) bytes;
+      return this;
+    }
+
+    /**
+     * Notified when a group of {@link #SYNC_EVERY_N_FILES} photos couldn't be synced, since that isn't a failure of the
+     * photo that was being written when it happened.
+     */
+    @NonNull
+    public Builder syncErrorListener(@Nullable SyncErrorListener syncErrorListener) {
+      this.syncErrorListener = syncErrorListener;
+      return this;
+    }
+
+    @NonNull
+    public AtomicPhotoWriter build() {
+      return new AtomicPhotoWriter(this);
+    }
+  }
+
+  private AtomicPhotoWriter(@NonNull Builder builder) {
+    this.syncPolicy = builder.syncPolicy;
+    this.syncInterval = builder.syncInterval;
+    this.bufferSize = builder.bufferSize;
+    this.syncErrorListener = builder.syncErrorListener;
+  }
+
+  /**
+   * @return the writer that {@link PhotoWriter} uses, which doesn't sync
+   */
+  @NonNull
+  public static synchronized AtomicPhotoWriter getDefault() {
+    if(defaultWriter == null) {
+      defaultWriter = new Builder().build();
+    }
+    return defaultWriter;
+  }
+
+  @NonNull
+  public File write(@NonNull byte[] photo, @NonNull File file) {
+    return write(photo, file, true);
+  }
+
+  // mkdirs can be false if the caller already made sure the parent directory exists
+  @NonNull
+  /*package*/ File write(@NonNull final byte[] photo, @NonNull File file, boolean mkdirs) {
+    return write(new PhotoWriter.PhotoSource() {
+      @Override
+      public void writeTo(@NonNull OutputStream out) throws IOException {
+        out.write(photo);
+      }
+    }, file, mkdirs);
+  }
+
+  @NonNull
+  public File write(@NonNull final Bitmap photo, @IntRange(from=1, to=100) final int compressionQuality,
+                    @NonNull final Bitmap.CompressFormat compressionFormat, @NonNull File file) {
+    return write(new PhotoWriter.PhotoSource() {
+      @Override
+      public void writeTo(@NonNull OutputStream out) throws IOException {
+        if(!photo.compress(compressionFormat, compressionQuality, out)) {
+          throw new IOException("The bitmap could not be compressed");
+        }
+      }
+    }, file);
+  }
+
+  /**
+   * @return {@code file}, which won't exist yet if the photo is waiting for the rest of its {@link #SYNC_EVERY_N_FILES}
+   * group to be written
+   */
+  @NonNull
+  public File write(@NonNull PhotoWriter.PhotoSource photo, @NonNull File file) {
+    return write(photo, file, true);
+  }
+
+  @NonNull
+  private File write(@NonNull PhotoWriter.PhotoSource photo, @NonNull File file, boolean mkdirs) {
+    if(mkdirs) {
+      FileUtils.mkdirs(file);
+    }
+
+    long start = System.nanoTime();
+    File temp = new File(file.getParentFile(), "." + file.getName() + "." + tempFileCount.getAndIncrement() + TEMP_SUFFIX);
+    RandomAccessFile out = null;
+    // whether the temp file was renamed, or handed off to be renamed after its group is synced
+    boolean renamed = false;
+    try {
+      out = new RandomAccessFile(temp, "rw");
+      FileChannel channel = out.getChannel();
+      channel.truncate(0);
+
+      ChannelOutputStream stream = new ChannelOutputStream(channel, buffers.get());
+      photo.writeTo(stream);
+      stream.flush();
+
+      long syncStart = System.nanoTime();
+      boolean synced = syncPolicy == SYNC_EVERY_FILE;
+      if(synced) {
+        channel.force(false);
+      }
+      long syncEnd = System.nanoTime();
+
+      out.close();
+      out = null;
+
+      List<UnsyncedFile> group = null;
+      if(syncPolicy == SYNC_EVERY_N_FILES) {
+        group = onUnsyncedFile(new UnsyncedFile(temp, file));
+        renamed = true;
+      }
+      else {
+        rename(temp, file);
+        renamed = true;
+
+        if(synced) {
+          syncDirectory(file.getParentFile());
+          syncEnd = System.nanoTime();
+        }
+      }
+
+      synchronized(this) {
+        filesWritten++;
+        bytesWritten += stream.getCount();
+        writeNanos += syncStart - start;
+        if(synced) {
+          syncCount++;
+          syncNanos += syncEnd - syncStart;
+        }
+      }
+
+      if(group != null) {
+        // the photo itself was written, so a failure to sync its group is reported on its own
+        try {
+          sync(group);
+        }
+        catch(IOException e) {
+          if(syncErrorListener != null) {
+            syncErrorListener.onSyncError(e, getFiles(group));
+          }
+        }
+      }
+
+      return file;
+    }
+    catch(IOException e) {
+      synchronized(this) {
+        failureCount++;
+      }
+      throw new RuntimeException("SimpleCamera got an error while saving a photo to file " + file.getAbsolutePath(), e);
+    }
+    finally {
+      if(out != null) try { out.close(); } catch(Exception ignore) {}
+      if(!renamed) {
+        //noinspection ResultOfMethodCallIgnored
+        temp.delete();
+      }
+    }
+  }
+
+  /**
+   * Syncs and renames any photos that were written with {@link #SYNC_EVERY_N_FILES} and weren't synced yet.
+   */
+  public void sync() throws IOException {
+    List<UnsyncedFile> files;
+    synchronized(unsyncedFiles) {
+      files = new ArrayList<>(unsyncedFiles);
+      unsyncedFiles.clear();
+    }
+    sync(files);
+  }
+
+  @SyncPolicy
+  public int getSyncPolicy() {
+    return syncPolicy;
+  }
+
+  public synchronized long getFilesWritten() {
+    return filesWritten;
+  }
+
+  public synchronized long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * @return the time spent writing photos, not including syncing
+   */
+  public synchronized long getWriteMillis() {
+    return writeNanos / 1000000;
+  }
+
+  public synchronized long getSyncCount() {
+    return syncCount;
+  }
+
+  public synchronized long getSyncMillis() {
+    return syncNanos / 1000000;
+  }
+
+  public synchronized long getFailureCount() {
+    return failureCount;
+  }
+
+  /**
+   * @return how many groups of {@link #SYNC_EVERY_N_FILES} photos couldn't be synced (these aren't counted as failures)
+   */
+  public synchronized long getSyncFailureCount() {
+    return syncFailureCount;
+  }
+
+  /**
+   * @return the number of bytes written per second of writing (not including syncing), or 0 if nothing was written yet
+   */
+  public synchronized long getBytesPerSecond() {
+    return writeNanos == 0 ? 0 : bytesWritten * 1000000000 / writeNanos;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "AtomicPhotoWriter{" +
+        "syncPolicy=" + syncPolicy +
+        ", filesWritten=" + filesWritten +
+        ", bytesWritten=" + bytesWritten +
+        ", writeMillis=" + writeNanos / 1000000 +
+        ", syncCount=" + syncCount +
+        ", syncMillis=" + syncNanos / 1000000 +
+        ", failureCount=" + failureCount +
+        ", syncFailureCount=" + syncFailureCount +
+        '}';
+  }
+
+  // returns the group of photos to sync if this one filled it up
+  @Nullable
+  private List<UnsyncedFile> onUnsyncedFile(@NonNull UnsyncedFile file) {
+    synchronized(unsyncedFiles) {
+      unsyncedFiles.add(file);
+      if(unsyncedFiles.size() < syncInterval) {
+        return null;
+      }
+
+      List<UnsyncedFile> files = new ArrayList<>(unsyncedFiles);
+      unsyncedFiles.clear();
+      return files;
+    }
+  }
+
+  // every photo is synced and renamed even if an earlier one failed, and the first failure is thrown after
+  private void sync(@NonNull List<UnsyncedFile> files) throws IOException {
+    if(files.isEmpty()) {
+      return;
+    }
+
+    long start = System.nanoTime();
+    IOException error = null;
+    for(UnsyncedFile file : files) {
+      // "rw" would create it again if it was deleted since it was written
+      if(!file.temp.exists()) {
+        continue;
+      }
+
+      try {
+        RandomAccessFile raf = new RandomAccessFile(file.temp, "rw");
+        try {
+          raf.getChannel().force(false);
+        }
+        finally {
+          try { raf.close(); } catch(Exception ignore) {}
+        }
+      }
+      catch(IOException e) {
+        if(error == null) error = e;
+      }
+    }
+
+    Set<File> directories = new LinkedHashSet<>();
+    for(UnsyncedFile file : files) {
+      try {
+        rename(file.temp, file.file);
+        directories.add(file.file.getParentFile());
+      }
+      catch(IOException e) {
+        if(error == null) error = e;
+      }
+    }
+
+    for(File directory : directories) {
+      try {
+        syncDirectory(directory);
+      }
+      catch(IOException e) {
+        if(error == null) error = e;
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+
+    synchronized(this) {
+      syncCount++;
+      syncNanos += elapsed;
+      if(error != null) {
+        syncFailureCount++;
+      }
+    }
+
+    if(error != null) {
+      throw error;
+    }
+  }
+
+  private static void rename(@NonNull File temp, @NonNull File file) throws IOException {
+    if(!temp.renameTo(file)) {
+      throw new IOException("Could not rename " + temp.getAbsolutePath() + " to " + file.getAbsolutePath());
+    }
+  }
+
+  // makes the renames into directory durable; opening a directory to sync it isn't possible before Lollipop
+  private static void syncDirectory(@Nullable File directory) throws IOException {
+    if(directory != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+      fsyncDirectory(directory);
+    }
+  }
+
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  private static void fsyncDirectory(@NonNull File directory) throws IOException {
+    try {
+      FileDescriptor fd = Os.open(directory.getAbsolutePath(), OsConstants.O_RDONLY, 0);
+      try {
+        Os.fsync(fd);
+      }
+      finally {
+        try { Os.close(fd); } catch(ErrnoException ignore) {}
+      }
+    }
+    catch(ErrnoException e) {
+      throw new IOException("Could not sync directory " + directory.getAbsolutePath(), e);
+    }
+  }
+
+  @NonNull
+  private static List<File> getFiles(@NonNull List<UnsyncedFile> files) {
+    List<File> result = new ArrayList<>(files.size());
+    for(UnsyncedFile file : files) {
+      result.add(file.file);
+    }
+    return result;
+  }
+
+  private static final class UnsyncedFile {
+    private final File temp;
+    private final File file;
+
+    private UnsyncedFile(@NonNull File temp, @NonNull File file) {
+      this.temp = temp;
+      this.file = file;
+    }
+  }
+
+  private static final class ChannelOutputStream extends OutputStream {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private long count;
+
+    private ChannelOutputStream(@NonNull FileChannel channel, @NonNull ByteBuffer buffer) {
+      this.channel = channel;
+      this.buffer = buffer;
+      buffer.clear();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if(!buffer.hasRemaining()) {
+        drain();
+      }
+      buffer.put((byte) b);
+      count++;
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+      count += len;
+      while(len > 0) {
+        if(!buffer.hasRemaining()) {
+          drain();
+        }
+        int chunk = Math.min(len, buffer.remaining());
+        buffer.put(b, off, chunk);
+        off += chunk;
+        len -= chunk;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      drain();
+    }
+
+    private void drain() throws IOException {
+      buffer.flip();
+      while(buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    private long getCount() {
+      return count;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package com.staticbloc.media.utils;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds on to mutable {@link Bitmap}s so they can be reused (e.g. through {@code BitmapFactory.Options.inBitmap})
+ * instead of being allocated for every photo. Bitmaps are matched on their exact width, height, and config,
+ * and the least recently used sizes are evicted once the pool holds more than {@code maxBytes}.
+ */
+public final class BitmapPool {
+  private final long maxBytes;
+  private long currentBytes;
+
+  // access ordered, so the first entry is the least recently used size
+  private final LinkedHashMap<Key, ArrayDeque<Bitmap>> bitmaps = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long hitCount;
+  private long missCount;
+  private long evictionCount;
+
+  public BitmapPool(long maxBytes, @NonNull SizeUnit sizeUnit) {
+    this.maxBytes = sizeUnit.toBytes(maxBytes);
+    if(this.maxBytes < 0) {
+      throw new IllegalArgumentException("maxBytes must not be negative");
+    }
+  }
+
+  /**
+   * @return a pooled {@link Bitmap} that has the same dimensions and config, or null if there isn't one.
+   * The contents of the {@code Bitmap} are undefined.
+   */
+  @Nullable
+  public synchronized Bitmap get(int width, int height, @NonNull Bitmap.Config config) {
+    Key key = new Key(width, height, config);
+    ArrayDeque<Bitmap> group = bitmaps.get(key);
+    Bitmap bitmap = group == null ? null : group.pollLast();
+    if(bitmap == null) {
+      missCount++;
+      return null;
+    }
+
+    if(group.isEmpty()) {
+      bitmaps.remove(key);
+    }
+    currentBytes -= bitmap.getByteCount();
+    hitCount++;
+    return bitmap;
+  }
+
+  /**
+   * @return a pooled {@link Bitmap} if there is one that fits, otherwise a newly allocated mutable one.
+   * The contents of the {@code Bitmap} are undefined.
+   */
+  @NonNull
+  public Bitmap getOrCreate(int width, int height, @NonNull Bitmap.Config config) {
+    Bitmap bitmap = get(width, height, config);
+    if(bitmap == null) {
+      bitmap = Bitmap.createBitmap(width, height, config);
+    }
+    return bitmap;
+  }
+
+  /**
+   * Hands {@code bitmap} to the pool. The caller must not use it afterwards.
+   * Bitmaps that can't be reused are recycled.
+   */
+  public void put(@Nullable Bitmap bitmap) {
+    if(bitmap == null || bitmap.isRecycled()) {
+      return;
+    }
+
+    if(!bitmap.isMutable() || bitmap.getConfig() == null || bitmap.getByteCount() > maxBytes) {
+      bitmap.recycle();
+      return;
+    }
+
+    synchronized(this) {
+      Key key = new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+      ArrayDeque<Bitmap> group = bitmaps.get(key);
+      if(group == null) {
+        group = new ArrayDeque<>();
+        bitmaps.put(key, group);
+      }
+      group.addLast(bitmap);
+      currentBytes += bitmap.getByteCount();
+
+      trimTo(maxBytes);
+    }
+  }
+
+  /**
+   * Recycles every pooled {@link Bitmap}.
+   */
+  public synchronized void clear() {
+    trimTo(0);
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public synchronized long getCurrentBytes() {
+    return currentBytes;
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "BitmapPool{" +
+        "maxBytes=" + maxBytes +
+        ", currentBytes=" + currentBytes +
+        ", hitCount=" + hitCount +
+        ", missCount=" + missCount +
+        ", evictionCount=" + evictionCount +
+        '}';
+  }
+
+  private void trimTo(long bytes) {
+    Iterator<Map.Entry<Key, ArrayDeque<Bitmap>>> groups = bitmaps.entrySet().iterator();
+    while(currentBytes > bytes && groups.hasNext()) {
+      ArrayDeque<Bitmap> group = groups.next().getValue();
+      while(currentBytes > bytes && !group.isEmpty()) {
+        Bitmap evicted = group.pollFirst();
+        currentBytes -= evicted.getByteCount();
+        evicted.recycle();
+        evictionCount++;
+      }
+
+      if(group.isEmpty()) {
+        groups.remove();
+      }
+    }
+  }
+
+  private static final class Key {
+    private final int width;
+    private final int height;
+    private final Bitmap.Config config;
+
+    private Key(int width, int height, @NonNull Bitmap.Config config) {
+      this.width = width;
+      this.height = height;
+      this.config = config;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if(this == o) return true;
+      if(o == null || getClass() != o.getClass()) return false;
+
+      Key key = (Key) o;
+      return width == key.width && height == key.height && config == key.config;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = width;
+      result = 31 * result + height;
+      result = 31 * result + config.hashCode();
+      return result;
+    }
+  }
+}
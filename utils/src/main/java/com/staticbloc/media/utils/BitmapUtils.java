@@ -1,7 +1,14 @@
 package com.staticbloc.media.utils;
 
 import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.staticbloc.media.imaging.ExifUtils;
+import com.staticbloc.media.imaging.Nv21Kernels;
+import com.staticbloc.media.imaging.RowBands;
 
 import java.io.ByteArrayOutputStream;
 
@@ -18,4 +25,110 @@ public class BitmapUtils {
       if(out != null) try { out.close(); } catch(Exception ignore) {}
     }
   }
+
+  /**
+   * Encodes {@code bitmap} as a JPEG with the highest quality that fits in {@code budget}, bisecting the quality range.
+   * The returned {@link EncodedJpeg} must be released once it's no longer needed.
+   */
+  @NonNull
+  public static EncodedJpeg encodeJpeg(@NonNull Bitmap bitmap, @NonNull JpegBudget budget) {
+    long maxBytes = budget.getMaxBytes();
+    long goodEnough = (long) (maxBytes * (1 - budget.getTolerance()));
+    int initialCapacity = (int) Math.min(maxBytes + 1, (long) bitmap.getWidth() * bitmap.getHeight());
+
+    PooledByteArrayOutputStream best = null;
+    int bestQuality = 0;
+    PooledByteArrayOutputStream scratch = PooledByteArrayOutputStream.obtain(initialCapacity);
+    int encodeCount = 0;
+
+    try {
+      int minQuality = budget.getMinQuality();
+      int maxQuality = budget.getMaxQuality();
+      // the highest quality known to fit, and the lowest known not to
+      int low = minQuality - 1;
+      int high = maxQuality + 1;
+
+      int quality = maxQuality;
+      while(true) {
+        scratch.reset();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, quality, scratch);
+        encodeCount++;
+
+        int size = scratch.size();
+        if(size <= maxBytes) {
+          PooledByteArrayOutputStream previous = best;
+          best = scratch;
+          bestQuality = quality;
+          scratch = previous != null ? previous : PooledByteArrayOutputStream.obtain(initialCapacity);
+
+          low = quality;
+          if(size >= goodEnough) {
+            break;
+          }
+        }
+        else {
+          high = quality;
+        }
+
+        if(high - low <= 1) {
+          break;
+        }
+
+        // if max quality doesn't fit, try min quality next, since there is nothing to search if that doesn't fit either
+        quality = low < minQuality ? minQuality : (low + high) >>> 1;
+      }
+
+      if(best == null) {
+        // nothing fit, so go with the lowest quality
+        EncodedJpeg jpeg = new EncodedJpeg(scratch, budget.getMinQuality(), encodeCount, false);
+        scratch = null;
+        return jpeg;
+      }
+
+      EncodedJpeg jpeg = new EncodedJpeg(best, bestQuality, encodeCount, true);
+      best = null;
+      return jpeg;
+    }
+    finally {
+      if(scratch != null) PooledByteArrayOutputStream.release(scratch);
+      if(best != null) PooledByteArrayOutputStream.release(best);
+    }
+  }
+
+  /**
+   * Encodes an NV21 image (e.g. a camera preview frame) as a JPEG whose EXIF orientation is {@code orientation}.
+   */
+  @NonNull
+  public static byte[] nv21ToJpeg(@NonNull byte[] nv21, int width, int height, int quality, int orientation) {
+    PooledByteArrayOutputStream out = PooledByteArrayOutputStream.obtain(width * height / 2);
+    try {
+      YuvImage image = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+      if(!image.compressToJpeg(new Rect(0, 0, width, height), quality, out)) {
+        throw new IllegalStateException("Could not encode a " + width + "x" + height + " NV21 image");
+      }
+      byte[] jpeg = ExifUtils.withOrientation(out.getBuffer(), out.size(), orientation);
+      // the buffer goes back to the pool
+      return jpeg == out.getBuffer() ? out.toByteArray() : jpeg;
+    }
+    finally {
+      PooledByteArrayOutputStream.release(out);
+    }
+  }
+
+  /**
+   * Converts an NV21 image (e.g. a camera preview frame) into {@code bitmap}, which has to be a mutable ARGB_8888 bitmap
+   * of the same size, going through {@code argb} (at least {@code width * height} pixels) instead of a JPEG.
+   * Reusing {@code bitmap} and {@code argb} for every frame means nothing is allocated.
+   *
+   * @param bands splits the conversion over several threads, or null to convert on the calling thread
+   */
+  public static void nv21ToBitmap(@NonNull byte[] nv21, int width, int height, @NonNull int[] argb, @NonNull Bitmap bitmap, @Nullable RowBands bands) {
+    if(bitmap.getWidth() != width || bitmap.getHeight() != height) {
+      throw new IllegalArgumentException("A " + width + "x" + height + " NV21 image can't be converted into a " +
+          bitmap.getWidth() + "x" + bitmap.getHeight() + " bitmap");
+    }
+
+    Nv21Kernels.toArgb(nv21, width, height, argb, bands);
+    bitmap.setPixels(argb, 0, width, 0, 0, width, height);
+  }
 }
@@ -0,0 +1,73 @@
+package com.staticbloc.media.utils;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A JPEG that was encoded into a pooled buffer. {@link #release()} returns the buffer to the pool;
+ * the {@code EncodedJpeg} can't be used after that.
+ */
+public final class EncodedJpeg implements PhotoWriter.PhotoSource {
+  private PooledByteArrayOutputStream buffer;
+  private final int quality;
+  private final int encodeCount;
+  private final boolean withinBudget;
+
+  /*package*/ EncodedJpeg(@NonNull PooledByteArrayOutputStream buffer, int quality, int encodeCount, boolean withinBudget) {
+    this.buffer = buffer;
+    this.quality = quality;
+    this.encodeCount = encodeCount;
+    this.withinBudget = withinBudget;
+  }
+
+  public int getQuality() {
+    return quality;
+  }
+
+  public int getSize() {
+    return getBuffer().size();
+  }
+
+  /**
+   * @return how many times the photo was encoded to find this quality
+   */
+  public int getEncodeCount() {
+    return encodeCount;
+  }
+
+  /**
+   * @return false if the JPEG is bigger than the budget, because even the lowest allowed quality didn't fit
+   */
+  public boolean isWithinBudget() {
+    return withinBudget;
+  }
+
+  @NonNull
+  public byte[] toByteArray() {
+    PooledByteArrayOutputStream buffer = getBuffer();
+    return Arrays.copyOf(buffer.getBuffer(), buffer.size());
+  }
+
+  @Override
+  public void writeTo(@NonNull OutputStream out) throws IOException {
+    getBuffer().writeTo(out);
+  }
+
+  public void release() {
+    if(buffer != null) {
+      PooledByteArrayOutputStream.release(buffer);
+      buffer = null;
+    }
+  }
+
+  @NonNull
+  private PooledByteArrayOutputStream getBuffer() {
+    if(buffer == null) {
+      throw new IllegalStateException("The EncodedJpeg was already released");
+    }
+    return buffer;
+  }
+}
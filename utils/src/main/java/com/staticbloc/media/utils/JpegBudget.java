@@ -0,0 +1,69 @@
+package com.staticbloc.media.utils;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+
+/**
+ * Limits the size of an encoded JPEG. The highest quality within {@link #qualityRange(int, int)} whose JPEG
+ * is at most {@code maxBytes} is searched for (see {@link BitmapUtils#encodeJpeg(android.graphics.Bitmap, JpegBudget)}).
+ */
+public final class JpegBudget {
+  /*package*/ static final int DEFAULT_MIN_QUALITY = 30;
+  /*package*/ static final int DEFAULT_MAX_QUALITY = 100;
+  // a JPEG that fits and is at least this close to maxBytes is good enough to stop searching
+  /*package*/ static final float DEFAULT_TOLERANCE = 0.05f;
+
+  private final long maxBytes;
+  private int minQuality = DEFAULT_MIN_QUALITY;
+  private int maxQuality = DEFAULT_MAX_QUALITY;
+  private float tolerance = DEFAULT_TOLERANCE;
+
+  public JpegBudget(long maxBytes, @NonNull SizeUnit sizeUnit) {
+    this.maxBytes = sizeUnit.toBytes(maxBytes);
+    if(this.maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive");
+    }
+  }
+
+  /**
+   * Defaults to 30 - 100. If even {@code minQuality} doesn't fit in the budget, the JPEG is encoded with {@code minQuality}.
+   */
+  @NonNull
+  public JpegBudget qualityRange(@IntRange(from=1, to=100) int minQuality, @IntRange(from=1, to=100) int maxQuality) {
+    if(minQuality < 1 || maxQuality > 100 || minQuality > maxQuality) {
+      throw new IllegalArgumentException("The quality range must be within 1 - 100 (was " + minQuality + " - " + maxQuality + ")");
+    }
+    this.minQuality = minQuality;
+    this.maxQuality = maxQuality;
+    return this;
+  }
+
+  /**
+   * Stop searching once a JPEG fits within {@code tolerance} (a fraction of {@code maxBytes}) below the budget.
+   * A higher tolerance means fewer encodes, but possibly a lower quality. Defaults to 0.05.
+   */
+  @NonNull
+  public JpegBudget tolerance(float tolerance) {
+    if(tolerance < 0 || tolerance >= 1) {
+      throw new IllegalArgumentException("tolerance must be at least 0 and less than 1");
+    }
+    this.tolerance = tolerance;
+    return this;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public int getMinQuality() {
+    return minQuality;
+  }
+
+  public int getMaxQuality() {
+    return maxQuality;
+  }
+
+  public float getTolerance() {
+    return tolerance;
+  }
+}
@@ -0,0 +1,204 @@
+package com.staticbloc.media.utils;
+
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A photo that was handed to a {@link PhotoPersistenceQueue}. Until it is persisted, the JPEG is kept in memory
+ * and can be read with {@link #getJpeg()}.
+ */
+public final class PendingPhoto {
+  public interface OnPersistedListener {
+    /**
+     * @param t the reason the photo couldn't be written, or null if it was persisted
+     */
+    void onPhotoPersisted(@Nullable Throwable t, @NonNull PendingPhoto photo);
+  }
+
+  private final File file;
+  private final int size;
+  private final PhotoPersistenceQueue queue;
+  private final CountDownLatch done = new CountDownLatch(1);
+
+  private byte[] jpeg;
+  private boolean persisted;
+  private boolean cancelled;
+  private Throwable error;
+
+  private OnPersistedListener listener;
+  private Handler listenerHandler;
+
+  /*package*/ PendingPhoto(@NonNull byte[] jpeg, @NonNull File file, @NonNull PhotoPersistenceQueue queue) {
+    this.jpeg = jpeg;
+    this.file = file;
+    this.size = jpeg.length;
+    this.queue = queue;
+  }
+
+  @NonNull
+  public File getFile() {
+    return file;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * @return the JPEG, or null once it was persisted (or failed, or was cancelled)
+   */
+  @Nullable
+  public synchronized byte[] getJpeg() {
+    return jpeg;
+  }
+
+  public synchronized boolean isPersisted() {
+    return persisted;
+  }
+
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * @return the reason the photo couldn't be written, or null if it is pending or was persisted
+   */
+  @Nullable
+  public synchronized Throwable getError() {
+    return error;
+  }
+
+  /**
+   * Calls {@code listener} once the photo is persisted or fails, on {@code handler} if there is one, otherwise on the
+   * {@link PhotoPersistenceQueue}'s thread. If that already happened, {@code listener} is called right away.
+   * A cancelled photo never calls its listener.
+   */
+  public void setOnPersistedListener(@Nullable OnPersistedListener listener, @Nullable Handler handler) {
+    boolean finished;
+    synchronized(this) {
+      this.listener = listener;
+      this.listenerHandler = handler;
+      finished = (persisted || error != null) && !cancelled;
+    }
+
+    if(finished && listener != null) {
+      notifyListener(listener, handler);
+    }
+  }
+
+  /**
+   * Blocks until the photo is persisted, fails, or is cancelled.
+   *
+   * @return true if the photo was persisted
+   */
+  public boolean awaitPersisted() throws InterruptedException {
+    done.await();
+    return isPersisted();
+  }
+
+  /**
+   * Blocks until the photo is persisted, fails, or is cancelled, or until {@code timeout} elapses.
+   *
+   * @return true if the photo was persisted
+   */
+  public boolean awaitPersisted(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+    return done.await(timeout, unit) && isPersisted();
+  }
+
+  /**
+   * Removes the photo from its queue if it wasn't written yet, otherwise deletes the file.
+   *
+   * @return false if the photo was already cancelled
+   */
+  public boolean cancel() {
+    boolean wasPersisted;
+    synchronized(this) {
+      if(cancelled) {
+        return false;
+      }
+      cancelled = true;
+      wasPersisted = persisted;
+      jpeg = null;
+    }
+
+    queue.remove(this);
+    if(wasPersisted) {
+      //noinspection ResultOfMethodCallIgnored
+      file.delete();
+    }
+    done.countDown();
+    return true;
+  }
+
+  // called on the queue's thread once the photo was written; returns false if it was cancelled in the meantime
+  /*package*/ boolean onPersisted() {
+    OnPersistedListener listener;
+    Handler handler;
+    synchronized(this) {
+      if(cancelled) {
+        return false;
+      }
+      persisted = true;
+      jpeg = null;
+      listener = this.listener;
+      handler = this.listenerHandler;
+    }
+
+    done.countDown();
+    if(listener != null) {
+      notifyListener(listener, handler);
+    }
+    return true;
+  }
+
+  /*package*/ void onFailed(@NonNull Throwable t) {
+    OnPersistedListener listener;
+    Handler handler;
+    synchronized(this) {
+      if(cancelled) {
+        return;
+      }
+      error = t;
+      jpeg = null;
+      listener = this.listener;
+      handler = this.listenerHandler;
+    }
+
+    done.countDown();
+    if(listener != null) {
+      notifyListener(listener, handler);
+    }
+  }
+
+  private void notifyListener(@NonNull final OnPersistedListener listener, @Nullable Handler handler) {
+    Runnable callback = new Runnable() {
+      @Override
+      public void run() {
+        listener.onPhotoPersisted(getError(), PendingPhoto.this);
+      }
+    };
+
+    if(handler != null) {
+      handler.post(callback);
+    }
+    else {
+      callback.run();
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "PendingPhoto{" +
+        "file=" + file +
+        ", size=" + size +
+        ", persisted=" + persisted +
+        ", cancelled=" + cancelled +
+        ", error=" + error +
+        '}';
+  }
+}
@@ -0,0 +1,342 @@
+package com.staticbloc.media.utils;
+
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes photos behind the caller's back on its own I/O thread, so that capturing a photo doesn't wait on storage.
+ * Everything that is waiting when the thread wakes up is written as one batch, and each directory in a batch is
+ * only created once. {@link #enqueue(byte[], File)} blocks while more than {@code maxPendingBytes} are waiting.
+ * <p>
+ * The writer is synced after every batch, so a photo is only reported as persisted once its file is in place, even
+ * with {@link AtomicPhotoWriter#SYNC_EVERY_N_FILES}; the groups just can't be bigger than a batch.
+ */
+public final class PhotoPersistenceQueue {
+  public interface OnProgressListener {
+    void onProgress(int pendingPhotos, long pendingBytes, long persistedPhotos, long failedPhotos);
+  }
+
+  private final long maxPendingBytes;
+  private final AtomicPhotoWriter writer;
+  private final Thread thread;
+
+  private final ArrayDeque<PendingPhoto> pending = new ArrayDeque<>();
+  // bytes that were enqueued and aren't written yet (including the batch that is being written)
+  private long pendingBytes;
+  private int pendingPhotos;
+  private boolean shutdown;
+
+  // only touched on the I/O thread
+  private final Set<File> createdDirectories = new HashSet<>();
+
+  private long persistedCount;
+  private long failedCount;
+  private long batchCount;
+
+  private OnProgressListener progressListener;
+  private Handler progressHandler;
+
+  public PhotoPersistenceQueue(long maxPendingBytes, @NonNull SizeUnit sizeUnit) {
+    this(maxPendingBytes, sizeUnit, AtomicPhotoWriter.getDefault());
+  }
+
+  public PhotoPersistenceQueue(long maxPendingBytes, @NonNull SizeUnit sizeUnit, @NonNull AtomicPhotoWriter writer) {
+    this.maxPendingBytes = sizeUnit.toBytes(maxPendingBytes);
+    if(this.maxPendingBytes <= 0) {
+      throw new IllegalArgumentException("maxPendingBytes must be positive");
+    }
+    this.writer = writer;
+
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        writeBatches();
+      }
+    }, "PhotoPersistenceQueue");
+    thread.start();
+  }
+
+  /**
+   * Queues {@code jpeg} to be written to {@code file}. Blocks while the queue is full, unless it is empty
+   * (so a photo bigger than {@code maxPendingBytes} can still be written).
+   */
+  @NonNull
+  public PendingPhoto enqueue(@NonNull byte[] jpeg, @NonNull File file) throws InterruptedException {
+    PendingPhoto photo = new PendingPhoto(jpeg, file, this);
+    synchronized(this) {
+      while(!shutdown && pendingPhotos > 0 && pendingBytes + jpeg.length > maxPendingBytes) {
+        wait();
+      }
+
+      if(shutdown) {
+        throw new IllegalStateException("Cannot enqueue a photo after the PhotoPersistenceQueue was shut down");
+      }
+
+      pending.addLast(photo);
+      pendingPhotos++;
+      pendingBytes += jpeg.length;
+      notifyAll();
+    }
+    notifyProgress();
+    return photo;
+  }
+
+  /**
+   * Called on {@code handler} whenever a photo is enqueued, written, or cancelled. If there is no {@code handler},
+   * it is called on whichever thread did that.
+   */
+  public synchronized void setOnProgressListener(@Nullable OnProgressListener progressListener, @Nullable Handler handler) {
+    this.progressListener = progressListener;
+    this.progressHandler = handler;
+  }
+
+  /**
+   * Writes and syncs what is still pending, and then stops the queue's thread.
+   */
+  public synchronized void shutdown() {
+    shutdown = true;
+    notifyAll();
+  }
+
+  /**
+   * Blocks until every photo that was enqueued so far is written.
+   */
+  public synchronized void awaitIdle() throws InterruptedException {
+    while(pendingPhotos > 0) {
+      wait();
+    }
+  }
+
+  public long getMaxPendingBytes() {
+    return maxPendingBytes;
+  }
+
+  public synchronized int getPendingPhotos() {
+    return pendingPhotos;
+  }
+
+  public synchronized long getPendingBytes() {
+    return pendingBytes;
+  }
+
+  public synchronized long getPersistedCount() {
+    return persistedCount;
+  }
+
+  public synchronized long getFailedCount() {
+    return failedCount;
+  }
+
+  public synchronized long getBatchCount() {
+    return batchCount;
+  }
+
+  @NonNull
+  public AtomicPhotoWriter getWriter() {
+    return writer;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "PhotoPersistenceQueue{" +
+        "maxPendingBytes=" + maxPendingBytes +
+        ", pendingPhotos=" + pendingPhotos +
+        ", pendingBytes=" + pendingBytes +
+        ", persistedCount=" + persistedCount +
+        ", failedCount=" + failedCount +
+        ", batchCount=" + batchCount +
+        '}';
+  }
+
+  /*package*/ void remove(@NonNull PendingPhoto photo) {
+    boolean removed;
+    synchronized(this) {
+      removed = pending.remove(photo);
+      if(removed) {
+        pendingPhotos--;
+        pendingBytes -= photo.getSize();
+        notifyAll();
+      }
+    }
+
+    if(removed) {
+      notifyProgress();
+    }
+  }
+
+  private void writeBatches() {
+    List<PendingPhoto> batch = new ArrayList<>();
+    List<PendingPhoto> written = new ArrayList<>();
+    while(true) {
+      synchronized(this) {
+        while(pending.isEmpty() && !shutdown) {
+          try {
+            wait();
+          }
+          catch(InterruptedException e) {
+            // the thread is only stopped through shutdown
+          }
+        }
+
+        if(pending.isEmpty()) {
+          return;
+        }
+
+        batch.addAll(pending);
+        pending.clear();
+        batchCount++;
+      }
+
+      createDirectories(batch);
+      for(PendingPhoto photo : batch) {
+        if(write(photo)) {
+          written.add(photo);
+        }
+      }
+      batch.clear();
+
+      // photos that are waiting for the rest of their group would otherwise only be temp files
+      IOException syncError = null;
+      try {
+        writer.sync();
+      }
+      catch(IOException e) {
+        syncError = e;
+      }
+      for(PendingPhoto photo : written) {
+        onWritten(photo, syncError);
+      }
+      written.clear();
+    }
+  }
+
+  private void createDirectories(@NonNull List<PendingPhoto> batch) {
+    for(PendingPhoto photo : batch) {
+      File directory = photo.getFile().getParentFile();
+      if(directory != null && !createdDirectories.contains(directory)) {
+        try {
+          FileUtils.mkdirs(photo.getFile());
+          createdDirectories.add(directory);
+        }
+        catch(RuntimeException ignore) {
+          // the photo will fail when it is written
+        }
+      }
+    }
+  }
+
+  /**
+   * @return true if {@code photo} was written, and is waiting for the batch to be synced
+   */
+  private boolean write(@NonNull PendingPhoto photo) {
+    byte[] jpeg = photo.getJpeg();
+    if(jpeg == null) {
+      onDone(photo, false);
+      return false;
+    }
+
+    try {
+      writeToDirectory(jpeg, photo.getFile());
+      return true;
+    }
+    catch(RuntimeException e) {
+      onFailed(photo, e);
+      return false;
+    }
+  }
+
+  private void onWritten(@NonNull PendingPhoto photo, @Nullable IOException syncError) {
+    // a photo whose sync failed was still renamed into place, unless the rename is what failed
+    if(syncError != null && !photo.getFile().exists()) {
+      onFailed(photo, syncError);
+      return;
+    }
+
+    boolean persisted = photo.onPersisted();
+    if(!persisted) {
+      // it was cancelled while it was being written
+      //noinspection ResultOfMethodCallIgnored
+      photo.getFile().delete();
+    }
+    onDone(photo, persisted);
+  }
+
+  private void onFailed(@NonNull PendingPhoto photo, @NonNull Throwable t) {
+    photo.onFailed(t);
+    synchronized(this) {
+      failedCount++;
+    }
+    onDone(photo, false);
+  }
+
+  private void onDone(@NonNull PendingPhoto photo, boolean persisted) {
+    synchronized(this) {
+      if(persisted) {
+        persistedCount++;
+      }
+      pendingPhotos--;
+      pendingBytes -= photo.getSize();
+      notifyAll();
+    }
+    notifyProgress();
+  }
+
+  private void writeToDirectory(@NonNull byte[] jpeg, @NonNull File file) {
+    File directory = file.getParentFile();
+    boolean created = directory != null && createdDirectories.contains(directory);
+    try {
+      writer.write(jpeg, file, !created);
+    }
+    catch(RuntimeException e) {
+      // the directory could have been deleted since it was created
+      if(!created || directory.exists()) {
+        throw e;
+      }
+      createdDirectories.remove(directory);
+      writer.write(jpeg, file, true);
+    }
+  }
+
+  private void notifyProgress() {
+    final OnProgressListener listener;
+    Handler handler;
+    final int pendingPhotos;
+    final long pendingBytes;
+    final long persistedCount;
+    final long failedCount;
+    synchronized(this) {
+      listener = progressListener;
+      handler = progressHandler;
+      pendingPhotos = this.pendingPhotos;
+      pendingBytes = this.pendingBytes;
+      persistedCount = this.persistedCount;
+      failedCount = this.failedCount;
+    }
+
+    if(listener == null) {
+      return;
+    }
+
+    Runnable callback = new Runnable() {
+      @Override
+      public void run() {
+        listener.onProgress(pendingPhotos, pendingBytes, persistedCount, failedCount);
+      }
+    };
+    if(handler != null) {
+      handler.post(callback);
+    }
+    else {
+      callback.run();
+    }
+  }
+}
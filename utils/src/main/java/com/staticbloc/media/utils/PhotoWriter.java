@@ -5,27 +5,31 @@ import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 public class PhotoWriter {
   private PhotoWriter() {}
 
+  /**
+   * A photo that is produced while it is being written (e.g. encoded a strip at a time).
+   */
+  public interface PhotoSource {
+    void writeTo(@NonNull OutputStream out) throws IOException;
+  }
+
+  /**
+   * Photos are written atomically, so a crash never leaves a partially written photo at {@code file}
+   * (see {@link AtomicPhotoWriter}).
+   */
   @NonNull
   public static File writePhotoToFile(@NonNull byte[] photo, @NonNull File file) {
-    FileUtils.mkdirs(file);
-
-    FileOutputStream out = null;
-    try {
-      out = new FileOutputStream(file);
-      out.write(photo);
-      return file;
-    } catch (IOException e) {
-      throw new RuntimeException("SimpleCamera got an error while saving a JPEG byte array to file " + file.getAbsolutePath(), e);
-    }
-    finally {
-      if(out != null) try { out.close(); } catch(Exception ignore) {}
-    }
+    return AtomicPhotoWriter.getDefault().write(photo, file);
+  }
+
+  @NonNull
+  public static File writePhotoToFile(@NonNull PhotoSource photo, @NonNull File file) {
+    return AtomicPhotoWriter.getDefault().write(photo, file);
   }
 
   @NonNull
@@ -35,18 +39,6 @@ public class PhotoWriter {
 
   @NonNull
   public static File writePhotoToFile(@NonNull Bitmap photo, @IntRange(from=1, to=100) int compressionQuality, Bitmap.CompressFormat compressionFormat, @NonNull File file) {
-    FileUtils.mkdirs(file);
-
-    FileOutputStream out = null;
-    try {
-      out = new FileOutputStream(file);
-      photo.compress(compressionFormat, compressionQuality, out);
-      return file;
-    } catch (IOException e) {
-      throw new RuntimeException("SimpleCamera got an error while saving a bitmap to file " + file.getAbsolutePath(), e);
-    }
-    finally {
-      if(out != null) try { out.close(); } catch(Exception ignore) {}
-    }
+    return AtomicPhotoWriter.getDefault().write(photo, compressionQuality, compressionFormat, file);
   }
 }
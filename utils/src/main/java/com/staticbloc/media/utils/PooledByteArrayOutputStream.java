@@ -0,0 +1,52 @@
+package com.staticbloc.media.utils;
+
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+
+// a ByteArrayOutputStream whose buffer is exposed, and kept around to be reused
+/*package*/ final class PooledByteArrayOutputStream extends ByteArrayOutputStream {
+  // the pool lives as long as the process, so all of its buffers together are kept to about one full resolution JPEG
+  private static final int MAX_POOLED_BYTES = 8 * 1024 * 1024;
+
+  private static final ArrayDeque<PooledByteArrayOutputStream> pool = new ArrayDeque<>();
+  // guarded by pool
+  private static int pooledBytes;
+
+  private PooledByteArrayOutputStream(int size) {
+    super(size);
+  }
+
+  @NonNull
+  /*package*/ static PooledByteArrayOutputStream obtain(int minCapacity) {
+    PooledByteArrayOutputStream stream;
+    synchronized(pool) {
+      stream = pool.pollLast();
+      if(stream != null) {
+        pooledBytes -= stream.buf.length;
+      }
+    }
+
+    if(stream == null) {
+      return new PooledByteArrayOutputStream(minCapacity);
+    }
+
+    stream.reset();
+    return stream;
+  }
+
+  /*package*/ static void release(@NonNull PooledByteArrayOutputStream stream) {
+    synchronized(pool) {
+      if(pooledBytes + stream.buf.length <= MAX_POOLED_BYTES) {
+        pool.addLast(stream);
+        pooledBytes += stream.buf.length;
+      }
+    }
+  }
+
+  @NonNull
+  /*package*/ byte[] getBuffer() {
+    return buf;
+  }
+}